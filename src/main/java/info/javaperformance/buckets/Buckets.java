@@ -19,6 +19,8 @@
 
 package info.javaperformance.buckets;
 
+import java.util.Arrays;
+
 /**
  * An abstraction for bucket storage for the single threaded maps.
  */
@@ -87,6 +89,34 @@ public class Buckets
         return m_data.getBucket();
     }
 
+    /**
+     * Make all buckets empty. The table keeps its size and encoding.
+     */
+    public void clear()
+    {
+        m_data.clear();
+    }
+
+    /*
+    Stateless versions of the getters above. They decode a bucket previously obtained via {@code get},
+    so they could be used by several reader threads at the same time.
+     */
+
+    public int getOffset( final long bucket )
+    {
+        return m_data.getOffset( bucket );
+    }
+
+    public int getBlockIndex( final long bucket )
+    {
+        return m_data.getBlockIndex( bucket );
+    }
+
+    public int getBlockLength( final long bucket )
+    {
+        return m_data.getBlockLength( bucket );
+    }
+
     public long emptyBucket()
     {
         return 0; //always zero
@@ -173,6 +203,29 @@ public class Buckets
          */
         public long getBucket();
 
+        /**
+         * @param bucket Packed bucket obtained via {@code get}
+         * @return Offset from a given bucket
+         */
+        public int getOffset( final long bucket );
+
+        /**
+         * @param bucket Packed bucket obtained via {@code get}
+         * @return Block index from a given bucket
+         */
+        public int getBlockIndex( final long bucket );
+
+        /**
+         * @param bucket Packed bucket obtained via {@code get}
+         * @return Number of pairs in a given bucket
+         */
+        public int getBlockLength( final long bucket );
+
+        /**
+         * Make all buckets empty
+         */
+        public void clear();
+
         /**
          * @return Currently supported max bucket length which could be stored in a bucket
          */
@@ -201,6 +254,11 @@ public class Buckets
             return false;
         }
 
+        @Override
+        public void clear() {
+            Arrays.fill( m_data, 0 );
+        }
+
         @Override
         public void set( final int index, final long value ) {
             m_data[ index ] = ( int ) value;
@@ -271,6 +329,21 @@ public class Buckets
             return m_bucket;
         }
 
+        @Override
+        public int getOffset( final long bucket ) {
+            return IntBucketEncoding.getOffset( ( int ) bucket );
+        }
+
+        @Override
+        public int getBlockIndex( final long bucket ) {
+            return IntBucketEncoding.getBlockIndex( ( int ) bucket );
+        }
+
+        @Override
+        public int getBlockLength( final long bucket ) {
+            return IntBucketEncoding.getBlockLength( ( int ) bucket );
+        }
+
         @Override
         public int maxEncodedLength() {
             return IntBucketEncoding.MAX_ENCODED_LENGTH;
@@ -297,6 +370,11 @@ public class Buckets
             return true;
         }
 
+        @Override
+        public void clear() {
+            Arrays.fill( m_data, 0 );
+        }
+
         @Override
         public void set( final int index, final long value ) {
             m_data[ index ] = value;
@@ -343,6 +421,21 @@ public class Buckets
             return m_bucket;
         }
 
+        @Override
+        public int getOffset( final long bucket ) {
+            return LongBucketEncoding.getOffset( bucket );
+        }
+
+        @Override
+        public int getBlockIndex( final long bucket ) {
+            return LongBucketEncoding.getBlockIndex( bucket );
+        }
+
+        @Override
+        public int getBlockLength( final long bucket ) {
+            return LongBucketEncoding.getBlockLength( bucket );
+        }
+
         @Override
         public int maxEncodedLength() {
             return LongBucketEncoding.MAX_ENCODED_LENGTH;
@@ -24,7 +24,8 @@ package info.javaperformance.buckets;
  *  A {@code long} contains:
  *  bits  0 - 19: offset in a block (bound by MAX_BLOCK_SIZE=1M)
  *  bits 20 - 27: chain length, can't be zero, FF is used as an indicator that block length is encoded at the start of the bucket
- *  bits 28 - 31: reserved for now, could be used to store encoding scheme or anything else
+ *  bit  28: {@code MOVING} flag, set on the old table buckets while they are copied during rehashing
+ *  bits 29 - 31: reserved for now, could be used to store encoding scheme or anything else
  *  bits 32 - 63: chain id (full int range)
  *
  *  There are 2 forbidden encodings: 0 and 1 (you can never have them due to non zero length requirement)
@@ -43,6 +44,11 @@ public class LongBucketEncoding {
     public static final long EMPTY = 0;
     /** Relocated cell */
     public static final long RELOCATED = 1;
+    /**
+     * Set on an old table bucket while its chain is copied into the new table. Such chain is still readable
+     * (the flag does not overlap with any chain fields), but it can not be updated anymore.
+     */
+    public static final long MOVING = 1L << 28;
 
     /**
      * This method is used to keep the number of blocks under control by gradually increasing the new block
@@ -63,6 +69,16 @@ public class LongBucketEncoding {
         return Math.min(((blocksActive >>> 14) + 1) << 12, MAX_BLOCK_SIZE);
     }
 
+    /**
+     * Check if a bucket has been or is being moved to the new table, so it can not be updated in place
+     * @param bucket Bucket
+     * @return True for {@code RELOCATED} or {@code MOVING} buckets
+     */
+    public static boolean isRelocated( final long bucket )
+    {
+        return bucket == RELOCATED || ( bucket & MOVING ) != 0;
+    }
+
     /**
      * Get chain offset in the block
      * @param bucket Bucket
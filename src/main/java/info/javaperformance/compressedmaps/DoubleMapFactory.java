@@ -21,6 +21,8 @@ package info.javaperformance.compressedmaps;
 
 import info.javaperformance.compressedmaps.normal.doubles.*;
 import info.javaperformance.compressedmaps.concurrent.doubles.*;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
 import info.javaperformance.serializers.*;
 import info.javaperformance.malloc.SingleThreadedBlockAllocator;
 
@@ -51,6 +53,23 @@ public class DoubleMapFactory
         return new DoubleIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IDoubleIntMap singleThreadedDoubleIntMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new DoubleIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IDoubleIntMap singleThreadedDoubleIntMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new DoubleIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IDoubleLongMap singleThreadedDoubleLongMap( final long size, final float fillFactor )
     {
         return new DoubleLongChainedMap( size, fillFactor,
@@ -64,6 +83,23 @@ public class DoubleMapFactory
         return new DoubleLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IDoubleLongMap singleThreadedDoubleLongMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new DoubleLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IDoubleLongMap singleThreadedDoubleLongMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new DoubleLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IDoubleFloatMap singleThreadedDoubleFloatMap( final long size, final float fillFactor )
     {
         return new DoubleFloatChainedMap( size, fillFactor,
@@ -77,6 +113,23 @@ public class DoubleMapFactory
         return new DoubleFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IDoubleFloatMap singleThreadedDoubleFloatMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new DoubleFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IDoubleFloatMap singleThreadedDoubleFloatMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new DoubleFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IDoubleDoubleMap singleThreadedDoubleDoubleMap( final long size, final float fillFactor )
     {
         return new DoubleDoubleChainedMap( size, fillFactor,
@@ -90,6 +143,23 @@ public class DoubleMapFactory
         return new DoubleDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IDoubleDoubleMap singleThreadedDoubleDoubleMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new DoubleDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IDoubleDoubleMap singleThreadedDoubleDoubleMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new DoubleDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static <V> IDoubleObjectMap<V> singleThreadedDoubleObjectMap( final long size, final float fillFactor, final IObjectSerializer<V> valueSerializer )
     {
         return new DoubleObjectChainedMap<>( size, fillFactor,
@@ -103,6 +173,139 @@ public class DoubleMapFactory
         return new DoubleObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static<V> IDoubleObjectMap<V> singleThreadedDoubleObjectMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new DoubleObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static<V> IDoubleObjectMap<V> singleThreadedDoubleObjectMap( final long size, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new DoubleObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IDoubleIntMap singleThreadedDoubleIntMap( final double[] keys, final int[] values, final float fillFactor )
+    {
+        return singleThreadedDoubleIntMap( keys, values, fillFactor,
+            DefaultDoubleSerializer.INSTANCE, DefaultIntSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IDoubleIntMap singleThreadedDoubleIntMap( final double[] keys, final int[] values, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final DoubleIntChainedMap map = new DoubleIntChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IDoubleLongMap singleThreadedDoubleLongMap( final double[] keys, final long[] values, final float fillFactor )
+    {
+        return singleThreadedDoubleLongMap( keys, values, fillFactor,
+            DefaultDoubleSerializer.INSTANCE, DefaultLongSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IDoubleLongMap singleThreadedDoubleLongMap( final double[] keys, final long[] values, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final DoubleLongChainedMap map = new DoubleLongChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IDoubleFloatMap singleThreadedDoubleFloatMap( final double[] keys, final float[] values, final float fillFactor )
+    {
+        return singleThreadedDoubleFloatMap( keys, values, fillFactor,
+            DefaultDoubleSerializer.INSTANCE, DefaultFloatSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IDoubleFloatMap singleThreadedDoubleFloatMap( final double[] keys, final float[] values, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final DoubleFloatChainedMap map = new DoubleFloatChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IDoubleDoubleMap singleThreadedDoubleDoubleMap( final double[] keys, final double[] values, final float fillFactor )
+    {
+        return singleThreadedDoubleDoubleMap( keys, values, fillFactor,
+            DefaultDoubleSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IDoubleDoubleMap singleThreadedDoubleDoubleMap( final double[] keys, final double[] values, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final DoubleDoubleChainedMap map = new DoubleDoubleChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static <V> IDoubleObjectMap<V> singleThreadedDoubleObjectMap( final double[] keys, final V[] values, final float fillFactor,
+                                                                   final IObjectSerializer<V> valueSerializer )
+    {
+        return singleThreadedDoubleObjectMap( keys, values, fillFactor,
+            DefaultDoubleSerializer.INSTANCE, valueSerializer, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static <V> IDoubleObjectMap<V> singleThreadedDoubleObjectMap( final double[] keys, final V[] values, final float fillFactor,
+                                                   final IDoubleSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final DoubleObjectChainedMap<V> map = new DoubleObjectChainedMap<>( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
     /////////////////////////////////////////////////////////////
     //  Concurrent maps
     /////////////////////////////////////////////////////////////
@@ -119,6 +322,23 @@ public class DoubleMapFactory
         return new DoubleIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IDoubleIntConcurrentMap concurrentDoubleIntMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final IIntSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new DoubleIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IDoubleIntConcurrentMap concurrentDoubleIntMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final IIntSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new DoubleIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IDoubleLongConcurrentMap concurrentDoubleLongMap( final long size, final float fillFactor )
     {
         return new DoubleLongConcurrentChainedMap( size, fillFactor, DefaultDoubleSerializer.INSTANCE, DefaultLongSerializer.INSTANCE );
@@ -131,6 +351,23 @@ public class DoubleMapFactory
         return new DoubleLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IDoubleLongConcurrentMap concurrentDoubleLongMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final ILongSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new DoubleLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IDoubleLongConcurrentMap concurrentDoubleLongMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final ILongSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new DoubleLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IDoubleFloatConcurrentMap concurrentDoubleFloatMap( final long size, final float fillFactor )
     {
         return new DoubleFloatConcurrentChainedMap( size, fillFactor, DefaultDoubleSerializer.INSTANCE, DefaultFloatSerializer.INSTANCE );
@@ -143,6 +380,23 @@ public class DoubleMapFactory
         return new DoubleFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IDoubleFloatConcurrentMap concurrentDoubleFloatMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final IFloatSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new DoubleFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IDoubleFloatConcurrentMap concurrentDoubleFloatMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final IFloatSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new DoubleFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IDoubleDoubleConcurrentMap concurrentDoubleDoubleMap( final long size, final float fillFactor )
     {
         return new DoubleDoubleConcurrentChainedMap( size, fillFactor, DefaultDoubleSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE );
@@ -155,6 +409,23 @@ public class DoubleMapFactory
         return new DoubleDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IDoubleDoubleConcurrentMap concurrentDoubleDoubleMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final IDoubleSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new DoubleDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IDoubleDoubleConcurrentMap concurrentDoubleDoubleMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final IDoubleSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new DoubleDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static <V> IDoubleObjectConcurrentMap<V> concurrentDoubleObjectMap( final long size, final float fillFactor, final IObjectSerializer<V> valueSerializer )
     {
         return new DoubleObjectConcurrentChainedMap<>( size, fillFactor, DefaultDoubleSerializer.INSTANCE, valueSerializer );
@@ -167,5 +438,22 @@ public class DoubleMapFactory
         return new DoubleObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static <V> IDoubleObjectConcurrentMap<V> concurrentDoubleObjectMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final IObjectSerializer<V> valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new DoubleObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static <V> IDoubleObjectConcurrentMap<V> concurrentDoubleObjectMap( final long size, final float fillFactor,
+                                                         final IDoubleSerializer keySerializer,
+                                                         final IObjectSerializer<V> valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new DoubleObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
 }
 
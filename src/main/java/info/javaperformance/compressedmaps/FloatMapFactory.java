@@ -21,6 +21,8 @@ package info.javaperformance.compressedmaps;
 
 import info.javaperformance.compressedmaps.normal.floats.*;
 import info.javaperformance.compressedmaps.concurrent.floats.*;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
 import info.javaperformance.serializers.*;
 import info.javaperformance.malloc.SingleThreadedBlockAllocator;
 
@@ -51,6 +53,23 @@ public class FloatMapFactory
         return new FloatIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IFloatIntMap singleThreadedFloatIntMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new FloatIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IFloatIntMap singleThreadedFloatIntMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new FloatIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IFloatLongMap singleThreadedFloatLongMap( final long size, final float fillFactor )
     {
         return new FloatLongChainedMap( size, fillFactor,
@@ -64,6 +83,23 @@ public class FloatMapFactory
         return new FloatLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IFloatLongMap singleThreadedFloatLongMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new FloatLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IFloatLongMap singleThreadedFloatLongMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new FloatLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IFloatFloatMap singleThreadedFloatFloatMap( final long size, final float fillFactor )
     {
         return new FloatFloatChainedMap( size, fillFactor,
@@ -77,6 +113,23 @@ public class FloatMapFactory
         return new FloatFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IFloatFloatMap singleThreadedFloatFloatMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new FloatFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IFloatFloatMap singleThreadedFloatFloatMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new FloatFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IFloatDoubleMap singleThreadedFloatDoubleMap( final long size, final float fillFactor )
     {
         return new FloatDoubleChainedMap( size, fillFactor,
@@ -90,6 +143,23 @@ public class FloatMapFactory
         return new FloatDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IFloatDoubleMap singleThreadedFloatDoubleMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new FloatDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IFloatDoubleMap singleThreadedFloatDoubleMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new FloatDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static <V> IFloatObjectMap<V> singleThreadedFloatObjectMap( final long size, final float fillFactor, final IObjectSerializer<V> valueSerializer )
     {
         return new FloatObjectChainedMap<>( size, fillFactor,
@@ -103,6 +173,139 @@ public class FloatMapFactory
         return new FloatObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static<V> IFloatObjectMap<V> singleThreadedFloatObjectMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new FloatObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static<V> IFloatObjectMap<V> singleThreadedFloatObjectMap( final long size, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new FloatObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IFloatIntMap singleThreadedFloatIntMap( final float[] keys, final int[] values, final float fillFactor )
+    {
+        return singleThreadedFloatIntMap( keys, values, fillFactor,
+            DefaultFloatSerializer.INSTANCE, DefaultIntSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IFloatIntMap singleThreadedFloatIntMap( final float[] keys, final int[] values, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final FloatIntChainedMap map = new FloatIntChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IFloatLongMap singleThreadedFloatLongMap( final float[] keys, final long[] values, final float fillFactor )
+    {
+        return singleThreadedFloatLongMap( keys, values, fillFactor,
+            DefaultFloatSerializer.INSTANCE, DefaultLongSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IFloatLongMap singleThreadedFloatLongMap( final float[] keys, final long[] values, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final FloatLongChainedMap map = new FloatLongChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IFloatFloatMap singleThreadedFloatFloatMap( final float[] keys, final float[] values, final float fillFactor )
+    {
+        return singleThreadedFloatFloatMap( keys, values, fillFactor,
+            DefaultFloatSerializer.INSTANCE, DefaultFloatSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IFloatFloatMap singleThreadedFloatFloatMap( final float[] keys, final float[] values, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final FloatFloatChainedMap map = new FloatFloatChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IFloatDoubleMap singleThreadedFloatDoubleMap( final float[] keys, final double[] values, final float fillFactor )
+    {
+        return singleThreadedFloatDoubleMap( keys, values, fillFactor,
+            DefaultFloatSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IFloatDoubleMap singleThreadedFloatDoubleMap( final float[] keys, final double[] values, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final FloatDoubleChainedMap map = new FloatDoubleChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static <V> IFloatObjectMap<V> singleThreadedFloatObjectMap( final float[] keys, final V[] values, final float fillFactor,
+                                                                   final IObjectSerializer<V> valueSerializer )
+    {
+        return singleThreadedFloatObjectMap( keys, values, fillFactor,
+            DefaultFloatSerializer.INSTANCE, valueSerializer, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static <V> IFloatObjectMap<V> singleThreadedFloatObjectMap( final float[] keys, final V[] values, final float fillFactor,
+                                                   final IFloatSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final FloatObjectChainedMap<V> map = new FloatObjectChainedMap<>( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
     /////////////////////////////////////////////////////////////
     //  Concurrent maps
     /////////////////////////////////////////////////////////////
@@ -119,6 +322,23 @@ public class FloatMapFactory
         return new FloatIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IFloatIntConcurrentMap concurrentFloatIntMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final IIntSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new FloatIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IFloatIntConcurrentMap concurrentFloatIntMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final IIntSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new FloatIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IFloatLongConcurrentMap concurrentFloatLongMap( final long size, final float fillFactor )
     {
         return new FloatLongConcurrentChainedMap( size, fillFactor, DefaultFloatSerializer.INSTANCE, DefaultLongSerializer.INSTANCE );
@@ -131,6 +351,23 @@ public class FloatMapFactory
         return new FloatLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IFloatLongConcurrentMap concurrentFloatLongMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final ILongSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new FloatLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IFloatLongConcurrentMap concurrentFloatLongMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final ILongSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new FloatLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IFloatFloatConcurrentMap concurrentFloatFloatMap( final long size, final float fillFactor )
     {
         return new FloatFloatConcurrentChainedMap( size, fillFactor, DefaultFloatSerializer.INSTANCE, DefaultFloatSerializer.INSTANCE );
@@ -143,6 +380,23 @@ public class FloatMapFactory
         return new FloatFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IFloatFloatConcurrentMap concurrentFloatFloatMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final IFloatSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new FloatFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IFloatFloatConcurrentMap concurrentFloatFloatMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final IFloatSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new FloatFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IFloatDoubleConcurrentMap concurrentFloatDoubleMap( final long size, final float fillFactor )
     {
         return new FloatDoubleConcurrentChainedMap( size, fillFactor, DefaultFloatSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE );
@@ -155,6 +409,23 @@ public class FloatMapFactory
         return new FloatDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IFloatDoubleConcurrentMap concurrentFloatDoubleMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final IDoubleSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new FloatDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IFloatDoubleConcurrentMap concurrentFloatDoubleMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final IDoubleSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new FloatDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static <V> IFloatObjectConcurrentMap<V> concurrentFloatObjectMap( final long size, final float fillFactor, final IObjectSerializer<V> valueSerializer )
     {
         return new FloatObjectConcurrentChainedMap<>( size, fillFactor, DefaultFloatSerializer.INSTANCE, valueSerializer );
@@ -167,5 +438,22 @@ public class FloatMapFactory
         return new FloatObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static <V> IFloatObjectConcurrentMap<V> concurrentFloatObjectMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final IObjectSerializer<V> valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new FloatObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static <V> IFloatObjectConcurrentMap<V> concurrentFloatObjectMap( final long size, final float fillFactor,
+                                                         final IFloatSerializer keySerializer,
+                                                         final IObjectSerializer<V> valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new FloatObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
 }
 
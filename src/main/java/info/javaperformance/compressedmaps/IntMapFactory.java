@@ -21,6 +21,8 @@ package info.javaperformance.compressedmaps;
 
 import info.javaperformance.compressedmaps.normal.ints.*;
 import info.javaperformance.compressedmaps.concurrent.ints.*;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
 import info.javaperformance.serializers.*;
 import info.javaperformance.malloc.SingleThreadedBlockAllocator;
 
@@ -51,6 +53,23 @@ public class IntMapFactory
         return new IntIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IIntIntMap singleThreadedIntIntMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new IntIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IIntIntMap singleThreadedIntIntMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new IntIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IIntLongMap singleThreadedIntLongMap( final long size, final float fillFactor )
     {
         return new IntLongChainedMap( size, fillFactor,
@@ -64,6 +83,23 @@ public class IntMapFactory
         return new IntLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IIntLongMap singleThreadedIntLongMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new IntLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IIntLongMap singleThreadedIntLongMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new IntLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IIntFloatMap singleThreadedIntFloatMap( final long size, final float fillFactor )
     {
         return new IntFloatChainedMap( size, fillFactor,
@@ -77,6 +113,23 @@ public class IntMapFactory
         return new IntFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IIntFloatMap singleThreadedIntFloatMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new IntFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IIntFloatMap singleThreadedIntFloatMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new IntFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static IIntDoubleMap singleThreadedIntDoubleMap( final long size, final float fillFactor )
     {
         return new IntDoubleChainedMap( size, fillFactor,
@@ -90,6 +143,23 @@ public class IntMapFactory
         return new IntDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static IIntDoubleMap singleThreadedIntDoubleMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new IntDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static IIntDoubleMap singleThreadedIntDoubleMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new IntDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static <V> IIntObjectMap<V> singleThreadedIntObjectMap( final long size, final float fillFactor, final IObjectSerializer<V> valueSerializer )
     {
         return new IntObjectChainedMap<>( size, fillFactor,
@@ -103,6 +173,170 @@ public class IntMapFactory
         return new IntObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static<V> IIntObjectMap<V> singleThreadedIntObjectMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new IntObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static<V> IIntObjectMap<V> singleThreadedIntObjectMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new IntObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IIntIntMap singleThreadedIntIntMap( final int[] keys, final int[] values, final float fillFactor )
+    {
+        return singleThreadedIntIntMap( keys, values, fillFactor,
+            DefaultIntSerializer.INSTANCE, DefaultIntSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IIntIntMap singleThreadedIntIntMap( final int[] keys, final int[] values, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final IntIntChainedMap map = new IntIntChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IIntLongMap singleThreadedIntLongMap( final int[] keys, final long[] values, final float fillFactor )
+    {
+        return singleThreadedIntLongMap( keys, values, fillFactor,
+            DefaultIntSerializer.INSTANCE, DefaultLongSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IIntLongMap singleThreadedIntLongMap( final int[] keys, final long[] values, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final IntLongChainedMap map = new IntLongChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IIntFloatMap singleThreadedIntFloatMap( final int[] keys, final float[] values, final float fillFactor )
+    {
+        return singleThreadedIntFloatMap( keys, values, fillFactor,
+            DefaultIntSerializer.INSTANCE, DefaultFloatSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IIntFloatMap singleThreadedIntFloatMap( final int[] keys, final float[] values, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final IntFloatChainedMap map = new IntFloatChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static IIntDoubleMap singleThreadedIntDoubleMap( final int[] keys, final double[] values, final float fillFactor )
+    {
+        return singleThreadedIntDoubleMap( keys, values, fillFactor,
+            DefaultIntSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IIntDoubleMap singleThreadedIntDoubleMap( final int[] keys, final double[] values, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final IntDoubleChainedMap map = new IntDoubleChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static <V> IIntObjectMap<V> singleThreadedIntObjectMap( final int[] keys, final V[] values, final float fillFactor,
+                                                                   final IObjectSerializer<V> valueSerializer )
+    {
+        return singleThreadedIntObjectMap( keys, values, fillFactor,
+            DefaultIntSerializer.INSTANCE, valueSerializer, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static <V> IIntObjectMap<V> singleThreadedIntObjectMap( final int[] keys, final V[] values, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final IntObjectChainedMap<V> map = new IntObjectChainedMap<>( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Create a set storing keys only. Keys are stored in the same delta-encoded chains as the map keys.
+     */
+    public static IIntSet singleThreadedIntSet( final long size, final float fillFactor )
+    {
+        return new IntChainedSet( size, fillFactor, DefaultIntSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IIntSet singleThreadedIntSet( final long size, final float fillFactor,
+                                           final IIntSerializer keySerializer, final long blockCacheLimit )
+    {
+        return new IntChainedSet( size, fillFactor, keySerializer, blockCacheLimit );
+    }
+
+    /**
+     * Create a multimap associating every key with a sorted set of values. Value lists are stored as delta-encoded
+     * runs in memory blocks and appending a largest value usually does not copy the list.
+     */
+    public static IIntIntMultiMap singleThreadedIntIntMultiMap( final long size, final float fillFactor )
+    {
+        return new IntIntMultiMap( size, fillFactor,
+            DefaultIntSerializer.INSTANCE, DefaultIntSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static IIntIntMultiMap singleThreadedIntIntMultiMap( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        return new IntIntMultiMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+    }
+
     /////////////////////////////////////////////////////////////
     //  Concurrent maps
     /////////////////////////////////////////////////////////////
@@ -119,6 +353,23 @@ public class IntMapFactory
         return new IntIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IIntIntConcurrentMap concurrentIntIntMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final IIntSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new IntIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IIntIntConcurrentMap concurrentIntIntMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final IIntSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new IntIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IIntLongConcurrentMap concurrentIntLongMap( final long size, final float fillFactor )
     {
         return new IntLongConcurrentChainedMap( size, fillFactor, DefaultIntSerializer.INSTANCE, DefaultLongSerializer.INSTANCE );
@@ -131,6 +382,23 @@ public class IntMapFactory
         return new IntLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IIntLongConcurrentMap concurrentIntLongMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final ILongSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new IntLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IIntLongConcurrentMap concurrentIntLongMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final ILongSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new IntLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IIntFloatConcurrentMap concurrentIntFloatMap( final long size, final float fillFactor )
     {
         return new IntFloatConcurrentChainedMap( size, fillFactor, DefaultIntSerializer.INSTANCE, DefaultFloatSerializer.INSTANCE );
@@ -143,6 +411,23 @@ public class IntMapFactory
         return new IntFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IIntFloatConcurrentMap concurrentIntFloatMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final IFloatSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new IntFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IIntFloatConcurrentMap concurrentIntFloatMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final IFloatSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new IntFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static IIntDoubleConcurrentMap concurrentIntDoubleMap( final long size, final float fillFactor )
     {
         return new IntDoubleConcurrentChainedMap( size, fillFactor, DefaultIntSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE );
@@ -155,6 +440,23 @@ public class IntMapFactory
         return new IntDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  IIntDoubleConcurrentMap concurrentIntDoubleMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final IDoubleSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new IntDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  IIntDoubleConcurrentMap concurrentIntDoubleMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final IDoubleSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new IntDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static <V> IIntObjectConcurrentMap<V> concurrentIntObjectMap( final long size, final float fillFactor, final IObjectSerializer<V> valueSerializer )
     {
         return new IntObjectConcurrentChainedMap<>( size, fillFactor, DefaultIntSerializer.INSTANCE, valueSerializer );
@@ -167,5 +469,32 @@ public class IntMapFactory
         return new IntObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer );
     }
 
-}
+    public static <V> IIntObjectConcurrentMap<V> concurrentIntObjectMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final IObjectSerializer<V> valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new IntObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static <V> IIntObjectConcurrentMap<V> concurrentIntObjectMap( final long size, final float fillFactor,
+                                                         final IIntSerializer keySerializer,
+                                                         final IObjectSerializer<V> valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new IntObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
+    public static IIntConcurrentSet concurrentIntSet( final long size, final float fillFactor )
+    {
+        return new IntConcurrentChainedSet( size, fillFactor, DefaultIntSerializer.INSTANCE );
+    }
 
+    public static IIntConcurrentSet concurrentIntSet( final long size, final float fillFactor,
+                                                   final IIntSerializer keySerializer )
+    {
+        return new IntConcurrentChainedSet( size, fillFactor, keySerializer );
+    }
+
+}
@@ -21,6 +21,8 @@ package info.javaperformance.compressedmaps;
 
 import info.javaperformance.compressedmaps.normal.longs.*;
 import info.javaperformance.compressedmaps.concurrent.longs.*;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
 import info.javaperformance.serializers.*;
 import info.javaperformance.malloc.SingleThreadedBlockAllocator;
 
@@ -51,6 +53,23 @@ public class LongMapFactory
         return new LongIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static ILongIntMap singleThreadedLongIntMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new LongIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static ILongIntMap singleThreadedLongIntMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new LongIntChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static ILongLongMap singleThreadedLongLongMap( final long size, final float fillFactor )
     {
         return new LongLongChainedMap( size, fillFactor,
@@ -64,6 +83,23 @@ public class LongMapFactory
         return new LongLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static ILongLongMap singleThreadedLongLongMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new LongLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static ILongLongMap singleThreadedLongLongMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new LongLongChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static ILongFloatMap singleThreadedLongFloatMap( final long size, final float fillFactor )
     {
         return new LongFloatChainedMap( size, fillFactor,
@@ -77,6 +113,23 @@ public class LongMapFactory
         return new LongFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static ILongFloatMap singleThreadedLongFloatMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new LongFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static ILongFloatMap singleThreadedLongFloatMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new LongFloatChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static ILongDoubleMap singleThreadedLongDoubleMap( final long size, final float fillFactor )
     {
         return new LongDoubleChainedMap( size, fillFactor,
@@ -90,6 +143,23 @@ public class LongMapFactory
         return new LongDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static ILongDoubleMap singleThreadedLongDoubleMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new LongDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static ILongDoubleMap singleThreadedLongDoubleMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new LongDoubleChainedMap( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
     public static <V> ILongObjectMap<V> singleThreadedLongObjectMap( final long size, final float fillFactor, final IObjectSerializer<V> valueSerializer )
     {
         return new LongObjectChainedMap<>( size, fillFactor,
@@ -103,6 +173,153 @@ public class LongMapFactory
         return new LongObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit );
     }
 
+    public static<V> ILongObjectMap<V> singleThreadedLongObjectMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode )
+    {
+        return new LongObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode );
+    }
+
+    public static<V> ILongObjectMap<V> singleThreadedLongObjectMap( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit,
+                                                   final IndexMode indexMode,
+                                                   final IHashStrategy hashStrategy )
+    {
+        return new LongObjectChainedMap<>( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, hashStrategy );
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static ILongIntMap singleThreadedLongIntMap( final long[] keys, final int[] values, final float fillFactor )
+    {
+        return singleThreadedLongIntMap( keys, values, fillFactor,
+            DefaultLongSerializer.INSTANCE, DefaultIntSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static ILongIntMap singleThreadedLongIntMap( final long[] keys, final int[] values, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IIntSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final LongIntChainedMap map = new LongIntChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static ILongLongMap singleThreadedLongLongMap( final long[] keys, final long[] values, final float fillFactor )
+    {
+        return singleThreadedLongLongMap( keys, values, fillFactor,
+            DefaultLongSerializer.INSTANCE, DefaultLongSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static ILongLongMap singleThreadedLongLongMap( final long[] keys, final long[] values, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final ILongSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final LongLongChainedMap map = new LongLongChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static ILongFloatMap singleThreadedLongFloatMap( final long[] keys, final float[] values, final float fillFactor )
+    {
+        return singleThreadedLongFloatMap( keys, values, fillFactor,
+            DefaultLongSerializer.INSTANCE, DefaultFloatSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static ILongFloatMap singleThreadedLongFloatMap( final long[] keys, final float[] values, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IFloatSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final LongFloatChainedMap map = new LongFloatChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static ILongDoubleMap singleThreadedLongDoubleMap( final long[] keys, final double[] values, final float fillFactor )
+    {
+        return singleThreadedLongDoubleMap( keys, values, fillFactor,
+            DefaultLongSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static ILongDoubleMap singleThreadedLongDoubleMap( final long[] keys, final double[] values, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IDoubleSerializer valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final LongDoubleChainedMap map = new LongDoubleChainedMap( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Build a map out of {@code keys[ i ] -> values[ i ]} pairs. The bucket table is sized for all pairs once and
+     * the pairs are written in the bucket order, every chain only once, so there are neither rehashes nor discarded blocks.
+     * If a key is repeated, the last value wins.
+     * @throws IllegalArgumentException If the arrays have different lengths
+     */
+    public static <V> ILongObjectMap<V> singleThreadedLongObjectMap( final long[] keys, final V[] values, final float fillFactor,
+                                                                   final IObjectSerializer<V> valueSerializer )
+    {
+        return singleThreadedLongObjectMap( keys, values, fillFactor,
+            DefaultLongSerializer.INSTANCE, valueSerializer, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static <V> ILongObjectMap<V> singleThreadedLongObjectMap( final long[] keys, final V[] values, final float fillFactor,
+                                                   final ILongSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                                                   final long blockCacheLimit )
+    {
+        if ( keys.length != values.length )
+            throw new IllegalArgumentException( "Keys and values must have the same length: " + keys.length + " != " + values.length );
+        final LongObjectChainedMap<V> map = new LongObjectChainedMap<>( Math.max( keys.length, 1 ), fillFactor, keySerializer, valueSerializer, blockCacheLimit );
+        map.putAll( keys, values, 0, keys.length );
+        return map;
+    }
+
+    /**
+     * Create a set storing keys only. Keys are stored in the same delta-encoded chains as the map keys.
+     */
+    public static ILongSet singleThreadedLongSet( final long size, final float fillFactor )
+    {
+        return new LongChainedSet( size, fillFactor, DefaultLongSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static ILongSet singleThreadedLongSet( final long size, final float fillFactor,
+                                           final ILongSerializer keySerializer, final long blockCacheLimit )
+    {
+        return new LongChainedSet( size, fillFactor, keySerializer, blockCacheLimit );
+    }
+
     /////////////////////////////////////////////////////////////
     //  Concurrent maps
     /////////////////////////////////////////////////////////////
@@ -119,6 +336,23 @@ public class LongMapFactory
         return new LongIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  ILongIntConcurrentMap concurrentLongIntMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final IIntSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new LongIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  ILongIntConcurrentMap concurrentLongIntMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final IIntSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new LongIntConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static ILongLongConcurrentMap concurrentLongLongMap( final long size, final float fillFactor )
     {
         return new LongLongConcurrentChainedMap( size, fillFactor, DefaultLongSerializer.INSTANCE, DefaultLongSerializer.INSTANCE );
@@ -131,6 +365,23 @@ public class LongMapFactory
         return new LongLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  ILongLongConcurrentMap concurrentLongLongMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final ILongSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new LongLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  ILongLongConcurrentMap concurrentLongLongMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final ILongSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new LongLongConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static ILongFloatConcurrentMap concurrentLongFloatMap( final long size, final float fillFactor )
     {
         return new LongFloatConcurrentChainedMap( size, fillFactor, DefaultLongSerializer.INSTANCE, DefaultFloatSerializer.INSTANCE );
@@ -143,6 +394,23 @@ public class LongMapFactory
         return new LongFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  ILongFloatConcurrentMap concurrentLongFloatMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final IFloatSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new LongFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  ILongFloatConcurrentMap concurrentLongFloatMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final IFloatSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new LongFloatConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static ILongDoubleConcurrentMap concurrentLongDoubleMap( final long size, final float fillFactor )
     {
         return new LongDoubleConcurrentChainedMap( size, fillFactor, DefaultLongSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE );
@@ -155,6 +423,23 @@ public class LongMapFactory
         return new LongDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer );
     }
 
+    public static  ILongDoubleConcurrentMap concurrentLongDoubleMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final IDoubleSerializer valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new LongDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
+
+    public static  ILongDoubleConcurrentMap concurrentLongDoubleMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final IDoubleSerializer valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new LongDoubleConcurrentChainedMap( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
     public static <V> ILongObjectConcurrentMap<V> concurrentLongObjectMap( final long size, final float fillFactor, final IObjectSerializer<V> valueSerializer )
     {
         return new LongObjectConcurrentChainedMap<>( size, fillFactor, DefaultLongSerializer.INSTANCE, valueSerializer );
@@ -167,5 +452,32 @@ public class LongMapFactory
         return new LongObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer );
     }
 
-}
+    public static <V> ILongObjectConcurrentMap<V> concurrentLongObjectMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final IObjectSerializer<V> valueSerializer,
+                                                         final IndexMode indexMode )
+    {
+        return new LongObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer, indexMode );
+    }
 
+    public static <V> ILongObjectConcurrentMap<V> concurrentLongObjectMap( final long size, final float fillFactor,
+                                                         final ILongSerializer keySerializer,
+                                                         final IObjectSerializer<V> valueSerializer,
+                                                         final IndexMode indexMode,
+                                                         final IHashStrategy hashStrategy )
+    {
+        return new LongObjectConcurrentChainedMap<>( size, fillFactor, keySerializer, valueSerializer, indexMode, hashStrategy );
+    }
+
+    public static ILongConcurrentSet concurrentLongSet( final long size, final float fillFactor )
+    {
+        return new LongConcurrentChainedSet( size, fillFactor, DefaultLongSerializer.INSTANCE );
+    }
+
+    public static ILongConcurrentSet concurrentLongSet( final long size, final float fillFactor,
+                                                   final ILongSerializer keySerializer )
+    {
+        return new LongConcurrentChainedSet( size, fillFactor, keySerializer );
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps;
+
+import info.javaperformance.compressedmaps.normal.objects.*;
+import info.javaperformance.hashing.DefaultObjectHashStrategy;
+import info.javaperformance.hashing.IObjectHashStrategy;
+import info.javaperformance.serializers.*;
+import info.javaperformance.malloc.SingleThreadedBlockAllocator;
+
+/**
+ * The entry point for users of maps with object keys. Keys are stored in the serialized form, so you have to provide
+ * a key serializer. A hash strategy defines the key hash codes and equality, {@code DefaultObjectHashStrategy} relies on
+ * {@code hashCode/equals} of the keys, use {@code ByteArrayHashStrategy} for {@code byte[]} keys.
+ *
+ * All factories have the same constraints:
+ * - fill factor between 0.01 (exclusive) and 16 (inclusive)
+ * - initial size could be greater than {@code Integer.MAX_VALUE} (it makes sense because the fill factor could be greater than 1)
+ */
+public class ObjectMapFactory
+{
+    /////////////////////////////////////////////////////////////
+    //  Single threaded maps
+    /////////////////////////////////////////////////////////////
+
+    public static <K> IObjectIntMap<K> singleThreadedObjectIntMap( final long size, final float fillFactor, final IObjectSerializer<K> keySerializer )
+    {
+        return new ObjectIntChainedMap<>( size, fillFactor, keySerializer, DefaultObjectHashStrategy.<K>getInstance(),
+            DefaultIntSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static <K> IObjectIntMap<K> singleThreadedObjectIntMap( final long size, final float fillFactor,
+                                                   final IObjectSerializer<K> keySerializer, final IObjectHashStrategy<K> hashStrategy,
+                                                   final IIntSerializer valueSerializer, final long blockCacheLimit )
+    {
+        return new ObjectIntChainedMap<>( size, fillFactor, keySerializer, hashStrategy, valueSerializer, blockCacheLimit );
+    }
+
+    public static <K> IObjectLongMap<K> singleThreadedObjectLongMap( final long size, final float fillFactor, final IObjectSerializer<K> keySerializer )
+    {
+        return new ObjectLongChainedMap<>( size, fillFactor, keySerializer, DefaultObjectHashStrategy.<K>getInstance(),
+            DefaultLongSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static <K> IObjectLongMap<K> singleThreadedObjectLongMap( final long size, final float fillFactor,
+                                                   final IObjectSerializer<K> keySerializer, final IObjectHashStrategy<K> hashStrategy,
+                                                   final ILongSerializer valueSerializer, final long blockCacheLimit )
+    {
+        return new ObjectLongChainedMap<>( size, fillFactor, keySerializer, hashStrategy, valueSerializer, blockCacheLimit );
+    }
+
+    public static <K> IObjectFloatMap<K> singleThreadedObjectFloatMap( final long size, final float fillFactor, final IObjectSerializer<K> keySerializer )
+    {
+        return new ObjectFloatChainedMap<>( size, fillFactor, keySerializer, DefaultObjectHashStrategy.<K>getInstance(),
+            DefaultFloatSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static <K> IObjectFloatMap<K> singleThreadedObjectFloatMap( final long size, final float fillFactor,
+                                                   final IObjectSerializer<K> keySerializer, final IObjectHashStrategy<K> hashStrategy,
+                                                   final IFloatSerializer valueSerializer, final long blockCacheLimit )
+    {
+        return new ObjectFloatChainedMap<>( size, fillFactor, keySerializer, hashStrategy, valueSerializer, blockCacheLimit );
+    }
+
+    public static <K> IObjectDoubleMap<K> singleThreadedObjectDoubleMap( final long size, final float fillFactor, final IObjectSerializer<K> keySerializer )
+    {
+        return new ObjectDoubleChainedMap<>( size, fillFactor, keySerializer, DefaultObjectHashStrategy.<K>getInstance(),
+            DefaultDoubleSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+    }
+
+    public static <K> IObjectDoubleMap<K> singleThreadedObjectDoubleMap( final long size, final float fillFactor,
+                                                   final IObjectSerializer<K> keySerializer, final IObjectHashStrategy<K> hashStrategy,
+                                                   final IDoubleSerializer valueSerializer, final long blockCacheLimit )
+    {
+        return new ObjectDoubleChainedMap<>( size, fillFactor, keySerializer, hashStrategy, valueSerializer, blockCacheLimit );
+    }
+}
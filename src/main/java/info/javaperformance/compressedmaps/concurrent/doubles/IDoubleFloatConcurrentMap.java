@@ -19,12 +19,238 @@
 
 package info.javaperformance.compressedmaps.concurrent.doubles;
 
+import info.javaperformance.functions.IDoubleFloatFunction;
+import info.javaperformance.functions.IDoubleFloatPredicate;
+import info.javaperformance.functions.IDoubleFloatProcedure;
+import info.javaperformance.functions.IFloatBinaryOperator;
+
+import java.util.concurrent.ForkJoinPool;
+
 /**
- * A minimalist interface implemented by concurrent maps
+ * A minimalist interface implemented by concurrent maps.
+ * All updating methods, including {@code addTo}, {@code putIfAbsent}, {@code merge} and {@code compute}, are atomic.
  */
 public interface IDoubleFloatConcurrentMap {
     public float get( final double key );
     public float put( final double key, final float value );
     public float remove( final double key );
     public long size();
+
+    /**
+     * Remove all entries matching a predicate. Every bucket is visited once and every chain losing
+     * some entries is replaced with a single CAS.
+     * @param pred Predicate. It may be called more than once for an entry if its chain is updated concurrently,
+     *             so it must not have any side effects.
+     * @return Number of removed entries
+     */
+    public long removeIf( final IDoubleFloatPredicate pred );
+
+    /**
+     * Remove all entries not matching a predicate. Every bucket is visited once and every chain losing
+     * some entries is replaced with a single CAS.
+     * @param pred Predicate. It may be called more than once for an entry if its chain is updated concurrently,
+     *             so it must not have any side effects.
+     * @return Number of removed entries
+     */
+    public long retainIf( final IDoubleFloatPredicate pred );
+
+    /**
+     * Remove all entries from the map. Every chain is removed atomically, so entries added concurrently with this call
+     * may stay in the map, same as with {@code ConcurrentHashMap.clear}. The bucket table is kept.
+     */
+    public void clear();
+
+    /**
+     * Look up values for all given keys. Keys are processed in batches, so that memory loads
+     * for different keys could overlap. Every lookup returns a value valid at its own call time.
+     * @param keys Keys to look up
+     * @param out Output array: {@code out[ i ]} is set to a value associated with {@code keys[ i ]} or to {@code 0}
+     *            if there is no such key
+     * @throws IllegalArgumentException If {@code out} is shorter than {@code keys}
+     */
+    public void getAll( final double[] keys, final float[] out );
+
+    /**
+     * Add {@code delta} to a value associated with a given key. A missing key is treated as mapped to {@code 0}.
+     * @param key Key
+     * @param delta Value to add
+     * @return Updated value
+     */
+    public float addTo( final double key, final float delta );
+
+    /**
+     * Associate a value with a given key unless this key is already present in the map.
+     * @param key Key
+     * @param value Value
+     * @return Existing value or {@code 0} if there was no such key (in which case {@code value} is stored)
+     */
+    public float putIfAbsent( final double key, final float value );
+
+    /**
+     * Store {@code value} for a missing key, otherwise replace an existing value with {@code op.apply( existing, value )}.
+     * @param key Key
+     * @param value Value to store or to merge with the existing value
+     * @param op Merge function. It may be called more than once if the chain is updated concurrently, so it must not have any side effects. It may read this map.
+     * @return Updated value
+     */
+    public float merge( final double key, final float value, final IFloatBinaryOperator op );
+
+    /**
+     * Replace a value associated with a given key with {@code fn.apply( key, existing )}. A missing key is passed
+     * to the function with {@code 0} value and it is always added to the map.
+     * @param key Key
+     * @param fn Function calculating a new value. It may be called more than once if the chain is updated concurrently, so it must not have any side effects. It may read this map.
+     * @return Updated value
+     */
+    public float compute( final double key, final IDoubleFloatFunction fn );
+
+    /**
+     * Check if a given key is present in the map. Unlike {@code get}, this method could tell an absent key
+     * from a key mapped to {@code 0}.
+     * @param key Key to look up
+     * @return True if the key is present in the map
+     */
+    public boolean containsKey( final double key );
+
+    /**
+     * Get a value associated with a given key
+     * @param key Key to look up
+     * @param defaultValue Value to return if the key is not present in the map
+     * @return A value associated with the key or {@code defaultValue} if there is no such key
+     */
+    public float get( final double key, final float defaultValue );
+
+    /**
+     * Call {@code proc} for every map entry. Iteration is weakly consistent: it may run concurrently with
+     * updates and rehashing, it visits each entry at most once, and it may or may not see updates made after it has started.
+     * @param proc Entry callback
+     */
+    public void forEach( final IDoubleFloatProcedure proc );
+
+    /**
+     * Call {@code proc} for every map entry using the given pool. The bucket table is split into ranges which
+     * are processed in parallel, so {@code proc} must be thread safe. Iteration is weakly consistent, same as
+     * in {@code forEach}. This method returns after all entries are processed.
+     * @param proc Entry callback
+     * @param pool Pool to run the traversal tasks in
+     */
+    public void parallelForEach( final IDoubleFloatProcedure proc, final ForkJoinPool pool );
+
+    /**
+     * Calculate a sum of all values. Chains are decoded in place without any per-entry allocations.
+     * Entries updated concurrently may or may not be included.
+     * @return Sum of all values
+     */
+    public double sumValues();
+
+    /**
+     * Calculate a sum of all values using the given pool. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * @param pool Pool to run the traversal tasks in
+     * @return Sum of all values
+     */
+    public double sumValues( final ForkJoinPool pool );
+
+    /**
+     * Find the smallest value. Chains are decoded in place without any per-entry allocations.
+     * Entries updated concurrently may or may not be included.
+     * @return The smallest value or {@code Float.POSITIVE_INFINITY} for an empty map
+     */
+    public float minValue();
+
+    /**
+     * Find the smallest value using the given pool. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * @param pool Pool to run the traversal tasks in
+     * @return The smallest value or {@code Float.POSITIVE_INFINITY} for an empty map
+     */
+    public float minValue( final ForkJoinPool pool );
+
+    /**
+     * Find the largest value. Chains are decoded in place without any per-entry allocations.
+     * Entries updated concurrently may or may not be included.
+     * @return The largest value or {@code Float.NEGATIVE_INFINITY} for an empty map
+     */
+    public float maxValue();
+
+    /**
+     * Find the largest value using the given pool. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * @param pool Pool to run the traversal tasks in
+     * @return The largest value or {@code Float.NEGATIVE_INFINITY} for an empty map
+     */
+    public float maxValue( final ForkJoinPool pool );
+
+    /**
+     * Count entries matching a predicate. Chains are decoded in place without any per-entry allocations.
+     * Entries updated concurrently may or may not be included.
+     * @param pred Predicate
+     * @return Number of matching entries
+     */
+    public long countIf( final IDoubleFloatPredicate pred );
+
+    /**
+     * Count entries matching a predicate using the given pool. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * {@code pred} must be thread safe.
+     * @param pred Predicate
+     * @param pool Pool to run the traversal tasks in
+     * @return Number of matching entries
+     */
+    public long countIf( final IDoubleFloatPredicate pred, final ForkJoinPool pool );
+
+    /**
+     * Build a value histogram. {@code counts[ 0 ]} is incremented for values less than {@code bounds[ 0 ]},
+     * {@code counts[ i ]} for values in {@code [bounds[ i - 1 ], bounds[ i ])} and {@code counts[ bounds.length ]}
+     * for values not less than the last bound. Chains are decoded in place without any per-entry allocations.
+     * Entries updated concurrently may or may not be included.
+     * @param bounds Bin bounds sorted in the ascending order
+     * @param counts Bin counters, {@code bounds.length + 1} elements. They are incremented, not reset.
+     */
+    public void histogram( final float[] bounds, final long[] counts );
+
+    /**
+     * Build a value histogram using the given pool. Bins are defined the same way as in
+     * {@link #histogram(float[], long[])}. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * @param bounds Bin bounds sorted in the ascending order
+     * @param counts Bin counters, {@code bounds.length + 1} elements. They are incremented, not reset.
+     * @param pool Pool to run the traversal tasks in
+     */
+    public void histogram( final float[] bounds, final long[] counts, final ForkJoinPool pool );
+
+    /**
+     * Find {@code k} entries with the largest values. The map is traversed once, the entries are kept
+     * in a primitive min-heap of size {@code k}. Entries updated concurrently may or may not be included.
+     * @param k Number of entries to find
+     * @param keys Output keys, at least {@code k} elements
+     * @param values Output values in the descending order, at least {@code k} elements
+     * @return Number of found entries, which is {@code min( k, size() )}
+     */
+    public int topK( final int k, final double[] keys, final float[] values );
+
+    /**
+     * Find {@code k} entries with the largest values using the given pool. Disjoint bucket ranges are processed
+     * in parallel, every task keeps its own heap. Heaps are merged when the tasks are joined.
+     * @param k Number of entries to find
+     * @param keys Output keys, at least {@code k} elements
+     * @param values Output values in the descending order, at least {@code k} elements
+     * @param pool Pool to run the traversal tasks in
+     * @return Number of found entries, which is {@code min( k, size() )}
+     */
+    public int topK( final int k, final double[] keys, final float[] values, final ForkJoinPool pool );
+
+    /**
+     * Choose how lookups behave while the table is being rehashed. By default a lookup joins the rehashing and
+     * waits until it is over. Non-blocking lookups read the old table instead, so read-only threads are never
+     * delayed by the rehashing.
+     * @param nonBlocking True to enable non-blocking lookups
+     */
+    public void setNonBlockingReads( final boolean nonBlocking );
+
+    /**
+     * Shrink the bucket table to the smallest capacity suitable for the current map size. The table is also
+     * shrunk automatically once the map loses most of its entries, but never below its initial capacity.
+     */
+    public void trimToSize();
 }
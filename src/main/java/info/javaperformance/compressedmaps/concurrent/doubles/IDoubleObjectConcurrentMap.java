@@ -19,6 +19,11 @@
 
 package info.javaperformance.compressedmaps.concurrent.doubles;
 
+import info.javaperformance.functions.IDoubleObjectPredicate;
+import info.javaperformance.functions.IDoubleObjectProcedure;
+
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * A minimalist interface implemented by concurrent maps
  */
@@ -27,4 +32,84 @@ public interface IDoubleObjectConcurrentMap<V> {
     public V put( final double key, final V value );
     public V remove( final double key );
     public long size();
+
+    /**
+     * Remove all entries matching a predicate. Every bucket is visited once and every chain losing
+     * some entries is replaced with a single CAS.
+     * @param pred Predicate. It may be called more than once for an entry if its chain is updated concurrently,
+     *             so it must not have any side effects.
+     * @return Number of removed entries
+     */
+    public long removeIf( final IDoubleObjectPredicate<V> pred );
+
+    /**
+     * Remove all entries not matching a predicate. Every bucket is visited once and every chain losing
+     * some entries is replaced with a single CAS.
+     * @param pred Predicate. It may be called more than once for an entry if its chain is updated concurrently,
+     *             so it must not have any side effects.
+     * @return Number of removed entries
+     */
+    public long retainIf( final IDoubleObjectPredicate<V> pred );
+
+    /**
+     * Remove all entries from the map. Every chain is removed atomically, so entries added concurrently with this call
+     * may stay in the map, same as with {@code ConcurrentHashMap.clear}. The bucket table is kept.
+     */
+    public void clear();
+
+    /**
+     * Look up values for all given keys. Keys are processed in batches, so that memory loads
+     * for different keys could overlap. Every lookup returns a value valid at its own call time.
+     * @param keys Keys to look up
+     * @param out Output array: {@code out[ i ]} is set to a value associated with {@code keys[ i ]} or to {@code null}
+     *            if there is no such key
+     * @throws IllegalArgumentException If {@code out} is shorter than {@code keys}
+     */
+    public void getAll( final double[] keys, final V[] out );
+
+    /**
+     * Check if a given key is present in the map. Unlike {@code get}, this method could tell an absent key
+     * from a key mapped to {@code null}.
+     * @param key Key to look up
+     * @return True if the key is present in the map
+     */
+    public boolean containsKey( final double key );
+
+    /**
+     * Get a value associated with a given key
+     * @param key Key to look up
+     * @param defaultValue Value to return if the key is not present in the map
+     * @return A value associated with the key or {@code defaultValue} if there is no such key
+     */
+    public V get( final double key, final V defaultValue );
+
+    /**
+     * Call {@code proc} for every map entry. Iteration is weakly consistent: it may run concurrently with
+     * updates and rehashing, it visits each entry at most once, and it may or may not see updates made after it has started.
+     * @param proc Entry callback
+     */
+    public void forEach( final IDoubleObjectProcedure<V> proc );
+
+    /**
+     * Call {@code proc} for every map entry using the given pool. The bucket table is split into ranges which
+     * are processed in parallel, so {@code proc} must be thread safe. Iteration is weakly consistent, same as
+     * in {@code forEach}. This method returns after all entries are processed.
+     * @param proc Entry callback
+     * @param pool Pool to run the traversal tasks in
+     */
+    public void parallelForEach( final IDoubleObjectProcedure<V> proc, final ForkJoinPool pool );
+
+    /**
+     * Choose how lookups behave while the table is being rehashed. By default a lookup joins the rehashing and
+     * waits until it is over. Non-blocking lookups read the old table instead, so read-only threads are never
+     * delayed by the rehashing.
+     * @param nonBlocking True to enable non-blocking lookups
+     */
+    public void setNonBlockingReads( final boolean nonBlocking );
+
+    /**
+     * Shrink the bucket table to the smallest capacity suitable for the current map size. The table is also
+     * shrunk automatically once the map loses most of its entries, but never below its initial capacity.
+     */
+    public void trimToSize();
 }
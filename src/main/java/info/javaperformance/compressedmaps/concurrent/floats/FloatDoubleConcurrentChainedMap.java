@@ -19,18 +19,30 @@
 
 package info.javaperformance.compressedmaps.concurrent.floats;
 
+import info.javaperformance.functions.IDoubleBinaryOperator;
+import info.javaperformance.functions.IFloatDoubleFunction;
+import info.javaperformance.functions.IFloatDoublePredicate;
+import info.javaperformance.functions.IFloatDoubleProcedure;
+import info.javaperformance.hashing.FastHashStrategy;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
 import info.javaperformance.malloc.Block;
 import info.javaperformance.malloc.ConcurrentBlockAllocator;
 import info.javaperformance.serializers.*;
+import info.javaperformance.tools.BucketRanges;
 import info.javaperformance.tools.Buffers;
 import info.javaperformance.tools.LongAllocator;
-import info.javaperformance.tools.Primes;
 import info.javaperformance.tools.Tools;
 import sun.misc.Unsafe;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
@@ -54,21 +66,42 @@ import static info.javaperformance.tools.VarLen.writeUnsignedInt;
  * (latest at the moment of successful update).
  *
  * Rehashing is done concurrently in this map.
- * All 3 main operations ({@code get/put/remove}) join rehashing once they detect it is going on. No thread can update
- * the map state once rehashing has started.
+ * Lookups join rehashing once they detect it is going on (unless non-blocking reads are enabled). Updates do not
+ * wait for the rehashing to finish: {@code put} and {@code remove} move the bucket of their key into the new table
+ * and then update the new table, so the map can be updated while it is being rehashed.
  */
 public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMap{
     private static final int CPU_NUMBER = Runtime.getRuntime().availableProcessors();
+    /** Minimal number of buckets processed by a single {@code parallelForEach} task */
+    private static final int PARALLEL_MIN_BUCKETS = 16 * 1024;
+    /** Number of keys processed by a single stage of {@code getAll} */
+    private static final int GET_ALL_BATCH = 256;
+    /** The table is shrunk after the map size drops below {@code capacity * fillFactor / SHRINK_DIVISOR} */
+    private static final int SHRINK_DIVISOR = 8;
+    /** Each thread checks the map size for shrinking on every SHRINK_CHECK_INTERVAL-th removal (a power of 2) */
+    private static final int SHRINK_CHECK_INTERVAL = 64;
     private static final double NO_VALUE = 0 ;
 
+    /*
+    Update modes supported by {@code addToChain}. {@code put} and {@code putIfAbsent} return the previous value,
+    the other modes return the updated value.
+     */
+    private static final int UPDATE_PUT = 0;
+    private static final int UPDATE_PUT_IF_ABSENT = 1;
+    private static final int UPDATE_ADD = 2;
+    private static final int UPDATE_MERGE = 3;
+    private static final int UPDATE_COMPUTE = 4;
+
     /*
     We store multiple reusable objects here. They are needed to avoid unnecessary object allocations.
     These objects should not be static - some of the are initialized with map specific serializers, some may simply
     keep some map state for longer than needed.
      */
     private final ThreadLocal<Iterator> s_iters = new ThreadLocal<>();
+    private final ThreadLocal<Iterator> s_rehashIters = new ThreadLocal<>();
     private final ThreadLocal<ByteArray> s_bar1 = new ThreadLocal<>();
     private final ThreadLocal<ByteArray> s_bar2 = new ThreadLocal<>();
+    private final ThreadLocal<ByteArray> s_bar3 = new ThreadLocal<>();
     private final ThreadLocal<Writer> s_writers = new ThreadLocal<>();
     private final ThreadLocal<UpdateResult> s_updateRes = new ThreadLocal<UpdateResult>(){
         @Override
@@ -93,14 +126,46 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
      */
     private final AtomicReference<Buffers> m_data;
 
+    /** Lookups do not join the rehashing if set */
+    private volatile boolean m_nonBlockingReads = false;
+
     /** Memory blocks are allocated and tracked here */
     private final ConcurrentBlockAllocator m_blockAllocator = new ConcurrentBlockAllocator();
     /** This object helps us not to allocate extra long[] in {@code changeSize} */
     private final LongAllocator m_longAlloc = new LongAllocator();
+    /** Initial map size. The automatic shrinking never makes the table smaller than the initial one */
+    private final long m_initialSize;
+    /** Initial table capacity */
+    private final int m_minCapacity;
+    /** Bucket table sizing and key to bucket mapping */
+    private final IndexMode m_indexMode;
+    /** Key hash function */
+    private final IHashStrategy m_hashStrategy;
 
     /** Max length of a single entry - optimization */
     private final int m_singleEntryLength;
 
+    /**
+     * Create a map with prime table capacities. See the next constructor for the parameters description.
+     */
+    public FloatDoubleConcurrentChainedMap( final long size, final float fillFactor,
+                                         final IFloatSerializer keySerializer,
+                                         final IDoubleSerializer valueSerializer )
+    {
+        this( size, fillFactor, keySerializer, valueSerializer, IndexMode.PRIME );
+    }
+
+    /**
+     * Create a map with the default hash strategy. See the next constructor for the parameters description.
+     */
+    public FloatDoubleConcurrentChainedMap( final long size, final float fillFactor,
+                                         final IFloatSerializer keySerializer,
+                                         final IDoubleSerializer valueSerializer,
+                                         final IndexMode indexMode )
+    {
+        this( size, fillFactor, keySerializer, valueSerializer, indexMode, FastHashStrategy.INSTANCE );
+    }
+
     /**
      * Create a map with a given size, fill factor and key/value serializers
      * @param size Expected map size
@@ -112,16 +177,22 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
      *                   than {@code ConcurrentHashMap} can provide you.
      * @param keySerializer Serializer for keys
      * @param valueSerializer Serializer for values
+     * @param indexMode Bucket table sizing and key to bucket mapping mode
+     * @param hashStrategy Key hash function, see {@code IHashStrategy} presets
      *
-     * @throws NullPointerException If {@code keySerializer == null} or {@code valueSerializer == null}
+     * @throws NullPointerException If {@code keySerializer}, {@code valueSerializer}, {@code indexMode} or {@code hashStrategy} is null
      * @throws IllegalArgumentException If {@code fillFactor > 16} or {@code fillFactor <= 0.01}
      */
     public FloatDoubleConcurrentChainedMap( final long size, final float fillFactor,
                                          final IFloatSerializer keySerializer,
-                                         final IDoubleSerializer valueSerializer )
+                                         final IDoubleSerializer valueSerializer,
+                                         final IndexMode indexMode,
+                                         final IHashStrategy hashStrategy )
     {
         Objects.requireNonNull( keySerializer, "Key serializer must be provided!" );
         Objects.requireNonNull( valueSerializer, "Value serializer must be provided!" );
+        Objects.requireNonNull( indexMode, "Index mode must be provided!" );
+        Objects.requireNonNull( hashStrategy, "Hash strategy must be provided!" );
         if ( fillFactor > 16 )
             throw new IllegalArgumentException( "Fill factors higher than 16 are not supported!" );
         if ( fillFactor <= 0.01 )
@@ -131,19 +202,12 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
         m_valueSerializer = valueSerializer;
         m_fillFactor = fillFactor;
         m_iFillFactor = ( int ) Math.ceil( m_fillFactor );
-        final long requestedCapacity = ( long ) Math.ceil( size / fillFactor );
-        final int newCapacity = requestedCapacity >= Primes.getMaxIntPrime() ? Primes.getMaxIntPrime() : Primes.findNextPrime( requestedCapacity );
-        //this threshold adjustment is needed on tiny initial size / large fill factor combinations so that we do not
-        //rehash table without table size increase in future.
-        long threshold;
-        if ( newCapacity == Primes.getMaxIntPrime() )
-            threshold = Long.MAX_VALUE;
-        else {
-            threshold = size;
-            while ( Primes.findNextPrime( ( int ) Math.ceil( threshold * 2 / fillFactor ) ) == newCapacity )
-                threshold *= 2;
-        }
-        m_data = new AtomicReference<>( new Buffers( m_longAlloc.allocate( newCapacity ), null, threshold, 0, 2 ) );
+        m_indexMode = indexMode;
+        m_hashStrategy = hashStrategy;
+        m_initialSize = size;
+        m_minCapacity = m_indexMode.getCapacity( size, fillFactor );
+        m_data = new AtomicReference<>( new Buffers( m_longAlloc.allocate( m_minCapacity ), null,
+                                                     m_indexMode.getThreshold( size, m_minCapacity, fillFactor ), 0, 2 ) );
         m_singleEntryLength = m_keySerializer.getMaxLength() + m_valueSerializer.getMaxLength() + 1; //optimization
     }
 
@@ -159,10 +223,38 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
 
     @Override
     public double get( final float key )
+    {
+        return get( key, NO_VALUE );
+    }
+
+    @Override
+    public double get( final float key, final double defaultValue )
+    {
+        final Iterator iter = findChain( key );
+        return iter != null ? iter.findKey( key, defaultValue ) : defaultValue;
+    }
+
+    @Override
+    public boolean containsKey( final float key )
+    {
+        final Iterator iter = findChain( key );
+        return iter != null && iter.containsKey( key );
+    }
+
+    /**
+     * Find a chain which may contain a given key. The chain is taken at the moment of method call.
+     * @param key Key to look up
+     * @return A thread local iterator standing at the start of the chain or {@code null} if there is no such chain
+     */
+    private Iterator findChain( final float key )
     {
         final Buffers buffers = m_data.get();
         if ( buffers.old != null )
+        {
+            if ( m_nonBlockingReads )
+                return findChainDuringRehash( key, buffers );
             rehash( buffers.nextStableVersion ); //buffers.cur will be valid on the exit from rehashing
+        }
 
         final long[] tab = buffers.cur;
         final int idx = getIndex( key, tab.length );
@@ -171,51 +263,172 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
         if ( bucket == EMPTY ) {
             //By definition of this method we return whatever value was valid at a call time
             //We can get here either at a stable stage (old==null) or after rehash, in both of which null bucket means no key.
-            return NO_VALUE;
+            return null;
         }
         //we have definitely relocated something from this chain.
         else if ( bucket == RELOCATED ) {
-            rehash( buffers.nextStableVersion );
-            return get( key );
+            if ( !m_nonBlockingReads )
+                rehash( buffers.nextStableVersion );
+            return findChain( key ); //a non-blocking lookup will see the rehashing state on retry
         }
 
         final Block input = getBlockByIndex( bucket );
         if ( input == null )
-            return get( key ); //someone has relocated the data from this block, need to retry because we have a valid bucket
+            return findChain( key ); //someone has relocated the data from this block, need to retry because we have a valid bucket
 
-        return getIterator().reset( getByteArray( input, getOffset( bucket ) ), getBlockLength( bucket ) ).findKey( key, NO_VALUE );
+        return getIterator().reset( getByteArray( input, getOffset( bucket ) ), getBlockLength( bucket ) );
+    }
+
+    /**
+     * Find a chain without joining the rehashing. The old table bucket is checked first: its chain is valid until
+     * the bucket is set to {@code RELOCATED}, even while the chain is being copied ({@code MOVING}).
+     * A relocated bucket is fully copied, so the key chain is looked up in the new table in this case.
+     * @param key Key to look up
+     * @param buffers Map state in the rehashing stage
+     * @return A thread local iterator standing at the start of the chain or {@code null} if there is no such chain
+     */
+    private Iterator findChainDuringRehash( final float key, final Buffers buffers )
+    {
+        long bucket = getBucket( buffers.old, getIndex( key, buffers.old.length ) );
+        if ( bucket == RELOCATED )
+        {
+            bucket = getBucket( buffers.cur, getIndex( key, buffers.cur.length ) );
+            if ( bucket == RELOCATED )
+                return findChain( key ); //the next rehashing has already started
+        }
+        if ( bucket == EMPTY )
+            return null;
+
+        final Block input = getBlockByIndex( bucket );
+        if ( input == null )
+            return findChain( key ); //the chain was replaced in the meantime, retry
+        return getIterator().reset( getByteArray( input, getOffset( bucket ) ), getBlockLength( bucket ) );
     }
 
     @Override
-    public double put( final float key, final double value )
+    public void getAll( final float[] keys, final double[] out )
     {
-        Buffers buffers = m_data.get();
-        if ( buffers.old != null ) {
-            rehash( buffers.nextStableVersion ); //help rehashing, we are in rehashing state already
-            buffers = m_data.get(); //it changes after rehashing
+        if ( out.length < keys.length )
+            throw new IllegalArgumentException( "Output array is shorter than key array: " + out.length + " < " + keys.length );
+
+        final long[] buckets = new long[ Math.min( keys.length, GET_ALL_BATCH ) ];
+        final int[] indices = new int[ buckets.length ];
+        final Block[] blocks = new Block[ buckets.length ];
+        //the touched bytes are summed in a local only, so that concurrent calls do not write a shared cache line
+        int touched = 0;
+        for ( int from = 0; from < keys.length; from += buckets.length )
+        {
+            final int to = Math.min( keys.length, from + buckets.length );
+            final Buffers buffers = m_data.get();
+            if ( buffers.old != null )
+            {
+                //lookups have to deal with the rehashing, so fall back to plain get calls for this batch
+                for ( int i = from; i < to; ++i )
+                    out[ i ] = get( keys[ i ] );
+                continue;
+            }
+            //The first three stages only load the memory needed by lookups, so they ignore concurrent updates.
+            //Loads within a stage are independent, so that the CPU could overlap their cache misses.
+            final long[] tab = buffers.cur;
+            for ( int i = from; i < to; ++i )
+            {
+                indices[ i - from ] = getIndex( keys[ i ], tab.length );
+                buckets[ i - from ] = tab[ indices[ i - from ] ];
+            }
+            for ( int i = from; i < to; ++i )
+            {
+                final long bucket = buckets[ i - from ];
+                blocks[ i - from ] = bucket != EMPTY && !isRelocated( bucket ) ? getBlockByIndex( bucket ) : null;
+            }
+            for ( int i = from; i < to; ++i )
+                if ( blocks[ i - from ] != null )
+                    touched += blocks[ i - from ].data[ getOffset( buckets[ i - from ] ) ];
+            //A loaded chain is decoded only if its cell has not changed since, otherwise the chain may be released
+            //or relocated. Such keys are looked up by get.
+            for ( int i = from; i < to; ++i )
+            {
+                final long bucket = buckets[ i - from ];
+                final Block block = blocks[ i - from ];
+                if ( bucket != getBucket( tab, indices[ i - from ] ) )
+                    out[ i ] = get( keys[ i ] );
+                else if ( bucket == EMPTY )
+                    out[ i ] = NO_VALUE;
+                else if ( block == null )
+                    out[ i ] = get( keys[ i ] );
+                else
+                    out[ i ] = getIterator().reset( getByteArray( block, getOffset( bucket ) ), getBlockLength( bucket ) )
+                                            .findKey( keys[ i ], NO_VALUE );
+            }
         }
+    }
+
+    @Override
+    public double put( final float key, final double value )
+    {
+        return update( key, value, UPDATE_PUT, null, null );
+    }
+
+    @Override
+    public double addTo( final float key, final double delta )
+    {
+        return update( key, delta, UPDATE_ADD, null, null );
+    }
+
+    @Override
+    public double putIfAbsent( final float key, final double value )
+    {
+        return update( key, value, UPDATE_PUT_IF_ABSENT, null, null );
+    }
+
+    @Override
+    public double merge( final float key, final double value, final IDoubleBinaryOperator op )
+    {
+        Objects.requireNonNull( op, "Merge function must be provided!" );
+        return update( key, value, UPDATE_MERGE, op, null );
+    }
+
+    @Override
+    public double compute( final float key, final IFloatDoubleFunction fn )
+    {
+        Objects.requireNonNull( fn, "Compute function must be provided!" );
+        return update( key, NO_VALUE, UPDATE_COMPUTE, null, fn );
+    }
+
+    /**
+     * Update an entry atomically. Each CAS attempt decodes and rewrites the chain once.
+     * @param key Key
+     * @param value Value passed by the caller
+     * @param mode Update mode
+     * @param op Merge function for {@code UPDATE_MERGE}
+     * @param fn Compute function for {@code UPDATE_COMPUTE}
+     * @return Previous value for {@code put/putIfAbsent}, updated value for other modes
+     */
+    private double update( final float key, final double value, final int mode, final IDoubleBinaryOperator op, final IFloatDoubleFunction fn )
+    {
+        //We do not join the rehashing here. Instead we make sure that the bucket of this key is moved into the new
+        //table, so that rehashing threads will not write this key anymore, and then update the new table.
+        final Buffers buffers = m_data.get();
+        if ( buffers.old != null )
+            moveBucket( key, buffers );
 
         final int idx = getIndex( key, buffers.cur.length );
         long bucket = getBucket( buffers.cur, idx );
-        //if bucket already relocated, do not waste time, rehash and then retry
-        if ( bucket == RELOCATED )
-        {
-            rehash( buffers.nextStableVersion ); //just turned into rehashing
-            return put( key, value );
-        }
+        //the next rehashing has already moved this bucket, retry with the new state
+        if ( isRelocated( bucket ) )
+            return update( key, value, mode, op, fn );
 
         //CAS in a loop
         while ( true )
         {
             //copy/update the chain
-            final UpdateResult res = addToChain( bucket, key, value );
+            final UpdateResult res = addToChain( bucket, key, value, mode, op, fn );
             /*
-             Thread safety here: if we got to this point, we know that 'buffers' belong to stable state.
-             It means it is either safe to set bucket here (stable state) or buffers.cur point to the
-             old buffer (rehashing or subsequent states).
-             During rehashing we atomically replace each cell with RELOCATED sentinel, which means 2 possibilities:
+             Thread safety here: buffers.cur is either the stable table, or the new table after the old bucket of
+             this key was moved (the rehashing threads only merge other keys into this cell using CAS), or the old
+             table of the next rehashing.
+             During rehashing we atomically mark each old cell as MOVING and then RELOCATED, which means 2 possibilities:
              1) we replace current cell before it is picked up by rehashing thread (size could be safely increased here)
-             2) we try to CAS-replace a cell, but fail, because it was already replaced with RELOCATED (we go to 'else').
+             2) we try to CAS-replace a cell, but fail, because it was already marked (we go to 'else').
              */
             if ( res != null && compareAndSet( buffers.cur, idx, bucket, res.chain ) )
             {
@@ -235,13 +448,10 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
                 }
 
                 //cell could be changed to not empty / null (empty) in the normal run
-                //or to RELOCATED during rehashing by other thread
+                //or to MOVING/RELOCATED by the next rehashing
                 bucket = getBucket( buffers.cur, idx );
-                if ( bucket == RELOCATED )
-                {
-                    rehash( buffers.nextStableVersion );
-                    return put( key, value );
-                }
+                if ( isRelocated( bucket ) )
+                    return update( key, value, mode, op, fn );
             }
         }
     }
@@ -258,7 +468,7 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
         while ( true )
         {
             //copy/update the chain
-            final UpdateResult res = addToChain( bucket, key, value );
+            final UpdateResult res = addToChain( bucket, key, value, UPDATE_PUT, null, null );
             if ( res != null && compareAndSet( tab, idx, bucket, res.chain ) ) {
                 //commit usage changes to input block (output already updated)
                 if ( res.input != null ) //could be null for new bucket
@@ -300,14 +510,19 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
      * @param bucket An existing chain
      * @param key Key
      * @param value Value
+     * @param mode Update mode
+     * @param op Merge function for {@code UPDATE_MERGE}
+     * @param fn Compute function for {@code UPDATE_COMPUTE}
      * @return A new chain and an old value
      */
-    private UpdateResult addToChain( final long bucket, final float key, final double value )
+    private UpdateResult addToChain( final long bucket, final float key, final double value,
+                                     final int mode, final IDoubleBinaryOperator op, final IFloatDoubleFunction fn )
     {
         if ( bucket == EMPTY ) {
+            final double newValue = updatedValue( mode, key, false, NO_VALUE, value, op, fn );
             final Block output = m_blockAllocator.getThreadLocalBlock( m_singleEntryLength );
             final int outputStart = output.pos;
-            return getUpdateResult().set( singleEntry( output, key, value ), NO_VALUE, 1, null, output, outputStart );
+            return getUpdateResult().set( singleEntry( output, key, newValue ), mode < UPDATE_ADD ? NO_VALUE : newValue, 1, null, output, outputStart );
         }
 
         final Block inputBlock = getBlockByIndex( bucket );
@@ -315,16 +530,37 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
             return null; //it means we are already late
         final int inputStartOffset = getOffset( bucket );
 
-        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
-        final Iterator iter = getIterator().reset( input, getBlockLength( bucket ) );
-        if ( iter.getElems() > MAX_ENCODED_LENGTH - 2 ) //could grow to 255+, which should be stored in the bucket
-            return addToChainSlow( bucket, iter, inputBlock, inputStartOffset, key, value );
-
+        ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        Iterator iter = getIterator().reset( input, getBlockLength( bucket ) );
+        //look up a key and then fast forward to the end of chain to find out its length
+        boolean hasKey = false;
+        double retValue = NO_VALUE;
         while ( iter.hasNext() )
-            iter.skip();
+        {
+            iter.advance();
+            if ( iter.getKey() == key )
+            {
+                hasKey = true;
+                retValue = iter.getValue();
+                while ( iter.hasNext() )
+                    iter.skip();
+            }
+            else if ( iter.getKey() > key )
+            {
+                while ( iter.hasNext() )
+                    iter.skip();
+            }
+        }
         final int chainLength = input.position() - inputStartOffset;
-        input.position( inputStartOffset );
-        iter.reset( input, getBlockLength( bucket ) );
+        final int elems = iter.getElems();
+
+        //The new value is calculated before the chain is rewritten. Callbacks may read this map, which reuses
+        //the thread local iterator and byte arrays, so they are taken again afterwards.
+        final double newValue = updatedValue( mode, key, hasKey, retValue, value, op, fn );
+        input = getByteArray( inputBlock, inputStartOffset );
+        iter = getIterator().reset( input, getBlockLength( bucket ) );
+        if ( elems > MAX_ENCODED_LENGTH - 2 ) //could grow to 255+, which should be stored in the bucket
+            return addToChainSlow( iter, inputBlock, chainLength, key, hasKey, retValue, newValue, mode );
 
         //2* is a safety net here due to possibility that a value may take longer in the delta form compared to original form
         final Block outputBlock = m_blockAllocator.getThreadLocalBlock( chainLength + 2 * m_singleEntryLength );
@@ -334,9 +570,7 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
         outputBlock.increaseEntries(); //allocate block
         final Writer writer = getWriter().reset( baOutput );
 
-        double retValue = NO_VALUE;
-        boolean inserted = false, updated = false;
-
+        boolean inserted = false;
         while ( iter.hasNext() )
         {
             iter.advance();
@@ -345,61 +579,43 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
             else if ( iter.getKey() == key )
             {
                 inserted = true;
-                updated = true;
-                retValue = iter.getValue();
-                writer.writePair( key, value );
+                writer.writePair( key, newValue );
             }
             else
             {
                 if ( !inserted )
                 {
                     inserted = true;
-                    writer.writePair( key, value );
+                    writer.writePair( key, newValue );
                 }
                 writer.transferPair( iter );
             }
         }
         if ( !inserted ) //all keys are smaller
-            writer.writePair( key, value );
+            writer.writePair( key, newValue );
 
         outputBlock.pos = baOutput.position();
-        final int sizeChange = updated ? 0 : 1;
-        return getUpdateResult().set( pack( outputBlock.index, startOutputPos, iter.getElems() + sizeChange ),
-                retValue, sizeChange, inputBlock, outputBlock, startOutputPos );
+        final int sizeChange = hasKey ? 0 : 1;
+        return getUpdateResult().set( pack( outputBlock.index, startOutputPos, elems + sizeChange ),
+                mode < UPDATE_ADD ? retValue : newValue, sizeChange, inputBlock, outputBlock, startOutputPos );
     }
 
     /**
      * This is a special version of previous method which deals with chains of possibly over 127 elements.
-     * Add key/value to a given chain. A chain is locked during the operation, so it can be safely updated
-     * @param iter Input iterator
+     * @param iter Input iterator standing at the start of the chain
      * @param inputBlock Input block
-     * @param inputStartOffset Start offset for the iterator (prior to len)
+     * @param chainLength Input chain length in bytes
      * @param key Key
-     * @param value Value
+     * @param hasKey True if the key is present in the chain
+     * @param retValue Old value, {@code NO_VALUE} if the key is not present
+     * @param newValue Value to store
+     * @param mode Update mode
      * @return A new chain and an old value
      */
-    private UpdateResult addToChainSlow( final long bucket, final Iterator iter, final Block inputBlock,
-                                         final int inputStartOffset, final float key, final double value )
+    private UpdateResult addToChainSlow( final Iterator iter, final Block inputBlock,
+                                         final int chainLength, final float key, final boolean hasKey,
+                                         final double retValue, final double newValue, final int mode )
     {
-        boolean hasKey = false;
-        double retValue = NO_VALUE;
-        while ( iter.hasNext() ) //look up a key and then fast forward to the end of chain to find out its length
-        {
-            iter.advance();
-            if ( iter.getKey() == key )
-            {
-                hasKey = true;
-                retValue = iter.getValue();
-                while ( iter.hasNext() )
-                    iter.skip();
-            }
-            else if ( iter.getKey() > key )
-            {
-                while ( iter.hasNext() )
-                    iter.skip();
-            }
-        }
-        final int chainLength = iter.getBuf().position() - inputStartOffset;
         final int elems = hasKey ? iter.getElems() : iter.getElems() + 1;
         final Block outputBlock = m_blockAllocator.getThreadLocalBlock( chainLength + 2 * m_singleEntryLength + 2 ); //2 for transition from header to chain length
         final int startOutputPos = outputBlock.pos;
@@ -410,10 +626,6 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
         final Writer writer = getWriter().reset( output, elems );
         boolean inserted = false;
 
-        //fully reset the iterator (position on the bucket length)
-        iter.getBuf().position( inputStartOffset );
-        iter.reset( iter.getBuf(), getBlockLength( bucket ) );
-
         while ( iter.hasNext() )
         {
             iter.advance();
@@ -422,45 +634,39 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
             else if ( iter.getKey() == key )
             {
                 inserted = true;
-                retValue = iter.getValue();
-                writer.writePair( key, value );
+                writer.writePair( key, newValue );
             }
             else
             {
                 if ( !inserted )
                 {
                     inserted = true;
-                    writer.writePair( key, value );
+                    writer.writePair( key, newValue );
                 }
                 writer.transferPair( iter );
             }
         }
         if ( !inserted ) //all keys are smaller
-            writer.writePair( key, value );
+            writer.writePair( key, newValue );
 
         outputBlock.pos = output.position();
         return getUpdateResult().set( pack( outputBlock.index, startOutputPos, MAX_ENCODED_LENGTH ),
-                retValue, hasKey ? 0 : 1, inputBlock, outputBlock, startOutputPos );
+                mode < UPDATE_ADD ? retValue : newValue, hasKey ? 0 : 1, inputBlock, outputBlock, startOutputPos );
     }
 
     @Override
     public double remove( final float key )
     {
-        Buffers buffers = m_data.get();
-        if ( buffers.old != null ) {
-            rehash( buffers.nextStableVersion ); //help rehashing, we are in rehashing state already
-            return remove( key );
-        }
+        final Buffers buffers = m_data.get();
+        if ( buffers.old != null )
+            moveBucket( key, buffers ); //same as in updates, we do not wait for the end of rehashing
 
         final int idx = getIndex( key, buffers.cur.length );
         long bucket = getBucket( buffers.cur,  idx );
         if ( bucket == EMPTY )
             return NO_VALUE;
-        else if ( bucket == RELOCATED )
-        {
-            rehash( buffers.nextStableVersion );
-            return remove( key );
-        }
+        else if ( isRelocated( bucket ) )
+            return remove( key ); //moved by the next rehashing
 
         //CAS loop
         while ( true )
@@ -498,11 +704,8 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
             }
 
             bucket = getBucket( buffers.cur, idx );
-            if ( bucket == RELOCATED )
-            {
-                rehash( buffers.nextStableVersion ); //saved version is prior to rehashing
-                return remove( key );
-            }
+            if ( isRelocated( bucket ) )
+                return remove( key ); //moved by the next rehashing
             else if ( bucket == EMPTY )
                 return NO_VALUE;
         }
@@ -574,19 +777,651 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
                 retValue, -1, inputBlock, outputBlock, startOutputPos );
     }
 
+    @Override
+    public void clear()
+    {
+        final Buffers buffers = m_data.get();
+        if ( buffers.old != null ) {
+            rehash( buffers.nextStableVersion ); //help rehashing, we are in rehashing state already
+            clear();
+            return;
+        }
+
+        final long[] tab = buffers.cur;
+        for ( int i = 0; i < tab.length; ++i )
+        {
+            //CAS loop removing the whole chain
+            while ( true )
+            {
+                final long bucket = getBucket( tab, i );
+                if ( bucket == EMPTY )
+                    break;
+                else if ( isRelocated( bucket ) )
+                {
+                    //all buckets before this one are empty, so they could not have been copied into the new table
+                    rehash( buffers.nextStableVersion );
+                    clear();
+                    return;
+                }
+
+                final Block input = getBlockByIndex( bucket );
+                if ( input == null )
+                    continue; //someone has relocated the data from this block, need to retry because we have a valid bucket
+                final int elems = getIterator().reset( getByteArray( input, getOffset( bucket ) ), getBlockLength( bucket ) ).getElems();
+                if ( compareAndSet( tab, i, bucket, EMPTY ) )
+                {
+                    input.decreaseEntries();
+                    addSize( -elems );
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long removeIf( final IFloatDoublePredicate pred )
+    {
+        return removeMatching( pred, true );
+    }
+
+    @Override
+    public long retainIf( final IFloatDoublePredicate pred )
+    {
+        return removeMatching( pred, false );
+    }
+
+    /**
+     * Remove all entries for which {@code pred.test} returns {@code remove}. Every bucket is visited once,
+     * every chain losing some entries is replaced with a single CAS. Local decoding objects are used, so the predicate
+     * could read this map.
+     * @param pred Predicate
+     * @param remove Predicate result for the entries to remove
+     * @return Number of removed entries
+     */
+    private long removeMatching( final IFloatDoublePredicate pred, final boolean remove )
+    {
+        final Buffers buffers = m_data.get();
+        if ( buffers.old != null ) {
+            rehash( buffers.nextStableVersion ); //help rehashing, we are in rehashing state already
+            return removeMatching( pred, remove );
+        }
+
+        final ByteArray input = new ByteArray();
+        final ByteArray output = new ByteArray();
+        final Iterator iter = new Iterator( m_keySerializer, m_valueSerializer );
+        final Writer writer = new Writer( m_keySerializer, m_valueSerializer );
+        boolean[] removedFlags = new boolean[ 256 ];
+        long removed = 0;
+
+        final long[] tab = buffers.cur;
+        for ( int i = 0; i < tab.length; ++i )
+        {
+            //CAS loop replacing the whole chain
+            while ( true )
+            {
+                final long bucket = getBucket( tab, i );
+                if ( bucket == EMPTY )
+                    break;
+                else if ( isRelocated( bucket ) )
+                {
+                    //the remaining buckets should be processed in the new table
+                    rehash( buffers.nextStableVersion );
+                    return removed + removeMatching( pred, remove );
+                }
+
+                final Block inputBlock = getBlockByIndex( bucket );
+                if ( inputBlock == null )
+                    continue; //someone has relocated the data from this block, need to retry because we have a valid bucket
+                final int inputStartOffset = getOffset( bucket );
+                iter.reset( input.reset( inputBlock.data, inputStartOffset ), getBlockLength( bucket ) );
+                final int elems = iter.getElems();
+                if ( removedFlags.length < elems )
+                    removedFlags = new boolean[ elems ];
+                int chainRemoved = 0;
+                for ( int j = 0; j < elems; ++j )
+                {
+                    iter.advance();
+                    removedFlags[ j ] = pred.test( iter.getKey(), iter.getValue() ) == remove;
+                    if ( removedFlags[ j ] )
+                        ++chainRemoved;
+                }
+                if ( chainRemoved == 0 )
+                    break;
+
+                final int newElems = elems - chainRemoved;
+                long newChain = EMPTY;
+                Block outputBlock = null;
+                int startOutputPos = 0;
+                if ( newElems > 0 )
+                {
+                    //the chain only shrinks, so its current length is enough
+                    final int chainLength = input.position() - inputStartOffset;
+                    iter.reset( input.reset( inputBlock.data, inputStartOffset ), getBlockLength( bucket ) );
+                    outputBlock = m_blockAllocator.getThreadLocalBlock( chainLength );
+                    startOutputPos = outputBlock.pos;
+                    outputBlock.increaseEntries(); //allocate ticket
+                    writer.reset( output.reset( outputBlock.data, startOutputPos ), newElems < MAX_ENCODED_LENGTH ? 0 : newElems );
+                    for ( int j = 0; j < elems; ++j )
+                    {
+                        iter.advance();
+                        if ( !removedFlags[ j ] )
+                            writer.transferPair( iter );
+                    }
+                    outputBlock.pos = output.position();
+                    newChain = pack( outputBlock.index, startOutputPos, newElems < MAX_ENCODED_LENGTH ? newElems : MAX_ENCODED_LENGTH );
+                }
+
+                if ( compareAndSet( tab, i, bucket, newChain ) )
+                {
+                    inputBlock.decreaseEntries();
+                    addSize( -chainRemoved );
+                    removed += chainRemoved;
+                    break;
+                }
+                //CAS failed, rollback the output position, it is handled by current thread anyway
+                if ( outputBlock != null )
+                {
+                    outputBlock.pos = startOutputPos;
+                    outputBlock.decreaseEntries();
+                }
+            }
+        }
+        checkShrink( buffers );
+        return removed;
+    }
+
     @Override
     public long size() {
         return calculateSize();
     }
 
+    @Override
+    public void forEach( final IFloatDoubleProcedure proc )
+    {
+        doForEach( proc, null );
+    }
+
+    @Override
+    public void parallelForEach( final IFloatDoubleProcedure proc, final ForkJoinPool pool )
+    {
+        doForEach( proc, Objects.requireNonNull( pool, "Pool must be provided!" ) );
+    }
+
+    /**
+     * Walk the map.
+     * We walk the table which is current at the call time. If it gets rehashed in the meantime, the walkers stop
+     * at the first relocated bucket and remember the bucket ranges they have not visited yet. After that we help
+     * rehashing and walk the new table, reporting only the entries which belong to the not visited ranges of
+     * all previously walked tables.
+     * @param proc Entry callback
+     * @param pool Pool to run the traversal tasks in, {@code null} to run in the current thread
+     */
+    private void doForEach( final IFloatDoubleProcedure proc, final ForkJoinPool pool )
+    {
+        BucketRanges[] levels = new BucketRanges[ 0 ];
+        while ( true )
+        {
+            final Buffers buffers = getStableBuffers();
+            final long[] tab = buffers.cur;
+            final Queue<int[]> notVisited = new ConcurrentLinkedQueue<>();
+            if ( pool == null )
+                forEachInRange( proc, tab, 0, tab.length, levels, notVisited );
+            else
+                pool.invoke( new ForEachTask( proc, tab, 0, tab.length, levels, notVisited ) );
+            if ( notVisited.isEmpty() )
+                return;
+
+            levels = Arrays.copyOf( levels, levels.length + 1 );
+            levels[ levels.length - 1 ] = new BucketRanges( tab.length, notVisited );
+            rehash( buffers.nextStableVersion ); //wait until this table is fully relocated
+        }
+    }
+
+    /**
+     * Call {@code proc} for entries in the given bucket range of a table. If a relocated bucket is found,
+     * the rest of the range is added to {@code notVisited} and this method returns.
+     * @param proc Entry callback
+     * @param tab Bucket table
+     * @param from First bucket index, inclusive
+     * @param to Last bucket index, exclusive
+     * @param levels Not visited ranges of all previously walked tables
+     * @param notVisited Collection of not visited ranges of the current table
+     */
+    private void forEachInRange( final IFloatDoubleProcedure proc, final long[] tab, final int from, final int to,
+                                 final BucketRanges[] levels, final Queue<int[]> notVisited )
+    {
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer, m_valueSerializer );
+        int i = from;
+        while ( i < to )
+        {
+            final long bucket = getBucket( tab, i );
+            if ( bucket == EMPTY )
+                ++i;
+            else if ( bucket == RELOCATED )
+            {
+                notVisited.add( new int[] { i, to } );
+                return;
+            }
+            else
+            {
+                final Block input = getBlockByIndex( bucket );
+                if ( input == null )
+                    continue; //someone has replaced this chain, read the bucket again
+                iterLocal.reset( barLocal.reset( input.data, getOffset( bucket ) ), getBlockLength( bucket ) );
+                while ( iterLocal.hasNext() )
+                {
+                    iterLocal.advance();
+                    if ( isNotVisited( iterLocal.getKey(), levels ) )
+                        proc.process( iterLocal.getKey(), iterLocal.getValue() );
+                }
+                ++i;
+            }
+        }
+    }
+
+    /**
+     * Check if a given key belongs to the not visited part of every previously walked table.
+     * @param key Key
+     * @param levels Not visited ranges of all previously walked tables
+     * @return True if an entry with this key was not seen by the caller yet
+     */
+    private boolean isNotVisited( final float key, final BucketRanges[] levels )
+    {
+        for ( final BucketRanges level : levels )
+            if ( !level.contains( getIndex( key, level.getTableLength() ) ) )
+                return false;
+        return true;
+    }
+
+    @Override
+    public double sumValues()
+    {
+        return aggregate( new Aggregator( null, null, null ), null ).sum;
+    }
+
+    @Override
+    public double sumValues( final ForkJoinPool pool )
+    {
+        return aggregate( new Aggregator( null, null, null ), Objects.requireNonNull( pool, "Pool must be provided!" ) ).sum;
+    }
+
+    @Override
+    public double minValue()
+    {
+        return aggregate( new Aggregator( null, null, null ), null ).min;
+    }
+
+    @Override
+    public double minValue( final ForkJoinPool pool )
+    {
+        return aggregate( new Aggregator( null, null, null ), Objects.requireNonNull( pool, "Pool must be provided!" ) ).min;
+    }
+
+    @Override
+    public double maxValue()
+    {
+        return aggregate( new Aggregator( null, null, null ), null ).max;
+    }
+
+    @Override
+    public double maxValue( final ForkJoinPool pool )
+    {
+        return aggregate( new Aggregator( null, null, null ), Objects.requireNonNull( pool, "Pool must be provided!" ) ).max;
+    }
+
+    @Override
+    public long countIf( final IFloatDoublePredicate pred )
+    {
+        return aggregate( new Aggregator( Objects.requireNonNull( pred, "Predicate must be provided!" ), null, null ), null ).count;
+    }
+
+    @Override
+    public long countIf( final IFloatDoublePredicate pred, final ForkJoinPool pool )
+    {
+        return aggregate( new Aggregator( Objects.requireNonNull( pred, "Predicate must be provided!" ), null, null ),
+                          Objects.requireNonNull( pool, "Pool must be provided!" ) ).count;
+    }
+
+    @Override
+    public void histogram( final double[] bounds, final long[] counts )
+    {
+        checkHistogramArgs( bounds, counts );
+        aggregate( new Aggregator( null, bounds, counts ), null );
+    }
+
+    @Override
+    public void histogram( final double[] bounds, final long[] counts, final ForkJoinPool pool )
+    {
+        checkHistogramArgs( bounds, counts );
+        aggregate( new Aggregator( null, bounds, counts ), Objects.requireNonNull( pool, "Pool must be provided!" ) );
+    }
+
+    private static void checkHistogramArgs( final double[] bounds, final long[] counts )
+    {
+        if ( counts.length != bounds.length + 1 )
+            throw new IllegalArgumentException( "counts.length must be equal to bounds.length + 1, got "
+                                                        + counts.length + " and " + bounds.length );
+    }
+
+    @Override
+    public int topK( final int k, final float[] keys, final double[] values )
+    {
+        return findTopK( k, keys, values, null );
+    }
+
+    @Override
+    public int topK( final int k, final float[] keys, final double[] values, final ForkJoinPool pool )
+    {
+        return findTopK( k, keys, values, Objects.requireNonNull( pool, "Pool must be provided!" ) );
+    }
+
+    private int findTopK( final int k, final float[] keys, final double[] values, final ForkJoinPool pool )
+    {
+        if ( k < 0 )
+            throw new IllegalArgumentException( "k must be non-negative, got " + k );
+        if ( keys.length < k || values.length < k )
+            throw new IllegalArgumentException( "Output arrays must have at least k = " + k + " elements, got "
+                                                        + keys.length + " and " + values.length );
+        final TopK heap = new TopK( k );
+        if ( pool == null )
+            forEach( heap );
+        else
+            parallelForEach( heap, pool );
+        return heap.drainTo( keys, values );
+    }
+
+    /**
+     * Feed all map entries to an aggregator
+     * @param agg Aggregator
+     * @param pool Pool to run the traversal tasks in, {@code null} to run in the current thread
+     * @return {@code agg}
+     */
+    private Aggregator aggregate( final Aggregator agg, final ForkJoinPool pool )
+    {
+        if ( pool == null )
+            forEach( agg );
+        else
+            parallelForEach( agg, pool );
+        return agg;
+    }
+
+    /**
+     * Get a procedure for the second half of a split traversal range. Partial procedures are copied, so every task
+     * updates its own partial result. Other procedures are shared.
+     * @param proc Procedure used for the whole range
+     * @return Procedure to use for the second half
+     */
+    private static IFloatDoubleProcedure forkProcedure( final IFloatDoubleProcedure proc )
+    {
+        return proc instanceof PartialProcedure ? ( ( PartialProcedure ) proc ).copy() : proc;
+    }
+
+    /**
+     * Merge partial results of a procedure returned by {@code forkProcedure} back into the original one
+     * @param proc Original procedure
+     * @param forked Forked procedure
+     */
+    private static void joinProcedure( final IFloatDoubleProcedure proc, final IFloatDoubleProcedure forked )
+    {
+        if ( forked != proc )
+            ( ( PartialProcedure ) proc ).merge( ( PartialProcedure ) forked );
+    }
+
+    /**
+     * A procedure accumulating a partial result. Parallel traversals give every task its own copy
+     * and merge the copies when the tasks are joined.
+     */
+    private interface PartialProcedure extends IFloatDoubleProcedure
+    {
+        /**
+         * @return An empty procedure with the same settings
+         */
+        public PartialProcedure copy();
+
+        /**
+         * Add a partial result of another procedure to this one
+         * @param other Procedure created by {@code copy}
+         */
+        public void merge( final PartialProcedure other );
+    }
+
+    /**
+     * A bounded min-heap keeping the entries with the largest values seen so far
+     */
+    private static final class TopK implements PartialProcedure
+    {
+        private final float[] m_keys;
+        private final double[] m_values;
+        private int m_size = 0;
+
+        public TopK( final int k ) {
+            m_keys = new float[ k ];
+            m_values = new double[ k ];
+        }
+
+        @Override
+        public void process( final float key, final double value ) {
+            if ( m_size < m_values.length )
+            {
+                //sift up
+                int pos = m_size++;
+                while ( pos > 0 )
+                {
+                    final int parent = ( pos - 1 ) >>> 1;
+                    if ( m_values[ parent ] <= value )
+                        break;
+                    m_keys[ pos ] = m_keys[ parent ];
+                    m_values[ pos ] = m_values[ parent ];
+                    pos = parent;
+                }
+                m_keys[ pos ] = key;
+                m_values[ pos ] = value;
+            }
+            else if ( m_size > 0 && value > m_values[ 0 ] )
+                replaceTop( key, value );
+        }
+
+        /**
+         * Replace the smallest entry and sift it down
+         */
+        private void replaceTop( final float key, final double value )
+        {
+            int pos = 0;
+            while ( true )
+            {
+                int child = 2 * pos + 1;
+                if ( child >= m_size )
+                    break;
+                if ( child + 1 < m_size && m_values[ child + 1 ] < m_values[ child ] )
+                    ++child;
+                if ( m_values[ child ] >= value )
+                    break;
+                m_keys[ pos ] = m_keys[ child ];
+                m_values[ pos ] = m_values[ child ];
+                pos = child;
+            }
+            m_keys[ pos ] = key;
+            m_values[ pos ] = value;
+        }
+
+        @Override
+        public TopK copy()
+        {
+            return new TopK( m_values.length );
+        }
+
+        @Override
+        public void merge( final PartialProcedure partial )
+        {
+            final TopK other = ( TopK ) partial;
+            for ( int i = 0; i < other.m_size; ++i )
+                process( other.m_keys[ i ], other.m_values[ i ] );
+        }
+
+        /**
+         * Move all entries to the output arrays in the descending value order. The heap is empty after this call.
+         * @param keys Output keys
+         * @param values Output values
+         * @return Number of entries
+         */
+        public int drainTo( final float[] keys, final double[] values )
+        {
+            final int res = m_size;
+            while ( m_size > 0 )
+            {
+                final int last = --m_size;
+                keys[ last ] = m_keys[ 0 ];
+                values[ last ] = m_values[ 0 ];
+                if ( last > 0 )
+                    replaceTop( m_keys[ last ], m_values[ last ] );
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Accumulator for all value aggregations. It calculates all of them at once, which is much cheaper
+     * than decoding the chains.
+     */
+    private static final class Aggregator implements PartialProcedure
+    {
+        /** Only matching entries are counted if not null */
+        private final IFloatDoublePredicate m_pred;
+        /** Histogram bin bounds, may be null */
+        private final double[] m_bounds;
+        /** Histogram bin counters, may be null */
+        private final long[] m_counts;
+
+        public double sum = 0;
+        public double min = Double.POSITIVE_INFINITY;
+        public double max = Double.NEGATIVE_INFINITY;
+        public long count = 0;
+
+        public Aggregator( final IFloatDoublePredicate pred, final double[] bounds, final long[] counts ) {
+            m_pred = pred;
+            m_bounds = bounds;
+            m_counts = counts;
+        }
+
+        @Override
+        public void process( final float key, final double value ) {
+            sum += value;
+            if ( value < min )
+                min = value;
+            if ( value > max )
+                max = value;
+            if ( m_pred == null || m_pred.test( key, value ) )
+                ++count;
+            if ( m_counts != null )
+            {
+                final int pos = Arrays.binarySearch( m_bounds, value );
+                ++m_counts[ pos >= 0 ? pos + 1 : -pos - 1 ];
+            }
+        }
+
+        @Override
+        public Aggregator copy()
+        {
+            return new Aggregator( m_pred, m_bounds, m_counts != null ? new long[ m_counts.length ] : null );
+        }
+
+        @Override
+        public void merge( final PartialProcedure partial )
+        {
+            final Aggregator other = ( Aggregator ) partial;
+            sum += other.sum;
+            if ( other.min < min )
+                min = other.min;
+            if ( other.max > max )
+                max = other.max;
+            count += other.count;
+            if ( m_counts != null )
+                for ( int i = 0; i < m_counts.length; ++i )
+                    m_counts[ i ] += other.m_counts[ i ];
+        }
+    }
+
+    /**
+     * A task processing a range of buckets. Large ranges are split in halves.
+     */
+    private final class ForEachTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final IFloatDoubleProcedure m_proc;
+        private final long[] m_tab;
+        private final int m_from;
+        private final int m_to;
+        private final BucketRanges[] m_levels;
+        private final Queue<int[]> m_notVisited;
+
+        public ForEachTask( final IFloatDoubleProcedure proc, final long[] tab, final int from, final int to,
+                            final BucketRanges[] levels, final Queue<int[]> notVisited ) {
+            m_proc = proc;
+            m_tab = tab;
+            m_from = from;
+            m_to = to;
+            m_levels = levels;
+            m_notVisited = notVisited;
+        }
+
+        @Override
+        protected void compute() {
+            if ( m_to - m_from <= PARALLEL_MIN_BUCKETS )
+                forEachInRange( m_proc, m_tab, m_from, m_to, m_levels, m_notVisited );
+            else
+            {
+                final int mid = ( m_from + m_to ) >>> 1;
+                final IFloatDoubleProcedure right = forkProcedure( m_proc );
+                invokeAll( new ForEachTask( m_proc, m_tab, m_from, mid, m_levels, m_notVisited ),
+                           new ForEachTask( right, m_tab, mid, m_to, m_levels, m_notVisited ) );
+                joinProcedure( m_proc, right );
+            }
+        }
+    }
+
+    /**
+     * Get the current map state. If rehashing is in progress, help it first, so that the result is always
+     * a stable state (no {@code old} table).
+     * @return Current stable map state
+     */
+    private Buffers getStableBuffers()
+    {
+        Buffers buffers = m_data.get();
+        while ( buffers.old != null )
+        {
+            rehash( buffers.nextStableVersion );
+            buffers = m_data.get();
+        }
+        return buffers;
+    }
+
+    /**
+     * Make sure that the bucket of a given key is copied from the old table into the new one. The bucket is moved
+     * by the current thread unless another thread has already started moving it, in which case we wait until it is done.
+     * @param key Key to be updated
+     * @param buffers Map state in the rehashing stage
+     */
+    private void moveBucket( final float key, final Buffers buffers )
+    {
+        final int idxOld = getIndex( key, buffers.old.length );
+        if ( getBucket( buffers.old, idxOld ) == RELOCATED )
+            return;
+        if ( !rehashInnerStep( buffers.old, buffers.cur, getRehashByteArray(), getRehashIterator(), idxOld ) )
+            while ( getBucket( buffers.old, idxOld ) != RELOCATED )
+                LockSupport.parkNanos( 1 );
+    }
+
         /*
     Rehashing:
     new_table is initialized.
-    'get', 'put' and 'remove' check that resize is on and help other threads.
+    'get' checks that resize is on and helps other threads.
 
     Updates:
-    if CAS in the 'put' fails, check if new_table is allocated - help resizing and then execute 'put'
-    Same for 'remove'
+    'put' and 'remove' move the bucket of their key into new_table (or wait until another thread has moved it)
+    and then update new_table. Other keys of new_table cell are merged by rehashing threads using CAS, so the update
+    is not lost. If CAS fails because the next resize has marked the cell, the update is restarted.
 
     Resize:
     Increase the number of workers.
@@ -597,7 +1432,9 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
     If bucket length = 1, we do not need to transfer the chain. Instead we can move the {@code long} key right
     to the correct bucket in the new map (provided it is empty).
 
-    Once finished iteration, reduce the number of workers. The last one moves new table to the current state.
+    Once finished iteration, wait until every cell is RELOCATED: skipped cells may still be copied by other workers
+    or by updates, which move single cells without taking a ticket. Then reduce the number of workers.
+    The last one moves new table to the current state.
      */
 
     /**
@@ -652,47 +1489,95 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
         for ( int i = 0; i < startPos; ++i )
             if ( !rehashInnerStep( old, dest, barLocal, iterLocal, i ) )
                 i += old.length / CPU_NUMBER; //jump ahead to reduce contention / quickly catch up
+        //The cells we have jumped over may still be unprocessed or being copied. Updates move single cells without
+        //taking a worker ticket, so nobody may leave until every cell is relocated.
+        for ( int i = 0; i < old.length; ++i )
+            while ( !rehashInnerStep( old, dest, barLocal, iterLocal, i ) && getBucket( old, i ) != RELOCATED )
+                LockSupport.parkNanos( 1 );
     }
 
     private boolean rehashInnerStep( final long[] old, final long[] dest, final ByteArray bar, final Iterator iter, final int idxOld )
     {
-        final long bucket = getBucket( old, idxOld );
-        //Put RELOCATED into each processed cell. This way we distinguish between not used and relocated cells.
-        //Besides that, RELOCATED is not a valid chain.
-        if ( bucket != RELOCATED && compareAndSet( old, idxOld, bucket, RELOCATED ) )
+        while ( true )
         {
+            final long bucket = getBucket( old, idxOld );
+            //processed or being processed by another thread
+            if ( isRelocated( bucket ) )
+                return false;
+            //Put RELOCATED into each processed cell. This way we distinguish between not used and relocated cells.
+            //Besides that, RELOCATED is not a valid chain.
             if ( bucket == EMPTY ) //empty cells have to be replaced anyway
-                return true;
-
-            //this thread is the only one to process this chain
-            final Block inputBlock = getBlockByIndex( bucket );
-            final int offset = getOffset( bucket );
-
-            final int blockLength = getBlockLength( bucket );
-            iter.reset( bar.reset( inputBlock.data, offset ), blockLength );
-            if ( blockLength == 1 ) //shortcut, no data copy for blocklen = 1
             {
-                iter.advance();
-                //if CAS fails, the dest bucket is 1+ long, so we need to go via a long path
-                final int index = getIndex( iter.getKey(), dest.length );
-                if ( !compareAndSet( dest, index, EMPTY, bucket ) )
-                {
-                    doPutRehash(dest, iter.getKey(), iter.getValue());
-                    inputBlock.decreaseEntries();
-                }
+                if ( compareAndSet( old, idxOld, EMPTY, RELOCATED ) )
+                    return true;
             }
-            else
+            //A chain is marked as MOVING while it is copied. It stays readable for the non-blocking lookups,
+            //which switch to the new table only after the chain is copied and the cell is set to RELOCATED.
+            else if ( compareAndSet( old, idxOld, bucket, bucket | MOVING ) )
             {
-                while ( iter.hasNext() )
+                //this thread is the only one to process this chain
+                final Block inputBlock = getBlockByIndex( bucket );
+                final int offset = getOffset( bucket );
+
+                final int blockLength = getBlockLength( bucket );
+                iter.reset( bar.reset( inputBlock.data, offset ), blockLength );
+                boolean release = true;
+                if ( blockLength == 1 ) //shortcut, no data copy for blocklen = 1
                 {
                     iter.advance();
-                    doPutRehash( dest, iter.getKey(), iter.getValue() );
+                    //if CAS fails, the dest bucket is 1+ long, so we need to go via a long path
+                    final int index = getIndex( iter.getKey(), dest.length );
+                    if ( compareAndSet( dest, index, EMPTY, bucket ) )
+                        release = false; //the new table uses the same chain
+                    else
+                        doPutRehash(dest, iter.getKey(), iter.getValue());
                 }
-                inputBlock.decreaseEntries(); //bucket relocated
+                else
+                {
+                    while ( iter.hasNext() )
+                    {
+                        iter.advance();
+                        doPutRehash( dest, iter.getKey(), iter.getValue() );
+                    }
+                }
+                //the input block is released after the cell is set to RELOCATED, so that the non-blocking lookups
+                //could read a MOVING chain
+                setBucket( old, idxOld, RELOCATED );
+                if ( release )
+                    inputBlock.decreaseEntries(); //bucket relocated
+                return true;
             }
-            return true;
+            //the cell was updated by a thread which has not noticed the rehashing yet, read it again
+        }
+    }
+
+    /**
+     * Calculate a value to be stored in the map
+     * @param mode Update mode
+     * @param key Key
+     * @param hasKey True if the key is present in the map
+     * @param oldValue Existing value, {@code NO_VALUE} if the key is not present
+     * @param value Value passed by the caller
+     * @param op Merge function, used by {@code UPDATE_MERGE} only
+     * @param fn Compute function, used by {@code UPDATE_COMPUTE} only
+     * @return A value to store
+     */
+    private static double updatedValue( final int mode, final float key, final boolean hasKey, final double oldValue,
+                                       final double value, final IDoubleBinaryOperator op, final IFloatDoubleFunction fn )
+    {
+        switch ( mode )
+        {
+            case UPDATE_PUT_IF_ABSENT:
+                return hasKey ? oldValue : value;
+            case UPDATE_ADD:
+                return oldValue + value;
+            case UPDATE_MERGE:
+                return hasKey ? op.apply( oldValue, value ) : value;
+            case UPDATE_COMPUTE:
+                return fn.apply( key, oldValue );
+            default:
+                return value;
         }
-        return bucket != RELOCATED;
     }
 
     /**
@@ -703,7 +1588,8 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
      */
     private int getIndex( final float key, final int tabSize )
     {
-        return Tools.getIndexFast( key, tabSize );
+        final int hash = m_hashStrategy.hash( Float.floatToIntBits( key ) );
+        return m_indexMode == IndexMode.POWER_OF_TWO ? Tools.getIndexPow2( hash, tabSize ) : Tools.getIndexFast( hash, tabSize );
     }
 
 
@@ -791,6 +1677,25 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
             return noValue;
         }
 
+        /**
+        * Check if a given key is present in the chain. Values are skipped without being read.
+        * @param key Key to look up
+        * @return True if the key is found
+        */
+        public boolean containsKey( final float key )
+        {
+            while ( hasNext() ) {
+                advance( false );
+                if ( getKey() == key )
+                    return true;
+                else if ( getKey() > key ) //keys are sorted
+                    return false;
+                else
+                    skipValue();
+            }
+            return false;
+        }
+
         public void skipValue()
         {
             m_valueSerializer.skip( buf );
@@ -969,6 +1874,31 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
         return res;
     }
 
+    /**
+     * Get a thread local iterator for moving a single bucket during rehashing. It can not be shared with
+     * {@code getIterator}, because the moved entries are added to the new table using {@code addToChain}.
+     * @return A cached iterator object
+     */
+    private Iterator getRehashIterator()
+    {
+        Iterator res = s_rehashIters.get();
+        if ( res == null )
+            s_rehashIters.set( res = new Iterator( m_keySerializer, m_valueSerializer ) );
+        return res;
+    }
+
+    /**
+     * Get a thread local byte array for moving a single bucket during rehashing. {@code addToChain} uses the other ones.
+     * @return A cached byte array, it is reset by the caller
+     */
+    private ByteArray getRehashByteArray()
+    {
+        ByteArray res = s_bar3.get();
+        if ( res == null )
+            s_bar3.set( res = new ByteArray() );
+        return res;
+    }
+
     /**
      * Get a cached writer for the current thread
      * @return A cached writer for the current thread
@@ -1067,26 +1997,84 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
             return;
         addSize( delta );
 
-        if ( bucketLength > m_iFillFactor && calculateSize() > curBuffers.threshold )
+        //updates do not join the rehashing, so the next rehashing may only be started from a stable state
+        if ( curBuffers.old == null && bucketLength > m_iFillFactor && calculateSize() > curBuffers.threshold )
         {
             final long multiplier = m_fillFactor <= 2 ? 2 : m_iFillFactor;
-            int newCapacity = Primes.findNextPrime( ( long ) Math.ceil( multiplier * curBuffers.threshold / m_fillFactor ) );
+            int newCapacity = m_indexMode.getNextCapacity( ( long ) Math.ceil( multiplier * curBuffers.threshold / m_fillFactor ) );
             //check if we got too close to the max array size, otherwise we will have to make a pretty useless resize when got close to 2G*fillFactor entries
-            if ( newCapacity * 1.5 > Primes.getMaxIntPrime() )
-                newCapacity = Primes.getMaxIntPrime();
+            if ( newCapacity * 1.5 > m_indexMode.getMaxCapacity() )
+                newCapacity = m_indexMode.getMaxCapacity();
             //this check disables rehashing after a table has reached the maximal size
-            final long newThreshold = newCapacity >= Primes.getMaxIntPrime() ? Long.MAX_VALUE : curBuffers.threshold * multiplier;
-            //Entering rehashing mode. It does not matter which thread changes it, we still have to enter {@code rehash}.
-            //Using if-else here helps with debugging
-            if ( m_data.compareAndSet( curBuffers, new Buffers( m_longAlloc.allocate( newCapacity ), curBuffers.cur,
-                            newThreshold,
-                            curBuffers.version + 1, //switching to rehashing mode
-                            curBuffers.nextStableVersion //next stable version does not change at this moment
-                    ) ) )
-                rehash( curBuffers.nextStableVersion ); //we must use cached version here, actual may be greater
-            else
-                rehash( curBuffers.nextStableVersion ); //we must use cached version here, actual may be greater
+            final long newThreshold = newCapacity >= m_indexMode.getMaxCapacity() ? Long.MAX_VALUE : curBuffers.threshold * multiplier;
+            startRehash( curBuffers, newCapacity, newThreshold );
         }
+        else if ( delta < 0 && ( s_size.get().v & ( SHRINK_CHECK_INTERVAL - 1 ) ) == 0 )
+            checkShrink( curBuffers );
+    }
+
+    /**
+     * Choose how lookups behave while the table is being rehashed. By default a lookup joins the rehashing and
+     * waits until it is over. A non-blocking lookup reads the old table instead (or the new table if the key bucket
+     * is already moved), so read-only threads are never delayed by the rehashing. The rehashing itself may take
+     * longer in this mode, because readers do not help it anymore.
+     * @param nonBlocking True to enable non-blocking lookups
+     */
+    @Override
+    public void setNonBlockingReads( final boolean nonBlocking )
+    {
+        m_nonBlockingReads = nonBlocking;
+    }
+
+    /**
+     * Shrink the bucket table to the smallest capacity suitable for the current map size.
+     * This method never grows the table. It does nothing if another resize has been started concurrently.
+     */
+    @Override
+    public void trimToSize()
+    {
+        final Buffers buffers = getStableBuffers();
+        final long size = Math.max( calculateSize(), 1 );
+        final int newCapacity = m_indexMode.getCapacity( size, m_fillFactor );
+        if ( newCapacity < buffers.cur.length )
+            startRehash( buffers, newCapacity, m_indexMode.getThreshold( size, newCapacity, m_fillFactor ) );
+    }
+
+    /**
+     * Shrink the table if the map size has dropped below the low water mark. Some spare capacity is left, so that
+     * the map could grow again without an immediate rehash. The table never gets smaller than the initial one.
+     * @param curBuffers Current map state
+     */
+    private void checkShrink( final Buffers curBuffers )
+    {
+        if ( curBuffers.old != null || curBuffers.cur.length <= m_minCapacity )
+            return;
+        final long size = calculateSize();
+        if ( size < curBuffers.cur.length * m_fillFactor / SHRINK_DIVISOR )
+        {
+            final long target = Math.max( size * 2, m_initialSize );
+            final int newCapacity = m_indexMode.getCapacity( target, m_fillFactor );
+            if ( newCapacity < curBuffers.cur.length )
+                startRehash( curBuffers, newCapacity, m_indexMode.getThreshold( target, newCapacity, m_fillFactor ) );
+        }
+    }
+
+    /**
+     * Switch the map into rehashing mode with a new table and help rehashing. The rehashing protocol does not
+     * depend on the direction of the resize, so it is used for both growing and shrinking.
+     * @param curBuffers Stable state the new table was calculated for
+     * @param newCapacity New table capacity
+     * @param newThreshold Map size threshold for the new table
+     */
+    private void startRehash( final Buffers curBuffers, final int newCapacity, final long newThreshold )
+    {
+        //Entering rehashing mode. It does not matter which thread changes it, we still have to enter {@code rehash}.
+        m_data.compareAndSet( curBuffers, new Buffers( m_longAlloc.allocate( newCapacity ), curBuffers.cur,
+                        newThreshold,
+                        curBuffers.version + 1, //switching to rehashing mode
+                        curBuffers.nextStableVersion //next stable version does not change at this moment
+                ) );
+        rehash( curBuffers.nextStableVersion ); //we must use cached version here, actual may be greater
     }
 
     /////////////////////////////////////////////////////////////
@@ -1128,6 +2116,11 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
         return unsafe.getLongVolatile(ar, ((long) idx << BB_SHIFT) + BB_BASE);
     }
 
+    private void setBucket( final long[] ar, final int idx, final long bucket )
+    {
+        unsafe.putLongVolatile(ar, ((long) idx << BB_SHIFT) + BB_BASE, bucket);
+    }
+
 
     /////////////////////////////////////////////////////////////////////
     //   Some debugging
@@ -1137,11 +2130,11 @@ public class FloatDoubleConcurrentChainedMap implements IFloatDoubleConcurrentMa
     {
         final int[] cnt = new int[ 1000 ];
         long sum = 0;
-        final long[] tab = m_data.get().cur;
+        final long[] tab = getStableBuffers().cur;
         for ( int i = 0; i < tab.length; ++i )
         {
             final long bucket = getBucket( tab, i );
-            if ( bucket != EMPTY )
+            if ( bucket != EMPTY && bucket != RELOCATED )
             {
                 final int len = getBlockLength( bucket );
                 cnt[ len ]++;
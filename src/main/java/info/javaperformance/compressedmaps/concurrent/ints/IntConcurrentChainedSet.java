@@ -0,0 +1,1053 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.concurrent.ints;
+
+import info.javaperformance.functions.IIntProcedure;
+import info.javaperformance.malloc.Block;
+import info.javaperformance.malloc.ConcurrentBlockAllocator;
+import info.javaperformance.serializers.*;
+import info.javaperformance.tools.BucketRanges;
+import info.javaperformance.tools.Buffers;
+import info.javaperformance.tools.LongAllocator;
+import info.javaperformance.tools.Primes;
+import info.javaperformance.tools.Tools;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static info.javaperformance.buckets.LongBucketEncoding.*;
+import static info.javaperformance.tools.VarLen.readUnsignedInt;
+import static info.javaperformance.tools.VarLen.writeUnsignedInt;
+
+/**
+ * A primitive concurrent hash set. It is a key-only version of {@code IntIntConcurrentChainedMap}: every chain
+ * contains sorted delta-encoded keys and nothing else, so there are no dummy values to store or to copy.
+ *
+ * This set does not use any locks, but it may spin using {@code LockSupport.parkNanos} method in a few cases.
+ * {@code contains} returns the state at the moment of method call. Both {@code add} and {@code remove} use CAS loops
+ * for updates. Rehashing is done concurrently, all operations join it once they detect it is going on.
+ */
+public class IntConcurrentChainedSet implements IIntConcurrentSet {
+    private static final int CPU_NUMBER = Runtime.getRuntime().availableProcessors();
+
+    /*
+    We store multiple reusable objects here. They are needed to avoid unnecessary object allocations.
+    These objects should not be static - some of the are initialized with set specific serializers, some may simply
+    keep some set state for longer than needed.
+     */
+    private final ThreadLocal<Iterator> s_iters = new ThreadLocal<>();
+    private final ThreadLocal<ByteArray> s_bar1 = new ThreadLocal<>();
+    private final ThreadLocal<ByteArray> s_bar2 = new ThreadLocal<>();
+    private final ThreadLocal<Writer> s_writers = new ThreadLocal<>();
+    private final ThreadLocal<UpdateResult> s_updateRes = new ThreadLocal<UpdateResult>(){
+        @Override
+        protected UpdateResult initialValue() {
+            return new UpdateResult();
+        }
+    };
+
+    /** Key serializer */
+    private final IIntSerializer m_keySerializer;
+    /** Original fill factor */
+    private final float m_fillFactor;
+    /**
+     * We check if we have to rehash only after any bucket length exceeds this value. This allows us to avoid
+     * costly contended fields access.
+     */
+    private final int m_iFillFactor;
+    /**
+     * Most of variable set state is stored here
+     */
+    private final AtomicReference<Buffers> m_data;
+
+    /** Memory blocks are allocated and tracked here */
+    private final ConcurrentBlockAllocator m_blockAllocator = new ConcurrentBlockAllocator();
+    /** This object helps us not to allocate extra long[] in {@code changeSize} */
+    private final LongAllocator m_longAlloc = new LongAllocator();
+
+    /** Max length of a single entry - optimization */
+    private final int m_singleEntryLength;
+
+    /**
+     * Create a set with a given size, fill factor and key serializer
+     * @param size Expected set size
+     * @param fillFactor Set fill factor. Fill factors over 1.0 are supported and preferred for this set. This implementation
+     *                   puts a soft limit of 16 for the fill factors. Such fill factors make buckets too long, which
+     *                   increases the access/update costs, but the difference in the compression is getting smaller
+     *                   and smaller.
+     * @param keySerializer Serializer for keys
+     *
+     * @throws NullPointerException If {@code keySerializer == null}
+     * @throws IllegalArgumentException If {@code fillFactor > 16} or {@code fillFactor <= 0.01}
+     */
+    public IntConcurrentChainedSet( final long size, final float fillFactor, final IIntSerializer keySerializer )
+    {
+        Objects.requireNonNull( keySerializer, "Key serializer must be provided!" );
+        if ( fillFactor > 16 )
+            throw new IllegalArgumentException( "Fill factors higher than 16 are not supported!" );
+        if ( fillFactor <= 0.01 )
+            throw new IllegalArgumentException( "Fill factor must be greater than 0.01 and less or equal to 16!" );
+
+        m_keySerializer = keySerializer;
+        m_fillFactor = fillFactor;
+        m_iFillFactor = ( int ) Math.ceil( m_fillFactor );
+        final long requestedCapacity = ( long ) Math.ceil( size / fillFactor );
+        final int newCapacity = requestedCapacity >= Primes.getMaxIntPrime() ? Primes.getMaxIntPrime() : Primes.findNextPrime( requestedCapacity );
+        //this threshold adjustment is needed on tiny initial size / large fill factor combinations so that we do not
+        //rehash table without table size increase in future.
+        long threshold;
+        if ( newCapacity == Primes.getMaxIntPrime() )
+            threshold = Long.MAX_VALUE;
+        else {
+            threshold = size;
+            while ( Primes.findNextPrime( ( int ) Math.ceil( threshold * 2 / fillFactor ) ) == newCapacity )
+                threshold *= 2;
+        }
+        m_data = new AtomicReference<>( new Buffers( m_longAlloc.allocate( newCapacity ), null, threshold, 0, 2 ) );
+        m_singleEntryLength = m_keySerializer.getMaxLength() + 1; //optimization
+    }
+
+    /**
+     * Get block by bucket
+     * @param bucket Bucket
+     * @return Block
+     */
+    private Block getBlockByIndex( final long bucket )
+    {
+        return m_blockAllocator.getBlockByIndex( getBlockIndex( bucket ) );
+    }
+
+    @Override
+    public boolean contains( final int key )
+    {
+        final Buffers buffers = m_data.get();
+        if ( buffers.old != null )
+            rehash( buffers.nextStableVersion ); //buffers.cur will be valid on the exit from rehashing
+
+        final long[] tab = buffers.cur;
+        final int idx = getIndex( key, tab.length );
+
+        final long bucket = getBucket( tab, idx );
+        if ( bucket == EMPTY )
+            return false;
+        //we have definitely relocated something from this chain.
+        else if ( bucket == RELOCATED ) {
+            rehash( buffers.nextStableVersion );
+            return contains( key );
+        }
+
+        final Block input = getBlockByIndex( bucket );
+        if ( input == null )
+            return contains( key ); //someone has relocated the data from this block, need to retry because we have a valid bucket
+
+        return getIterator().reset( getByteArray( input, getOffset( bucket ) ), getBlockLength( bucket ) ).findKey( key );
+    }
+
+    @Override
+    public boolean add( final int key )
+    {
+        //help rehashing if we are in rehashing state already. Another rehash may start right after the previous one
+        //has finished, so we must not proceed until we see a stable state. Otherwise we could write into a table
+        //which is being filled by the rehashing threads and lose this update.
+        final Buffers buffers = getStableBuffers();
+
+        final int idx = getIndex( key, buffers.cur.length );
+        long bucket = getBucket( buffers.cur, idx );
+        //if bucket already relocated, do not waste time, rehash and then retry
+        if ( bucket == RELOCATED )
+        {
+            rehash( buffers.nextStableVersion ); //just turned into rehashing
+            return add( key );
+        }
+
+        //CAS in a loop
+        while ( true )
+        {
+            //copy/update the chain
+            final UpdateResult res = addToChain( bucket, key );
+            if ( res != null && res.sizeChange == 0 )
+                return false; //the key is present in the chain, no output was written
+            //see the comment in the {@code update} method of the maps for the thread safety reasoning
+            if ( res != null && compareAndSet( buffers.cur, idx, bucket, res.chain ) )
+            {
+                //commit usage changes to input block (output already updated)
+                if ( res.input != null ) //could be null for new bucket
+                    res.input.decreaseEntries();
+
+                changeSize( res.sizeChange, buffers, getBlockLength( res.chain ) );
+                return true;
+            }
+            else {
+                //rollback output block usage. It is managed by a current thread, so it is safe
+                if ( res != null ) {
+                    res.output.pos = res.outputPrevStart;
+                    res.output.decreaseEntries();
+                }
+
+                //cell could be changed to not empty / null (empty) in the normal run
+                //or to RELOCATED during rehashing by other thread
+                bucket = getBucket( buffers.cur, idx );
+                if ( bucket == RELOCATED )
+                {
+                    rehash( buffers.nextStableVersion );
+                    return add( key );
+                }
+            }
+        }
+    }
+
+    /*
+    A version of {@code add}, which is called from rehashing only. It does not need to detect rehashing in progress.
+     */
+    private void doAddRehash( final long[] tab, final int key )
+    {
+        final int idx = getIndex( key, tab.length );
+        long bucket = getBucket( tab, idx );
+        //We need to copy existing chain into a new buffer and add a key.
+        //CAS in a loop
+        while ( true )
+        {
+            //copy/update the chain
+            final UpdateResult res = addToChain( bucket, key );
+            if ( res != null && compareAndSet( tab, idx, bucket, res.chain ) ) {
+                //commit usage changes to input block (output already updated)
+                if ( res.input != null ) //could be null for new bucket
+                    res.input.decreaseEntries();
+                return;
+            }
+            else {
+                //rollback output block usage. It is managed by a current thread, so it is safe
+                if ( res != null )
+                {
+                    res.output.pos = res.outputPrevStart;
+                    res.output.decreaseEntries();
+                }
+                //and get the updated bucket
+                bucket = getBucket( tab, idx );
+            }
+        }
+    }
+
+    /**
+     * Write a single entry bucket
+     * @param output Use this block for output (it has enough space)
+     * @param key Key
+     * @return A long pointing to the written record
+     */
+    private long singleEntry( final Block output, final int key )
+    {
+        final int startPos = output.pos;
+        final ByteArray bar = getByteArray( output );
+        output.increaseEntries(); //allocate block prior to writing
+        getWriter().reset( bar ).writeKey( key );
+        output.pos = bar.position();
+        return pack( output.index, startPos, 1 );
+    }
+
+    /**
+     * Add a key to a given chain. Nothing is written if the key is already present.
+     * @param bucket An existing chain
+     * @param key Key
+     * @return A new chain with {@code sizeChange = 1}, the same chain with {@code sizeChange = 0} if the key is present
+     *         or null if the chain was relocated in the meantime
+     */
+    private UpdateResult addToChain( final long bucket, final int key )
+    {
+        if ( bucket == EMPTY ) {
+            final Block output = m_blockAllocator.getThreadLocalBlock( m_singleEntryLength );
+            final int outputStart = output.pos;
+            return getUpdateResult().set( singleEntry( output, key ), 1, null, output, outputStart );
+        }
+
+        final Block inputBlock = getBlockByIndex( bucket );
+        if ( inputBlock == null )
+            return null; //it means we are already late
+        final int inputStartOffset = getOffset( bucket );
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator iter = getIterator().reset( input, getBlockLength( bucket ) );
+        //look up a key and then fast forward to the end of chain to find out its length
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() == key )
+                return getUpdateResult().set( bucket, 0, null, null, 0 );
+            else if ( iter.getKey() > key )
+            {
+                while ( iter.hasNext() )
+                    iter.skip();
+            }
+        }
+        final int chainLength = input.position() - inputStartOffset;
+        final int elems = iter.getElems() + 1;
+
+        //2* is a safety net here due to possibility that a delta may get longer, 5 is the maximal length of the chain length field
+        final Block outputBlock = m_blockAllocator.getThreadLocalBlock( chainLength + 2 * m_singleEntryLength + 5 );
+        final int startOutputPos = outputBlock.pos;
+        final ByteArray output = getByteArray2( outputBlock );
+
+        outputBlock.increaseEntries(); //allocate block
+        //the number of elements is written prior to the chain only if it does not fit into the bucket
+        final Writer writer = getWriter().reset( output, elems < MAX_ENCODED_LENGTH ? 0 : elems );
+
+        //fully reset the iterator (position on the bucket length)
+        input.position( inputStartOffset );
+        iter.reset( input, getBlockLength( bucket ) );
+        boolean inserted = false;
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( !inserted && iter.getKey() > key )
+            {
+                inserted = true;
+                writer.writeKey( key );
+            }
+            writer.writeKey( iter.getKey() );
+        }
+        if ( !inserted ) //all keys are smaller
+            writer.writeKey( key );
+
+        outputBlock.pos = output.position();
+        return getUpdateResult().set( pack( outputBlock.index, startOutputPos, elems < MAX_ENCODED_LENGTH ? elems : MAX_ENCODED_LENGTH ),
+                1, inputBlock, outputBlock, startOutputPos );
+    }
+
+    @Override
+    public boolean remove( final int key )
+    {
+        Buffers buffers = m_data.get();
+        if ( buffers.old != null ) {
+            rehash( buffers.nextStableVersion ); //help rehashing, we are in rehashing state already
+            return remove( key );
+        }
+
+        final int idx = getIndex( key, buffers.cur.length );
+        long bucket = getBucket( buffers.cur,  idx );
+        if ( bucket == EMPTY )
+            return false;
+        else if ( bucket == RELOCATED )
+        {
+            rehash( buffers.nextStableVersion );
+            return remove( key );
+        }
+
+        //CAS loop
+        while ( true )
+        {
+            final UpdateResult res = removeKey( bucket, key );
+            /*
+             * Possible returns:
+              * null - restart
+              * res.sizeChange = 0, res.chain = bucket - no key
+              * res.sizeChange = -1, res.chain = EMPTY - remove single key
+              * res.sizeChange = -1, res.chain != EMPTY - remove from long chain (output required)
+             */
+            if ( res != null )
+            {
+                if ( res.chain == bucket ) //equal to 'bucket' - no changes
+                {
+                    if ( res.chain == getBucket( buffers.cur, idx ) )
+                        return false; //no update, key not found
+                }
+                else if ( compareAndSet( buffers.cur, idx, bucket, res.chain ) )
+                {
+                    //commit usage changes
+                    res.input.decreaseEntries();
+                    changeSize( res.sizeChange, buffers, getBlockLength( res.chain ) );
+                    return true;
+                }
+                //CAS failed, rollback the output position, it is handled by current thread anyway
+                if ( res.output != null )
+                {
+                    res.output.pos = res.outputPrevStart;
+                    res.output.decreaseEntries();
+                }
+            }
+
+            bucket = getBucket( buffers.cur, idx );
+            if ( bucket == RELOCATED )
+            {
+                rehash( buffers.nextStableVersion ); //saved version is prior to rehashing
+                return remove( key );
+            }
+            else if ( bucket == EMPTY )
+                return false;
+        }
+    }
+
+    /**
+     * Remove a given key from a chain.
+     * 2 special cases are supported:
+     * 1) key not found - same chain is returned
+     * 2) removal from a 1-entry long chain - EMPTY chain is returned
+     * @param bucket Existing chain
+     * @param key Key to remove
+     * @return Updated or original chain, null if the chain was relocated in the meantime
+     */
+    private UpdateResult removeKey( final long bucket, final int key )
+    {
+        final Block inputBlock = getBlockByIndex( bucket );
+        if ( inputBlock == null )
+            return null;// too late, need to rerun
+        final int inputStartOffset = getOffset( bucket );
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator iter = getIterator().reset( input, getBlockLength( bucket ) );
+
+        boolean hasKey = false;
+        while ( iter.hasNext() ) //look up a key and then fast forward to the end of chain to find out its length
+        {
+            iter.advance();
+            if ( iter.getKey() >= key )
+            {
+                hasKey = iter.getKey() == key;
+                while ( iter.hasNext() )
+                    iter.skip();
+            }
+        }
+        if ( !hasKey )
+            return getUpdateResult().set( bucket, 0, null, null, 0 );
+
+        //special case - chain removal
+        if ( iter.getElems() == 1 )
+            return getUpdateResult().set( EMPTY, -1, inputBlock, null, 0 );
+
+        final int chainLength = input.position() - inputStartOffset;
+        input.position( inputStartOffset );
+        iter.reset( input, getBlockLength( bucket ) );
+
+        final Block outputBlock = m_blockAllocator.getThreadLocalBlock( chainLength );
+        final int startOutputPos = outputBlock.pos;
+        final ByteArray output = getByteArray2( outputBlock );
+        outputBlock.increaseEntries(); //allocate ticket
+        final Writer writer = getWriter().reset( output, iter.getElems() <= MAX_ENCODED_LENGTH ? 0 : iter.getElems() - 1 );
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() != key )
+                writer.writeKey( iter.getKey() );
+        }
+
+        outputBlock.pos = output.position();
+        return getUpdateResult().set( pack( outputBlock.index, startOutputPos,
+                        iter.getElems() <= MAX_ENCODED_LENGTH ? iter.getElems() - 1 : MAX_ENCODED_LENGTH ),
+                -1, inputBlock, outputBlock, startOutputPos );
+    }
+
+    @Override
+    public long size() {
+        return calculateSize();
+    }
+
+    @Override
+    public void clear()
+    {
+        final Buffers buffers = m_data.get();
+        if ( buffers.old != null ) {
+            rehash( buffers.nextStableVersion ); //help rehashing, we are in rehashing state already
+            clear();
+            return;
+        }
+
+        final long[] tab = buffers.cur;
+        for ( int i = 0; i < tab.length; ++i )
+        {
+            //CAS loop removing the whole chain
+            while ( true )
+            {
+                final long bucket = getBucket( tab, i );
+                if ( bucket == EMPTY )
+                    break;
+                else if ( bucket == RELOCATED )
+                {
+                    //all buckets before this one are empty, so they could not have been copied into the new table
+                    rehash( buffers.nextStableVersion );
+                    clear();
+                    return;
+                }
+
+                final Block input = getBlockByIndex( bucket );
+                if ( input == null )
+                    continue; //someone has relocated the data from this block, need to retry because we have a valid bucket
+                final int elems = getIterator().reset( getByteArray( input, getOffset( bucket ) ), getBlockLength( bucket ) ).getElems();
+                if ( compareAndSet( tab, i, bucket, EMPTY ) )
+                {
+                    input.decreaseEntries();
+                    addSize( -elems );
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Walk the set.
+     * We walk the table which is current at the call time. If it gets rehashed in the meantime, we stop
+     * at the first relocated bucket and remember the bucket range we have not visited yet. After that we help
+     * rehashing and walk the new table, reporting only the keys which belong to the not visited ranges of
+     * all previously walked tables.
+     * @param proc Key callback
+     */
+    @Override
+    public void forEach( final IIntProcedure proc )
+    {
+        BucketRanges[] levels = new BucketRanges[ 0 ];
+        while ( true )
+        {
+            final Buffers buffers = getStableBuffers();
+            final long[] tab = buffers.cur;
+            final Queue<int[]> notVisited = new ConcurrentLinkedQueue<>();
+            forEachInRange( proc, tab, 0, tab.length, levels, notVisited );
+            if ( notVisited.isEmpty() )
+                return;
+
+            levels = Arrays.copyOf( levels, levels.length + 1 );
+            levels[ levels.length - 1 ] = new BucketRanges( tab.length, notVisited );
+            rehash( buffers.nextStableVersion ); //wait until this table is fully relocated
+        }
+    }
+
+    /**
+     * Call {@code proc} for keys in the given bucket range of a table. If a relocated bucket is found,
+     * the rest of the range is added to {@code notVisited} and this method returns.
+     * @param proc Key callback
+     * @param tab Bucket table
+     * @param from First bucket index, inclusive
+     * @param to Last bucket index, exclusive
+     * @param levels Not visited ranges of all previously walked tables
+     * @param notVisited Collection of not visited ranges of the current table
+     */
+    private void forEachInRange( final IIntProcedure proc, final long[] tab, final int from, final int to,
+                                 final BucketRanges[] levels, final Queue<int[]> notVisited )
+    {
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer );
+        int i = from;
+        while ( i < to )
+        {
+            final long bucket = getBucket( tab, i );
+            if ( bucket == EMPTY )
+                ++i;
+            else if ( bucket == RELOCATED )
+            {
+                notVisited.add( new int[] { i, to } );
+                return;
+            }
+            else
+            {
+                final Block input = getBlockByIndex( bucket );
+                if ( input == null )
+                    continue; //someone has replaced this chain, read the bucket again
+                iterLocal.reset( barLocal.reset( input.data, getOffset( bucket ) ), getBlockLength( bucket ) );
+                while ( iterLocal.hasNext() )
+                {
+                    iterLocal.advance();
+                    if ( isNotVisited( iterLocal.getKey(), levels ) )
+                        proc.process( iterLocal.getKey() );
+                }
+                ++i;
+            }
+        }
+    }
+
+    /**
+     * Check if a given key belongs to the not visited part of every previously walked table.
+     * @param key Key
+     * @param levels Not visited ranges of all previously walked tables
+     * @return True if this key was not seen by the caller yet
+     */
+    private boolean isNotVisited( final int key, final BucketRanges[] levels )
+    {
+        for ( final BucketRanges level : levels )
+            if ( !level.contains( getIndex( key, level.getTableLength() ) ) )
+                return false;
+        return true;
+    }
+
+    /**
+     * Get the current set state. If rehashing is in progress, help it first, so that the result is always
+     * a stable state (no {@code old} table).
+     * @return Current stable set state
+     */
+    private Buffers getStableBuffers()
+    {
+        Buffers buffers = m_data.get();
+        while ( buffers.old != null )
+        {
+            rehash( buffers.nextStableVersion );
+            buffers = m_data.get();
+        }
+        return buffers;
+    }
+
+    /**
+     * Help rehashing the table. The algorithm is the same as in the concurrent maps.
+     * @param nextStableVersion Leave this method once the current version is greater or equal
+     */
+    private void rehash( final int nextStableVersion )
+    {
+        Buffers buffers = m_data.get();
+
+        if ( buffers.version >= nextStableVersion )
+            return; //done already
+
+        //take ticket
+        while ( !m_data.compareAndSet( buffers, buffers = buffers.addWorker() ) )
+        {
+            buffers = m_data.get();
+            if ( buffers.version >= nextStableVersion )
+                return; //done already
+        }
+
+        rehashInnerLoop( buffers );
+
+        while ( !m_data.compareAndSet( buffers, buffers = buffers.removeWorker() ) )
+            buffers = m_data.get();
+
+        if ( buffers.resizeWorkers > 0 )
+        {
+            //wait until all data is copied, all workers must finish before we can proceed
+            while ( m_data.get().version < nextStableVersion )
+                LockSupport.parkNanos(1);
+        }
+    }
+
+    /**
+     * Actual data transfer during rehashing happens here
+     * @param buffers Current data object
+     */
+    private void rehashInnerLoop( final Buffers buffers )
+    {
+        final long[] old = buffers.old;
+        final long[] dest = buffers.cur;
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer );
+
+        //start from random position and wrap round. It should reduce write contention
+        final int startPos = ThreadLocalRandom.current().nextInt( old.length );
+
+        for ( int i = startPos; i < old.length; ++i )
+            if ( !rehashInnerStep( old, dest, barLocal, iterLocal, i ) )
+                i += old.length / CPU_NUMBER; //jump ahead to reduce contention / quickly catch up
+        for ( int i = 0; i < startPos; ++i )
+            if ( !rehashInnerStep( old, dest, barLocal, iterLocal, i ) )
+                i += old.length / CPU_NUMBER; //jump ahead to reduce contention / quickly catch up
+    }
+
+    private boolean rehashInnerStep( final long[] old, final long[] dest, final ByteArray bar, final Iterator iter, final int idxOld )
+    {
+        final long bucket = getBucket( old, idxOld );
+        //Put RELOCATED into each processed cell. This way we distinguish between not used and relocated cells.
+        //Besides that, RELOCATED is not a valid chain.
+        if ( bucket != RELOCATED && compareAndSet( old, idxOld, bucket, RELOCATED ) )
+        {
+            if ( bucket == EMPTY ) //empty cells have to be replaced anyway
+                return true;
+
+            //this thread is the only one to process this chain
+            final Block inputBlock = getBlockByIndex( bucket );
+            final int offset = getOffset( bucket );
+
+            final int blockLength = getBlockLength( bucket );
+            iter.reset( bar.reset( inputBlock.data, offset ), blockLength );
+            if ( blockLength == 1 ) //shortcut, no data copy for blocklen = 1
+            {
+                iter.advance();
+                //if CAS fails, the dest bucket is 1+ long, so we need to go via a long path
+                final int index = getIndex( iter.getKey(), dest.length );
+                if ( !compareAndSet( dest, index, EMPTY, bucket ) )
+                {
+                    doAddRehash( dest, iter.getKey() );
+                    inputBlock.decreaseEntries();
+                }
+            }
+            else
+            {
+                while ( iter.hasNext() )
+                {
+                    iter.advance();
+                    doAddRehash( dest, iter.getKey() );
+                }
+                inputBlock.decreaseEntries(); //bucket relocated
+            }
+            return true;
+        }
+        return bucket != RELOCATED;
+    }
+
+    /**
+     * Get the bucket index for the given key
+     * @param key A key
+     * @param tabSize Bucket table size
+     * @return Bucket index
+     */
+    private int getIndex( final int key, final int tabSize )
+    {
+        return Tools.getIndexFast( key, tabSize );
+    }
+
+    private static class Iterator    {
+        /** Underlying byte buffer */
+        private ByteArray buf;
+        /** Number of entries in the bucket */
+        private int elems;
+        /** Index of the current entry (0-based) */
+        private int cur = 0;
+        /** Current entry key, initialized by {@code advance} call */
+        private int key;
+        /** Serialization for keys */
+        private final IIntSerializer m_keySerializer;
+
+        public Iterator( final IIntSerializer keySerializer ) {
+            m_keySerializer = keySerializer;
+        }
+
+        /**
+         * Initialize an iterator by a buffer. This method will reads the number of entries if {@code chainLength == 0xFF}
+         * @param buf Byte buffer
+         * @param chainLength Chain length stored in the header. 0xFF triggers reading actual length from the bucket
+         * @return Same iterator object
+         */
+        Iterator reset( final ByteArray buf, final int chainLength )
+        {
+            this.buf = buf;
+            elems = chainLength != MAX_ENCODED_LENGTH ? chainLength : readUnsignedInt( buf );
+            cur = 0;
+            return this;
+        }
+
+        /**
+         * Check if there are any not read entries left in the bucket
+         * @return True if we can advance, false otherwise
+         */
+        public boolean hasNext()
+        {
+            return cur < elems;
+        }
+
+        /**
+         * Read the next key from the buffer
+         */
+        public void advance()
+        {
+            if ( cur == 0 )
+                key = m_keySerializer.read( buf );
+            else
+                key = m_keySerializer.readDelta( key, buf, true );
+            ++cur;
+        }
+
+        /**
+         * Look up a given key
+         * @param key Key to look up
+         * @return True if the key is present in the chain
+         */
+        public boolean findKey( final int key )
+        {
+            while ( hasNext() ) {
+                advance();
+                if ( getKey() == key )
+                    return true;
+                else if ( getKey() > key ) //keys are sorted
+                    return false;
+            }
+            return false;
+        }
+
+        /**
+        * Skip the current entry
+        */
+        public void skip()
+        {
+            m_keySerializer.skip( buf );
+            ++cur;
+        }
+
+        /**
+         * @return A key read by the last {@code advance} call
+         */
+        public int getKey() {
+            return key;
+        }
+
+        /**
+         * @return Number of entries in the bucket
+         */
+        public int getElems() {
+            return elems;
+        }
+    }
+
+    /**
+     * This class encapsulates the logic used to write all keys into the bucket.
+     */
+    private static final class Writer    {
+        /** Underlying byte buffer */
+        private ByteArray buf;
+        /** Is this a first entry (used for delta encoding) */
+        private boolean first = true;
+        /** Previously written key (used for delta encoding) */
+        private int prevKey = 0;
+        /** Serialization for keys */
+        private final IIntSerializer m_keySerializer;
+
+        public Writer( final IIntSerializer keySerializer )
+        {
+            m_keySerializer = keySerializer;
+        }
+
+        /**
+         * Reset a writer (useful if you need to write multiple entries in one method call).
+         * This method does not write the element count into the bucket (caller should take care of it)
+         * @param buf Underlying byte buffer
+         * @return this
+         */
+        public Writer reset( final ByteArray buf )
+        {
+            return reset( buf, 0 );
+        }
+
+        /**
+         * Reset a writer (useful if you need to write multiple entries in one method call)
+         * @param buf Underlying byte buffer
+         * @param elems Number of elements to write, don't write anything if this value is not positive
+         * @return this
+         */
+        public Writer reset( final ByteArray buf, final int elems )
+        {
+            this.buf = buf;
+            if ( elems > 0 )
+                writeUnsignedInt( elems, buf );
+            first = true;
+            prevKey = 0;
+            return this;
+        }
+
+        /**
+         * Write a key. Keys must be written in the ascending order.
+         * @param k Key to write
+         */
+        public void writeKey( final int k )
+        {
+            if ( first ) {
+                m_keySerializer.write( k, buf );
+                first = false;
+            }
+            else
+                //keys are sorted, so we can write unsigned diff (but serializer will make a final decision)
+                m_keySerializer.writeDelta( prevKey, k, buf, true );
+            prevKey = k;
+        }
+    }
+
+    private static ByteArray getByteArray( final ThreadLocal<ByteArray> tba, final Block ar )
+    {
+        ByteArray res = tba.get();
+        if ( res == null )
+            tba.set( res = new ByteArray() );
+        res.reset( ar.data, ar.pos );
+        return res;
+    }
+
+    private ByteArray getByteArray( final Block ar )
+    {
+        return getByteArray( s_bar1, ar );
+    }
+
+    private ByteArray getByteArray2( final Block ar )
+    {
+        return getByteArray( s_bar2, ar );
+    }
+
+    private static ByteArray getByteArray( final ThreadLocal<ByteArray> tba, final Block ar, final int offset )
+    {
+        ByteArray res = tba.get();
+        if ( res == null )
+            tba.set( res = new ByteArray() );
+        res.reset( ar.data, offset );
+        return res;
+    }
+
+    private ByteArray getByteArray( final Block ar, final int offset )
+    {
+        return getByteArray( s_bar1, ar, offset );
+    }
+
+    /**
+     * Get a thread local iterator. Iterators do not depend on any inner set fields, so they could be safely used on per-thread basis.
+     * @return A cached iterator object
+     */
+    private Iterator getIterator()
+    {
+        Iterator res = s_iters.get();
+        if ( res == null )
+            s_iters.set( res = new Iterator( m_keySerializer ) );
+        return res;
+    }
+
+    /**
+     * Get a cached writer for the current thread
+     * @return A cached writer for the current thread
+     */
+    private Writer getWriter()
+    {
+        Writer w = s_writers.get();
+        if ( w == null )
+            s_writers.set( w = new Writer( m_keySerializer ) );
+        return w;
+    }
+
+    private UpdateResult getUpdateResult()
+    {
+        return s_updateRes.get();
+    }
+
+    /**
+     * All optimistic set changes are returned via this class instances. They contain enough information
+     * to commit/rollback these changes using CAS. An instance is always written and then read by the same
+     * thread, so no synchronization is needed.
+     */
+    private static class UpdateResult    {
+        public long chain;
+        public int sizeChange;
+        public Block input;
+        public Block output;
+        public int outputPrevStart;
+
+        public UpdateResult() {
+        }
+
+        public UpdateResult set( long chain, int sizeChange, Block input, Block output, int outputPrevStart )
+        {
+            this.chain = chain;
+            this.sizeChange = sizeChange;
+            this.input = input;
+            this.output = output;
+            this.outputPrevStart = outputPrevStart;
+            return this;
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    // Size tracking
+    /////////////////////////////////////////////////////////////////////
+
+    private static class MutableLong
+    {
+        public long v;
+    }
+
+    private final ThreadLocal<MutableLong> s_size = new ThreadLocal<MutableLong>(){
+        @Override
+        protected MutableLong initialValue() {
+            final MutableLong res = new MutableLong();
+            m_sizes.add( res );
+            return res;
+        }
+    };
+    private final CopyOnWriteArrayList<MutableLong> m_sizes = new CopyOnWriteArrayList<>();
+
+    private long calculateSize()
+    {
+        long res = 0;
+        for ( final MutableLong ml : m_sizes )
+        {
+            res += ml.v;
+        }
+        return res;
+    }
+
+    private void addSize( final int delta )
+    {
+        s_size.get().v += delta;
+    }
+
+    private void changeSize( final int delta, final Buffers curBuffers, final int bucketLength )
+    {
+        if ( delta == 0 )
+            return;
+        addSize( delta );
+
+        if ( bucketLength > m_iFillFactor && calculateSize() > curBuffers.threshold )
+        {
+            final long multiplier = m_fillFactor <= 2 ? 2 : m_iFillFactor;
+            int newCapacity = Primes.findNextPrime( ( long ) Math.ceil( multiplier * curBuffers.threshold / m_fillFactor ) );
+            //check if we got too close to the max array size, otherwise we will have to make a pretty useless resize when got close to 2G*fillFactor entries
+            if ( newCapacity * 1.5 > Primes.getMaxIntPrime() )
+                newCapacity = Primes.getMaxIntPrime();
+            //this check disables rehashing after a table has reached the maximal size
+            final long newThreshold = newCapacity >= Primes.getMaxIntPrime() ? Long.MAX_VALUE : curBuffers.threshold * multiplier;
+            //Entering rehashing mode. It does not matter which thread changes it, we still have to enter {@code rehash}.
+            m_data.compareAndSet( curBuffers, new Buffers( m_longAlloc.allocate( newCapacity ), curBuffers.cur,
+                            newThreshold,
+                            curBuffers.version + 1, //switching to rehashing mode
+                            curBuffers.nextStableVersion //next stable version does not change at this moment
+                    ) );
+            rehash( curBuffers.nextStableVersion ); //we must use cached version here, actual may be greater
+        }
+    }
+
+    /////////////////////////////////////////////////////////////
+    // Unsafe bucket accessors - avoid AtomicReferenceArray overhead
+    /////////////////////////////////////////////////////////////
+
+    private static final int BB_BASE;
+    private static final int BB_SHIFT;
+
+    private static final Unsafe unsafe;
+    static
+    {
+        try
+        {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = (Unsafe)field.get(null);
+
+            BB_BASE = unsafe.arrayBaseOffset(long[].class);
+            int scale = unsafe.arrayIndexScale(long[].class);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            BB_SHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean compareAndSet( final long[] ar, final int idx, final long expected, final long update )
+    {
+        return unsafe.compareAndSwapLong(ar, ((long) idx << BB_SHIFT) + BB_BASE, expected, update);
+    }
+
+    private long getBucket( final long[] ar, final int idx )
+    {
+        return unsafe.getLongVolatile(ar, ((long) idx << BB_SHIFT) + BB_BASE);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.concurrent.longs;
+
+import info.javaperformance.functions.ILongProcedure;
+
+/**
+ * A minimalist interface implemented by concurrent sets. All updating methods are atomic.
+ */
+public interface ILongConcurrentSet {
+    /**
+     * Add a key to the set
+     * @param key Key to add
+     * @return True if the key was not present in the set
+     */
+    public boolean add( final long key );
+
+    /**
+     * Check if the set contains a key
+     * @param key Key to look up
+     * @return True if the key is present
+     */
+    public boolean contains( final long key );
+
+    /**
+     * Remove a key from the set
+     * @param key Key to remove
+     * @return True if the key was present in the set
+     */
+    public boolean remove( final long key );
+
+    public long size();
+
+    /**
+     * Remove all keys from the set
+     */
+    public void clear();
+
+    /**
+     * Call {@code proc} for every key. Each key present during the whole call is reported exactly once, keys
+     * added or removed concurrently may or may not be reported.
+     * @param proc Key callback
+     */
+    public void forEach( final ILongProcedure proc );
+}
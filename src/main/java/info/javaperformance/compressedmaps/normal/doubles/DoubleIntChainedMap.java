@@ -20,13 +20,26 @@
 package info.javaperformance.compressedmaps.normal.doubles;
 
 import info.javaperformance.buckets.Buckets;
+import info.javaperformance.functions.IDoubleIntFunction;
+import info.javaperformance.functions.IDoubleIntPredicate;
+import info.javaperformance.functions.IDoubleIntProcedure;
+import info.javaperformance.functions.IIntBinaryOperator;
+import info.javaperformance.hashing.FastHashStrategy;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
 import info.javaperformance.malloc.SingleThreadedBlock;
 import info.javaperformance.malloc.SingleThreadedBlockAllocator;
 import info.javaperformance.serializers.*;
-import info.javaperformance.tools.Primes;
 import info.javaperformance.tools.Tools;
+import info.javaperformance.tools.VarLen;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static info.javaperformance.tools.VarLen.readUnsignedInt;
 import static info.javaperformance.tools.VarLen.writeUnsignedInt;
@@ -36,8 +49,28 @@ import static info.javaperformance.tools.VarLen.writeUnsignedInt;
  * before it allocates 128K blocks (or chain length exceeds 4K), so that the smaller maps can benefit from the even smaller map footprint.
  */
 public class DoubleIntChainedMap implements IDoubleIntMap{
+    /** Minimal number of buckets processed by a single {@code parallelForEach} task */
+    private static final int PARALLEL_MIN_BUCKETS = 16 * 1024;
+    /** Number of keys processed by a single stage of {@code getAll} */
+    private static final int GET_ALL_BATCH = 256;
+    /** Default live bytes ratio used by {@code compact()} */
+    private static final float DEFAULT_COMPACTION_RATIO = 0.5f;
+    /** The automatic compaction is not run until the memory blocks take at least this many bytes */
+    private static final long MIN_COMPACTION_CHECK = 1024 * 1024;
+    /** The table is shrunk after the map size drops below {@code capacity * fillFactor / SHRINK_DIVISOR} */
+    private static final int SHRINK_DIVISOR = 8;
     private static final int NO_VALUE = 0 ;
 
+    /*
+    Update modes supported by {@code addToChain}. {@code put} and {@code putIfAbsent} return the previous value,
+    the other modes return the updated value.
+     */
+    private static final int UPDATE_PUT = 0;
+    private static final int UPDATE_PUT_IF_ABSENT = 1;
+    private static final int UPDATE_ADD = 2;
+    private static final int UPDATE_MERGE = 3;
+    private static final int UPDATE_COMPUTE = 4;
+
     /*
     We store multiple reusable objects here. They are needed to avoid unnecessary object allocations.
      */
@@ -70,13 +103,58 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
      * This field is {@code long} because we can use fill factors > 1.
      */
     private long m_threshold;
+    /** Map size low water mark - the table is shrunk after the map size drops below it */
+    private long m_lowThreshold = 0;
+    /** Initial map size. The automatic shrinking never makes the table smaller than the initial one */
+    private final long m_initialSize;
+    /** Initial table capacity */
+    private final int m_minCapacity;
+    /** Bucket table sizing and key to bucket mapping */
+    private final IndexMode m_indexMode;
+    /** Key hash function */
+    private final IHashStrategy m_hashStrategy;
 
     /** Memory blocks are allocated and tracked here */
     private final SingleThreadedBlockAllocator m_blockAllocator;
 
+    /** Live bytes ratio used by the automatic compaction, 0 if it is disabled */
+    private float m_autoCompactionRatio = 0;
+    /** The automatic compaction runs once the memory blocks take more than this many bytes */
+    private long m_nextCompactionCheck = MIN_COMPACTION_CHECK;
+    /** Old table buckets migrated on every update or removal, 0 if a table is rehashed at once */
+    private int m_rehashStep = 0;
+    /** The table being migrated by the incremental rehashing, null if there is no rehashing in progress */
+    private Buckets m_old;
+    /** Old table buckets below this index are already migrated */
+    private int m_migrated;
+    /** Chain reader used by the incremental rehashing */
+    private final ByteArray m_rehashBar = new ByteArray();
+    private final Iterator m_rehashIter;
+
     /** Length of a single entry */
     private final int m_singleEntryLength;
 
+    /**
+     * Create a map with prime table capacities. See the next constructor for the parameters description.
+     */
+    public DoubleIntChainedMap( final long size, final float fillFactor,
+                               final IDoubleSerializer keySerializer, final IIntSerializer valueSerializer,
+                               final long blockCacheLimit )
+    {
+        this( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, IndexMode.PRIME );
+    }
+
+    /**
+     * Create a map with the default hash strategy. See the next constructor for the parameters description.
+     */
+    public DoubleIntChainedMap( final long size, final float fillFactor,
+                               final IDoubleSerializer keySerializer, final IIntSerializer valueSerializer,
+                               final long blockCacheLimit,
+                               final IndexMode indexMode )
+    {
+        this( size, fillFactor, keySerializer, valueSerializer, blockCacheLimit, indexMode, FastHashStrategy.INSTANCE );
+    }
+
     /**
      * Create a map with a given size, fill factor and key/value serializers
      * @param size Expected map size
@@ -90,16 +168,22 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
      * @param valueSerializer Serializer for values
      * @param blockCacheLimit The limit on the amount of memory blocks we try to reuse in order to reduce the GC load.
      *                        Increase it over the default (32K) if you want nearly no GC impact after the map size will stabilize.
+     * @param indexMode Bucket table sizing and key to bucket mapping mode
+     * @param hashStrategy Key hash function, see {@code IHashStrategy} presets
      *
-     * @throws NullPointerException If {@code keySerializer == null} or {@code valueSerializer == null}
+     * @throws NullPointerException If {@code keySerializer}, {@code valueSerializer}, {@code indexMode} or {@code hashStrategy} is null
      * @throws IllegalArgumentException If {@code fillFactor > 16} or {@code fillFactor <= 0.01} or {@code blockCacheLimit < 0}
      */
     public DoubleIntChainedMap( final long size, final float fillFactor,
                                final IDoubleSerializer keySerializer, final IIntSerializer valueSerializer,
-                               final long blockCacheLimit )
+                               final long blockCacheLimit,
+                               final IndexMode indexMode,
+                               final IHashStrategy hashStrategy )
     {
         Objects.requireNonNull( keySerializer, "Key serializer must be provided!" );
         Objects.requireNonNull( valueSerializer, "Value serializer must be provided!" );
+        Objects.requireNonNull( indexMode, "Index mode must be provided!" );
+        Objects.requireNonNull( hashStrategy, "Hash strategy must be provided!" );
         if ( fillFactor > 16 )
             throw new IllegalArgumentException( "Fill factors higher than 16 are not supported!" );
         if ( fillFactor <= 0.01 )
@@ -112,41 +196,99 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
         m_blockAllocator = new SingleThreadedBlockAllocator( blockCacheLimit );
         m_fillFactor = fillFactor;
         m_iFillFactor = ( int ) Math.ceil( m_fillFactor );
-        final long requestedCapacity = ( long ) Math.ceil( size / fillFactor );
-        final int newCapacity = requestedCapacity >= Primes.getMaxIntPrime() ? Primes.getMaxIntPrime() : Primes.findNextPrime( requestedCapacity );
-        //this threshold adjustment is needed on tiny initial size / large fill factor combinations so that we do not
-        //rehash table without table size increase in future.
-        m_data = new Buckets( newCapacity, false );
-        //disable resizing if the initial size is already large enough
-        if ( newCapacity == Primes.getMaxIntPrime() )
-            m_threshold = Long.MAX_VALUE;
-        else {
-            long threshold = size;
-            while ( Primes.findNextPrime( ( int ) Math.ceil( threshold * 2 / fillFactor ) ) == newCapacity )
-                threshold *= 2;
-            m_threshold = threshold;
-        }
+        m_indexMode = indexMode;
+        m_hashStrategy = hashStrategy;
+        m_initialSize = size;
+        m_minCapacity = m_indexMode.getCapacity( size, fillFactor );
+        m_data = new Buckets( m_minCapacity, false );
+        m_threshold = m_indexMode.getThreshold( size, m_minCapacity, fillFactor );
         //optimizations
         m_singleEntryLength = m_keySerializer.getMaxLength() + m_valueSerializer.getMaxLength() + 1;
         m_iter = new Iterator( m_keySerializer, m_valueSerializer );
+        m_rehashIter = new Iterator( m_keySerializer, m_valueSerializer );
         m_writer = new Writer( m_keySerializer, m_valueSerializer );
     }
 
     public int get( final double key )
     {
-        if ( !m_data.select( getIndex( key, m_data.length() ) ) )
-            return NO_VALUE;
+        return get( key, NO_VALUE );
+    }
+
+    /**
+     * Get a value associated with a given key
+     * @param key Key to look up
+     * @param defaultValue Value to return if the key is not present in the map
+     * @return A value associated with the key or {@code defaultValue} if there is no such key
+     */
+    public int get( final double key, final int defaultValue )
+    {
+        final Buckets data = selectBucket( key );
+        if ( data == null )
+            return defaultValue;
+
+        return m_iter.reset( getByteArray( getBlockByIndex( data.getBlockIndex() ), data.getOffset() ), data ).findKey( key, defaultValue );
+    }
+
+    /**
+     * Check if a given key is present in the map. It requires a single chain scan, same as {@code get}.
+     * @param key Key to look up
+     * @return True if the key is present in the map
+     */
+    public boolean containsKey( final double key )
+    {
+        final Buckets data = selectBucket( key );
+        if ( data == null )
+            return false;
 
-        return m_iter.reset( getByteArray( getBlockByIndex( m_data.getBlockIndex() ), m_data.getOffset() ), m_data ).findKey( key, NO_VALUE );
+        return m_iter.reset( getByteArray( getBlockByIndex( data.getBlockIndex() ), data.getOffset() ), data ).containsKey( key );
     }
 
     public int put( final double key, final int value )
     {
+        return update( key, value, UPDATE_PUT, null, null );
+    }
+
+    public int addTo( final double key, final int delta )
+    {
+        return update( key, delta, UPDATE_ADD, null, null );
+    }
+
+    public int putIfAbsent( final double key, final int value )
+    {
+        return update( key, value, UPDATE_PUT_IF_ABSENT, null, null );
+    }
+
+    public int merge( final double key, final int value, final IIntBinaryOperator op )
+    {
+        Objects.requireNonNull( op, "Merge function must be provided!" );
+        return update( key, value, UPDATE_MERGE, op, null );
+    }
+
+    public int compute( final double key, final IDoubleIntFunction fn )
+    {
+        Objects.requireNonNull( fn, "Compute function must be provided!" );
+        return update( key, NO_VALUE, UPDATE_COMPUTE, null, fn );
+    }
+
+    /**
+     * Update an entry in a single chain decode-and-rewrite pass
+     * @param key Key
+     * @param value Value passed by the caller
+     * @param mode Update mode
+     * @param op Merge function for {@code UPDATE_MERGE}
+     * @param fn Compute function for {@code UPDATE_COMPUTE}
+     * @return Previous value for {@code put/putIfAbsent}, updated value for other modes
+     */
+    private int update( final double key, final int value, final int mode, final IIntBinaryOperator op, final IDoubleIntFunction fn )
+    {
+        if ( m_old != null )
+            migrateBucket( getIndex( key, m_old.length() ) );
         final int idx = getIndex( key, m_data.length() );
         //copy/update the chain
-        final UpdateResult res = addToChain( idx, key, value );
+        final UpdateResult res = addToChain( idx, key, value, mode, op, fn );
         final int ret = res.retValue; //must be saved in case of rehash
         changeSize( res.sizeChange );
+        checkCompaction();
         return ret;
     }
 
@@ -173,29 +315,55 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
      * @param index Bucket index
      * @param key Key
      * @param value Value
+     * @param mode Update mode
+     * @param op Merge function for {@code UPDATE_MERGE}
+     * @param fn Compute function for {@code UPDATE_COMPUTE}
      * @return A new chain and an old value
      */
-    private UpdateResult addToChain( final int index, final double key, final int value )
+    private UpdateResult addToChain( final int index, final double key, final int value,
+                                     final int mode, final IIntBinaryOperator op, final IDoubleIntFunction fn )
     {
         if ( !m_data.select( index ) ) {
-            singleEntry( getBlock( m_singleEntryLength ), key, value, index );
-            return m_updateResult.set( NO_VALUE, 1 );
+            final int newValue = updatedValue( mode, key, false, NO_VALUE, value, op, fn );
+            singleEntry( getBlock( m_singleEntryLength ), key, newValue, index );
+            return m_updateResult.set( mode < UPDATE_ADD ? NO_VALUE : newValue, 1 );
         }
 
         final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
         final int inputStartOffset = m_data.getOffset();
 
-        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
-        final Iterator iter = m_iter.reset( input, m_data );
-        if ( iter.getElems() > m_data.maxEncodedLength() - 2 ) //could grow to 255+, which should be stored in the bucket
-            return addToChainSlow( index, iter, inputBlock, inputStartOffset, key, value );
-
-        //calculate the chain length (it helps us to better fill data blocks)
+        ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        Iterator iter = m_iter.reset( input, m_data );
+        //look up a key and then fast forward to the end of chain to find out its length (it helps us to better fill data blocks)
+        boolean hasKey = false;
+        int retValue = NO_VALUE;
         while ( iter.hasNext() )
-            iter.skip();
+        {
+            iter.advance();
+            if ( iter.getKey() == key )
+            {
+                hasKey = true;
+                retValue = iter.getValue();
+                while ( iter.hasNext() )
+                    iter.skip();
+            }
+            else if ( iter.getKey() > key )
+            {
+                while ( iter.hasNext() )
+                    iter.skip();
+            }
+        }
         final int chainLength = input.position() - inputStartOffset;
-        input.position( inputStartOffset );
-        iter.reset( input, m_data );
+        final int elems = iter.getElems();
+
+        //The new value is calculated before the chain is rewritten. Callbacks may read this map, which selects other
+        //buckets and reuses the shared iterator and byte arrays, so they are all taken again afterwards.
+        final int newValue = updatedValue( mode, key, hasKey, retValue, value, op, fn );
+        m_data.select( index );
+        input = getByteArray( inputBlock, inputStartOffset );
+        iter = m_iter.reset( input, m_data );
+        if ( elems > m_data.maxEncodedLength() - 2 ) //could grow to 255+, which should be stored in the bucket
+            return addToChainSlow( index, iter, inputBlock, chainLength, key, hasKey, retValue, newValue, mode );
 
         //2* is a safety net here due to possibility that a value may take longer in the delta form compared to original form
         final SingleThreadedBlock outputBlock = getBlock( chainLength + 2 * m_singleEntryLength );
@@ -206,8 +374,65 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
         outputBlock.increaseEntries(); //allocate block
         final Writer writer = m_writer.reset( baOutput );
 
-        int retValue = NO_VALUE;
-        boolean inserted = false, updated = false;
+        boolean inserted = false;
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() < key )
+                writer.transferPair( iter );
+            else if ( iter.getKey() == key )
+            {
+                inserted = true;
+                writer.writePair( key, newValue );
+            }
+            else
+            {
+                if ( !inserted )
+                {
+                    inserted = true;
+                    writer.writePair( key, newValue );
+                }
+                writer.transferPair( iter );
+            }
+        }
+        if ( !inserted ) //all keys are smaller
+            writer.writePair( key, newValue );
+
+        outputBlock.pos = baOutput.position();
+        final int sizeChange = hasKey ? 0 : 1;
+        m_data.set( index, outputBlock.getIndex(), startOutputPos, elems + sizeChange );
+        return m_updateResult.set( mode < UPDATE_ADD ? retValue : newValue, sizeChange );
+    }
+
+    /**
+     * This is a special version of previous method which deals with chains which require storing the chain length
+     * prior to the chain ( compared to being encoded in the buckets ).
+     * @param index Key bucket
+     * @param iter Input iterator standing at the start of the chain
+     * @param inputBlock Input block
+     * @param chainLength Input chain length in bytes
+     * @param key Key
+     * @param hasKey True if the key is present in the chain
+     * @param retValue Old value, {@code NO_VALUE} if the key is not present
+     * @param newValue Value to store
+     * @param mode Update mode
+     * @return A new chain and an old value
+     */
+    private UpdateResult addToChainSlow( final int index, final Iterator iter,
+                                         final SingleThreadedBlock inputBlock,
+                                         final int chainLength, final double key, final boolean hasKey,
+                                         final int retValue, final int newValue, final int mode )
+    {
+        final int elems = hasKey ? iter.getElems() : iter.getElems() + 1;
+        final SingleThreadedBlock outputBlock = getBlock( 2 * m_singleEntryLength + chainLength + 2 ); //2 for transition from header to chain length
+        final int startOutputPos = outputBlock.pos;
+        final ByteArray output = getByteArray2( outputBlock );
+
+        inputBlock.decreaseEntries();
+        outputBlock.increaseEntries(); //allocate block
+        //here we write the correct number of elements upfront
+        final Writer writer = m_writer.reset( output, elems );
+        boolean inserted = false;
 
         while ( iter.hasNext() )
         {
@@ -217,198 +442,1414 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
             else if ( iter.getKey() == key )
             {
                 inserted = true;
-                updated = true;
-                retValue = iter.getValue();
-                writer.writePair( key, value );
+                writer.writePair( key, newValue );
             }
             else
             {
                 if ( !inserted )
                 {
                     inserted = true;
-                    writer.writePair( key, value );
+                    writer.writePair( key, newValue );
                 }
                 writer.transferPair( iter );
             }
         }
         if ( !inserted ) //all keys are smaller
-            writer.writePair( key, value );
+            writer.writePair( key, newValue );
+
+        outputBlock.pos = output.position();
+        m_data.set( index, outputBlock.getIndex(), startOutputPos, m_data.maxEncodedLength() );
+        return m_updateResult.set( mode < UPDATE_ADD ? retValue : newValue, hasKey ? 0 : 1 );
+    }
+
+    /**
+     * Look up values for all given keys. Keys are processed in batches in several stages: bucket loads for the whole batch
+     * go first, then the chain blocks are resolved and touched and only then the chains are decoded. Loads within
+     * every stage are independent, so that the CPU could overlap their cache misses instead of serializing them.
+     * @param keys Keys to look up
+     * @param out Output array: {@code out[ i ]} is set to a value associated with {@code keys[ i ]} or to {@code 0}
+     *            if there is no such key
+     * @throws IllegalArgumentException If {@code out} is shorter than {@code keys}
+     */
+    public void getAll( final double[] keys, final int[] out )
+    {
+        if ( out.length < keys.length )
+            throw new IllegalArgumentException( "Output array is shorter than key array: " + out.length + " < " + keys.length );
+
+        final Buckets data = m_data;
+        final Buckets old = m_old;
+        final long[] buckets = new long[ Math.min( keys.length, GET_ALL_BATCH ) ];
+        final Buckets[] tables = new Buckets[ buckets.length ];
+        final SingleThreadedBlock[] blocks = new SingleThreadedBlock[ buckets.length ];
+        //the touched bytes are summed in a local only, so that getAll does not write any map fields
+        int touched = 0;
+        for ( int from = 0; from < keys.length; from += buckets.length )
+        {
+            final int to = Math.min( keys.length, from + buckets.length );
+            //keys of not yet migrated old table buckets are looked up in the old table, same as in get
+            for ( int i = from; i < to; ++i )
+            {
+                final Buckets table = old != null && old.get( getIndex( keys[ i ], old.length() ) ) != old.emptyBucket() ? old : data;
+                tables[ i - from ] = table;
+                buckets[ i - from ] = table.get( getIndex( keys[ i ], table.length() ) );
+            }
+            for ( int i = from; i < to; ++i )
+            {
+                final long bucket = buckets[ i - from ];
+                final Buckets table = tables[ i - from ];
+                blocks[ i - from ] = bucket != table.emptyBucket() ? getBlockByIndex( table.getBlockIndex( bucket ) ) : null;
+            }
+            for ( int i = from; i < to; ++i )
+                if ( blocks[ i - from ] != null )
+                    touched += blocks[ i - from ].data[ tables[ i - from ].getOffset( buckets[ i - from ] ) ];
+            for ( int i = from; i < to; ++i )
+            {
+                final long bucket = buckets[ i - from ];
+                final Buckets table = tables[ i - from ];
+                final SingleThreadedBlock block = blocks[ i - from ];
+                out[ i ] = block == null ? NO_VALUE :
+                           m_iter.reset( m_bar1.reset( block.data, table.getOffset( bucket ) ), table.getBlockLength( bucket ), table.maxEncodedLength() )
+                                 .findKey( keys[ i ], NO_VALUE );
+            }
+        }
+    }
+
+    /**
+     * Put all pairs {@code keys[ i ] -> values[ i ]} for {@code from <= i < to} into the map.
+     * The table is grown (at most once) for the keys which are not in the map yet, after that pairs are sorted by bucket
+     * and each bucket chain is merged with all its new pairs in a single rewrite. If a key is repeated in the input,
+     * the last value wins.
+     * @param keys Keys
+     * @param values Values
+     * @param from First pair index, inclusive
+     * @param to Last pair index, exclusive
+     * @throws IllegalArgumentException If the range is not valid for any of the arrays
+     */
+    public void putAll( final double[] keys, final int[] values, final int from, final int to )
+    {
+        finishRehash();
+        if ( from < 0 || from > to || to > keys.length || to > values.length )
+            throw new IllegalArgumentException( "Invalid range [" + from + ", " + to + ") for arrays of length "
+                                                        + keys.length + " and " + values.length );
+        if ( from == to )
+            return;
+        //Grow the table only for the keys which are not in the map yet, like a loop of put calls would do.
+        //The keys are looked up only if the table might be too small, keys repeated in the input are counted every time.
+        long added = to - from;
+        if ( m_size > 0 && m_size + added > m_threshold )
+        {
+            added = 0;
+            for ( int i = from; i < to; ++i )
+                if ( !containsKey( keys[ i ] ) )
+                    ++added;
+        }
+        ensureCapacity( m_size + added, false );
+
+        //bucket index goes to the higher half, input position (relative to from) goes to the lower half
+        final long[] order = new long[ to - from ];
+        final int tabSize = m_data.length();
+        for ( int i = from; i < to; ++i )
+            order[ i - from ] = ( ( long ) getIndex( keys[ i ], tabSize ) << 32 ) | ( i - from );
+        Arrays.sort( order );
+
+        int start = 0;
+        while ( start < order.length )
+        {
+            final int index = ( int ) ( order[ start ] >>> 32 );
+            int end = start + 1;
+            while ( end < order.length && ( int ) ( order[ end ] >>> 32 ) == index )
+                ++end;
+            m_size += addAllToChain( index, keys, values, from, order, start, sortByKey( keys, from, order, start, end ) );
+            start = end;
+        }
+        checkCompaction();
+    }
+
+    /**
+     * Sort positions of a single bucket by key and keep only the last position for every key.
+     * Insertion sort is used because it is stable and bucket groups are short for sane fill factors.
+     * @param keys Input keys
+     * @param from Offset of positions stored in {@code order}
+     * @param order Input positions
+     * @param start First position in {@code order}, inclusive
+     * @param end Last position in {@code order}, exclusive
+     * @return End of the deduplicated range, exclusive
+     */
+    private static int sortByKey( final double[] keys, final int from, final long[] order, final int start, final int end )
+    {
+        for ( int i = start + 1; i < end; ++i )
+        {
+            final long cur = order[ i ];
+            final double key = keys[ from + ( int ) cur ];
+            int j = i - 1;
+            while ( j >= start && keys[ from + ( int ) order[ j ] ] > key )
+            {
+                order[ j + 1 ] = order[ j ];
+                --j;
+            }
+            order[ j + 1 ] = cur;
+        }
+
+        int last = start;
+        for ( int i = start + 1; i < end; ++i )
+        {
+            if ( keys[ from + ( int ) order[ i ] ] != keys[ from + ( int ) order[ last ] ] )
+                ++last;
+            order[ last ] = order[ i ];
+        }
+        return last + 1;
+    }
+
+    /**
+     * Merge a group of new pairs into a given chain. The existing chain is scanned once to find its length and
+     * the number of updated keys, so that the chain could be written only once with a correct length.
+     * @param index Bucket index
+     * @param keys Input keys
+     * @param values Input values
+     * @param from Offset of positions stored in {@code order}
+     * @param order Input positions, sorted by key, no key is repeated in the range
+     * @param start First position in {@code order}, inclusive
+     * @param end Last position in {@code order}, exclusive
+     * @return Number of added keys
+     */
+    private int addAllToChain( final int index, final double[] keys, final int[] values, final int from,
+                               final long[] order, final int start, final int end )
+    {
+        SingleThreadedBlock inputBlock = null;
+        ByteArray input = null;
+        int inputStartOffset = 0, blockLength = 0, chainLength = 0, elems = 0, updated = 0;
+        if ( m_data.select( index ) )
+        {
+            inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+            inputStartOffset = m_data.getOffset();
+            blockLength = m_data.getBlockLength();
+            input = getByteArray( inputBlock, inputStartOffset );
+            final Iterator iter = m_iter.reset( input, blockLength, m_data.maxEncodedLength() );
+            elems = iter.getElems();
+            int i = start;
+            while ( iter.hasNext() )
+            {
+                iter.advance( false );
+                iter.skipValue();
+                while ( i < end && keys[ from + ( int ) order[ i ] ] < iter.getKey() )
+                    ++i;
+                if ( i < end && keys[ from + ( int ) order[ i ] ] == iter.getKey() )
+                    ++updated;
+            }
+            chainLength = input.position() - inputStartOffset;
+        }
+        final int newElems = elems + end - start - updated;
+
+        //2* is a safety net here due to possibility that a value may take longer in the delta form compared to original form,
+        //5 is the maximal length of the chain length field
+        final int bytes = chainLength + ( end - start ) * 2 * m_singleEntryLength + 5;
+        final SingleThreadedBlock outputBlock = getBlock( bytes );
+        final int startOutputPos = outputBlock.pos;
+        final ByteArray output = getByteArray2( outputBlock );
+
+        if ( inputBlock != null )
+            inputBlock.decreaseEntries(); //release the input block, it may be held by this method for a little longer
+        outputBlock.increaseEntries(); //allocate block
+        //the number of elements is written prior to the chain only if it does not fit into the bucket
+        final Writer writer = m_writer.reset( output, newElems < m_data.maxEncodedLength() ? 0 : newElems );
+
+        int i = start;
+        if ( input != null )
+        {
+            input.position( inputStartOffset );
+            final Iterator iter = m_iter.reset( input, blockLength, m_data.maxEncodedLength() );
+            while ( iter.hasNext() )
+            {
+                iter.advance();
+                while ( i < end && keys[ from + ( int ) order[ i ] ] < iter.getKey() )
+                {
+                    writer.writePair( keys[ from + ( int ) order[ i ] ], values[ from + ( int ) order[ i ] ] );
+                    ++i;
+                }
+                if ( i < end && keys[ from + ( int ) order[ i ] ] == iter.getKey() )
+                {
+                    writer.writePair( iter.getKey(), values[ from + ( int ) order[ i ] ] );
+                    ++i;
+                }
+                else
+                    writer.transferPair( iter );
+            }
+        }
+        for ( ; i < end; ++i )
+            writer.writePair( keys[ from + ( int ) order[ i ] ], values[ from + ( int ) order[ i ] ] );
+
+        outputBlock.pos = output.position();
+        m_data.set( index, outputBlock.getIndex(), startOutputPos,
+                    newElems < m_data.maxEncodedLength() ? newElems : m_data.maxEncodedLength() );
+        return newElems - elems;
+    }
+
+    public int remove( final double key )
+    {
+        if ( m_old != null )
+        {
+            migrateBucket( getIndex( key, m_old.length() ) );
+            migrateBuckets();
+        }
+        final int idx = getIndex( key, m_data.length() );
+        if ( !m_data.select( idx ) )
+            return NO_VALUE;
+
+        final UpdateResult res = removeKey( key, idx );
+        final int ret = res.retValue; //must be saved in case of rehash
+        m_size += res.sizeChange;
+        checkShrink();
+        return ret;
+    }
+
+    /**
+     * Remove a given key from a chain.
+     * 3 special cases are supported:
+     * 1) key not found - same chain is returned
+     * 2) removal from a 1-entry long chain - null chain is returned with a valid retValue
+     * 3) removal of the last element in the chain - in most cases only the chain length should be updated
+     * @param key Key to remove
+     * @param idx Key bucket
+     * @return Updated or original chain
+     */
+    private UpdateResult removeKey( final double key, final int idx )
+    {
+        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+        final int inputStartOffset = m_data.getOffset();
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator iter = m_iter.reset( input, m_data );
+
+        boolean hasKey = false;
+        int retValue = NO_VALUE;
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() == key )
+            {
+                hasKey = true;
+                retValue = iter.getValue();
+                break;
+            }
+            else if ( iter.getKey() > key )
+                break;
+        }
+        if ( !hasKey )
+            return m_updateResult.set( NO_VALUE, 0 );
+
+        //special case 1 - chain removal
+        if ( iter.getElems() == 1 ) {
+            inputBlock.decreaseEntries();
+            m_data.set( idx, m_data.emptyBucket() );
+            return m_updateResult.set( retValue, -1 );
+        }
+
+        //special case 2 - removal of the last element and length is not too big - only bucket info changes
+        //we can not check for equality - once we have reached maxlen there will be a length field at the start of the record
+        if ( !iter.hasNext() && iter.getElems() < m_data.maxEncodedLength() )
+        {
+            m_data.set( idx, inputBlock.getIndex(), inputStartOffset, iter.getElems() - 1 );
+            return m_updateResult.set( retValue, -1 );
+        }
+
+        //Reuse the same block for removed chain. There are some risks that it will keep more blocks active, but on
+        //the other hand it will definitely reduce the number of discarded blocks => reduce GC.
+
+        input.position( inputStartOffset );
+        iter.reset( input, m_data );
+
+        final ByteArray output = getByteArray2( inputBlock );
+        output.position( inputStartOffset );
+        final Writer writer = m_writer.reset( output, iter.getElems() <= m_data.maxEncodedLength() ? 0 : iter.getElems() - 1 );
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() != key )
+                writer.transferPair( iter );
+        }
+
+        m_data.set( idx, inputBlock.getIndex(), inputStartOffset,
+                                iter.getElems() <= m_data.maxEncodedLength() ? iter.getElems() - 1 : m_data.maxEncodedLength() );
+        return m_updateResult.set( retValue, -1 );
+    }
+
+    /**
+     * Remove all entries from the map. The bucket table is kept and the memory blocks are recycled
+     * (up to {@code blockCacheLimit}), so that a reused map does not have to allocate them again.
+     */
+    public void clear()
+    {
+        m_old = null;
+        m_data.clear();
+        m_blockAllocator.clear();
+        m_size = 0;
+    }
+
+    /**
+     * Get a cursor over all map entries. Entries updated or removed via the cursor are written back
+     * once per chain. The map must not be updated other than via the cursor while the cursor is in use.
+     * @return A new cursor standing prior to the first entry
+     */
+    public IDoubleIntCursor cursor()
+    {
+        finishRehash();
+        return new Cursor();
+    }
+
+    /**
+     * A cursor implementation. It decodes a whole chain when it enters the chain, applies updates and removals
+     * to the decoded copy and rewrites the chain once when it leaves the chain.
+     */
+    private final class Cursor implements IDoubleIntCursor
+    {
+        private final ByteArray m_bar = new ByteArray();
+        private final Iterator m_chainIter = new Iterator( m_keySerializer, m_valueSerializer );
+        private final Writer m_chainWriter = new Writer( m_keySerializer, m_valueSerializer );
+        /** Keys of the current chain */
+        private double[] m_keys = new double[ 16 ];
+        /** Values of the current chain */
+        private int[] m_values = new int[ 16 ];
+        /** Removal flags of the current chain */
+        private boolean[] m_removed = new boolean[ 16 ];
+        /** Number of entries in the current chain */
+        private int m_chainLength = 0;
+        /** Position of the current entry in the chain */
+        private int m_pos = -1;
+        /** Index of the current bucket */
+        private int m_bucket = -1;
+        /** True if the current chain must be rewritten */
+        private boolean m_dirty = false;
+
+        @Override
+        public boolean advance()
+        {
+            if ( ++m_pos < m_chainLength )
+                return true;
+            flush();
+            m_chainLength = 0;
+            while ( m_bucket + 1 < m_data.length() )
+            {
+                if ( m_data.select( ++m_bucket ) )
+                {
+                    load();
+                    m_pos = 0;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public double key()
+        {
+            checkEntry();
+            return m_keys[ m_pos ];
+        }
+
+        @Override
+        public int value()
+        {
+            checkEntry();
+            return m_values[ m_pos ];
+        }
+
+        @Override
+        public void setValue( final int value )
+        {
+            checkEntry();
+            m_values[ m_pos ] = value;
+            m_dirty = true;
+        }
+
+        @Override
+        public void remove()
+        {
+            checkEntry();
+            m_removed[ m_pos ] = true;
+            m_dirty = true;
+        }
+
+        @Override
+        public void close()
+        {
+            flush();
+            m_chainLength = 0;
+            m_bucket = m_data.length();
+        }
+
+        private void checkEntry()
+        {
+            if ( m_pos < 0 || m_pos >= m_chainLength || m_removed[ m_pos ] )
+                throw new IllegalStateException( "Cursor does not stand on an entry!" );
+        }
+
+        /**
+         * Decode the currently selected chain
+         */
+        private void load()
+        {
+            final Iterator iter = m_chainIter.reset( m_bar.reset( getBlockByIndex( m_data.getBlockIndex() ).data, m_data.getOffset() ), m_data );
+            m_chainLength = iter.getElems();
+            if ( m_keys.length < m_chainLength )
+            {
+                final int newLength = Math.max( m_chainLength, m_keys.length * 2 );
+                m_keys = new double[ newLength ];
+                m_values = new int[ newLength ];
+                m_removed = new boolean[ newLength ];
+            }
+            for ( int i = 0; i < m_chainLength; ++i )
+            {
+                iter.advance();
+                m_keys[ i ] = iter.getKey();
+                m_values[ i ] = iter.getValue();
+                m_removed[ i ] = false;
+            }
+            m_dirty = false;
+        }
+
+        /**
+         * Rewrite the current chain if it was modified
+         */
+        private void flush()
+        {
+            if ( !m_dirty )
+                return;
+            m_dirty = false;
+
+            m_data.select( m_bucket );
+            final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+            int elems = 0;
+            for ( int i = 0; i < m_chainLength; ++i )
+                if ( !m_removed[ i ] )
+                    ++elems;
+            //2* is a safety net here due to possibility that a value may take longer in the delta form compared to original form,
+            //5 is the maximal length of the chain length field
+            final int bytes = elems * 2 * m_singleEntryLength + 5;
+            if ( elems == 0 )
+            {
+                inputBlock.decreaseEntries();
+                m_data.set( m_bucket, m_data.emptyBucket() );
+                m_size -= m_chainLength;
+                return;
+            }
+
+            final SingleThreadedBlock outputBlock = getBlock( bytes );
+            final int startOutputPos = outputBlock.pos;
+            final ByteArray output = m_bar.reset( outputBlock.data, outputBlock.pos );
+
+            inputBlock.decreaseEntries(); //release the input block, the chain is already decoded
+            outputBlock.increaseEntries(); //allocate block
+            //the number of elements is written prior to the chain only if it does not fit into the bucket
+            final Writer writer = m_chainWriter.reset( output, elems < m_data.maxEncodedLength() ? 0 : elems );
+            for ( int i = 0; i < m_chainLength; ++i )
+                if ( !m_removed[ i ] )
+                    writer.writePair( m_keys[ i ], m_values[ i ] );
+
+            outputBlock.pos = output.position();
+            m_data.set( m_bucket, outputBlock.getIndex(), startOutputPos,
+                        elems < m_data.maxEncodedLength() ? elems : m_data.maxEncodedLength() );
+            m_size -= m_chainLength - elems;
+        }
+    }
+
+    public long removeIf( final IDoubleIntPredicate pred )
+    {
+        return removeMatching( pred, true );
+    }
+
+    public long retainIf( final IDoubleIntPredicate pred )
+    {
+        return removeMatching( pred, false );
+    }
+
+    /**
+     * Remove all entries for which {@code pred.test} returns {@code remove}. Every bucket is visited once and
+     * the predicate is called once per entry. Chains losing all entries are released, chains losing some entries
+     * are rewritten in place, same as in {@code removeKey}. Local decoding objects are used, so the predicate
+     * could read this map.
+     * @param pred Predicate
+     * @param remove Predicate result for the entries to remove
+     * @return Number of removed entries
+     */
+    private long removeMatching( final IDoubleIntPredicate pred, final boolean remove )
+    {
+        finishRehash();
+        final ByteArray input = new ByteArray();
+        final ByteArray output = new ByteArray();
+        final Iterator iter = new Iterator( m_keySerializer, m_valueSerializer );
+        final Writer writer = new Writer( m_keySerializer, m_valueSerializer );
+        boolean[] removedFlags = new boolean[ 256 ];
+        long removed = 0;
+
+        for ( int i = 0; i < m_data.length(); ++i )
+        {
+            final long bucket = m_data.get( i );
+            if ( bucket == m_data.emptyBucket() )
+                continue;
+
+            final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex( bucket ) );
+            final int inputStartOffset = m_data.getOffset( bucket );
+            final int blockLength = m_data.getBlockLength( bucket );
+            iter.reset( input.reset( inputBlock.data, inputStartOffset ), blockLength, m_data.maxEncodedLength() );
+            final int elems = iter.getElems();
+            if ( removedFlags.length < elems )
+                removedFlags = new boolean[ elems ];
+            int chainRemoved = 0;
+            for ( int j = 0; j < elems; ++j )
+            {
+                iter.advance();
+                removedFlags[ j ] = pred.test( iter.getKey(), iter.getValue() ) == remove;
+                if ( removedFlags[ j ] )
+                    ++chainRemoved;
+            }
+            if ( chainRemoved == 0 )
+                continue;
+
+            removed += chainRemoved;
+            if ( chainRemoved == elems )
+            {
+                inputBlock.decreaseEntries();
+                m_data.set( i, m_data.emptyBucket() );
+                continue;
+            }
+
+            final int newElems = elems - chainRemoved;
+            iter.reset( input.reset( inputBlock.data, inputStartOffset ), blockLength, m_data.maxEncodedLength() );
+            writer.reset( output.reset( inputBlock.data, inputStartOffset ), newElems < m_data.maxEncodedLength() ? 0 : newElems );
+            for ( int j = 0; j < elems; ++j )
+            {
+                iter.advance();
+                if ( !removedFlags[ j ] )
+                    writer.transferPair( iter );
+            }
+            m_data.set( i, inputBlock.getIndex(), inputStartOffset,
+                        newElems < m_data.maxEncodedLength() ? newElems : m_data.maxEncodedLength() );
+        }
+
+        m_size -= removed;
+        checkShrink();
+        return removed;
+    }
+
+    /**
+     * Get map size. Note that this method does not lock the map to calculate the result, so it can return slightly incorrect
+     * values (including negative ones).
+     * Calling this method to frequently may cause the performance degradation of your code.
+     * @return The approximate current map size (temporarily may be negative)
+     */
+    public long size() {
+        return m_size;
+    }
+
+    /**
+     * Call {@code proc} for every map entry. Entries are visited in the bucket order. This method does not allocate
+     * any per-entry objects (unless value deserialization does so). The map must not be updated from the callback.
+     * @param proc Entry callback
+     */
+    public void forEach( final IDoubleIntProcedure proc )
+    {
+        finishRehash();
+        forEachInRange( proc, 0, m_data.length() );
+    }
+
+    /**
+     * Call {@code proc} for every map entry using the given pool. Disjoint bucket ranges are processed in parallel,
+     * so {@code proc} must be thread safe. The map must not be updated until this method returns.
+     * @param proc Entry callback
+     * @param pool Pool to run the traversal tasks in
+     */
+    public void parallelForEach( final IDoubleIntProcedure proc, final ForkJoinPool pool )
+    {
+        finishRehash();
+        pool.invoke( new ForEachTask( proc, 0, m_data.length() ) );
+    }
+
+    /**
+     * Call {@code proc} for all entries in the given bucket range. This method does not change any map state
+     * (including the selected bucket), so it could be called from several threads for disjoint ranges.
+     * @param proc Entry callback
+     * @param from First bucket index, inclusive
+     * @param to Last bucket index, exclusive
+     */
+    private void forEachInRange( final IDoubleIntProcedure proc, final int from, final int to )
+    {
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer, m_valueSerializer );
+        final Buckets data = m_data;
+
+        for ( int i = from; i < to; ++i )
+        {
+            final long bucket = data.get( i );
+            if ( bucket != data.emptyBucket() )
+            {
+                iterLocal.reset( barLocal.reset( getBlockByIndex( data.getBlockIndex( bucket ) ).data, data.getOffset( bucket ) ),
+                                 data.getBlockLength( bucket ), data.maxEncodedLength() );
+                while ( iterLocal.hasNext() )
+                {
+                    iterLocal.advance();
+                    proc.process( iterLocal.getKey(), iterLocal.getValue() );
+                }
+            }
+        }
+    }
+
+    public long sumValues()
+    {
+        return aggregate( new Aggregator( null, null, null ), null ).sum;
+    }
+
+    public long sumValues( final ForkJoinPool pool )
+    {
+        return aggregate( new Aggregator( null, null, null ), Objects.requireNonNull( pool, "Pool must be provided!" ) ).sum;
+    }
+
+    public int minValue()
+    {
+        return aggregate( new Aggregator( null, null, null ), null ).min;
+    }
+
+    public int minValue( final ForkJoinPool pool )
+    {
+        return aggregate( new Aggregator( null, null, null ), Objects.requireNonNull( pool, "Pool must be provided!" ) ).min;
+    }
+
+    public int maxValue()
+    {
+        return aggregate( new Aggregator( null, null, null ), null ).max;
+    }
+
+    public int maxValue( final ForkJoinPool pool )
+    {
+        return aggregate( new Aggregator( null, null, null ), Objects.requireNonNull( pool, "Pool must be provided!" ) ).max;
+    }
+
+    public long countIf( final IDoubleIntPredicate pred )
+    {
+        return aggregate( new Aggregator( Objects.requireNonNull( pred, "Predicate must be provided!" ), null, null ), null ).count;
+    }
+
+    public long countIf( final IDoubleIntPredicate pred, final ForkJoinPool pool )
+    {
+        return aggregate( new Aggregator( Objects.requireNonNull( pred, "Predicate must be provided!" ), null, null ),
+                          Objects.requireNonNull( pool, "Pool must be provided!" ) ).count;
+    }
+
+    public void histogram( final int[] bounds, final long[] counts )
+    {
+        checkHistogramArgs( bounds, counts );
+        aggregate( new Aggregator( null, bounds, counts ), null );
+    }
+
+    public void histogram( final int[] bounds, final long[] counts, final ForkJoinPool pool )
+    {
+        checkHistogramArgs( bounds, counts );
+        aggregate( new Aggregator( null, bounds, counts ), Objects.requireNonNull( pool, "Pool must be provided!" ) );
+    }
+
+    private static void checkHistogramArgs( final int[] bounds, final long[] counts )
+    {
+        if ( counts.length != bounds.length + 1 )
+            throw new IllegalArgumentException( "counts.length must be equal to bounds.length + 1, got "
+                                                        + counts.length + " and " + bounds.length );
+    }
+
+    public int topK( final int k, final double[] keys, final int[] values )
+    {
+        return findTopK( k, keys, values, null );
+    }
+
+    public int topK( final int k, final double[] keys, final int[] values, final ForkJoinPool pool )
+    {
+        return findTopK( k, keys, values, Objects.requireNonNull( pool, "Pool must be provided!" ) );
+    }
+
+    private int findTopK( final int k, final double[] keys, final int[] values, final ForkJoinPool pool )
+    {
+        if ( k < 0 )
+            throw new IllegalArgumentException( "k must be non-negative, got " + k );
+        if ( keys.length < k || values.length < k )
+            throw new IllegalArgumentException( "Output arrays must have at least k = " + k + " elements, got "
+                                                        + keys.length + " and " + values.length );
+        final TopK heap = new TopK( k );
+        if ( pool == null )
+            forEach( heap );
+        else
+            parallelForEach( heap, pool );
+        return heap.drainTo( keys, values );
+    }
+
+    /**
+     * Feed all map entries to an aggregator
+     * @param agg Aggregator
+     * @param pool Pool to run the traversal tasks in, {@code null} to run in the current thread
+     * @return {@code agg}
+     */
+    private Aggregator aggregate( final Aggregator agg, final ForkJoinPool pool )
+    {
+        if ( pool == null )
+            forEach( agg );
+        else
+            parallelForEach( agg, pool );
+        return agg;
+    }
+
+    /**
+     * Get a procedure for the second half of a split traversal range. Partial procedures are copied, so every task
+     * updates its own partial result. Other procedures are shared.
+     * @param proc Procedure used for the whole range
+     * @return Procedure to use for the second half
+     */
+    private static IDoubleIntProcedure forkProcedure( final IDoubleIntProcedure proc )
+    {
+        return proc instanceof PartialProcedure ? ( ( PartialProcedure ) proc ).copy() : proc;
+    }
+
+    /**
+     * Merge partial results of a procedure returned by {@code forkProcedure} back into the original one
+     * @param proc Original procedure
+     * @param forked Forked procedure
+     */
+    private static void joinProcedure( final IDoubleIntProcedure proc, final IDoubleIntProcedure forked )
+    {
+        if ( forked != proc )
+            ( ( PartialProcedure ) proc ).merge( ( PartialProcedure ) forked );
+    }
+
+    /**
+     * A procedure accumulating a partial result. Parallel traversals give every task its own copy
+     * and merge the copies when the tasks are joined.
+     */
+    private interface PartialProcedure extends IDoubleIntProcedure
+    {
+        /**
+         * @return An empty procedure with the same settings
+         */
+        public PartialProcedure copy();
+
+        /**
+         * Add a partial result of another procedure to this one
+         * @param other Procedure created by {@code copy}
+         */
+        public void merge( final PartialProcedure other );
+    }
+
+    /**
+     * A bounded min-heap keeping the entries with the largest values seen so far
+     */
+    private static final class TopK implements PartialProcedure
+    {
+        private final double[] m_keys;
+        private final int[] m_values;
+        private int m_size = 0;
+
+        public TopK( final int k ) {
+            m_keys = new double[ k ];
+            m_values = new int[ k ];
+        }
+
+        @Override
+        public void process( final double key, final int value ) {
+            if ( m_size < m_values.length )
+            {
+                //sift up
+                int pos = m_size++;
+                while ( pos > 0 )
+                {
+                    final int parent = ( pos - 1 ) >>> 1;
+                    if ( m_values[ parent ] <= value )
+                        break;
+                    m_keys[ pos ] = m_keys[ parent ];
+                    m_values[ pos ] = m_values[ parent ];
+                    pos = parent;
+                }
+                m_keys[ pos ] = key;
+                m_values[ pos ] = value;
+            }
+            else if ( m_size > 0 && value > m_values[ 0 ] )
+                replaceTop( key, value );
+        }
+
+        /**
+         * Replace the smallest entry and sift it down
+         */
+        private void replaceTop( final double key, final int value )
+        {
+            int pos = 0;
+            while ( true )
+            {
+                int child = 2 * pos + 1;
+                if ( child >= m_size )
+                    break;
+                if ( child + 1 < m_size && m_values[ child + 1 ] < m_values[ child ] )
+                    ++child;
+                if ( m_values[ child ] >= value )
+                    break;
+                m_keys[ pos ] = m_keys[ child ];
+                m_values[ pos ] = m_values[ child ];
+                pos = child;
+            }
+            m_keys[ pos ] = key;
+            m_values[ pos ] = value;
+        }
+
+        @Override
+        public TopK copy()
+        {
+            return new TopK( m_values.length );
+        }
+
+        @Override
+        public void merge( final PartialProcedure partial )
+        {
+            final TopK other = ( TopK ) partial;
+            for ( int i = 0; i < other.m_size; ++i )
+                process( other.m_keys[ i ], other.m_values[ i ] );
+        }
+
+        /**
+         * Move all entries to the output arrays in the descending value order. The heap is empty after this call.
+         * @param keys Output keys
+         * @param values Output values
+         * @return Number of entries
+         */
+        public int drainTo( final double[] keys, final int[] values )
+        {
+            final int res = m_size;
+            while ( m_size > 0 )
+            {
+                final int last = --m_size;
+                keys[ last ] = m_keys[ 0 ];
+                values[ last ] = m_values[ 0 ];
+                if ( last > 0 )
+                    replaceTop( m_keys[ last ], m_values[ last ] );
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Accumulator for all value aggregations. It calculates all of them at once, which is much cheaper
+     * than decoding the chains.
+     */
+    private static final class Aggregator implements PartialProcedure
+    {
+        /** Only matching entries are counted if not null */
+        private final IDoubleIntPredicate m_pred;
+        /** Histogram bin bounds, may be null */
+        private final int[] m_bounds;
+        /** Histogram bin counters, may be null */
+        private final long[] m_counts;
+
+        public long sum = 0;
+        public int min = Integer.MAX_VALUE;
+        public int max = Integer.MIN_VALUE;
+        public long count = 0;
+
+        public Aggregator( final IDoubleIntPredicate pred, final int[] bounds, final long[] counts ) {
+            m_pred = pred;
+            m_bounds = bounds;
+            m_counts = counts;
+        }
+
+        @Override
+        public void process( final double key, final int value ) {
+            sum += value;
+            if ( value < min )
+                min = value;
+            if ( value > max )
+                max = value;
+            if ( m_pred == null || m_pred.test( key, value ) )
+                ++count;
+            if ( m_counts != null )
+            {
+                final int pos = Arrays.binarySearch( m_bounds, value );
+                ++m_counts[ pos >= 0 ? pos + 1 : -pos - 1 ];
+            }
+        }
+
+        @Override
+        public Aggregator copy()
+        {
+            return new Aggregator( m_pred, m_bounds, m_counts != null ? new long[ m_counts.length ] : null );
+        }
+
+        @Override
+        public void merge( final PartialProcedure partial )
+        {
+            final Aggregator other = ( Aggregator ) partial;
+            sum += other.sum;
+            if ( other.min < min )
+                min = other.min;
+            if ( other.max > max )
+                max = other.max;
+            count += other.count;
+            if ( m_counts != null )
+                for ( int i = 0; i < m_counts.length; ++i )
+                    m_counts[ i ] += other.m_counts[ i ];
+        }
+    }
+
+    /**
+     * A task processing a range of buckets. Large ranges are split in halves.
+     */
+    private final class ForEachTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final IDoubleIntProcedure m_proc;
+        private final int m_from;
+        private final int m_to;
+
+        public ForEachTask( final IDoubleIntProcedure proc, final int from, final int to ) {
+            m_proc = proc;
+            m_from = from;
+            m_to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ( m_to - m_from <= PARALLEL_MIN_BUCKETS )
+                forEachInRange( m_proc, m_from, m_to );
+            else
+            {
+                final int mid = ( m_from + m_to ) >>> 1;
+                final IDoubleIntProcedure right = forkProcedure( m_proc );
+                invokeAll( new ForEachTask( m_proc, m_from, mid ), new ForEachTask( right, mid, m_to ) );
+                joinProcedure( m_proc, right );
+            }
+        }
+    }
 
-        outputBlock.pos = baOutput.position();
-        final int sizeChange = updated ? 0 : 1;
-        m_data.set( index, outputBlock.getIndex(), startOutputPos, iter.getElems() + sizeChange );
-        return m_updateResult.set( retValue, sizeChange );
+    /**
+     * Replace every value with {@code fn( key, value )}. Every chain is decoded and encoded once. A chain is updated
+     * in place if its new encoding is not longer than the old one, otherwise it is moved to a new block.
+     * The map must not be updated from the function.
+     * @param fn Function calculating new values
+     */
+    public void replaceAll( final IDoubleIntFunction fn )
+    {
+        finishRehash();
+        replaceInRange( fn, 0, m_data.length(), null );
     }
 
     /**
-     * This is a special version of previous method which deals with chains which require storing the chain length
-     * prior to the chain ( compared to being encoded in the buckets ).
-     * @param index Key bucket
-     * @param iter Input iterator
-     * @param inputBlock Input block
-     * @param inputStartOffset Start offset for the iterator (prior to len)
-     * @param key Key
-     * @param value Value
-     * @return A new chain and an old value
+     * Replace every value with {@code fn( key, value )} using the given pool. Disjoint bucket ranges are processed
+     * in parallel, so {@code fn} must be thread safe. Chains which do not fit into their old places are moved
+     * by the calling thread after all ranges are processed. The map must not be updated until this method returns.
+     * @param fn Function calculating new values
+     * @param pool Pool to run the update tasks in
      */
-    private UpdateResult addToChainSlow( final int index, final Iterator iter,
-                                         final SingleThreadedBlock inputBlock,
-                                         final int inputStartOffset, final double key, final int value )
+    public void parallelReplaceAll( final IDoubleIntFunction fn, final ForkJoinPool pool )
     {
-        boolean hasKey = false;
-        int retValue = NO_VALUE;
-        while ( iter.hasNext() ) //look up a key and then fast forward to the end of chain to find out its length
+        finishRehash();
+        final List<Relocation> relocations = Collections.synchronizedList( new ArrayList<Relocation>() );
+        pool.invoke( new ReplaceAllTask( fn, 0, m_data.length(), relocations ) );
+        for ( final Relocation rel : relocations )
+            relocateChain( rel.index, rel.blockLength, rel.chain, rel.chain.length );
+    }
+
+    /**
+     * Replace values in all chains in the given bucket range. Every chain is encoded into a local buffer first. It is
+     * copied over the old chain if it is not longer, so the bucket stays intact. Otherwise the chain is moved to a
+     * new block right away if {@code relocations} is null or is added to {@code relocations}.
+     * This method does not change any shared map state in the latter case, so it could be called from several threads
+     * for disjoint ranges.
+     * @param fn Function calculating new values
+     * @param from First bucket index, inclusive
+     * @param to Last bucket index, exclusive
+     * @param relocations Chains to move later or {@code null} to move them immediately
+     */
+    private void replaceInRange( final IDoubleIntFunction fn, final int from, final int to, final List<Relocation> relocations )
+    {
+        final ByteArray input = new ByteArray();
+        final ByteArray output = new ByteArray();
+        final Iterator iter = new Iterator( m_keySerializer, m_valueSerializer );
+        final Writer writer = new Writer( m_keySerializer, m_valueSerializer );
+        byte[] buf = new byte[ 256 ];
+        final Buckets data = m_data;
+
+        for ( int i = from; i < to; ++i )
         {
-            iter.advance();
-            if ( iter.getKey() == key )
-            {
-                hasKey = true;
-                retValue = iter.getValue();
-                while ( iter.hasNext() )
-                    iter.skip();
-            }
-            else if ( iter.getKey() > key )
+            final long bucket = data.get( i );
+            if ( bucket == data.emptyBucket() )
+                continue;
+
+            final SingleThreadedBlock block = getBlockByIndex( data.getBlockIndex( bucket ) );
+            final int offset = data.getOffset( bucket );
+            final int blockLength = data.getBlockLength( bucket );
+            iter.reset( input.reset( block.data, offset ), blockLength, data.maxEncodedLength() );
+            final int elems = iter.getElems();
+            //5 is the maximal length of the chain length field
+            if ( buf.length < elems * m_singleEntryLength + 5 )
+                buf = new byte[ elems * m_singleEntryLength + 5 ];
+            //Keep the header form of the old chain: short chains may still store their length in front of the data,
+            //which is marked by the maximal length in the bucket. The bucket is not updated for in place copies.
+            writer.reset( output.reset( buf, 0 ), blockLength == data.maxEncodedLength() ? elems : 0 );
+            while ( iter.hasNext() )
             {
-                while ( iter.hasNext() )
-                    iter.skip();
+                iter.advance();
+                writer.writePair( iter.getKey(), fn.apply( iter.getKey(), iter.getValue() ) );
             }
+
+            final int length = output.position();
+            if ( length <= input.position() - offset )
+                System.arraycopy( buf, 0, block.data, offset, length ); //same offset and number of entries
+            else if ( relocations == null )
+                relocateChain( i, blockLength, buf, length );
+            else
+                relocations.add( new Relocation( i, blockLength, Arrays.copyOf( buf, length ) ) );
         }
+    }
 
-        final int chainLength = iter.getBuf().position() - inputStartOffset;
-        final int elems = hasKey ? iter.getElems() : iter.getElems() + 1;
-        final SingleThreadedBlock outputBlock = getBlock( 2 * m_singleEntryLength + chainLength + 2 ); //2 for transition from header to chain length
+    /**
+     * Move an already encoded chain to a new block
+     * @param index Bucket index
+     * @param blockLength Chain length field of the bucket, the chain is encoded with the same header form
+     * @param chain Encoded chain
+     * @param length Encoded chain length
+     */
+    private void relocateChain( final int index, final int blockLength, final byte[] chain, final int length )
+    {
+        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex( m_data.get( index ) ) );
+        final SingleThreadedBlock outputBlock = getBlock( length );
         final int startOutputPos = outputBlock.pos;
-        final ByteArray output = getByteArray2( outputBlock );
-
         inputBlock.decreaseEntries();
-        outputBlock.increaseEntries(); //allocate block
-        //here we write the correct number of elements upfront
-        final Writer writer = m_writer.reset( output, elems );
-        boolean inserted = false;
+        outputBlock.increaseEntries();
+        System.arraycopy( chain, 0, outputBlock.data, startOutputPos, length );
+        outputBlock.pos = startOutputPos + length;
+        m_data.set( index, outputBlock.getIndex(), startOutputPos, blockLength );
+    }
 
-        //fully reset the iterator (position on the bucket length)
-        iter.getBuf().position( inputStartOffset );
-        iter.reset( iter.getBuf(), m_data );
+    /**
+     * A chain which was updated by a parallel task, but did not fit into its old place
+     */
+    private static final class Relocation
+    {
+        public final int index;
+        public final int blockLength;
+        public final byte[] chain;
+
+        public Relocation( final int index, final int blockLength, final byte[] chain ) {
+            this.index = index;
+            this.blockLength = blockLength;
+            this.chain = chain;
+        }
+    }
 
-        while ( iter.hasNext() )
-        {
-            iter.advance();
-            if ( iter.getKey() < key )
-                writer.transferPair( iter );
-            else if ( iter.getKey() == key )
-            {
-                inserted = true;
-                retValue = iter.getValue();
-                writer.writePair( key, value );
-            }
+    /**
+     * A task updating values in a range of buckets. Large ranges are split in halves.
+     */
+    private final class ReplaceAllTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final IDoubleIntFunction m_fn;
+        private final int m_from;
+        private final int m_to;
+        private final List<Relocation> m_relocations;
+
+        public ReplaceAllTask( final IDoubleIntFunction fn, final int from, final int to, final List<Relocation> relocations ) {
+            m_fn = fn;
+            m_from = from;
+            m_to = to;
+            m_relocations = relocations;
+        }
+
+        @Override
+        protected void compute() {
+            if ( m_to - m_from <= PARALLEL_MIN_BUCKETS )
+                replaceInRange( m_fn, m_from, m_to, m_relocations );
             else
             {
-                if ( !inserted )
-                {
-                    inserted = true;
-                    writer.writePair( key, value );
-                }
-                writer.transferPair( iter );
+                final int mid = ( m_from + m_to ) >>> 1;
+                invokeAll( new ReplaceAllTask( m_fn, m_from, mid, m_relocations ),
+                           new ReplaceAllTask( m_fn, mid, m_to, m_relocations ) );
             }
         }
-        if ( !inserted ) //all keys are smaller
-            writer.writePair( key, value );
+    }
 
-        outputBlock.pos = output.position();
-        m_data.set( index, outputBlock.getIndex(), startOutputPos, m_data.maxEncodedLength() );
-        return m_updateResult.set( retValue, hasKey ? 0 : 1 );
+    /**
+     * Compact the memory blocks with the default live bytes ratio (50%).
+     * @return Total size of the released blocks minus the number of bytes copied into other blocks
+     */
+    @Override
+    public long compact()
+    {
+        return compact( DEFAULT_COMPACTION_RATIO );
     }
 
-    public int remove( final double key )
+    /**
+     * Relocate the chains out of the blocks where the live chains take less than {@code minLiveRatio} of the block size.
+     * A block is kept alive while at least one chain in it is used, so the updates may leave lots of mostly
+     * empty blocks behind. The chains are copied as is, without decoding them. The currently appended block
+     * is never compacted.
+     * @param minLiveRatio Blocks with a smaller ratio of live bytes to the block size are released
+     * @return Total size of the released blocks minus the number of bytes copied into other blocks
+     * @throws IllegalArgumentException If {@code minLiveRatio} is not between 0 and 1
+     */
+    @Override
+    public long compact( final float minLiveRatio )
     {
-        final int idx = getIndex( key, m_data.length() );
-        if ( !m_data.select( idx ) )
-            return NO_VALUE;
+        finishRehash();
+        if ( minLiveRatio < 0 || minLiveRatio > 1 )
+            throw new IllegalArgumentException( "Live bytes ratio must be between 0 and 1!" );
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer, m_valueSerializer );
 
-        final UpdateResult res = removeKey( key, idx );
-        m_size += res.sizeChange;
-        return res.retValue;
+        //first pass - calculate the live bytes in all blocks
+        m_blockAllocator.resetLiveBytes();
+        for ( int i = 0; i < m_data.length(); ++i )
+            if ( m_data.select( i ) )
+            {
+                final SingleThreadedBlock block = getBlockByIndex( m_data.getBlockIndex() );
+                block.addLiveBytes( chainLength( block, barLocal, iterLocal ) );
+            }
+
+        //second pass - move the chains out of the sparse blocks
+        long reclaimed = 0;
+        for ( int i = 0; i < m_data.length(); ++i )
+        {
+            if ( !m_data.select( i ) )
+                continue;
+            final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+            if ( !inputBlock.isWriteDone() || inputBlock.getLiveBytes() >= inputBlock.data.length * minLiveRatio )
+                continue;
+            final int inputOffset = m_data.getOffset();
+            final int blockLength = m_data.getBlockLength();
+            final int len = chainLength( inputBlock, barLocal, iterLocal );
+
+            final SingleThreadedBlock output = getBlock( len );
+            System.arraycopy( inputBlock.data, inputOffset, output.data, output.pos, len );
+            m_data.set( i, output.getIndex(), output.pos, blockLength );
+            output.pos += len;
+            output.increaseEntries();
+            output.addLiveBytes( len );
+            reclaimed -= len;
+
+            inputBlock.decreaseEntries();
+            if ( getBlockByIndex( inputBlock.getIndex() ) == null ) //the last chain has left the block
+                reclaimed += inputBlock.data.length;
+        }
+        return reclaimed;
     }
 
     /**
-     * Remove a given key from a chain.
-     * 3 special cases are supported:
-     * 1) key not found - same chain is returned
-     * 2) removal from a 1-entry long chain - null chain is returned with a valid retValue
-     * 3) removal of the last element in the chain - in most cases only the chain length should be updated
-     * @param key Key to remove
-     * @param idx Key bucket
-     * @return Updated or original chain
+     * Enable or disable the automatic compaction. Once enabled, {@code compact( minLiveRatio )} is called after
+     * an update whenever the memory blocks have grown twice since the previous compaction.
+     * @param minLiveRatio Live bytes ratio passed to {@code compact}, 0 to disable the automatic compaction
+     * @throws IllegalArgumentException If {@code minLiveRatio} is not between 0 and 1
      */
-    private UpdateResult removeKey( final double key, final int idx )
+    @Override
+    public void setAutoCompaction( final float minLiveRatio )
     {
-        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
-        final int inputStartOffset = m_data.getOffset();
+        if ( minLiveRatio < 0 || minLiveRatio > 1 )
+            throw new IllegalArgumentException( "Live bytes ratio must be between 0 and 1!" );
+        m_autoCompactionRatio = minLiveRatio;
+    }
 
-        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
-        final Iterator iter = m_iter.reset( input, m_data );
+    /**
+     * Run the automatic compaction if it is enabled and the memory blocks have grown enough since the last run
+     */
+    private void checkCompaction()
+    {
+        //compaction has to complete a pending migration first, so it is postponed until the migration is over
+        if ( m_autoCompactionRatio > 0 && m_old == null && m_blockAllocator.getAllocatedBytes() > m_nextCompactionCheck )
+        {
+            compact( m_autoCompactionRatio );
+            m_nextCompactionCheck = Math.max( MIN_COMPACTION_CHECK, m_blockAllocator.getAllocatedBytes() * 2 );
+        }
+    }
 
-        boolean hasKey = false;
-        int retValue = NO_VALUE;
+    /**
+     * Calculate the length in bytes of the currently selected chain, including its length field
+     * @param block Block containing the chain
+     * @param bar Reusable byte array
+     * @param iter Reusable iterator
+     * @return Chain length in bytes
+     */
+    private int chainLength( final SingleThreadedBlock block, final ByteArray bar, final Iterator iter )
+    {
+        iter.reset( bar.reset( block.data, m_data.getOffset() ), m_data );
         while ( iter.hasNext() )
+            iter.skip();
+        return bar.position() - m_data.getOffset();
+    }
+
+    /**
+     * Create an immutable read-optimized copy of this map. See {@code FrozenDoubleIntMap} for details.
+     * The chains are copied as is, without decoding them. This map is not changed.
+     * @return An immutable copy of this map
+     */
+    @Override
+    public FrozenDoubleIntMap freeze()
+    {
+        finishRehash();
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer, m_valueSerializer );
+        final Buckets data = m_data;
+        final int segmentSize = 1 << FrozenDoubleIntMap.SEGMENT_BITS;
+        final int[] buckets = new int[ data.length() ];
+        final byte[][] segments = new byte[ ( data.length() + segmentSize - 1 ) / segmentSize ][];
+        final ByteArray output = new ByteArray();
+
+        //first pass - calculate the segment lengths, second pass - copy the chains
+        for ( int pass = 0; pass < 2; ++pass )
         {
-            iter.advance();
-            if ( iter.getKey() == key )
+            long segmentLength = 0;
+            for ( int i = 0; i < data.length(); ++i )
             {
-                hasKey = true;
-                retValue = iter.getValue();
-                break;
+                if ( ( i & ( segmentSize - 1 ) ) == 0 )
+                {
+                    if ( pass == 1 )
+                        output.reset( segments[ i >>> FrozenDoubleIntMap.SEGMENT_BITS ], 0 );
+                    segmentLength = 0;
+                }
+                final long bucket = data.get( i );
+                if ( bucket != data.emptyBucket() )
+                {
+                    final byte[] block = getBlockByIndex( data.getBlockIndex( bucket ) ).data;
+                    iterLocal.reset( barLocal.reset( block, data.getOffset( bucket ) ),
+                                     data.getBlockLength( bucket ), data.maxEncodedLength() );
+                    final int start = barLocal.position();
+                    while ( iterLocal.hasNext() )
+                        iterLocal.skip();
+                    final int chainLength = barLocal.position() - start;
+                    if ( pass == 0 )
+                    {
+                        segmentLength += VarLen.unsignedIntLength( iterLocal.getElems() ) + chainLength;
+                        if ( segmentLength >= Integer.MAX_VALUE - 8 )
+                            throw new IllegalStateException( "Too many entries in " + segmentSize + " buckets to freeze this map!" );
+                    }
+                    else
+                    {
+                        buckets[ i ] = output.position() + 1;
+                        writeUnsignedInt( iterLocal.getElems(), output );
+                        output.put( block, start, chainLength );
+                    }
+                }
+                if ( pass == 0 && ( ( i & ( segmentSize - 1 ) ) == segmentSize - 1 || i == data.length() - 1 ) )
+                    segments[ i >>> FrozenDoubleIntMap.SEGMENT_BITS ] = new byte[ ( int ) segmentLength ];
             }
-            else if ( iter.getKey() > key )
-                break;
         }
-        if ( !hasKey )
-            return m_updateResult.set( NO_VALUE, 0 );
+        return new FrozenDoubleIntMap( buckets, segments, m_size, m_keySerializer, m_valueSerializer, m_indexMode, m_hashStrategy );
+    }
 
-        //special case 1 - chain removal
-        if ( iter.getElems() == 1 ) {
-            inputBlock.decreaseEntries();
-            m_data.set( idx, m_data.emptyBucket() );
-            return m_updateResult.set( retValue, -1 );
-        }
+    /**
+     * Shrink the bucket table to the smallest capacity suitable for the current map size.
+     * This method never grows the table.
+     */
+    @Override
+    public void trimToSize()
+    {
+        shrinkTable( Math.max( m_size, 1 ) );
+    }
 
-        //special case 2 - removal of the last element and length is not too big - only bucket info changes
-        //we can not check for equality - once we have reached maxlen there will be a length field at the start of the record
-        if ( !iter.hasNext() && iter.getElems() < m_data.maxEncodedLength() )
-        {
-            m_data.set( idx, inputBlock.getIndex(), inputStartOffset, iter.getElems() - 1 );
-            return m_updateResult.set( retValue, -1 );
-        }
+    /**
+     * Shrink the table if the map size has dropped below the low water mark. Some spare capacity is left, so that
+     * the map could grow again without an immediate rehash. The table never gets smaller than the initial one.
+     */
+    private void checkShrink()
+    {
+        if ( m_size < m_lowThreshold )
+            shrinkTable( Math.max( m_size * 2, m_initialSize ) );
+    }
 
-        //Reuse the same block for removed chain. There are some risks that it will keep more blocks active, but on
-        //the other hand it will definitely reduce the number of discarded blocks => reduce GC.
+    /**
+     * Rehash the table into a smaller one, provided that the capacity calculated for {@code size} is smaller
+     * than the current one.
+     * @param size Expected map size
+     */
+    private void shrinkTable( final long size )
+    {
+        finishRehash();
+        final int newCapacity = m_indexMode.getCapacity( size, m_fillFactor );
+        if ( newCapacity >= m_data.length() )
+            return;
+        final Buckets old = m_data;
+        m_data = new Buckets( newCapacity, old.isLong() );
+        m_threshold = m_indexMode.getThreshold( size, newCapacity, m_fillFactor );
+        rehash( old );
+        updateLowThreshold();
+    }
 
-        input.position( inputStartOffset );
-        iter.reset( input, m_data );
+    /**
+     * Recalculate the low water mark after the table capacity has changed. Tables not larger than
+     * the initial one are never shrunk automatically.
+     */
+    private void updateLowThreshold()
+    {
+        m_lowThreshold = m_data.length() > m_minCapacity ? ( long ) ( m_data.length() * m_fillFactor / SHRINK_DIVISOR ) : 0;
+    }
 
-        final ByteArray output = getByteArray2( inputBlock );
-        output.position( inputStartOffset );
-        final Writer writer = m_writer.reset( output, iter.getElems() <= m_data.maxEncodedLength() ? 0 : iter.getElems() - 1 );
-        while ( iter.hasNext() )
+    /**
+     * Enable the incremental rehashing. A growing map normally rehashes the whole table inside a single update call.
+     * With this option the map keeps the old table and moves {@code bucketsPerUpdate} of its buckets to the new table
+     * on every update or removal. Lookups check both tables until the migration is over. Bulk operations
+     * (iteration, {@code putAll}, {@code compact}, etc.) complete a pending migration first.
+     * @param bucketsPerUpdate Number of old buckets to migrate per update, 0 to rehash the whole table at once (default)
+     * @throws IllegalArgumentException If {@code bucketsPerUpdate < 0}
+     */
+    @Override
+    public void setIncrementalRehash( final int bucketsPerUpdate )
+    {
+        if ( bucketsPerUpdate < 0 )
+            throw new IllegalArgumentException( "Number of buckets per update can not be negative!" );
+        m_rehashStep = bucketsPerUpdate;
+        if ( m_rehashStep == 0 )
+            finishRehash();
+    }
+
+    /**
+     * Select a bucket containing a given key. A not yet migrated bucket of the old table is selected if
+     * the incremental rehashing is in progress. Migrated old buckets are emptied, so they are never selected.
+     * @param key Key
+     * @return A table with the selected bucket, null if the key bucket is empty
+     */
+    private Buckets selectBucket( final double key )
+    {
+        if ( m_old != null && m_old.select( getIndex( key, m_old.length() ) ) )
+            return m_old;
+        return m_data.select( getIndex( key, m_data.length() ) ) ? m_data : null;
+    }
+
+    /**
+     * Move the next {@code m_rehashStep} buckets of the old table to the new table. The old table is released
+     * after its last bucket is moved.
+     */
+    private void migrateBuckets()
+    {
+        final int end = ( int ) Math.min( ( long ) m_migrated + m_rehashStep, m_old.length() );
+        while ( m_migrated < end )
+            migrateBucket( m_migrated++ );
+        if ( m_migrated == m_old.length() )
+            m_old = null;
+    }
+
+    /**
+     * Move a single old table bucket to the new table. Updates call it for the bucket of their key,
+     * so that all updates are applied to the new table only.
+     * @param index Old table bucket index
+     */
+    private void migrateBucket( final int index )
+    {
+        if ( m_old.select( index ) )
         {
-            iter.advance();
-            if ( iter.getKey() != key )
-                writer.transferPair( iter );
+            rehashInnerStep( m_old, m_rehashBar, m_rehashIter );
+            m_old.set( index, m_old.emptyBucket() );
         }
-
-        m_data.set( idx, inputBlock.getIndex(), inputStartOffset,
-                                iter.getElems() <= m_data.maxEncodedLength() ? iter.getElems() - 1 : m_data.maxEncodedLength() );
-        return m_updateResult.set( retValue, -1 );
     }
 
     /**
-     * Get map size. Note that this method does not lock the map to calculate the result, so it can return slightly incorrect
-     * values (including negative ones).
-     * Calling this method to frequently may cause the performance degradation of your code.
-     * @return The approximate current map size (temporarily may be negative)
+     * Complete a pending incremental migration, if any
      */
-    public long size() {
-        return m_size;
+    private void finishRehash()
+    {
+        if ( m_old != null )
+        {
+            while ( m_migrated < m_old.length() )
+                migrateBucket( m_migrated++ );
+            m_old = null;
+        }
     }
 
     /**
@@ -439,7 +1880,7 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
             else
             {
                 //copy/update the chain
-                addToChain( index, iter.getKey(), iter.getValue() );
+                addToChain( index, iter.getKey(), iter.getValue(), UPDATE_PUT, null, null );
                 inputBlock.decreaseEntries();
             }
         }
@@ -449,12 +1890,41 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
             {
                 iter.advance();
                 //copy/update the chain
-                addToChain( getIndex( iter.getKey(), m_data.length() ), iter.getKey(), iter.getValue() );
+                addToChain( getIndex( iter.getKey(), m_data.length() ), iter.getKey(), iter.getValue(), UPDATE_PUT, null, null );
             }
             inputBlock.decreaseEntries(); //bucket relocated
         }
     }
 
+    /**
+     * Calculate a value to be stored in the map
+     * @param mode Update mode
+     * @param key Key
+     * @param hasKey True if the key is present in the map
+     * @param oldValue Existing value, {@code NO_VALUE} if the key is not present
+     * @param value Value passed by the caller
+     * @param op Merge function, used by {@code UPDATE_MERGE} only
+     * @param fn Compute function, used by {@code UPDATE_COMPUTE} only
+     * @return A value to store
+     */
+    private static int updatedValue( final int mode, final double key, final boolean hasKey, final int oldValue,
+                                       final int value, final IIntBinaryOperator op, final IDoubleIntFunction fn )
+    {
+        switch ( mode )
+        {
+            case UPDATE_PUT_IF_ABSENT:
+                return hasKey ? oldValue : value;
+            case UPDATE_ADD:
+                return oldValue + value;
+            case UPDATE_MERGE:
+                return hasKey ? op.apply( oldValue, value ) : value;
+            case UPDATE_COMPUTE:
+                return fn.apply( key, oldValue );
+            default:
+                return value;
+        }
+    }
+
     /**
      * Get the bucket index for the given key
      * @param key A key
@@ -463,7 +1933,8 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
      */
     private int getIndex( final double key, final int tabSize )
     {
-        return Tools.getIndexFast( key, tabSize );
+        final long hash = m_hashStrategy.hash( Double.doubleToLongBits( key ) );
+        return m_indexMode == IndexMode.POWER_OF_TWO ? Tools.getIndexPow2( hash, tabSize ) : Tools.getIndexFast( hash, tabSize );
     }
 
     private static class Iterator    {
@@ -494,9 +1965,21 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
          * @return Same iterator object
          */
         Iterator reset( final ByteArray buf, final Buckets data )
+        {
+            return reset( buf, data.getBlockLength(), data.maxEncodedLength() );
+        }
+
+        /**
+         * Initialize an iterator by a buffer and an already decoded bucket length.
+         * @param buf Byte buffer
+         * @param blockLength Number of entries stored in a bucket
+         * @param maxEncodedLength Max length which could be stored in a bucket
+         * @return Same iterator object
+         */
+        Iterator reset( final ByteArray buf, final int blockLength, final int maxEncodedLength )
         {
             this.buf = buf;
-            elems = data.getBlockLength() < data.maxEncodedLength() ? data.getBlockLength() : readUnsignedInt( buf );
+            elems = blockLength < maxEncodedLength ? blockLength : readUnsignedInt( buf );
             cur = 0;
             return this;
         }
@@ -550,6 +2033,25 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
             return noValue;
         }
 
+        /**
+        * Check if a given key is present in the chain. Values are skipped without being read.
+        * @param key Key to look up
+        * @return True if the key is found
+        */
+        public boolean containsKey( final double key )
+        {
+            while ( hasNext() ) {
+                advance( false );
+                if ( getKey() == key )
+                    return true;
+                else if ( getKey() > key ) //keys are sorted
+                    return false;
+                else
+                    skipValue();
+            }
+            return false;
+        }
+
         public void skipValue()
         {
             m_valueSerializer.skip( buf );
@@ -739,16 +2241,35 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
     private void changeSize( final int delta )
     {
         m_size += delta;
+        if ( m_old != null )
+            migrateBuckets();
+        ensureCapacity( m_size, m_rehashStep > 0 );
+    }
 
-        if ( m_size > m_threshold )
+    /**
+     * Make sure that the map could contain a given number of entries without rehashing.
+     * The table is rehashed at most once, even if it has to grow several times.
+     * @param size Required map size
+     * @param incremental True to migrate the old table incrementally, false to rehash it right away
+     */
+    private void ensureCapacity( final long size, final boolean incremental )
+    {
+        if ( size > m_threshold )
         {
+            finishRehash();
             final long multiplier = m_fillFactor <= 2 ? 2 : m_iFillFactor;
-            int newCapacity = Primes.findNextPrime( ( long ) Math.ceil( multiplier * m_threshold / m_fillFactor ) );
-            //check if we got too close to the max array size, otherwise we will have to make a pretty useless resize when got close to 2G*fillFactor entries
-            if ( newCapacity * 1.5 > Primes.getMaxIntPrime() )
-                newCapacity = Primes.getMaxIntPrime();
-            //this check disables rehashing after a table has reached the maximal size
-            final long newThreshold = newCapacity >= Primes.getMaxIntPrime() ? Long.MAX_VALUE : m_threshold * multiplier;
+            long newThreshold = m_threshold;
+            int newCapacity;
+            do
+            {
+                newCapacity = m_indexMode.getNextCapacity( ( long ) Math.ceil( multiplier * newThreshold / m_fillFactor ) );
+                //check if we got too close to the max array size, otherwise we will have to make a pretty useless resize when got close to 2G*fillFactor entries
+                if ( newCapacity * 1.5 > m_indexMode.getMaxCapacity() )
+                    newCapacity = m_indexMode.getMaxCapacity();
+                //this check disables rehashing after a table has reached the maximal size
+                newThreshold = newCapacity >= m_indexMode.getMaxCapacity() ? Long.MAX_VALUE : newThreshold * multiplier;
+            }
+            while ( size > newThreshold );
 
             final Buckets old = m_data;
             try {
@@ -761,7 +2282,14 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
                 return;
             }
             m_threshold = newThreshold;
-            rehash( old );
+            if ( incremental )
+            {
+                m_old = old;
+                m_migrated = 0;
+            }
+            else
+                rehash( old );
+            updateLowThreshold();
         }
     }
 
@@ -771,6 +2299,7 @@ public class DoubleIntChainedMap implements IDoubleIntMap{
 
     public void printStats()
     {
+        finishRehash();
         final int[] cnt = new int[ 1000 ];
         long sum = 0;
         for ( int i = 0; i < m_data.length(); ++i )
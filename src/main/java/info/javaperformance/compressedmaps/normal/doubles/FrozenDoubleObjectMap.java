@@ -0,0 +1,174 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.doubles;
+
+import info.javaperformance.functions.IDoubleObjectProcedure;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
+import info.javaperformance.serializers.*;
+import info.javaperformance.tools.Tools;
+
+import static info.javaperformance.tools.VarLen.readUnsignedInt;
+
+/**
+ * An immutable read-optimized copy of a {@code DoubleObjectChainedMap} created by its {@code freeze} method.
+ *
+ * All chains are packed back to back in a few large byte arrays (segments), every segment contains the chains of
+ * {@code 2^SEGMENT_BITS} consecutive buckets. A bucket holds a plain offset of its chain in the segment (plus one,
+ * zero means an empty bucket) and every chain starts from its length. There are no memory blocks, no block lookups,
+ * no thread local state and no usage counters, so this map is safe to share between threads without synchronization
+ * once it is safely published.
+ */
+public final class FrozenDoubleObjectMap<V> {
+    /** Number of buckets in a segment is {@code 1 << SEGMENT_BITS} */
+    static final int SEGMENT_BITS = 16;
+
+    private final V NO_VALUE = null;
+
+    /** Chain offsets + 1, zero for empty buckets */
+    private final int[] m_buckets;
+    /** Chain data */
+    private final byte[][] m_segments;
+    /** Number of entries */
+    private final long m_size;
+    /** Key serializer */
+    private final IDoubleSerializer m_keySerializer;
+    /** Bucket table sizing and key to bucket mapping */
+    private final IndexMode m_indexMode;
+    /** Key hash function */
+    private final IHashStrategy m_hashStrategy;
+    /** Value serializer */
+    private final IObjectSerializer<V> m_valueSerializer;
+
+    FrozenDoubleObjectMap( final int[] buckets, final byte[][] segments, final long size,
+                     final IDoubleSerializer keySerializer, final IObjectSerializer<V> valueSerializer,
+                     final IndexMode indexMode, final IHashStrategy hashStrategy )
+    {
+        m_buckets = buckets;
+        m_segments = segments;
+        m_size = size;
+        m_keySerializer = keySerializer;
+        m_valueSerializer = valueSerializer;
+        m_indexMode = indexMode;
+        m_hashStrategy = hashStrategy;
+    }
+
+    public V get( final double key )
+    {
+        return get( key, NO_VALUE );
+    }
+
+    /**
+     * Get a value associated with a given key
+     * @param key Key to look up
+     * @param defaultValue Value to return if the key is not present in the map
+     * @return A value associated with the key or {@code defaultValue} if there is no such key
+     */
+    public V get( final double key, final V defaultValue )
+    {
+        final int idx = getIndex( key, m_buckets.length );
+        final int bucket = m_buckets[ idx ];
+        if ( bucket == 0 )
+            return defaultValue;
+        //this object does not escape, so JIT is usually able to eliminate it
+        final ByteArray buf = new ByteArray().reset( m_segments[ idx >>> SEGMENT_BITS ], bucket - 1 );
+        final int elems = readUnsignedInt( buf );
+        double k = 0;
+        for ( int i = 0; i < elems; ++i )
+        {
+            k = i == 0 ? m_keySerializer.read( buf ) : m_keySerializer.readDelta( k, buf, true );
+            if ( k == key )
+                return m_valueSerializer.read( buf );
+            else if ( k > key ) //keys are sorted
+                return defaultValue;
+            m_valueSerializer.skip( buf );
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Check if a given key is present in the map
+     * @param key Key to look up
+     * @return True if the key is present in the map
+     */
+    public boolean containsKey( final double key )
+    {
+        final int idx = getIndex( key, m_buckets.length );
+        final int bucket = m_buckets[ idx ];
+        if ( bucket == 0 )
+            return false;
+        final ByteArray buf = new ByteArray().reset( m_segments[ idx >>> SEGMENT_BITS ], bucket - 1 );
+        final int elems = readUnsignedInt( buf );
+        double k = 0;
+        for ( int i = 0; i < elems; ++i )
+        {
+            k = i == 0 ? m_keySerializer.read( buf ) : m_keySerializer.readDelta( k, buf, true );
+            if ( k == key )
+                return true;
+            else if ( k > key ) //keys are sorted
+                return false;
+            m_valueSerializer.skip( buf );
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of entries in the map
+     */
+    public long size() {
+        return m_size;
+    }
+
+    /**
+     * Call {@code proc} for every map entry in the bucket order
+     * @param proc Entry callback
+     */
+    public void forEach( final IDoubleObjectProcedure<V> proc )
+    {
+        final ByteArray buf = new ByteArray();
+        for ( int idx = 0; idx < m_buckets.length; ++idx )
+        {
+            final int bucket = m_buckets[ idx ];
+            if ( bucket == 0 )
+                continue;
+            buf.reset( m_segments[ idx >>> SEGMENT_BITS ], bucket - 1 );
+            final int elems = readUnsignedInt( buf );
+            double k = 0;
+                for ( int i = 0; i < elems; ++i )
+            {
+                k = i == 0 ? m_keySerializer.read( buf ) : m_keySerializer.readDelta( k, buf, true );
+                final V v = m_valueSerializer.read( buf );
+                proc.process( k, v );
+            }
+        }
+    }
+
+    /**
+     * Get the bucket index for the given key
+     * @param key A key
+     * @param tabSize Bucket table size
+     * @return Bucket index
+     */
+    private int getIndex( final double key, final int tabSize )
+    {
+        final long hash = m_hashStrategy.hash( Double.doubleToLongBits( key ) );
+        return m_indexMode == IndexMode.POWER_OF_TWO ? Tools.getIndexPow2( hash, tabSize ) : Tools.getIndexFast( hash, tabSize );
+    }
+}
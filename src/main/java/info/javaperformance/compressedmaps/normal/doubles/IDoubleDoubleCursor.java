@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.doubles;
+
+/**
+ * A cursor over map entries, which allows to update or remove entries during the scan.
+ * Changes are applied to a whole chain at once when the cursor leaves it, so a cursor must either reach
+ * the end of the map or be closed. The map must not be updated other than via the cursor while the cursor is in use.
+ */
+public interface IDoubleDoubleCursor extends AutoCloseable {
+    /**
+     * Move to the next entry
+     * @return True if the cursor stands on an entry, false if there are no more entries
+     */
+    public boolean advance();
+
+    /**
+     * @return Current entry key
+     * @throws IllegalStateException If the cursor does not stand on an entry
+     */
+    public double key();
+
+    /**
+     * @return Current entry value
+     * @throws IllegalStateException If the cursor does not stand on an entry
+     */
+    public double value();
+
+    /**
+     * Replace the current entry value
+     * @param value New value
+     * @throws IllegalStateException If the cursor does not stand on an entry
+     */
+    public void setValue( final double value );
+
+    /**
+     * Remove the current entry. The cursor does not stand on an entry until the next {@code advance} call.
+     * @throws IllegalStateException If the cursor does not stand on an entry
+     */
+    public void remove();
+
+    /**
+     * Write the pending changes of the current chain. The cursor does not return any entries after this call.
+     */
+    @Override
+    public void close();
+}
@@ -19,6 +19,13 @@
 
 package info.javaperformance.compressedmaps.normal.doubles;
 
+import info.javaperformance.functions.IDoubleBinaryOperator;
+import info.javaperformance.functions.IDoubleDoubleFunction;
+import info.javaperformance.functions.IDoubleDoublePredicate;
+import info.javaperformance.functions.IDoubleDoubleProcedure;
+
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Common set of methods implemented by maps
  */
@@ -27,4 +34,277 @@ public interface IDoubleDoubleMap {
     public double put( final double key, final double value );
     public double remove( final double key );
     public long size();
+
+    /**
+     * Remove all entries matching a predicate. Every bucket is visited once and only the chains
+     * losing some entries are rewritten.
+     * @param pred Predicate. It must not update this map.
+     * @return Number of removed entries
+     */
+    public long removeIf( final IDoubleDoublePredicate pred );
+
+    /**
+     * Remove all entries not matching a predicate. Every bucket is visited once and only the chains
+     * losing some entries are rewritten.
+     * @param pred Predicate. It must not update this map.
+     * @return Number of removed entries
+     */
+    public long retainIf( final IDoubleDoublePredicate pred );
+
+    /**
+     * Get a cursor over all map entries. Entries updated or removed via the cursor are written back
+     * once per chain. The map must not be updated other than via the cursor while the cursor is in use.
+     * @return A new cursor standing prior to the first entry
+     */
+    public IDoubleDoubleCursor cursor();
+
+    /**
+     * Remove all entries from the map. The bucket table is kept and the memory blocks are recycled
+     * (up to {@code blockCacheLimit}), so that a reused map does not have to allocate them again.
+     */
+    public void clear();
+
+    /**
+     * Look up values for all given keys. Keys are processed in batches, so that memory loads
+     * for different keys could overlap.
+     * @param keys Keys to look up
+     * @param out Output array: {@code out[ i ]} is set to a value associated with {@code keys[ i ]} or to {@code 0}
+     *            if there is no such key
+     * @throws IllegalArgumentException If {@code out} is shorter than {@code keys}
+     */
+    public void getAll( final double[] keys, final double[] out );
+
+    /**
+     * Put all pairs {@code keys[ i ] -> values[ i ]} for {@code from <= i < to} into the map. Pairs are grouped by
+     * bucket first, so that every affected chain is rewritten only once. If a key is repeated in the input,
+     * the last value wins.
+     * @param keys Keys
+     * @param values Values
+     * @param from First pair index, inclusive
+     * @param to Last pair index, exclusive
+     * @throws IllegalArgumentException If the range is not valid for any of the arrays
+     */
+    public void putAll( final double[] keys, final double[] values, final int from, final int to );
+
+    /**
+     * Add {@code delta} to a value associated with a given key. A missing key is treated as mapped to {@code 0}.
+     * @param key Key
+     * @param delta Value to add
+     * @return Updated value
+     */
+    public double addTo( final double key, final double delta );
+
+    /**
+     * Associate a value with a given key unless this key is already present in the map.
+     * @param key Key
+     * @param value Value
+     * @return Existing value or {@code 0} if there was no such key (in which case {@code value} is stored)
+     */
+    public double putIfAbsent( final double key, final double value );
+
+    /**
+     * Store {@code value} for a missing key, otherwise replace an existing value with {@code op.apply( existing, value )}.
+     * @param key Key
+     * @param value Value to store or to merge with the existing value
+     * @param op Merge function. It may read this map, but it must not update it.
+     * @return Updated value
+     */
+    public double merge( final double key, final double value, final IDoubleBinaryOperator op );
+
+    /**
+     * Replace a value associated with a given key with {@code fn.apply( key, existing )}. A missing key is passed
+     * to the function with {@code 0} value and it is always added to the map.
+     * @param key Key
+     * @param fn Function calculating a new value. It may read this map, but it must not update it.
+     * @return Updated value
+     */
+    public double compute( final double key, final IDoubleDoubleFunction fn );
+
+    /**
+     * Check if a given key is present in the map. Unlike {@code get}, this method could tell an absent key
+     * from a key mapped to {@code 0}.
+     * @param key Key to look up
+     * @return True if the key is present in the map
+     */
+    public boolean containsKey( final double key );
+
+    /**
+     * Get a value associated with a given key
+     * @param key Key to look up
+     * @param defaultValue Value to return if the key is not present in the map
+     * @return A value associated with the key or {@code defaultValue} if there is no such key
+     */
+    public double get( final double key, final double defaultValue );
+
+    /**
+     * Call {@code proc} for every map entry. The map must not be updated from the callback.
+     * @param proc Entry callback
+     */
+    public void forEach( final IDoubleDoubleProcedure proc );
+
+    /**
+     * Call {@code proc} for every map entry using the given pool. The bucket table is split into ranges which
+     * are processed in parallel, so {@code proc} must be thread safe. This method returns after all entries
+     * are processed. The map must not be updated until then.
+     * @param proc Entry callback
+     * @param pool Pool to run the traversal tasks in
+     */
+    public void parallelForEach( final IDoubleDoubleProcedure proc, final ForkJoinPool pool );
+
+    /**
+     * Calculate a sum of all values. Chains are decoded in place without any per-entry allocations.
+     * @return Sum of all values
+     */
+    public double sumValues();
+
+    /**
+     * Calculate a sum of all values using the given pool. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * @param pool Pool to run the traversal tasks in
+     * @return Sum of all values
+     */
+    public double sumValues( final ForkJoinPool pool );
+
+    /**
+     * Find the smallest value. Chains are decoded in place without any per-entry allocations.
+     * @return The smallest value or {@code Double.POSITIVE_INFINITY} for an empty map
+     */
+    public double minValue();
+
+    /**
+     * Find the smallest value using the given pool. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * @param pool Pool to run the traversal tasks in
+     * @return The smallest value or {@code Double.POSITIVE_INFINITY} for an empty map
+     */
+    public double minValue( final ForkJoinPool pool );
+
+    /**
+     * Find the largest value. Chains are decoded in place without any per-entry allocations.
+     * @return The largest value or {@code Double.NEGATIVE_INFINITY} for an empty map
+     */
+    public double maxValue();
+
+    /**
+     * Find the largest value using the given pool. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * @param pool Pool to run the traversal tasks in
+     * @return The largest value or {@code Double.NEGATIVE_INFINITY} for an empty map
+     */
+    public double maxValue( final ForkJoinPool pool );
+
+    /**
+     * Count entries matching a predicate. Chains are decoded in place without any per-entry allocations.
+     * @param pred Predicate
+     * @return Number of matching entries
+     */
+    public long countIf( final IDoubleDoublePredicate pred );
+
+    /**
+     * Count entries matching a predicate using the given pool. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * {@code pred} must be thread safe.
+     * @param pred Predicate
+     * @param pool Pool to run the traversal tasks in
+     * @return Number of matching entries
+     */
+    public long countIf( final IDoubleDoublePredicate pred, final ForkJoinPool pool );
+
+    /**
+     * Build a value histogram. {@code counts[ 0 ]} is incremented for values less than {@code bounds[ 0 ]},
+     * {@code counts[ i ]} for values in {@code [bounds[ i - 1 ], bounds[ i ])} and {@code counts[ bounds.length ]}
+     * for values not less than the last bound. Chains are decoded in place without any per-entry allocations.
+     * @param bounds Bin bounds sorted in the ascending order
+     * @param counts Bin counters, {@code bounds.length + 1} elements. They are incremented, not reset.
+     */
+    public void histogram( final double[] bounds, final long[] counts );
+
+    /**
+     * Build a value histogram using the given pool. Bins are defined the same way as in
+     * {@link #histogram(double[], long[])}. Disjoint bucket ranges are processed in parallel,
+     * every task keeps its own partial result.
+     * @param bounds Bin bounds sorted in the ascending order
+     * @param counts Bin counters, {@code bounds.length + 1} elements. They are incremented, not reset.
+     * @param pool Pool to run the traversal tasks in
+     */
+    public void histogram( final double[] bounds, final long[] counts, final ForkJoinPool pool );
+
+    /**
+     * Find {@code k} entries with the largest values. The map is traversed once, the entries are kept
+     * in a primitive min-heap of size {@code k}.
+     * @param k Number of entries to find
+     * @param keys Output keys, at least {@code k} elements
+     * @param values Output values in the descending order, at least {@code k} elements
+     * @return Number of found entries, which is {@code min( k, size() )}
+     */
+    public int topK( final int k, final double[] keys, final double[] values );
+
+    /**
+     * Find {@code k} entries with the largest values using the given pool. Disjoint bucket ranges are processed
+     * in parallel, every task keeps its own heap. Heaps are merged when the tasks are joined.
+     * @param k Number of entries to find
+     * @param keys Output keys, at least {@code k} elements
+     * @param values Output values in the descending order, at least {@code k} elements
+     * @param pool Pool to run the traversal tasks in
+     * @return Number of found entries, which is {@code min( k, size() )}
+     */
+    public int topK( final int k, final double[] keys, final double[] values, final ForkJoinPool pool );
+
+    /**
+     * Replace every value with {@code fn( key, value )}. Every chain is decoded and encoded once. A chain is updated
+     * in place if its new encoding is not longer than the old one, otherwise it is moved to a new place.
+     * The map must not be updated from the function.
+     * @param fn Function calculating new values
+     */
+    public void replaceAll( final IDoubleDoubleFunction fn );
+
+    /**
+     * Replace every value with {@code fn( key, value )} using the given pool. The bucket table is split into ranges
+     * which are processed in parallel, so {@code fn} must be thread safe. Chains which do not fit into their old
+     * places are moved after all ranges are processed. The map must not be updated until this method returns.
+     * @param fn Function calculating new values
+     * @param pool Pool to run the update tasks in
+     */
+    public void parallelReplaceAll( final IDoubleDoubleFunction fn, final ForkJoinPool pool );
+
+    /**
+     * Compact the memory blocks with the default live bytes ratio (50%).
+     * @return Total size of the released blocks minus the number of bytes copied into other blocks
+     */
+    public long compact();
+
+    /**
+     * Relocate the chains out of the memory blocks which are mostly occupied by the dead data and release such blocks.
+     * @param minLiveRatio Blocks with a smaller ratio of live bytes to the block size are released
+     * @return Total size of the released blocks minus the number of bytes copied into other blocks
+     */
+    public long compact( final float minLiveRatio );
+
+    /**
+     * Enable or disable the automatic compaction, which runs after the memory blocks have grown twice since
+     * the previous compaction. It is disabled by default.
+     * @param minLiveRatio Live bytes ratio passed to {@code compact}, 0 to disable the automatic compaction
+     */
+    public void setAutoCompaction( final float minLiveRatio );
+
+    /**
+     * Enable the incremental rehashing. A growing map normally rehashes the whole table inside a single update call.
+     * With this option the old table is migrated {@code bucketsPerUpdate} buckets at a time by the following updates,
+     * which bounds the latency of a single update.
+     * @param bucketsPerUpdate Number of old buckets to migrate per update, 0 to rehash the whole table at once (default)
+     */
+    public void setIncrementalRehash( final int bucketsPerUpdate );
+
+    /**
+     * Shrink the bucket table to the smallest capacity suitable for the current map size. The table is also
+     * shrunk automatically once the map loses most of its entries, but never below its initial capacity.
+     */
+    public void trimToSize();
+
+    /**
+     * Create an immutable read-optimized copy of this map. All chains are packed into a few large arrays,
+     * so that lookups need neither block lookups nor any thread local state. This map is not changed.
+     * @return An immutable copy of this map
+     */
+    public FrozenDoubleDoubleMap freeze();
 }
@@ -19,6 +19,11 @@
 
 package info.javaperformance.compressedmaps.normal.doubles;
 
+import info.javaperformance.functions.IDoubleObjectPredicate;
+import info.javaperformance.functions.IDoubleObjectProcedure;
+
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Common set of methods implemented by maps
  */
@@ -27,4 +32,127 @@ public interface IDoubleObjectMap<V> {
     public V put( final double key, final V value );
     public V remove( final double key );
     public long size();
+
+    /**
+     * Remove all entries matching a predicate. Every bucket is visited once and only the chains
+     * losing some entries are rewritten.
+     * @param pred Predicate. It must not update this map.
+     * @return Number of removed entries
+     */
+    public long removeIf( final IDoubleObjectPredicate<V> pred );
+
+    /**
+     * Remove all entries not matching a predicate. Every bucket is visited once and only the chains
+     * losing some entries are rewritten.
+     * @param pred Predicate. It must not update this map.
+     * @return Number of removed entries
+     */
+    public long retainIf( final IDoubleObjectPredicate<V> pred );
+
+    /**
+     * Get a cursor over all map entries. Entries updated or removed via the cursor are written back
+     * once per chain. The map must not be updated other than via the cursor while the cursor is in use.
+     * @return A new cursor standing prior to the first entry
+     */
+    public IDoubleObjectCursor<V> cursor();
+
+    /**
+     * Remove all entries from the map. The bucket table is kept and the memory blocks are recycled
+     * (up to {@code blockCacheLimit}), so that a reused map does not have to allocate them again.
+     */
+    public void clear();
+
+    /**
+     * Look up values for all given keys. Keys are processed in batches, so that memory loads
+     * for different keys could overlap.
+     * @param keys Keys to look up
+     * @param out Output array: {@code out[ i ]} is set to a value associated with {@code keys[ i ]} or to {@code null}
+     *            if there is no such key
+     * @throws IllegalArgumentException If {@code out} is shorter than {@code keys}
+     */
+    public void getAll( final double[] keys, final V[] out );
+
+    /**
+     * Put all pairs {@code keys[ i ] -> values[ i ]} for {@code from <= i < to} into the map. Pairs are grouped by
+     * bucket first, so that every affected chain is rewritten only once. If a key is repeated in the input,
+     * the last value wins.
+     * @param keys Keys
+     * @param values Values
+     * @param from First pair index, inclusive
+     * @param to Last pair index, exclusive
+     * @throws IllegalArgumentException If the range is not valid for any of the arrays
+     */
+    public void putAll( final double[] keys, final V[] values, final int from, final int to );
+
+    /**
+     * Check if a given key is present in the map. Unlike {@code get}, this method could tell an absent key
+     * from a key mapped to {@code null}.
+     * @param key Key to look up
+     * @return True if the key is present in the map
+     */
+    public boolean containsKey( final double key );
+
+    /**
+     * Get a value associated with a given key
+     * @param key Key to look up
+     * @param defaultValue Value to return if the key is not present in the map
+     * @return A value associated with the key or {@code defaultValue} if there is no such key
+     */
+    public V get( final double key, final V defaultValue );
+
+    /**
+     * Call {@code proc} for every map entry. The map must not be updated from the callback.
+     * @param proc Entry callback
+     */
+    public void forEach( final IDoubleObjectProcedure<V> proc );
+
+    /**
+     * Call {@code proc} for every map entry using the given pool. The bucket table is split into ranges which
+     * are processed in parallel, so {@code proc} must be thread safe. This method returns after all entries
+     * are processed. The map must not be updated until then.
+     * @param proc Entry callback
+     * @param pool Pool to run the traversal tasks in
+     */
+    public void parallelForEach( final IDoubleObjectProcedure<V> proc, final ForkJoinPool pool );
+
+    /**
+     * Compact the memory blocks with the default live bytes ratio (50%).
+     * @return Total size of the released blocks minus the number of bytes copied into other blocks
+     */
+    public long compact();
+
+    /**
+     * Relocate the chains out of the memory blocks which are mostly occupied by the dead data and release such blocks.
+     * @param minLiveRatio Blocks with a smaller ratio of live bytes to the block size are released
+     * @return Total size of the released blocks minus the number of bytes copied into other blocks
+     */
+    public long compact( final float minLiveRatio );
+
+    /**
+     * Enable or disable the automatic compaction, which runs after the memory blocks have grown twice since
+     * the previous compaction. It is disabled by default.
+     * @param minLiveRatio Live bytes ratio passed to {@code compact}, 0 to disable the automatic compaction
+     */
+    public void setAutoCompaction( final float minLiveRatio );
+
+    /**
+     * Enable the incremental rehashing. A growing map normally rehashes the whole table inside a single update call.
+     * With this option the old table is migrated {@code bucketsPerUpdate} buckets at a time by the following updates,
+     * which bounds the latency of a single update.
+     * @param bucketsPerUpdate Number of old buckets to migrate per update, 0 to rehash the whole table at once (default)
+     */
+    public void setIncrementalRehash( final int bucketsPerUpdate );
+
+    /**
+     * Shrink the bucket table to the smallest capacity suitable for the current map size. The table is also
+     * shrunk automatically once the map loses most of its entries, but never below its initial capacity.
+     */
+    public void trimToSize();
+
+    /**
+     * Create an immutable read-optimized copy of this map. All chains are packed into a few large arrays,
+     * so that lookups need neither block lookups nor any thread local state. This map is not changed.
+     * @return An immutable copy of this map
+     */
+    public FrozenDoubleObjectMap<V> freeze();
 }
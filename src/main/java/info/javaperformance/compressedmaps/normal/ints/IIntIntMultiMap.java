@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.ints;
+
+import info.javaperformance.functions.IIntProcedure;
+
+/**
+ * Common set of methods implemented by multimaps. A multimap associates a key with a sorted set of values.
+ */
+public interface IIntIntMultiMap {
+    /**
+     * Add a value to the key values
+     * @param key Key
+     * @param value Value to add
+     * @return True if this value was not associated with the key yet
+     */
+    public boolean add( final int key, final int value );
+
+    /**
+     * Check if a value is associated with a key
+     * @param key Key
+     * @param value Value to look up
+     * @return True if the value is associated with the key
+     */
+    public boolean contains( final int key, final int value );
+
+    /**
+     * Check if there are any values associated with a key
+     * @param key Key to look up
+     * @return True if the key is present in the multimap
+     */
+    public boolean containsKey( final int key );
+
+    /**
+     * Call {@code proc} for every value associated with a key. Values are visited in the ascending order without
+     * materializing them as an array. The multimap must not be updated from the callback.
+     * @param key Key
+     * @param proc Value callback
+     */
+    public void forEachValue( final int key, final IIntProcedure proc );
+
+    /**
+     * Get the number of values associated with a key
+     * @param key Key
+     * @return Number of values, 0 if the key is not present
+     */
+    public int valueCount( final int key );
+
+    /**
+     * Remove a key with all its values
+     * @param key Key to remove
+     * @return Number of removed values
+     */
+    public int remove( final int key );
+
+    /**
+     * @return Number of key/value pairs in the multimap
+     */
+    public long size();
+
+    /**
+     * @return Number of keys in the multimap
+     */
+    public long keyCount();
+
+    /**
+     * Remove all keys and values
+     */
+    public void clear();
+}
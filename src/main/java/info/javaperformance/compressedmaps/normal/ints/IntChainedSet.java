@@ -0,0 +1,606 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.ints;
+
+import info.javaperformance.buckets.Buckets;
+import info.javaperformance.functions.IIntProcedure;
+import info.javaperformance.malloc.SingleThreadedBlock;
+import info.javaperformance.malloc.SingleThreadedBlockAllocator;
+import info.javaperformance.serializers.*;
+import info.javaperformance.tools.Primes;
+import info.javaperformance.tools.Tools;
+
+import java.util.Objects;
+
+import static info.javaperformance.tools.VarLen.readUnsignedInt;
+import static info.javaperformance.tools.VarLen.writeUnsignedInt;
+
+/**
+ * A simple single threaded compressed set. It is a key-only version of {@code IntIntChainedMap}: every chain
+ * contains sorted delta-encoded keys and nothing else, so there are no dummy values to store or to copy.
+ */
+public class IntChainedSet implements IIntSet {
+    /*
+    We store multiple reusable objects here. They are needed to avoid unnecessary object allocations.
+     */
+    private final Iterator m_iter;
+    private final ByteArray m_bar1 = new ByteArray();
+    private final ByteArray m_bar2 = new ByteArray();
+    private final Writer m_writer;
+
+    /** Key serializer */
+    private final IIntSerializer m_keySerializer;
+    /** Original fill factor */
+    private final float m_fillFactor;
+    /**
+     * We check if we have to rehash only after any bucket length exceeds this value. This allows us to avoid
+     * costly contended fields access.
+     */
+    private final int m_iFillFactor;
+    /** Bucket table */
+    private Buckets m_data;
+    /**
+     * Set size. We are not limited by int because of possibility to have fill factors greater than 1.
+     */
+    private long m_size;
+
+    /**
+     * Set size threshold - next rehashing happens after we exceed the threshold.
+     * This field is {@code long} because we can use fill factors > 1.
+     */
+    private long m_threshold;
+
+    /** Memory blocks are allocated and tracked here */
+    private final SingleThreadedBlockAllocator m_blockAllocator;
+
+    /** Length of a single entry */
+    private final int m_singleEntryLength;
+
+    /**
+     * Create a set with a given size, fill factor and key serializer
+     * @param size Expected set size
+     * @param fillFactor Set fill factor. Fill factors over 1.0 are supported and preferred for this set. This implementation
+     *                   puts a soft limit of 16 for the fill factors. Such fill factors make buckets too long, which
+     *                   increases the access/update costs, but the difference in the compression is getting smaller
+     *                   and smaller.
+     * @param keySerializer Serializer for keys
+     * @param blockCacheLimit The limit on the amount of memory blocks we try to reuse in order to reduce the GC load.
+     *                        Increase it over the default (32K) if you want nearly no GC impact after the set size will stabilize.
+     *
+     * @throws NullPointerException If {@code keySerializer == null}
+     * @throws IllegalArgumentException If {@code fillFactor > 16} or {@code fillFactor <= 0.01} or {@code blockCacheLimit < 0}
+     */
+    public IntChainedSet( final long size, final float fillFactor, final IIntSerializer keySerializer, final long blockCacheLimit )
+    {
+        Objects.requireNonNull( keySerializer, "Key serializer must be provided!" );
+        if ( fillFactor > 16 )
+            throw new IllegalArgumentException( "Fill factors higher than 16 are not supported!" );
+        if ( fillFactor <= 0.01 )
+            throw new IllegalArgumentException( "Fill factor must be greater than 0.01 and less or equal to 16!" );
+        if ( blockCacheLimit < 0 )
+            throw new IllegalArgumentException( "BlockCacheLimit can not be negative!" );
+
+        m_keySerializer = keySerializer;
+        m_blockAllocator = new SingleThreadedBlockAllocator( blockCacheLimit );
+        m_fillFactor = fillFactor;
+        m_iFillFactor = ( int ) Math.ceil( m_fillFactor );
+        final long requestedCapacity = ( long ) Math.ceil( size / fillFactor );
+        final int newCapacity = requestedCapacity >= Primes.getMaxIntPrime() ? Primes.getMaxIntPrime() : Primes.findNextPrime( requestedCapacity );
+        //this threshold adjustment is needed on tiny initial size / large fill factor combinations so that we do not
+        //rehash table without table size increase in future.
+        m_data = new Buckets( newCapacity, false );
+        //disable resizing if the initial size is already large enough
+        if ( newCapacity == Primes.getMaxIntPrime() )
+            m_threshold = Long.MAX_VALUE;
+        else {
+            long threshold = size;
+            while ( Primes.findNextPrime( ( int ) Math.ceil( threshold * 2 / fillFactor ) ) == newCapacity )
+                threshold *= 2;
+            m_threshold = threshold;
+        }
+        //optimizations
+        m_singleEntryLength = m_keySerializer.getMaxLength() + 1;
+        m_iter = new Iterator( m_keySerializer );
+        m_writer = new Writer( m_keySerializer );
+    }
+
+    public boolean contains( final int key )
+    {
+        if ( !m_data.select( getIndex( key, m_data.length() ) ) )
+            return false;
+
+        return m_iter.reset( getByteArray( getBlockByIndex( m_data.getBlockIndex() ), m_data.getOffset() ), m_data ).findKey( key );
+    }
+
+    public boolean add( final int key )
+    {
+        if ( !addToChain( getIndex( key, m_data.length() ), key ) )
+            return false;
+        changeSize( 1 );
+        return true;
+    }
+
+    /**
+     * Write a single entry bucket
+     * @param output Use this block for output (it has enough space)
+     * @param key Key
+     * @param idx Bucket to use
+     */
+    private void singleEntry( final SingleThreadedBlock output, final int key, final int idx )
+    {
+        final int startPos = output.pos;
+        final ByteArray bar = getByteArray( output );
+        output.increaseEntries(); //allocate block prior to writing
+        m_writer.reset( bar ).writeKey( key );
+        output.pos = bar.position();
+        m_data.set( idx, output.getIndex(), startPos, 1 );
+    }
+
+    /**
+     * Add a key to a given chain. The chain is not copied if the key is already present.
+     * The result is written to m_data[index]
+     * @param index Bucket index
+     * @param key Key
+     * @return True if the key was added, false if it was already present
+     */
+    private boolean addToChain( final int index, final int key )
+    {
+        if ( !m_data.select( index ) ) {
+            singleEntry( getBlock( m_singleEntryLength ), key, index );
+            return true;
+        }
+
+        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+        final int inputStartOffset = m_data.getOffset();
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator iter = m_iter.reset( input, m_data );
+        //look up a key and then fast forward to the end of chain to find out its length
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() == key )
+                return false;
+            else if ( iter.getKey() > key )
+            {
+                while ( iter.hasNext() )
+                    iter.skip();
+            }
+        }
+        final int chainLength = input.position() - inputStartOffset;
+        final int elems = iter.getElems() + 1;
+
+        //2* is a safety net here due to possibility that a delta may get longer, 5 is the maximal length of the chain length field
+        final SingleThreadedBlock outputBlock = getBlock( chainLength + 2 * m_singleEntryLength + 5 );
+        final int startOutputPos = outputBlock.pos;
+        final ByteArray output = getByteArray2( outputBlock );
+
+        inputBlock.decreaseEntries(); //release the input block, it may be held by this method for a little longer
+        outputBlock.increaseEntries(); //allocate block
+        //the number of elements is written prior to the chain only if it does not fit into the bucket
+        final Writer writer = m_writer.reset( output, elems < m_data.maxEncodedLength() ? 0 : elems );
+
+        //fully reset the iterator (position on the bucket length)
+        input.position( inputStartOffset );
+        iter.reset( input, m_data );
+        boolean inserted = false;
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( !inserted && iter.getKey() > key )
+            {
+                inserted = true;
+                writer.writeKey( key );
+            }
+            writer.writeKey( iter.getKey() );
+        }
+        if ( !inserted ) //all keys are smaller
+            writer.writeKey( key );
+
+        outputBlock.pos = output.position();
+        m_data.set( index, outputBlock.getIndex(), startOutputPos,
+                    elems < m_data.maxEncodedLength() ? elems : m_data.maxEncodedLength() );
+        return true;
+    }
+
+    public boolean remove( final int key )
+    {
+        final int idx = getIndex( key, m_data.length() );
+        if ( !m_data.select( idx ) || !removeKey( key, idx ) )
+            return false;
+        --m_size;
+        return true;
+    }
+
+    /**
+     * Remove a given key from a chain.
+     * 3 special cases are supported:
+     * 1) key not found - nothing is changed
+     * 2) removal from a 1-entry long chain - the bucket is cleared
+     * 3) removal of the last element in the chain - in most cases only the chain length should be updated
+     * Otherwise the chain is rewritten in place, it can only get shorter.
+     * @param key Key to remove
+     * @param idx Key bucket (must be selected)
+     * @return True if the key was removed
+     */
+    private boolean removeKey( final int key, final int idx )
+    {
+        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+        final int inputStartOffset = m_data.getOffset();
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator iter = m_iter.reset( input, m_data );
+        if ( !iter.findKey( key ) )
+            return false;
+
+        //special case 1 - chain removal
+        if ( iter.getElems() == 1 ) {
+            inputBlock.decreaseEntries();
+            m_data.set( idx, m_data.emptyBucket() );
+            return true;
+        }
+
+        //special case 2 - removal of the last element and length is not too big - only bucket info changes
+        //we can not check for equality - once we have reached maxlen there will be a length field at the start of the record
+        if ( !iter.hasNext() && iter.getElems() < m_data.maxEncodedLength() )
+        {
+            m_data.set( idx, inputBlock.getIndex(), inputStartOffset, iter.getElems() - 1 );
+            return true;
+        }
+
+        input.position( inputStartOffset );
+        iter.reset( input, m_data );
+
+        final ByteArray output = getByteArray2( inputBlock );
+        output.position( inputStartOffset );
+        final Writer writer = m_writer.reset( output, iter.getElems() <= m_data.maxEncodedLength() ? 0 : iter.getElems() - 1 );
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() != key )
+                writer.writeKey( iter.getKey() );
+        }
+
+        m_data.set( idx, inputBlock.getIndex(), inputStartOffset,
+                    iter.getElems() <= m_data.maxEncodedLength() ? iter.getElems() - 1 : m_data.maxEncodedLength() );
+        return true;
+    }
+
+    /**
+     * Get set size.
+     * @return The current set size
+     */
+    public long size() {
+        return m_size;
+    }
+
+    /**
+     * Remove all keys from the set. The bucket table is kept and the memory blocks are recycled
+     * (up to {@code blockCacheLimit}), so that a reused set does not have to allocate them again.
+     */
+    public void clear()
+    {
+        m_data.clear();
+        m_blockAllocator.clear();
+        m_size = 0;
+    }
+
+    /**
+     * Call {@code proc} for every key. Keys are visited in the bucket order. This method does not allocate
+     * any per-key objects. The set must not be updated from the callback.
+     * @param proc Key callback
+     */
+    public void forEach( final IIntProcedure proc )
+    {
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer );
+        final Buckets data = m_data;
+
+        for ( int i = 0; i < data.length(); ++i )
+        {
+            final long bucket = data.get( i );
+            if ( bucket != data.emptyBucket() )
+            {
+                iterLocal.reset( barLocal.reset( getBlockByIndex( data.getBlockIndex( bucket ) ).data, data.getOffset( bucket ) ),
+                                 data.getBlockLength( bucket ), data.maxEncodedLength() );
+                while ( iterLocal.hasNext() )
+                {
+                    iterLocal.advance();
+                    proc.process( iterLocal.getKey() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Rehash the table.
+     * @param old Old bucket table
+     */
+    private void rehash( final Buckets old )
+    {
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer );
+
+        for ( int i = 0; i < old.length(); ++i )
+            if ( old.select( i ) )
+                rehashInnerStep( old, barLocal, iterLocal );
+    }
+
+    private void rehashInnerStep( final Buckets old, final ByteArray bar, final Iterator iter )
+    {
+        final SingleThreadedBlock inputBlock = getBlockByIndex( old.getBlockIndex() );
+
+        iter.reset( bar.reset( inputBlock.data, old.getOffset() ), old );
+        if ( old.getBlockLength() == 1 ) //shortcut, no data copy for blocklen = 1
+        {
+            iter.advance();
+            final int index = getIndex( iter.getKey(), m_data.length() );
+            if ( !m_data.select( index ) )
+                m_data.set( index, old.getBucket() );
+            else
+            {
+                //copy/update the chain
+                addToChain( index, iter.getKey() );
+                inputBlock.decreaseEntries();
+            }
+        }
+        else
+        {
+            while ( iter.hasNext() )
+            {
+                iter.advance();
+                //copy/update the chain
+                addToChain( getIndex( iter.getKey(), m_data.length() ), iter.getKey() );
+            }
+            inputBlock.decreaseEntries(); //bucket relocated
+        }
+    }
+
+    /**
+     * Get the bucket index for the given key
+     * @param key A key
+     * @param tabSize Bucket table size
+     * @return Bucket index
+     */
+    private int getIndex( final int key, final int tabSize )
+    {
+        return Tools.getIndexFast( key, tabSize );
+    }
+
+    private static class Iterator    {
+        /** Underlying byte buffer */
+        private ByteArray buf;
+        /** Number of entries in the bucket */
+        private int elems;
+        /** Index of the current entry (0-based) */
+        private int cur = 0;
+        /** Current entry key, initialized by {@code advance} call */
+        private int key;
+        /** Serialization for keys */
+        private final IIntSerializer m_keySerializer;
+
+        public Iterator( final IIntSerializer keySerializer ) {
+            m_keySerializer = keySerializer;
+        }
+
+        /**
+         * Initialize an iterator by a buffer. This method will reads the number of entries if the current bucket length = max length
+         * @param buf Byte buffer
+         * @param data A reference to a current Buckets object
+         * @return Same iterator object
+         */
+        Iterator reset( final ByteArray buf, final Buckets data )
+        {
+            return reset( buf, data.getBlockLength(), data.maxEncodedLength() );
+        }
+
+        /**
+         * Initialize an iterator by a buffer and a chain length taken from a bucket
+         * @param buf Byte buffer
+         * @param blockLength Chain length stored in the bucket
+         * @param maxEncodedLength Max chain length which could be stored in the bucket
+         * @return Same iterator object
+         */
+        Iterator reset( final ByteArray buf, final int blockLength, final int maxEncodedLength )
+        {
+            this.buf = buf;
+            elems = blockLength < maxEncodedLength ? blockLength : readUnsignedInt( buf );
+            cur = 0;
+            return this;
+        }
+
+        /**
+         * Check if there are any not read entries left in the bucket
+         * @return True if we can advance, false otherwise
+         */
+        public boolean hasNext()
+        {
+            return cur < elems;
+        }
+
+        /**
+         * Read the next key from the buffer
+         */
+        public void advance()
+        {
+            if ( cur == 0 )
+                key = m_keySerializer.read( buf );
+            else
+                key = m_keySerializer.readDelta( key, buf, true );
+            ++cur;
+        }
+
+        /**
+         * Look up a given key. The iterator stands right after the key if it was found.
+         * @param key Key to look up
+         * @return True if the key is present in the chain
+         */
+        public boolean findKey( final int key )
+        {
+            while ( hasNext() ) {
+                advance();
+                if ( getKey() == key )
+                    return true;
+                else if ( getKey() > key ) //keys are sorted
+                    return false;
+            }
+            return false;
+        }
+
+        /**
+        * Skip the current entry
+        */
+        public void skip()
+        {
+            m_keySerializer.skip( buf );
+            ++cur;
+        }
+
+        /**
+         * @return A key read by the last {@code advance} call
+         */
+        public int getKey() {
+            return key;
+        }
+
+        /**
+         * @return Number of entries in the bucket
+         */
+        public int getElems() {
+            return elems;
+        }
+    }
+
+    /**
+     * This class encapsulates the logic used to write all keys into the bucket.
+     */
+    private static final class Writer    {
+        /** Underlying byte buffer */
+        private ByteArray buf;
+        /** Is this a first entry (used for delta encoding) */
+        private boolean first = true;
+        /** Previously written key (used for delta encoding) */
+        private int prevKey;
+        /** Serialization for keys */
+        private final IIntSerializer m_keySerializer;
+
+        public Writer( final IIntSerializer keySerializer )
+        {
+            m_keySerializer = keySerializer;
+        }
+
+        /**
+         * Reset a writer (useful if you need to write multiple entries in one method call).
+         * This method does not write the element count into the bucket (caller should take care of it)
+         * @param buf Underlying byte buffer
+         * @return this
+         */
+        public Writer reset( final ByteArray buf )
+        {
+            return reset( buf, 0 );
+        }
+
+        /**
+         * Reset a writer (useful if you need to write multiple entries in one method call)
+         * @param buf Underlying byte buffer
+         * @param elems Number of elements to write, don't write anything if this value is not positive
+         * @return this
+         */
+        public Writer reset( final ByteArray buf, final int elems )
+        {
+            this.buf = buf;
+            if ( elems > 0 )
+                writeUnsignedInt( elems, buf );
+            first = true;
+            prevKey = 0;
+            return this;
+        }
+
+        /**
+         * Write a key. Keys must be written in the ascending order.
+         * @param k Key to write
+         */
+        public void writeKey( final int k )
+        {
+            if ( first ) {
+                m_keySerializer.write( k, buf );
+                first = false;
+            }
+            else
+                //keys are sorted, so we can write unsigned diff (but serializer will make a final decision)
+                m_keySerializer.writeDelta( prevKey, k, buf, true );
+            prevKey = k;
+        }
+    }
+
+    private ByteArray getByteArray( final SingleThreadedBlock ar )
+    {
+        return m_bar1.reset( ar.data, ar.pos );
+    }
+
+    private ByteArray getByteArray2( final SingleThreadedBlock ar )
+    {
+        return m_bar2.reset( ar.data, ar.pos );
+    }
+
+    private ByteArray getByteArray( final SingleThreadedBlock ar, final int offset )
+    {
+        return m_bar1.reset( ar.data, offset );
+    }
+
+    private SingleThreadedBlock getBlock( final int bytes )
+    {
+        return m_blockAllocator.getBlock( bytes, m_data );
+    }
+
+    private SingleThreadedBlock getBlockByIndex( final int index )
+    {
+        return m_blockAllocator.getBlockByIndex( index );
+    }
+
+    private void changeSize( final int delta )
+    {
+        m_size += delta;
+
+        if ( m_size > m_threshold )
+        {
+            final long multiplier = m_fillFactor <= 2 ? 2 : m_iFillFactor;
+            int newCapacity = Primes.findNextPrime( ( long ) Math.ceil( multiplier * m_threshold / m_fillFactor ) );
+            //check if we got too close to the max array size, otherwise we will have to make a pretty useless resize when got close to 2G*fillFactor entries
+            if ( newCapacity * 1.5 > Primes.getMaxIntPrime() )
+                newCapacity = Primes.getMaxIntPrime();
+            //this check disables rehashing after a table has reached the maximal size
+            final long newThreshold = newCapacity >= Primes.getMaxIntPrime() ? Long.MAX_VALUE : m_threshold * multiplier;
+
+            final Buckets old = m_data;
+            try {
+                m_data = new Buckets( newCapacity, old.isLong() );
+            }
+            catch ( OutOfMemoryError ex )
+            {
+                //let's disable rehashing and keep on working
+                m_threshold = Long.MAX_VALUE;
+                return;
+            }
+            m_threshold = newThreshold;
+            rehash( old );
+        }
+    }
+}
@@ -0,0 +1,803 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.ints;
+
+import info.javaperformance.buckets.Buckets;
+import info.javaperformance.functions.IIntProcedure;
+import info.javaperformance.malloc.SingleThreadedBlock;
+import info.javaperformance.malloc.SingleThreadedBlockAllocator;
+import info.javaperformance.serializers.*;
+import info.javaperformance.tools.Primes;
+import info.javaperformance.tools.Tools;
+
+import java.util.Objects;
+
+import static info.javaperformance.tools.VarLen.readUnsignedInt;
+import static info.javaperformance.tools.VarLen.writeUnsignedInt;
+
+/**
+ * A single threaded compressed multimap, which is suitable for posting lists.
+ *
+ * Every key has its own value list. A list is stored in a memory block as a fixed size header followed by the sorted
+ * delta-encoded values. Each list reserves some free space after the values, so that appending a value greater
+ * than all existing values (the most common case for posting lists) just writes a single delta in place.
+ * A list is extended in place if it is the last thing written into its block, otherwise it is copied into a twice
+ * larger space when it runs out of the reserved space. Inserting a value in the
+ * middle of a list re-encodes the list (in place if it still fits).
+ *
+ * Bucket chains contain sorted delta-encoded keys together with the block/offset of their value lists. Chains are
+ * small, they are updated only on the new key insertion and on the value list relocation.
+ */
+public class IntIntMultiMap implements IIntIntMultiMap {
+    /*
+    Value list header layout (fixed size ints, so that they could be updated in place)
+     */
+    private static final int HDR_COUNT = 0;
+    private static final int HDR_USED = 4;
+    private static final int HDR_CAPACITY = 8;
+    private static final int HDR_LAST = 12;
+    private static final int HEADER_LENGTH = 16;
+    /** Space reserved for values in a new list */
+    private static final int INITIAL_LIST_CAPACITY = 16;
+
+    /*
+    We store multiple reusable objects here. They are needed to avoid unnecessary object allocations.
+     */
+    private final Iterator m_iter;
+    private final ByteArray m_bar1 = new ByteArray();
+    private final ByteArray m_bar2 = new ByteArray();
+    private final ByteArray m_valuesBar = new ByteArray();
+    /** Temporary buffer for list re-encoding */
+    private final ByteArray m_tmp = new ByteArray( 64 );
+    private final Writer m_writer;
+
+    /** Key serializer */
+    private final IIntSerializer m_keySerializer;
+    /** Value serializer, values are always written as sorted deltas */
+    private final IIntSerializer m_valueSerializer;
+    /** Original fill factor */
+    private final float m_fillFactor;
+    /** Integer version of the fill factor, used for calculating the new capacity on rehashing */
+    private final int m_iFillFactor;
+    /** Bucket table */
+    private Buckets m_data;
+    /** Number of keys. We are not limited by int because of possibility to have fill factors greater than 1. */
+    private long m_keyCount;
+    /** Number of key/value pairs */
+    private long m_size;
+
+    /**
+     * Key count threshold - next rehashing happens after we exceed the threshold.
+     * This field is {@code long} because we can use fill factors > 1.
+     */
+    private long m_threshold;
+
+    /** Memory blocks are allocated and tracked here */
+    private final SingleThreadedBlockAllocator m_blockAllocator;
+
+    /** Max length of a single chain entry */
+    private final int m_singleEntryLength;
+
+    /**
+     * Create a multimap with a given size, fill factor and serializers
+     * @param size Expected number of keys
+     * @param fillFactor Fill factor. Fill factors over 1.0 are supported and preferred for this multimap. This implementation
+     *                   puts a soft limit of 16 for the fill factors.
+     * @param keySerializer Serializer for keys
+     * @param valueSerializer Serializer for values
+     * @param blockCacheLimit The limit on the amount of memory blocks we try to reuse in order to reduce the GC load.
+     *
+     * @throws NullPointerException If {@code keySerializer == null} or {@code valueSerializer == null}
+     * @throws IllegalArgumentException If {@code fillFactor > 16} or {@code fillFactor <= 0.01} or {@code blockCacheLimit < 0}
+     */
+    public IntIntMultiMap( final long size, final float fillFactor,
+                           final IIntSerializer keySerializer, final IIntSerializer valueSerializer,
+                           final long blockCacheLimit )
+    {
+        Objects.requireNonNull( keySerializer, "Key serializer must be provided!" );
+        Objects.requireNonNull( valueSerializer, "Value serializer must be provided!" );
+        if ( fillFactor > 16 )
+            throw new IllegalArgumentException( "Fill factors higher than 16 are not supported!" );
+        if ( fillFactor <= 0.01 )
+            throw new IllegalArgumentException( "Fill factor must be greater than 0.01 and less or equal to 16!" );
+        if ( blockCacheLimit < 0 )
+            throw new IllegalArgumentException( "BlockCacheLimit can not be negative!" );
+
+        m_keySerializer = keySerializer;
+        m_valueSerializer = valueSerializer;
+        m_blockAllocator = new SingleThreadedBlockAllocator( blockCacheLimit );
+        m_fillFactor = fillFactor;
+        m_iFillFactor = ( int ) Math.ceil( m_fillFactor );
+        final long requestedCapacity = ( long ) Math.ceil( size / fillFactor );
+        final int newCapacity = requestedCapacity >= Primes.getMaxIntPrime() ? Primes.getMaxIntPrime() : Primes.findNextPrime( requestedCapacity );
+        m_data = new Buckets( newCapacity, false );
+        //disable resizing if the initial size is already large enough
+        if ( newCapacity == Primes.getMaxIntPrime() )
+            m_threshold = Long.MAX_VALUE;
+        else {
+            //this threshold adjustment is needed on tiny initial size / large fill factor combinations so that we do not
+            //rehash table without table size increase in future.
+            long threshold = size;
+            while ( Primes.findNextPrime( ( int ) Math.ceil( threshold * 2 / fillFactor ) ) == newCapacity )
+                threshold *= 2;
+            m_threshold = threshold;
+        }
+        //key + 2 varlen ints for the list position
+        m_singleEntryLength = m_keySerializer.getMaxLength() + 10;
+        m_iter = new Iterator( m_keySerializer );
+        m_writer = new Writer( m_keySerializer );
+    }
+
+    /**
+     * Find a chain entry for a given key. The entry list position is available via {@code m_iter} on success.
+     * @param key Key
+     * @return True if the key is present
+     */
+    private boolean findEntry( final int key )
+    {
+        if ( !m_data.select( getIndex( key, m_data.length() ) ) )
+            return false;
+        return m_iter.reset( getByteArray( getBlockByIndex( m_data.getBlockIndex() ), m_data.getOffset() ), m_data ).findKey( key );
+    }
+
+    @Override
+    public boolean add( final int key, final int value )
+    {
+        final int index = getIndex( key, m_data.length() );
+        if ( !m_data.select( index ) || !m_iter.reset( getByteArray( getBlockByIndex( m_data.getBlockIndex() ), m_data.getOffset() ), m_data ).findKey( key ) )
+        {
+            //new key - allocate a list and link it from the chain
+            final SingleThreadedBlock list = getBlock( HEADER_LENGTH + INITIAL_LIST_CAPACITY );
+            final int offset = list.pos;
+            list.increaseEntries();
+            list.pos += HEADER_LENGTH + INITIAL_LIST_CAPACITY;
+            final ByteArray values = m_valuesBar.reset( list.data, offset + HEADER_LENGTH );
+            m_valueSerializer.write( value, values );
+            writeHeader( list.data, offset, 1, values.position() - offset - HEADER_LENGTH, INITIAL_LIST_CAPACITY, value );
+
+            putEntry( index, key, list.getIndex(), offset );
+            ++m_size;
+            changeKeyCount( 1 );
+            return true;
+        }
+
+        final SingleThreadedBlock list = getBlockByIndex( m_iter.getListBlock() );
+        final int offset = m_iter.getListOffset();
+        final byte[] ar = list.data;
+        final int count = readInt( ar, offset + HDR_COUNT );
+        final int used = readInt( ar, offset + HDR_USED );
+        final int capacity = readInt( ar, offset + HDR_CAPACITY );
+        final int last = readInt( ar, offset + HDR_LAST );
+
+        if ( value == last )
+            return false;
+        if ( value > last )
+        {
+            //append - the most common case
+            if ( used + m_valueSerializer.getMaxLength() <= capacity )
+            {
+                final ByteArray values = m_valuesBar.reset( ar, offset + HEADER_LENGTH + used );
+                m_valueSerializer.writeDelta( last, value, values, true );
+                writeHeader( ar, offset, count + 1, values.position() - offset - HEADER_LENGTH, capacity, value );
+            }
+            else if ( list.pos == offset + HEADER_LENGTH + capacity && list.hasSpace( capacity + m_valueSerializer.getMaxLength() ) )
+            {
+                //this list is the last thing written into its block, so we can extend it in place
+                final int extra = capacity + m_valueSerializer.getMaxLength();
+                list.pos += extra;
+                final ByteArray values = m_valuesBar.reset( ar, offset + HEADER_LENGTH + used );
+                m_valueSerializer.writeDelta( last, value, values, true );
+                writeHeader( ar, offset, count + 1, values.position() - offset - HEADER_LENGTH, capacity + extra, value );
+            }
+            else
+            {
+                //copy existing values and append a new one to the copy
+                final ByteArray tmp = getTmp( used + m_valueSerializer.getMaxLength() );
+                tmp.put( ar, offset + HEADER_LENGTH, used );
+                m_valueSerializer.writeDelta( last, value, tmp, true );
+                relocateList( index, key, list, offset, tmp, count + 1, value );
+            }
+            ++m_size;
+            return true;
+        }
+
+        //insertion in the middle of the list, re-encode it
+        final ByteArray values = m_valuesBar.reset( ar, offset + HEADER_LENGTH );
+        final ByteArray tmp = getTmp( used + 2 * m_valueSerializer.getMaxLength() );
+        int prev = 0, prevOut = 0;
+        boolean inserted = false;
+        for ( int i = 0; i < count; ++i )
+        {
+            final int cur = i == 0 ? m_valueSerializer.read( values ) : m_valueSerializer.readDelta( prev, values, true );
+            prev = cur;
+            if ( !inserted && cur >= value )
+            {
+                if ( cur == value )
+                    return false;
+                inserted = true;
+                prevOut = writeValue( tmp, i == 0, prevOut, value );
+            }
+            prevOut = writeValue( tmp, i == 0 && !inserted, prevOut, cur );
+        }
+        if ( tmp.position() <= capacity )
+        {
+            System.arraycopy( tmp.array(), 0, ar, offset + HEADER_LENGTH, tmp.position() );
+            writeHeader( ar, offset, count + 1, tmp.position(), capacity, last );
+        }
+        else
+            relocateList( index, key, list, offset, tmp, count + 1, last );
+        ++m_size;
+        return true;
+    }
+
+    /**
+     * Copy a value list into a new larger space and link it from the chain
+     * @param index Key bucket
+     * @param key Key
+     * @param oldList Block containing the current list
+     * @param oldOffset Current list offset
+     * @param values Buffer containing the new encoded values, starting at 0
+     * @param count Number of values in the buffer
+     * @param last Largest value in the buffer
+     */
+    private void relocateList( final int index, final int key, final SingleThreadedBlock oldList, final int oldOffset,
+                               final ByteArray values, final int count, final int last )
+    {
+        final int used = values.position();
+        //reserve the same amount of space for future appends
+        final int capacity = 2 * used + m_valueSerializer.getMaxLength();
+        final SingleThreadedBlock list = getBlock( HEADER_LENGTH + capacity );
+        final int offset = list.pos;
+        list.increaseEntries();
+        list.pos += HEADER_LENGTH + capacity;
+        System.arraycopy( values.array(), 0, list.data, offset + HEADER_LENGTH, used );
+        writeHeader( list.data, offset, count, used, capacity, last );
+
+        putEntry( index, key, list.getIndex(), offset );
+        oldList.decreaseEntries();
+    }
+
+    @Override
+    public boolean contains( final int key, final int value )
+    {
+        if ( !findEntry( key ) )
+            return false;
+        final byte[] ar = getBlockByIndex( m_iter.getListBlock() ).data;
+        final int offset = m_iter.getListOffset();
+        final int last = readInt( ar, offset + HDR_LAST );
+        if ( value >= last )
+            return value == last;
+
+        final int count = readInt( ar, offset + HDR_COUNT );
+        final ByteArray values = m_valuesBar.reset( ar, offset + HEADER_LENGTH );
+        int cur = 0;
+        for ( int i = 0; i < count; ++i )
+        {
+            cur = i == 0 ? m_valueSerializer.read( values ) : m_valueSerializer.readDelta( cur, values, true );
+            if ( cur >= value )
+                return cur == value;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean containsKey( final int key )
+    {
+        return findEntry( key );
+    }
+
+    @Override
+    public void forEachValue( final int key, final IIntProcedure proc )
+    {
+        if ( !findEntry( key ) )
+            return;
+        final byte[] ar = getBlockByIndex( m_iter.getListBlock() ).data;
+        final int offset = m_iter.getListOffset();
+        final int count = readInt( ar, offset + HDR_COUNT );
+        //the callback may use other methods of this multimap, so we can not use a shared buffer here
+        final ByteArray values = new ByteArray().reset( ar, offset + HEADER_LENGTH );
+        int cur = 0;
+        for ( int i = 0; i < count; ++i )
+        {
+            cur = i == 0 ? m_valueSerializer.read( values ) : m_valueSerializer.readDelta( cur, values, true );
+            proc.process( cur );
+        }
+    }
+
+    @Override
+    public int valueCount( final int key )
+    {
+        if ( !findEntry( key ) )
+            return 0;
+        return readInt( getBlockByIndex( m_iter.getListBlock() ).data, m_iter.getListOffset() + HDR_COUNT );
+    }
+
+    /**
+     * Add a chain entry or replace the list position of an existing one.
+     * The result is written to m_data[index]
+     * @param index Bucket index
+     * @param key Key
+     * @param listBlock Value list block index
+     * @param listOffset Value list offset
+     */
+    private void putEntry( final int index, final int key, final int listBlock, final int listOffset )
+    {
+        if ( !m_data.select( index ) ) {
+            final SingleThreadedBlock output = getBlock( m_singleEntryLength );
+            final int startPos = output.pos;
+            final ByteArray bar = getByteArray( output );
+            output.increaseEntries(); //allocate block prior to writing
+            m_writer.reset( bar ).writeEntry( key, listBlock, listOffset );
+            output.pos = bar.position();
+            m_data.set( index, output.getIndex(), startPos, 1 );
+            return;
+        }
+
+        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+        final int inputStartOffset = m_data.getOffset();
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator iter = m_iter.reset( input, m_data );
+        //chain entries are small, so we simply read the whole chain to find out its length
+        boolean found = false;
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() == key )
+                found = true;
+        }
+        final int chainLength = input.position() - inputStartOffset;
+        final int elems = found ? iter.getElems() : iter.getElems() + 1;
+
+        //2* is a safety net here due to possibility that a delta may get longer, 5 is the maximal length of the chain length field
+        final SingleThreadedBlock outputBlock = getBlock( chainLength + 2 * m_singleEntryLength + 5 );
+        final int startOutputPos = outputBlock.pos;
+        final ByteArray output = getByteArray2( outputBlock );
+
+        inputBlock.decreaseEntries(); //release the input block, it may be held by this method for a little longer
+        outputBlock.increaseEntries(); //allocate block
+        //the number of elements is written prior to the chain only if it does not fit into the bucket
+        final Writer writer = m_writer.reset( output, elems < m_data.maxEncodedLength() ? 0 : elems );
+
+        //fully reset the iterator (position on the bucket length)
+        input.position( inputStartOffset );
+        iter.reset( input, m_data );
+        boolean inserted = false;
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( !inserted && iter.getKey() >= key )
+            {
+                inserted = true;
+                writer.writeEntry( key, listBlock, listOffset );
+                if ( iter.getKey() == key )
+                    continue;
+            }
+            writer.writeEntry( iter.getKey(), iter.getListBlock(), iter.getListOffset() );
+        }
+        if ( !inserted ) //all keys are smaller
+            writer.writeEntry( key, listBlock, listOffset );
+
+        outputBlock.pos = output.position();
+        m_data.set( index, outputBlock.getIndex(), startOutputPos,
+                    elems < m_data.maxEncodedLength() ? elems : m_data.maxEncodedLength() );
+    }
+
+    @Override
+    public int remove( final int key )
+    {
+        final int idx = getIndex( key, m_data.length() );
+        if ( !m_data.select( idx ) )
+            return 0;
+
+        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+        final int inputStartOffset = m_data.getOffset();
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator iter = m_iter.reset( input, m_data );
+        if ( !iter.findKey( key ) )
+            return 0;
+
+        //release the value list
+        final SingleThreadedBlock list = getBlockByIndex( iter.getListBlock() );
+        final int count = readInt( list.data, iter.getListOffset() + HDR_COUNT );
+        list.decreaseEntries();
+        m_size -= count;
+        --m_keyCount;
+
+        //special case 1 - chain removal
+        if ( iter.getElems() == 1 ) {
+            inputBlock.decreaseEntries();
+            m_data.set( idx, m_data.emptyBucket() );
+            return count;
+        }
+
+        //special case 2 - removal of the last element and length is not too big - only bucket info changes
+        //we can not check for equality - once we have reached maxlen there will be a length field at the start of the record
+        if ( !iter.hasNext() && iter.getElems() < m_data.maxEncodedLength() )
+        {
+            m_data.set( idx, inputBlock.getIndex(), inputStartOffset, iter.getElems() - 1 );
+            return count;
+        }
+
+        //the chain is rewritten in place, it can only get shorter
+        input.position( inputStartOffset );
+        iter.reset( input, m_data );
+
+        final ByteArray output = getByteArray2( inputBlock );
+        output.position( inputStartOffset );
+        final Writer writer = m_writer.reset( output, iter.getElems() <= m_data.maxEncodedLength() ? 0 : iter.getElems() - 1 );
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getKey() != key )
+                writer.writeEntry( iter.getKey(), iter.getListBlock(), iter.getListOffset() );
+        }
+
+        m_data.set( idx, inputBlock.getIndex(), inputStartOffset,
+                    iter.getElems() <= m_data.maxEncodedLength() ? iter.getElems() - 1 : m_data.maxEncodedLength() );
+        return count;
+    }
+
+    @Override
+    public long size() {
+        return m_size;
+    }
+
+    @Override
+    public long keyCount() {
+        return m_keyCount;
+    }
+
+    /**
+     * Remove all keys and values. The bucket table is kept and the memory blocks are recycled
+     * (up to {@code blockCacheLimit}), so that a reused multimap does not have to allocate them again.
+     */
+    @Override
+    public void clear()
+    {
+        m_data.clear();
+        m_blockAllocator.clear();
+        m_size = 0;
+        m_keyCount = 0;
+    }
+
+    /**
+     * Rehash the table. Only the chains are copied, value lists stay where they are.
+     * @param old Old bucket table
+     */
+    private void rehash( final Buckets old )
+    {
+        final ByteArray barLocal = new ByteArray();
+        final Iterator iterLocal = new Iterator( m_keySerializer );
+
+        for ( int i = 0; i < old.length(); ++i )
+            if ( old.select( i ) )
+                rehashInnerStep( old, barLocal, iterLocal );
+    }
+
+    private void rehashInnerStep( final Buckets old, final ByteArray bar, final Iterator iter )
+    {
+        final SingleThreadedBlock inputBlock = getBlockByIndex( old.getBlockIndex() );
+
+        iter.reset( bar.reset( inputBlock.data, old.getOffset() ), old );
+        if ( old.getBlockLength() == 1 ) //shortcut, no data copy for blocklen = 1
+        {
+            iter.advance();
+            final int index = getIndex( iter.getKey(), m_data.length() );
+            if ( !m_data.select( index ) )
+                m_data.set( index, old.getBucket() );
+            else
+            {
+                putEntry( index, iter.getKey(), iter.getListBlock(), iter.getListOffset() );
+                inputBlock.decreaseEntries();
+            }
+        }
+        else
+        {
+            while ( iter.hasNext() )
+            {
+                iter.advance();
+                putEntry( getIndex( iter.getKey(), m_data.length() ), iter.getKey(), iter.getListBlock(), iter.getListOffset() );
+            }
+            inputBlock.decreaseEntries(); //bucket relocated
+        }
+    }
+
+    /**
+     * Get the bucket index for the given key
+     * @param key A key
+     * @param tabSize Bucket table size
+     * @return Bucket index
+     */
+    private int getIndex( final int key, final int tabSize )
+    {
+        return Tools.getIndexFast( key, tabSize );
+    }
+
+    /**
+     * Write a value into a list being re-encoded
+     * @param buf Output buffer
+     * @param first Is it a first value in the list
+     * @param prev Previously written value
+     * @param v Value to write
+     * @return {@code v}
+     */
+    private int writeValue( final ByteArray buf, final boolean first, final int prev, final int v )
+    {
+        if ( first )
+            m_valueSerializer.write( v, buf );
+        else
+            m_valueSerializer.writeDelta( prev, v, buf, true );
+        return v;
+    }
+
+    /**
+     * Get a temporary buffer positioned at 0
+     * @param size Required buffer size
+     * @return Temporary buffer
+     */
+    private ByteArray getTmp( final int size )
+    {
+        if ( m_tmp.array().length < size )
+            m_tmp.reset( new byte[ Math.max( size, m_tmp.array().length * 2 ) ] );
+        m_tmp.position( 0 );
+        return m_tmp;
+    }
+
+    private static void writeHeader( final byte[] ar, final int offset, final int count, final int used,
+                                     final int capacity, final int last )
+    {
+        writeInt( ar, offset + HDR_COUNT, count );
+        writeInt( ar, offset + HDR_USED, used );
+        writeInt( ar, offset + HDR_CAPACITY, capacity );
+        writeInt( ar, offset + HDR_LAST, last );
+    }
+
+    private static int readInt( final byte[] ar, final int pos )
+    {
+        return ( ar[ pos ] << 24 ) | ( ( ar[ pos + 1 ] & 0xFF ) << 16 ) | ( ( ar[ pos + 2 ] & 0xFF ) << 8 ) | ( ar[ pos + 3 ] & 0xFF );
+    }
+
+    private static void writeInt( final byte[] ar, final int pos, final int v )
+    {
+        ar[ pos ] = ( byte ) ( v >>> 24 );
+        ar[ pos + 1 ] = ( byte ) ( v >>> 16 );
+        ar[ pos + 2 ] = ( byte ) ( v >>> 8 );
+        ar[ pos + 3 ] = ( byte ) v;
+    }
+
+    /**
+     * Chain iterator. Every entry consists of a key and a position of its value list.
+     */
+    private static class Iterator    {
+        /** Underlying byte buffer */
+        private ByteArray buf;
+        /** Number of entries in the bucket */
+        private int elems;
+        /** Index of the current entry (0-based) */
+        private int cur = 0;
+        /** Current entry key, initialized by {@code advance} call */
+        private int key;
+        /** Current entry value list block index */
+        private int listBlock;
+        /** Current entry value list offset */
+        private int listOffset;
+        /** Serialization for keys */
+        private final IIntSerializer m_keySerializer;
+
+        public Iterator( final IIntSerializer keySerializer ) {
+            m_keySerializer = keySerializer;
+        }
+
+        /**
+         * Initialize an iterator by a buffer. This method will reads the number of entries if the current bucket length = max length
+         * @param buf Byte buffer
+         * @param data A reference to a current Buckets object
+         * @return Same iterator object
+         */
+        Iterator reset( final ByteArray buf, final Buckets data )
+        {
+            this.buf = buf;
+            elems = data.getBlockLength() < data.maxEncodedLength() ? data.getBlockLength() : readUnsignedInt( buf );
+            cur = 0;
+            return this;
+        }
+
+        /**
+         * Check if there are any not read entries left in the bucket
+         * @return True if we can advance, false otherwise
+         */
+        public boolean hasNext()
+        {
+            return cur < elems;
+        }
+
+        /**
+         * Read the next entry from the buffer
+         */
+        public void advance()
+        {
+            if ( cur == 0 )
+                key = m_keySerializer.read( buf );
+            else
+                key = m_keySerializer.readDelta( key, buf, true );
+            listBlock = readUnsignedInt( buf );
+            listOffset = readUnsignedInt( buf );
+            ++cur;
+        }
+
+        /**
+         * Look up a given key. The iterator stands right after the key if it was found.
+         * @param key Key to look up
+         * @return True if the key is present in the chain
+         */
+        public boolean findKey( final int key )
+        {
+            while ( hasNext() ) {
+                advance();
+                if ( getKey() == key )
+                    return true;
+                else if ( getKey() > key ) //keys are sorted
+                    return false;
+            }
+            return false;
+        }
+
+        public int getKey() {
+            return key;
+        }
+
+        public int getListBlock() {
+            return listBlock;
+        }
+
+        public int getListOffset() {
+            return listOffset;
+        }
+
+        /**
+         * @return Number of entries in the bucket
+         */
+        public int getElems() {
+            return elems;
+        }
+    }
+
+    /**
+     * This class encapsulates the logic used to write all chain entries into the bucket.
+     */
+    private static final class Writer    {
+        /** Underlying byte buffer */
+        private ByteArray buf;
+        /** Is this a first entry (used for delta encoding) */
+        private boolean first = true;
+        /** Previously written key (used for delta encoding) */
+        private int prevKey;
+        /** Serialization for keys */
+        private final IIntSerializer m_keySerializer;
+
+        public Writer( final IIntSerializer keySerializer )
+        {
+            m_keySerializer = keySerializer;
+        }
+
+        /**
+         * Reset a writer (useful if you need to write multiple entries in one method call).
+         * This method does not write the element count into the bucket (caller should take care of it)
+         * @param buf Underlying byte buffer
+         * @return this
+         */
+        public Writer reset( final ByteArray buf )
+        {
+            return reset( buf, 0 );
+        }
+
+        /**
+         * Reset a writer (useful if you need to write multiple entries in one method call)
+         * @param buf Underlying byte buffer
+         * @param elems Number of elements to write, don't write anything if this value is not positive
+         * @return this
+         */
+        public Writer reset( final ByteArray buf, final int elems )
+        {
+            this.buf = buf;
+            if ( elems > 0 )
+                writeUnsignedInt( elems, buf );
+            first = true;
+            prevKey = 0;
+            return this;
+        }
+
+        /**
+         * Write a chain entry. Keys must be written in the ascending order.
+         * @param k Key to write
+         * @param listBlock Value list block index
+         * @param listOffset Value list offset
+         */
+        public void writeEntry( final int k, final int listBlock, final int listOffset )
+        {
+            if ( first ) {
+                m_keySerializer.write( k, buf );
+                first = false;
+            }
+            else
+                //keys are sorted, so we can write unsigned diff (but serializer will make a final decision)
+                m_keySerializer.writeDelta( prevKey, k, buf, true );
+            prevKey = k;
+            writeUnsignedInt( listBlock, buf );
+            writeUnsignedInt( listOffset, buf );
+        }
+    }
+
+    private ByteArray getByteArray( final SingleThreadedBlock ar )
+    {
+        return m_bar1.reset( ar.data, ar.pos );
+    }
+
+    private ByteArray getByteArray2( final SingleThreadedBlock ar )
+    {
+        return m_bar2.reset( ar.data, ar.pos );
+    }
+
+    private ByteArray getByteArray( final SingleThreadedBlock ar, final int offset )
+    {
+        return m_bar1.reset( ar.data, offset );
+    }
+
+    private SingleThreadedBlock getBlock( final int bytes )
+    {
+        return m_blockAllocator.getBlock( bytes, m_data );
+    }
+
+    private SingleThreadedBlock getBlockByIndex( final int index )
+    {
+        return m_blockAllocator.getBlockByIndex( index );
+    }
+
+    private void changeKeyCount( final int delta )
+    {
+        m_keyCount += delta;
+
+        if ( m_keyCount > m_threshold )
+        {
+            final long multiplier = m_fillFactor <= 2 ? 2 : m_iFillFactor;
+            int newCapacity = Primes.findNextPrime( ( long ) Math.ceil( multiplier * m_threshold / m_fillFactor ) );
+            //check if we got too close to the max array size, otherwise we will have to make a pretty useless resize when got close to 2G*fillFactor entries
+            if ( newCapacity * 1.5 > Primes.getMaxIntPrime() )
+                newCapacity = Primes.getMaxIntPrime();
+            //this check disables rehashing after a table has reached the maximal size
+            final long newThreshold = newCapacity >= Primes.getMaxIntPrime() ? Long.MAX_VALUE : m_threshold * multiplier;
+
+            final Buckets old = m_data;
+            try {
+                m_data = new Buckets( newCapacity, old.isLong() );
+            }
+            catch ( OutOfMemoryError ex )
+            {
+                //let's disable rehashing and keep on working
+                m_threshold = Long.MAX_VALUE;
+                return;
+            }
+            m_threshold = newThreshold;
+            rehash( old );
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.objects;
+
+import info.javaperformance.functions.IObjectFloatProcedure;
+
+/**
+ * Common set of methods implemented by maps with object keys
+ */
+public interface IObjectFloatMap<K> {
+    public float get( final K key );
+    public float put( final K key, final float value );
+    public float remove( final K key );
+    public long size();
+
+    /**
+     * Get a value associated with a given key
+     * @param key Key to look up
+     * @param defaultValue Value to return if the key is not present in the map
+     * @return A value associated with the key or {@code defaultValue} if there is no such key
+     */
+    public float get( final K key, final float defaultValue );
+
+    /**
+     * Check if a given key is present in the map. Unlike {@code get}, this method could tell an absent key
+     * from a key mapped to {@code 0}.
+     * @param key Key to look up
+     * @return True if the key is present in the map
+     */
+    public boolean containsKey( final K key );
+
+    /**
+     * Remove all entries from the map
+     */
+    public void clear();
+
+    /**
+     * Call {@code proc} for every map entry. Keys are deserialized one by one, so the map must not be updated
+     * from the callback.
+     * @param proc Entry callback
+     */
+    public void forEach( final IObjectFloatProcedure<K> proc );
+}
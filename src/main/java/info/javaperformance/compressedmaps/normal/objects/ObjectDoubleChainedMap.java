@@ -0,0 +1,757 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.objects;
+
+import info.javaperformance.buckets.Buckets;
+import info.javaperformance.functions.IObjectDoubleProcedure;
+import info.javaperformance.hashing.IObjectHashStrategy;
+import info.javaperformance.malloc.SingleThreadedBlock;
+import info.javaperformance.malloc.SingleThreadedBlockAllocator;
+import info.javaperformance.serializers.*;
+import info.javaperformance.tools.Primes;
+import info.javaperformance.tools.Tools;
+
+import java.util.Objects;
+
+import static info.javaperformance.tools.VarLen.readUnsignedInt;
+import static info.javaperformance.tools.VarLen.writeUnsignedInt;
+
+/**
+ * A single threaded compressed map with object keys. It uses the same bucket table and memory blocks as the primitive
+ * key maps, but every chain entry consists of 3 parts:
+ * - a key hash code (calculated by a hash strategy), chains are sorted by it, so it is delta-encoded
+ * - a serialized key, stored inline
+ * - a value, delta-encoded
+ *
+ * A stored hash code allows us to skip most of the key comparisons on lookup. Besides that, rehashing just copies
+ * the serialized keys to the new chains without deserializing them.
+ *
+ * {@code null} keys are not supported.
+ */
+public class ObjectDoubleChainedMap<K> implements IObjectDoubleMap<K> {
+    private static final double NO_VALUE = 0;
+
+    /** Serializer for hash codes, they are sorted in every chain */
+    private static final IIntSerializer HASH_SERIALIZER = DefaultIntSerializer.INSTANCE;
+
+    /*
+    We store multiple reusable objects here. They are needed to avoid unnecessary object allocations.
+     */
+    private final Iterator<K> m_iter;
+    private final ByteArray m_bar1 = new ByteArray();
+    private final ByteArray m_bar2 = new ByteArray();
+    private final Writer<K> m_writer;
+    private final UpdateResult m_updateResult = new UpdateResult();
+
+    /** Key serializer */
+    private final IObjectSerializer<K> m_keySerializer;
+    /** Key hashing and equality */
+    private final IObjectHashStrategy<K> m_hashStrategy;
+    /** Value serializer */
+    private final IDoubleSerializer m_valueSerializer;
+    /** Original fill factor */
+    private final float m_fillFactor;
+    /** Integer version of the fill factor, used for calculating the new capacity on rehashing */
+    private final int m_iFillFactor;
+    /** Bucket table */
+    private Buckets m_data;
+    /**
+     * Map size. We are not limited by int because of possibility to have fill factors greater than 1.
+     */
+    private long m_size;
+
+    /**
+     * Map size threshold - next rehashing happens after we exceed the threshold.
+     * This field is {@code long} because we can use fill factors > 1.
+     */
+    private long m_threshold;
+
+    /** Memory blocks are allocated and tracked here */
+    private final SingleThreadedBlockAllocator m_blockAllocator;
+
+    /** Max length of an entry excluding the key - optimization */
+    private final int m_entryOverhead;
+
+    /**
+     * Create a map with a given size, fill factor, serializers and hash strategy
+     * @param size Expected map size
+     * @param fillFactor Map fill factor. Fill factors over 1.0 are supported and preferred for this map. This implementation
+     *                   puts a soft limit of 16 for the fill factors.
+     * @param keySerializer Serializer for keys
+     * @param hashStrategy Hash code / equality logic for keys
+     * @param valueSerializer Serializer for values
+     * @param blockCacheLimit The limit on the amount of memory blocks we try to reuse in order to reduce the GC load.
+     *
+     * @throws NullPointerException If any of serializers or {@code hashStrategy} is null
+     * @throws IllegalArgumentException If {@code fillFactor > 16} or {@code fillFactor <= 0.01} or {@code blockCacheLimit < 0}
+     */
+    public ObjectDoubleChainedMap( final long size, final float fillFactor,
+                                  final IObjectSerializer<K> keySerializer, final IObjectHashStrategy<K> hashStrategy,
+                                  final IDoubleSerializer valueSerializer, final long blockCacheLimit )
+    {
+        Objects.requireNonNull( keySerializer, "Key serializer must be provided!" );
+        Objects.requireNonNull( hashStrategy, "Hash strategy must be provided!" );
+        Objects.requireNonNull( valueSerializer, "Value serializer must be provided!" );
+        if ( fillFactor > 16 )
+            throw new IllegalArgumentException( "Fill factors higher than 16 are not supported!" );
+        if ( fillFactor <= 0.01 )
+            throw new IllegalArgumentException( "Fill factor must be greater than 0.01 and less or equal to 16!" );
+        if ( blockCacheLimit < 0 )
+            throw new IllegalArgumentException( "BlockCacheLimit can not be negative!" );
+
+        m_keySerializer = keySerializer;
+        m_hashStrategy = hashStrategy;
+        m_valueSerializer = valueSerializer;
+        m_blockAllocator = new SingleThreadedBlockAllocator( blockCacheLimit );
+        m_fillFactor = fillFactor;
+        m_iFillFactor = ( int ) Math.ceil( m_fillFactor );
+        final long requestedCapacity = ( long ) Math.ceil( size / fillFactor );
+        final int newCapacity = requestedCapacity >= Primes.getMaxIntPrime() ? Primes.getMaxIntPrime() : Primes.findNextPrime( requestedCapacity );
+        m_data = new Buckets( newCapacity, false );
+        //disable resizing if the initial size is already large enough
+        if ( newCapacity == Primes.getMaxIntPrime() )
+            m_threshold = Long.MAX_VALUE;
+        else {
+            //this threshold adjustment is needed on tiny initial size / large fill factor combinations so that we do not
+            //rehash table without table size increase in future.
+            long threshold = size;
+            while ( Primes.findNextPrime( ( int ) Math.ceil( threshold * 2 / fillFactor ) ) == newCapacity )
+                threshold *= 2;
+            m_threshold = threshold;
+        }
+        //2* is a safety net for the hash/value deltas of an entry and its successor
+        m_entryOverhead = 2 * ( HASH_SERIALIZER.getMaxLength() + m_valueSerializer.getMaxLength() );
+        m_iter = new Iterator<>( m_keySerializer, m_hashStrategy, m_valueSerializer );
+        m_writer = new Writer<>( m_keySerializer, m_valueSerializer );
+    }
+
+    @Override
+    public double get( final K key )
+    {
+        return get( key, NO_VALUE );
+    }
+
+    @Override
+    public double get( final K key, final double defaultValue )
+    {
+        final int hash = m_hashStrategy.hashCode( key );
+        if ( !m_data.select( getIndex( hash, m_data.length() ) ) )
+            return defaultValue;
+
+        final Iterator<K> iter = m_iter.reset( getByteArray( getBlockByIndex( m_data.getBlockIndex() ), m_data.getOffset() ), m_data );
+        return iter.findKey( hash, key ) ? iter.getValue() : defaultValue;
+    }
+
+    @Override
+    public boolean containsKey( final K key )
+    {
+        final int hash = m_hashStrategy.hashCode( key );
+        if ( !m_data.select( getIndex( hash, m_data.length() ) ) )
+            return false;
+
+        return m_iter.reset( getByteArray( getBlockByIndex( m_data.getBlockIndex() ), m_data.getOffset() ), m_data ).findKey( hash, key );
+    }
+
+    @Override
+    public double put( final K key, final double value )
+    {
+        final int hash = m_hashStrategy.hashCode( key );
+        final UpdateResult res = addToChain( getIndex( hash, m_data.length() ), hash, key, value, null );
+        final double ret = res.retValue; //must be saved in case of rehash
+        changeSize( res.sizeChange );
+        return ret;
+    }
+
+    /**
+     * Add an entry to a given chain. The chain is scanned once in order to find the key and the chain length,
+     * after that it is written once into a new block.
+     * The result is written to m_data[index]
+     * @param index Bucket index
+     * @param hash Key hash code
+     * @param key Key (ignored if {@code source != null})
+     * @param value Value (ignored if {@code source != null})
+     * @param source If not null, its current entry is copied without key deserialization (used by rehashing, which
+     *               never adds duplicate keys)
+     * @return An old value and the size change
+     */
+    private UpdateResult addToChain( final int index, final int hash, final K key, final double value, final Iterator<K> source )
+    {
+        final int entryLength = ( source != null ? source.getKeyLength() : m_keySerializer.getMaxLength( key ) ) + m_entryOverhead;
+        if ( !m_data.select( index ) ) {
+            final SingleThreadedBlock output = getBlock( entryLength );
+            final int startPos = output.pos;
+            final ByteArray bar = getByteArray( output );
+            output.increaseEntries(); //allocate block prior to writing
+            final Writer<K> writer = m_writer.reset( bar );
+            if ( source != null )
+                writer.transferEntry( source );
+            else
+                writer.writeEntry( hash, key, value );
+            output.pos = bar.position();
+            m_data.set( index, output.getIndex(), startPos, 1 );
+            return m_updateResult.set( NO_VALUE, 1 );
+        }
+
+        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+        final int inputStartOffset = m_data.getOffset();
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator<K> iter = m_iter.reset( input, m_data );
+        //look up a key and then fast forward to the end of chain to find out its length
+        int found = -1;
+        double retValue = NO_VALUE;
+        if ( source == null && iter.findKey( hash, key ) )
+        {
+            found = iter.getCurrent();
+            retValue = iter.getValue();
+        }
+        while ( iter.hasNext() )
+            iter.skip();
+        final int chainLength = input.position() - inputStartOffset;
+        final int elems = found != -1 ? iter.getElems() : iter.getElems() + 1;
+
+        //5 is the maximal length of the chain length field
+        final SingleThreadedBlock outputBlock = getBlock( chainLength + entryLength + 5 );
+        final int startOutputPos = outputBlock.pos;
+        final ByteArray output = getByteArray2( outputBlock );
+
+        inputBlock.decreaseEntries(); //release the input block, it may be held by this method for a little longer
+        outputBlock.increaseEntries(); //allocate block
+        //the number of elements is written prior to the chain only if it does not fit into the bucket
+        final Writer<K> writer = m_writer.reset( output, elems < m_data.maxEncodedLength() ? 0 : elems );
+
+        //fully reset the iterator (position on the bucket length)
+        input.position( inputStartOffset );
+        iter.reset( input, m_data );
+        boolean inserted = false;
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getCurrent() == found )
+            {
+                inserted = true;
+                writer.writeEntry( hash, key, value );
+                continue;
+            }
+            if ( !inserted && iter.getHash() > hash )
+            {
+                inserted = true;
+                if ( source != null )
+                    writer.transferEntry( source );
+                else
+                    writer.writeEntry( hash, key, value );
+            }
+            writer.transferEntry( iter );
+        }
+        if ( !inserted ) //all hash codes are smaller or equal
+        {
+            if ( source != null )
+                writer.transferEntry( source );
+            else
+                writer.writeEntry( hash, key, value );
+        }
+
+        outputBlock.pos = output.position();
+        m_data.set( index, outputBlock.getIndex(), startOutputPos,
+                    elems < m_data.maxEncodedLength() ? elems : m_data.maxEncodedLength() );
+        return m_updateResult.set( retValue, found != -1 ? 0 : 1 );
+    }
+
+    @Override
+    public double remove( final K key )
+    {
+        final int hash = m_hashStrategy.hashCode( key );
+        final int idx = getIndex( hash, m_data.length() );
+        if ( !m_data.select( idx ) )
+            return NO_VALUE;
+
+        final SingleThreadedBlock inputBlock = getBlockByIndex( m_data.getBlockIndex() );
+        final int inputStartOffset = m_data.getOffset();
+
+        final ByteArray input = getByteArray( inputBlock, inputStartOffset );
+        final Iterator<K> iter = m_iter.reset( input, m_data );
+        if ( !iter.findKey( hash, key ) )
+            return NO_VALUE;
+        final double retValue = iter.getValue();
+        --m_size;
+
+        //special case 1 - chain removal
+        if ( iter.getElems() == 1 ) {
+            inputBlock.decreaseEntries();
+            m_data.set( idx, m_data.emptyBucket() );
+            return retValue;
+        }
+
+        //special case 2 - removal of the last element and length is not too big - only bucket info changes
+        //we can not check for equality - once we have reached maxlen there will be a length field at the start of the record
+        if ( !iter.hasNext() && iter.getElems() < m_data.maxEncodedLength() )
+        {
+            m_data.set( idx, inputBlock.getIndex(), inputStartOffset, iter.getElems() - 1 );
+            return retValue;
+        }
+
+        //the chain is rewritten in place, it can only get shorter
+        final int found = iter.getCurrent();
+        input.position( inputStartOffset );
+        iter.reset( input, m_data );
+
+        final ByteArray output = getByteArray2( inputBlock );
+        output.position( inputStartOffset );
+        final Writer<K> writer = m_writer.reset( output, iter.getElems() <= m_data.maxEncodedLength() ? 0 : iter.getElems() - 1 );
+        while ( iter.hasNext() )
+        {
+            iter.advance();
+            if ( iter.getCurrent() != found )
+                writer.transferEntry( iter );
+        }
+
+        m_data.set( idx, inputBlock.getIndex(), inputStartOffset,
+                    iter.getElems() <= m_data.maxEncodedLength() ? iter.getElems() - 1 : m_data.maxEncodedLength() );
+        return retValue;
+    }
+
+    /**
+     * Get map size.
+     * @return The current map size
+     */
+    @Override
+    public long size() {
+        return m_size;
+    }
+
+    /**
+     * Remove all entries from the map. The bucket table is kept and the memory blocks are recycled
+     * (up to {@code blockCacheLimit}), so that a reused map does not have to allocate them again.
+     */
+    @Override
+    public void clear()
+    {
+        m_data.clear();
+        m_blockAllocator.clear();
+        m_size = 0;
+    }
+
+    @Override
+    public void forEach( final IObjectDoubleProcedure<K> proc )
+    {
+        final ByteArray barLocal = new ByteArray();
+        final Iterator<K> iterLocal = new Iterator<>( m_keySerializer, m_hashStrategy, m_valueSerializer );
+        final Buckets data = m_data;
+
+        for ( int i = 0; i < data.length(); ++i )
+        {
+            final long bucket = data.get( i );
+            if ( bucket != data.emptyBucket() )
+            {
+                iterLocal.reset( barLocal.reset( getBlockByIndex( data.getBlockIndex( bucket ) ).data, data.getOffset( bucket ) ),
+                                 data.getBlockLength( bucket ), data.maxEncodedLength() );
+                while ( iterLocal.hasNext() )
+                {
+                    iterLocal.advance();
+                    proc.process( iterLocal.readKey(), iterLocal.getValue() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Rehash the table. Keys are not deserialized - we use the stored hash codes instead.
+     * @param old Old bucket table
+     */
+    private void rehash( final Buckets old )
+    {
+        final ByteArray barLocal = new ByteArray();
+        final Iterator<K> iterLocal = new Iterator<>( m_keySerializer, m_hashStrategy, m_valueSerializer );
+
+        for ( int i = 0; i < old.length(); ++i )
+            if ( old.select( i ) )
+                rehashInnerStep( old, barLocal, iterLocal );
+    }
+
+    private void rehashInnerStep( final Buckets old, final ByteArray bar, final Iterator<K> iter )
+    {
+        final SingleThreadedBlock inputBlock = getBlockByIndex( old.getBlockIndex() );
+
+        iter.reset( bar.reset( inputBlock.data, old.getOffset() ), old );
+        if ( old.getBlockLength() == 1 ) //shortcut, no data copy for blocklen = 1
+        {
+            iter.advance();
+            final int index = getIndex( iter.getHash(), m_data.length() );
+            if ( !m_data.select( index ) )
+                m_data.set( index, old.getBucket() );
+            else
+            {
+                //copy/update the chain
+                addToChain( index, iter.getHash(), null, NO_VALUE, iter );
+                inputBlock.decreaseEntries();
+            }
+        }
+        else
+        {
+            while ( iter.hasNext() )
+            {
+                iter.advance();
+                //copy/update the chain
+                addToChain( getIndex( iter.getHash(), m_data.length() ), iter.getHash(), null, NO_VALUE, iter );
+            }
+            inputBlock.decreaseEntries(); //bucket relocated
+        }
+    }
+
+    /**
+     * Get the bucket index for the given key hash code
+     * @param hash Key hash code
+     * @param tabSize Bucket table size
+     * @return Bucket index
+     */
+    private int getIndex( final int hash, final int tabSize )
+    {
+        return Tools.getIndexFast( hash, tabSize );
+    }
+
+    private static class Iterator<K>    {
+        /** Underlying byte buffer */
+        private ByteArray buf;
+        /** Number of entries in the bucket */
+        private int elems;
+        /** Number of entries read so far, it is also a 1-based index of the current entry */
+        private int cur = 0;
+        /** Current entry hash code, initialized by {@code advance} call */
+        private int hash;
+        /** Current entry serialized key start position */
+        private int keyStart;
+        /** Current entry serialized key end position (exclusive) */
+        private int keyEnd;
+        /** Current entry value, initialized by {@code advance} call */
+        private double value;
+        /** Serialization for keys */
+        private final IObjectSerializer<K> m_keySerializer;
+        /** Key equality */
+        private final IObjectHashStrategy<K> m_hashStrategy;
+        /** Serialization for values */
+        private final IDoubleSerializer m_valueSerializer;
+
+        public Iterator( final IObjectSerializer<K> keySerializer, final IObjectHashStrategy<K> hashStrategy,
+                         final IDoubleSerializer valueSerializer ) {
+            m_keySerializer = keySerializer;
+            m_hashStrategy = hashStrategy;
+            m_valueSerializer = valueSerializer;
+        }
+
+        /**
+         * Initialize an iterator by a buffer. This method will reads the number of entries if the current bucket length = max length
+         * @param buf Byte buffer
+         * @param data A reference to a current Buckets object
+         * @return Same iterator object
+         */
+        Iterator<K> reset( final ByteArray buf, final Buckets data )
+        {
+            return reset( buf, data.getBlockLength(), data.maxEncodedLength() );
+        }
+
+        /**
+         * Initialize an iterator by a buffer and a chain length taken from a bucket
+         * @param buf Byte buffer
+         * @param blockLength Chain length stored in the bucket
+         * @param maxEncodedLength Max chain length which could be stored in the bucket
+         * @return Same iterator object
+         */
+        Iterator<K> reset( final ByteArray buf, final int blockLength, final int maxEncodedLength )
+        {
+            this.buf = buf;
+            elems = blockLength < maxEncodedLength ? blockLength : readUnsignedInt( buf );
+            cur = 0;
+            return this;
+        }
+
+        /**
+         * Check if there are any not read entries left in the bucket
+         * @return True if we can advance, false otherwise
+         */
+        public boolean hasNext()
+        {
+            return cur < elems;
+        }
+
+        /**
+         * Read the next entry from the buffer. The key is skipped, use {@code readKey} to deserialize it.
+         */
+        public void advance()
+        {
+            if ( cur == 0 )
+                hash = HASH_SERIALIZER.read( buf );
+            else
+                hash = HASH_SERIALIZER.readDelta( hash, buf, true );
+            keyStart = buf.position();
+            m_keySerializer.skip( buf );
+            keyEnd = buf.position();
+            if ( cur == 0 )
+                value = m_valueSerializer.read( buf );
+            else
+                value = m_valueSerializer.readDelta( value, buf, false );
+            ++cur;
+        }
+
+        /**
+         * Look up a given key. Keys are deserialized only for the entries with the same hash code.
+         * The iterator stands right after the key if it was found.
+         * @param hash Key hash code
+         * @param key Key to look up
+         * @return True if the key is present in the chain
+         */
+        public boolean findKey( final int hash, final K key )
+        {
+            while ( hasNext() ) {
+                advance();
+                if ( getHash() == hash )
+                {
+                    if ( m_hashStrategy.equals( readKey(), key ) )
+                        return true;
+                }
+                else if ( getHash() > hash ) //hash codes are sorted
+                    return false;
+            }
+            return false;
+        }
+
+        /**
+        * Skip the current entry
+        */
+        public void skip()
+        {
+            HASH_SERIALIZER.skip( buf );
+            m_keySerializer.skip( buf );
+            m_valueSerializer.skip( buf );
+            ++cur;
+        }
+
+        /**
+         * Deserialize a key of the current entry
+         * @return A key read by the last {@code advance} call
+         */
+        public K readKey()
+        {
+            final int pos = buf.position();
+            buf.position( keyStart );
+            final K res = m_keySerializer.read( buf );
+            buf.position( pos );
+            return res;
+        }
+
+        /**
+         * @return Length of the current entry serialized key
+         */
+        public int getKeyLength() {
+            return keyEnd - keyStart;
+        }
+
+        /**
+         * @return A hash code read by the last {@code advance} call
+         */
+        public int getHash() {
+            return hash;
+        }
+
+        /**
+         * @return A value read by the last {@code advance} call
+         */
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * @return 1-based index of the current entry
+         */
+        public int getCurrent() {
+            return cur;
+        }
+
+        /**
+         * @return Number of entries in the bucket
+         */
+        public int getElems() {
+            return elems;
+        }
+    }
+
+    /**
+     * This class encapsulates the logic used to write all entries into the bucket.
+     */
+    private static final class Writer<K>    {
+        /** Underlying byte buffer */
+        private ByteArray buf;
+        /** Is this a first entry (used for delta encoding) */
+        private boolean first = true;
+        /** Previously written hash code (used for delta encoding) */
+        private int prevHash;
+        /** Previously written value (used for delta encoding) */
+        private double prevValue;
+        /** Serialization for keys */
+        private final IObjectSerializer<K> m_keySerializer;
+        /** Serialization for values */
+        private final IDoubleSerializer m_valueSerializer;
+
+        public Writer( final IObjectSerializer<K> keySerializer, final IDoubleSerializer valueSerializer )
+        {
+            m_keySerializer = keySerializer;
+            m_valueSerializer = valueSerializer;
+        }
+
+        /**
+         * Reset a writer (useful if you need to write multiple entries in one method call).
+         * This method does not write the element count into the bucket (caller should take care of it)
+         * @param buf Underlying byte buffer
+         * @return this
+         */
+        public Writer<K> reset( final ByteArray buf )
+        {
+            return reset( buf, 0 );
+        }
+
+        /**
+         * Reset a writer (useful if you need to write multiple entries in one method call)
+         * @param buf Underlying byte buffer
+         * @param elems Number of elements to write, don't write anything if this value is not positive
+         * @return this
+         */
+        public Writer<K> reset( final ByteArray buf, final int elems )
+        {
+            this.buf = buf;
+            if ( elems > 0 )
+                writeUnsignedInt( elems, buf );
+            first = true;
+            prevHash = 0;
+            prevValue = 0;
+            return this;
+        }
+
+        /**
+         * Write an entry. Entries must be written in the ascending hash code order.
+         * @param hash Key hash code
+         * @param key Key
+         * @param value Value
+         */
+        public void writeEntry( final int hash, final K key, final double value )
+        {
+            writeHash( hash );
+            m_keySerializer.write( key, buf );
+            writeValue( value );
+        }
+
+        /**
+         * Copy the current iterator entry. The serialized key is copied as is.
+         * An iterator may share the buffer with this writer if the output is never ahead of the input.
+         * @param iter Iterator
+         */
+        public void transferEntry( final Iterator<K> iter )
+        {
+            writeHash( iter.getHash() );
+            buf.put( iter.buf.array(), iter.keyStart, iter.getKeyLength() );
+            writeValue( iter.getValue() );
+        }
+
+        private void writeHash( final int hash )
+        {
+            if ( first )
+                HASH_SERIALIZER.write( hash, buf );
+            else
+                //hash codes are sorted, so we can write unsigned diff (but serializer will make a final decision)
+                HASH_SERIALIZER.writeDelta( prevHash, hash, buf, true );
+            prevHash = hash;
+        }
+
+        private void writeValue( final double value )
+        {
+            if ( first ) {
+                m_valueSerializer.write( value, buf );
+                first = false;
+            }
+            else
+                m_valueSerializer.writeDelta( prevValue, value, buf, false );
+            prevValue = value;
+        }
+    }
+
+    private ByteArray getByteArray( final SingleThreadedBlock ar )
+    {
+        return m_bar1.reset( ar.data, ar.pos );
+    }
+
+    private ByteArray getByteArray2( final SingleThreadedBlock ar )
+    {
+        return m_bar2.reset( ar.data, ar.pos );
+    }
+
+    private ByteArray getByteArray( final SingleThreadedBlock ar, final int offset )
+    {
+        return m_bar1.reset( ar.data, offset );
+    }
+
+    private SingleThreadedBlock getBlock( final int bytes )
+    {
+        return m_blockAllocator.getBlock( bytes, m_data );
+    }
+
+    private SingleThreadedBlock getBlockByIndex( final int index )
+    {
+        return m_blockAllocator.getBlockByIndex( index );
+    }
+
+    private static class UpdateResult    {
+        public double retValue;
+        public int sizeChange;
+
+        public UpdateResult set( final double retValue, final int sizeChange )
+        {
+            this.retValue = retValue;
+            this.sizeChange = sizeChange;
+            return this;
+        }
+    }
+
+    private void changeSize( final int delta )
+    {
+        m_size += delta;
+
+        if ( m_size > m_threshold )
+        {
+            final long multiplier = m_fillFactor <= 2 ? 2 : m_iFillFactor;
+            int newCapacity = Primes.findNextPrime( ( long ) Math.ceil( multiplier * m_threshold / m_fillFactor ) );
+            //check if we got too close to the max array size, otherwise we will have to make a pretty useless resize when got close to 2G*fillFactor entries
+            if ( newCapacity * 1.5 > Primes.getMaxIntPrime() )
+                newCapacity = Primes.getMaxIntPrime();
+            //this check disables rehashing after a table has reached the maximal size
+            final long newThreshold = newCapacity >= Primes.getMaxIntPrime() ? Long.MAX_VALUE : m_threshold * multiplier;
+
+            final Buckets old = m_data;
+            try {
+                m_data = new Buckets( newCapacity, old.isLong() );
+            }
+            catch ( OutOfMemoryError ex )
+            {
+                //let's disable rehashing and keep on working
+                m_threshold = Long.MAX_VALUE;
+                return;
+            }
+            m_threshold = newThreshold;
+            rehash( old );
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.functions;
+
+/**
+ * A function used for merging an existing map value with a new one.
+ */
+public interface IDoubleBinaryOperator {
+    /**
+     * Calculate a new value
+     * @param oldValue Value currently stored in the map
+     * @param value Value passed by the caller
+     * @return Value to store in the map
+     */
+    public double apply( final double oldValue, final double value );
+}
@@ -0,0 +1,33 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.functions;
+
+/**
+ * A predicate used for selecting map entries.
+ */
+public interface IDoubleDoublePredicate {
+    /**
+     * Check a single map entry
+     * @param key Entry key
+     * @param value Entry value
+     * @return True if the entry is selected
+     */
+    public boolean test( final double key, final double value );
+}
@@ -0,0 +1,42 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.hashing;
+
+import java.util.Arrays;
+
+/**
+ * Hash strategy for {@code byte[]} keys comparing the array contents.
+ */
+public final class ByteArrayHashStrategy implements IObjectHashStrategy<byte[]>
+{
+    public static final ByteArrayHashStrategy INSTANCE = new ByteArrayHashStrategy();
+
+    private ByteArrayHashStrategy(){}
+
+    @Override
+    public int hashCode( final byte[] key ) {
+        return Arrays.hashCode( key );
+    }
+
+    @Override
+    public boolean equals( final byte[] a, final byte[] b ) {
+        return Arrays.equals( a, b );
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.hashing;
+
+/**
+ * Hash strategy delegating to {@code Object.hashCode} and {@code Object.equals}. Suitable for keys with
+ * value-based {@code hashCode/equals}, like {@code String}.
+ */
+public final class DefaultObjectHashStrategy implements IObjectHashStrategy<Object>
+{
+    public static final DefaultObjectHashStrategy INSTANCE = new DefaultObjectHashStrategy();
+
+    private DefaultObjectHashStrategy(){}
+
+    /**
+     * Get a typed instance of this strategy
+     * @param <K> Key type
+     * @return A shared instance of this strategy
+     */
+    @SuppressWarnings( "unchecked" )
+    public static <K> IObjectHashStrategy<K> getInstance()
+    {
+        return ( IObjectHashStrategy<K> ) ( IObjectHashStrategy ) INSTANCE;
+    }
+
+    @Override
+    public int hashCode( final Object key ) {
+        return key.hashCode();
+    }
+
+    @Override
+    public boolean equals( final Object a, final Object b ) {
+        return a.equals( b );
+    }
+}
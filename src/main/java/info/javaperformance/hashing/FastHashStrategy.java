@@ -0,0 +1,42 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.hashing;
+
+/**
+ * The default hash strategy. It does not change the keys - the bucket index calculation only folds
+ * the high key bits into the low ones. It is the cheapest option, but chains may get uneven if keys
+ * share many of their bits.
+ */
+public final class FastHashStrategy implements IHashStrategy
+{
+    public static final FastHashStrategy INSTANCE = new FastHashStrategy();
+
+    private FastHashStrategy(){}
+
+    @Override
+    public int hash( final int key ) {
+        return key;
+    }
+
+    @Override
+    public long hash( final long key ) {
+        return key;
+    }
+}
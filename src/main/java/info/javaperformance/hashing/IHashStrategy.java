@@ -0,0 +1,46 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.hashing;
+
+/**
+ * Hash function applied to primitive map keys before they are mapped to the buckets. The default strategy
+ * leaves the keys as is, which is the fastest option for the random-like keys. Keys with the structure
+ * (sequences, IDs with a shard number in the high bits, floating point numbers) may produce long chains
+ * with it - use a mixing strategy for them.
+ *
+ * Float and double keys are hashed by their {@code floatToIntBits / doubleToLongBits} values.
+ *
+ * All classes implementing this interface must be thread safe.
+ */
+public interface IHashStrategy {
+    /**
+     * Calculate a hash code of an int (or float) key
+     * @param key Key
+     * @return Key hash code
+     */
+    public int hash( final int key );
+
+    /**
+     * Calculate a hash code of a long (or double) key
+     * @param key Key
+     * @return Key hash code
+     */
+    public long hash( final long key );
+}
@@ -0,0 +1,43 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.hashing;
+
+/**
+ * Hashing and equality logic for object map keys. Object keys are stored in the serialized form, so a map
+ * can not rely on {@code equals} of the stored objects, for example, if keys are {@code byte[]}.
+ *
+ * All classes implementing this interface must be thread safe.
+ */
+public interface IObjectHashStrategy<K> {
+    /**
+     * Calculate a key hash code. Equal keys must have equal hash codes.
+     * @param key Key, not null
+     * @return Key hash code
+     */
+    public int hashCode( final K key );
+
+    /**
+     * Check if two keys are equal
+     * @param a First key, not null
+     * @param b Second key, not null
+     * @return True if the keys are equal
+     */
+    public boolean equals( final K a, final K b );
+}
@@ -0,0 +1,113 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.hashing;
+
+import info.javaperformance.tools.Primes;
+import info.javaperformance.tools.Tools;
+
+/**
+ * Defines how a map sizes its bucket table and how it maps the keys to the buckets.
+ */
+public enum IndexMode {
+    /**
+     * Prime table capacities, a bucket index is the remainder of the key hash division by the capacity.
+     * This is the default mode. It tolerates the keys with poor low bits, but pays for an integer division on every access.
+     */
+    PRIME {
+        @Override
+        public int getNextCapacity( final long requested )
+        {
+            return Primes.findNextPrime( requested );
+        }
+
+        @Override
+        public int getMaxCapacity()
+        {
+            return Primes.getMaxIntPrime();
+        }
+    },
+    /**
+     * Power of 2 table capacities, a bucket index is calculated by the multiplicative (Fibonacci) hashing:
+     * a key is multiplied by 2^N / golden ratio and the highest bits of the product are taken. It takes
+     * a multiplication and a shift instead of a division. The maximal capacity is 2^30.
+     */
+    POWER_OF_TWO {
+        @Override
+        public int getNextCapacity( final long requested )
+        {
+            if ( requested >= MAX_POWER_OF_TWO )
+                return MAX_POWER_OF_TWO;
+            //index calculation relies on at least one index bit
+            return Math.max( 2, Tools.nextPowerOfTwo( ( int ) requested ) );
+        }
+
+        @Override
+        public int getMaxCapacity()
+        {
+            return MAX_POWER_OF_TWO;
+        }
+    };
+
+    private static final int MAX_POWER_OF_TWO = 1 << 30;
+
+    /**
+     * Find the smallest supported capacity which is greater or equal to the argument
+     * @param requested Requested capacity
+     * @return Table capacity, not greater than {@code getMaxCapacity()}
+     */
+    public abstract int getNextCapacity( final long requested );
+
+    /**
+     * @return The maximal table capacity
+     */
+    public abstract int getMaxCapacity();
+
+    /**
+     * Calculate a bucket table capacity for a map of a given size
+     * @param size Expected map size
+     * @param fillFactor Map fill factor
+     * @return Table capacity
+     */
+    public int getCapacity( final long size, final float fillFactor )
+    {
+        return getNextCapacity( ( long ) Math.ceil( size / fillFactor ) );
+    }
+
+    /**
+     * Calculate a map size threshold for a table created by {@code getCapacity( size, fillFactor )}.
+     * The next rehashing happens after the map size exceeds this threshold.
+     * @param size Expected map size, a positive number
+     * @param capacity Table capacity
+     * @param fillFactor Map fill factor
+     * @return Map size threshold, {@code Long.MAX_VALUE} if the table can not grow anymore
+     */
+    public long getThreshold( final long size, final int capacity, final float fillFactor )
+    {
+        //disable resizing if the table is already large enough
+        if ( capacity == getMaxCapacity() )
+            return Long.MAX_VALUE;
+        //this threshold adjustment is needed on tiny initial size / large fill factor combinations so that we do not
+        //rehash table without table size increase in future.
+        long threshold = size;
+        while ( getNextCapacity( ( long ) Math.ceil( threshold * 2 / fillFactor ) ) == capacity )
+            threshold *= 2;
+        return threshold;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.hashing;
+
+import info.javaperformance.tools.Tools;
+
+/**
+ * Hash strategy applying the Murmur3 finalizer to the keys. Every key bit affects every hash bit, so
+ * the clustered keys (composite IDs, sequences with a common stride) are spread evenly over the buckets
+ * at a cost of a few multiplications per access.
+ */
+public final class Murmur3HashStrategy implements IHashStrategy
+{
+    public static final Murmur3HashStrategy INSTANCE = new Murmur3HashStrategy();
+
+    private Murmur3HashStrategy(){}
+
+    @Override
+    public int hash( final int key ) {
+        return Tools.murmur3( key );
+    }
+
+    @Override
+    public long hash( final long key ) {
+        return Tools.murmur3( key );
+    }
+}
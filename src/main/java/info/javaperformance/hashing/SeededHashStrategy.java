@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.hashing;
+
+import info.javaperformance.tools.Tools;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Murmur3 based hash strategy mixing a seed into the keys. Use a random seed ({@code randomSeed()}) if the keys
+ * may come from an untrusted source: a key set producing long chains for one seed is harmless for another.
+ * Maps using different seeds still have the same content, only the order of iteration differs.
+ */
+public final class SeededHashStrategy implements IHashStrategy
+{
+    private final long m_seed;
+    private final int m_intSeed;
+
+    /**
+     * Create a strategy with a given seed
+     * @param seed Seed
+     */
+    public SeededHashStrategy( final long seed )
+    {
+        m_seed = seed;
+        m_intSeed = ( int ) ( seed ^ ( seed >>> 32 ) );
+    }
+
+    /**
+     * Create a strategy with a random seed
+     * @return A new strategy
+     */
+    public static SeededHashStrategy randomSeed()
+    {
+        return new SeededHashStrategy( ThreadLocalRandom.current().nextLong() );
+    }
+
+    public long getSeed() {
+        return m_seed;
+    }
+
+    @Override
+    public int hash( final int key ) {
+        return Tools.murmur3( key ^ m_intSeed );
+    }
+
+    @Override
+    public long hash( final long key ) {
+        return Tools.murmur3( key ^ m_seed );
+    }
+}
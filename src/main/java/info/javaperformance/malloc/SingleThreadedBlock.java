@@ -36,6 +36,8 @@ public class SingleThreadedBlock {
     private int m_used = 0;
     /** Have we filled the whole block? */
     private boolean m_writeDone;
+    /** Number of bytes used by the live chains, calculated by the compaction only */
+    private int m_liveBytes = 0;
 
     public SingleThreadedBlock( final SingleThreadedBlockAllocator parent, final int index, final int size )
     {
@@ -57,6 +59,7 @@ public class SingleThreadedBlock {
         pos = 0;
         m_used = 0;
         m_writeDone = false;
+        m_liveBytes = 0;
         return this;
     }
 
@@ -92,6 +95,39 @@ public class SingleThreadedBlock {
         ++m_used;
     }
 
+    /**
+     * @return True if no more data will be appended into this block
+     */
+    public boolean isWriteDone()
+    {
+        return m_writeDone;
+    }
+
+    /**
+     * @return The number of live bytes collected by the last {@code addLiveBytes} calls
+     */
+    public int getLiveBytes()
+    {
+        return m_liveBytes;
+    }
+
+    /**
+     * Account a live chain stored in this block. Used by the compaction.
+     * @param bytes Chain length in bytes
+     */
+    public void addLiveBytes( final int bytes )
+    {
+        m_liveBytes += bytes;
+    }
+
+    /**
+     * Reset the live bytes counter before recalculating it
+     */
+    public void resetLiveBytes()
+    {
+        m_liveBytes = 0;
+    }
+
     /**
      * Mark this block as readonly. We will not append any more data into it.
      */
@@ -108,6 +144,7 @@ public class SingleThreadedBlock {
                 ", pos=" + pos +
                 ", used=" + m_used +
                 ", writeDone=" + m_writeDone +
+                ", liveBytes=" + m_liveBytes +
                 '}';
     }
 
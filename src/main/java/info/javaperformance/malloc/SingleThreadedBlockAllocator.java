@@ -22,6 +22,8 @@ package info.javaperformance.malloc;
 import info.javaperformance.buckets.Buckets;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SingleThreadedBlockAllocator {
     public static final long DEFAULT_RECYCLE_BOUND = 32 * 1024;
@@ -38,6 +40,8 @@ public class SingleThreadedBlockAllocator {
     private final long m_recycleMemoryLimit;
     /** The amount of storage in the currently available recycled blocks */
     private long m_currentlyRecycled;
+    /** Total size of the blocks currently managed by this allocator */
+    private long m_allocatedBytes;
 
     /**
      * Create an allocator with a given recycle memory limit
@@ -65,9 +69,53 @@ public class SingleThreadedBlockAllocator {
     public void removeBlock( final int blockId )
     {
         final SingleThreadedBlock old = m_blocks.remove( blockId );
-        //save the block for later reuse. It most likely resides in the old gen already, so there is
-        //not much sense to discard it any longer.
-        if ( old != null && old.data.length + m_currentlyRecycled <= m_recycleMemoryLimit ) {
+        if ( old != null ) {
+            m_allocatedBytes -= old.data.length;
+            recycle( old );
+        }
+    }
+
+    /**
+     * Remove all blocks from the allocator. They are added to the recycle queue while it has space for them.
+     * Callers must not use any previously allocated blocks after this call.
+     */
+    public void clear()
+    {
+        final List<SingleThreadedBlock> blocks = new ArrayList<>( m_blocks.size() );
+        m_blocks.removeAll( blocks );
+        for ( final SingleThreadedBlock block : blocks )
+            recycle( block );
+        m_currentBlock = null;
+        m_allocatedBytes = 0;
+    }
+
+    /**
+     * @return Total size of the blocks currently managed by this allocator, including the unused block tails
+     */
+    public long getAllocatedBytes()
+    {
+        return m_allocatedBytes;
+    }
+
+    /**
+     * Reset the live bytes counters of all blocks. Compaction calls it prior to recalculating them.
+     */
+    public void resetLiveBytes()
+    {
+        final List<SingleThreadedBlock> blocks = new ArrayList<>( m_blocks.size() );
+        m_blocks.getAll( blocks );
+        for ( final SingleThreadedBlock block : blocks )
+            block.resetLiveBytes();
+    }
+
+    /**
+     * Save a removed block for later reuse. It most likely resides in the old gen already, so there is
+     * not much sense to discard it any longer.
+     * @param old Removed block
+     */
+    private void recycle( final SingleThreadedBlock old )
+    {
+        if ( old.data.length + m_currentlyRecycled <= m_recycleMemoryLimit ) {
             m_recycle.add( old );
             m_currentlyRecycled += old.data.length;
         }
@@ -97,6 +145,7 @@ public class SingleThreadedBlockAllocator {
         if ( b == null )
             b = new SingleThreadedBlock( this, id, blockSize );
         m_blocks.put( id, b );
+        m_allocatedBytes += b.data.length;
         return b;
     }
 
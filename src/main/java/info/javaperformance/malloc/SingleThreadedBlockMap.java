@@ -19,6 +19,7 @@
 
 package info.javaperformance.malloc;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -170,6 +171,34 @@ public class SingleThreadedBlockMap {
         m_data[ index - m_blockBase ] = block;
     }
 
+    /**
+     * Remove all blocks from the map
+     * @param removed All removed blocks are added here
+     */
+    public void removeAll( final Collection<SingleThreadedBlock> removed )
+    {
+        for ( int i = 0; i < m_data.length; ++i )
+            if ( m_data[ i ] != null ) {
+                removed.add( m_data[ i ] );
+                m_data[ i ] = null;
+            }
+        m_arSize = 0;
+        removed.addAll( m_other.values() );
+        m_other.clear();
+    }
+
+    /**
+     * Get all blocks from the map without removing them
+     * @param blocks All blocks are added here
+     */
+    public void getAll( final Collection<SingleThreadedBlock> blocks )
+    {
+        for ( final SingleThreadedBlock b : m_data )
+            if ( b != null )
+                blocks.add( b );
+        blocks.addAll( m_other.values() );
+    }
+
     public int size()
     {
         return m_arSize + m_other.size();
@@ -0,0 +1,69 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.serializers;
+
+import info.javaperformance.tools.VarLen;
+
+/**
+ * {@code byte[]} serializer: a varlen array length followed by the array contents. {@code null} is supported.
+ */
+public final class ByteArraySerializer implements IObjectSerializer<byte[]>
+{
+    public static final ByteArraySerializer INSTANCE = new ByteArraySerializer();
+
+    private static final byte[] EMPTY = new byte[ 0 ];
+
+    private ByteArraySerializer(){}
+
+    @Override
+    public void write( final byte[] v, final ByteArray buf ) {
+        if ( v == null )
+            VarLen.writeSignedInt( -1, buf );
+        else
+        {
+            VarLen.writeSignedInt( v.length, buf );
+            buf.put( v, 0, v.length );
+        }
+    }
+
+    @Override
+    public byte[] read( final ByteArray buf ) {
+        final int len = VarLen.readSignedInt( buf );
+        if ( len == -1 )
+            return null;
+        else if ( len == 0 )
+            return EMPTY;
+        final byte[] res = new byte[ len ];
+        buf.get( res, 0, len );
+        return res;
+    }
+
+    @Override
+    public void skip( final ByteArray buf ) {
+        final int len = VarLen.readSignedInt( buf );
+        if ( len > 0 )
+            buf.position( buf.position() + len );
+    }
+
+    @Override
+    public int getMaxLength( final byte[] obj ) {
+        return obj == null ? 1 : 5 + obj.length;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.tools;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A set of disjoint bucket index ranges of a given bucket table.
+ * Used by the concurrent map traversal for tracking the parts of a table which were not visited before
+ * this table got rehashed.
+ */
+public class BucketRanges
+{
+    /** Length of a table these ranges belong to */
+    private final int m_tableLength;
+    /** Range starts (inclusive), sorted */
+    private final int[] m_from;
+    /** Range ends (exclusive), matching {@code m_from} */
+    private final int[] m_to;
+
+    /**
+     * Create a set of ranges.
+     * @param tableLength Table length
+     * @param ranges Disjoint ranges, each one is {@code [from, to)} pair. Order does not matter.
+     */
+    public BucketRanges( final int tableLength, final Collection<int[]> ranges )
+    {
+        m_tableLength = tableLength;
+        //pack ranges into longs in order to sort them without any comparators
+        final long[] packed = new long[ ranges.size() ];
+        int i = 0;
+        for ( final int[] range : ranges )
+            packed[ i++ ] = ( ( long ) range[ 0 ] << 32 ) | range[ 1 ];
+        Arrays.sort( packed );
+
+        m_from = new int[ packed.length ];
+        m_to = new int[ packed.length ];
+        for ( i = 0; i < packed.length; ++i )
+        {
+            m_from[ i ] = ( int ) ( packed[ i ] >>> 32 );
+            m_to[ i ] = ( int ) packed[ i ];
+        }
+    }
+
+    /**
+     * @return Length of a table these ranges belong to
+     */
+    public int getTableLength() {
+        return m_tableLength;
+    }
+
+    /**
+     * Check if a given bucket index belongs to any of the ranges
+     * @param index Bucket index
+     * @return True if it belongs to a range
+     */
+    public boolean contains( final int index )
+    {
+        int pos = Arrays.binarySearch( m_from, index );
+        if ( pos < 0 )
+            pos = -pos - 2; //last range starting before index
+        return pos >= 0 && index < m_to[ pos ];
+    }
+}
@@ -27,6 +27,7 @@ import java.util.concurrent.locks.LockSupport;
  * This class acts as a custom allocator for long[] used as (block; offset) pairs in the maps.
  * It is required for concurrent maps because there is high likelihood that several threads may attempt
  * to allocate array of the same length at once, but only one of these arrays will be used.
+ * Only an array of exactly the requested length is shared, because tables may shrink as well as grow.
  */
 public class LongAllocator {
     private final AtomicInteger m_allocating = new AtomicInteger( -1 );
@@ -36,7 +37,7 @@ public class LongAllocator {
     {
         final WeakReference<long[]> data = m_data;
         final long[] ar = data.get();
-        if ( ar != null && ar.length >= size )
+        if ( ar != null && ar.length == size )
             return ar;
 
         final int currentlyAllocated = m_allocating.get();
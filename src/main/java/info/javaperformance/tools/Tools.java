@@ -24,6 +24,10 @@ package info.javaperformance.tools;
  */
 public class Tools {
     private static final int NO_SIGN_MASK = 0x7fffffff;
+    /** 2^32 / golden ratio, used by the multiplicative hashing */
+    private static final int INT_PHI = 0x9E3779B9;
+    /** 2^64 / golden ratio, used by the multiplicative hashing */
+    private static final long LONG_PHI = 0x9E3779B97F4A7C15L;
 
     /**
      * Murmur3 algorithm.
@@ -100,6 +104,33 @@ public class Tools {
         return getIndexFast( Double.doubleToLongBits( key ), capacity );
     }
 
+    /**
+     * Get bucket index for a power of 2 table using the multiplicative (Fibonacci) hashing. The highest bits of
+     * the product are used, so that all key bits affect the result.
+     * @param key Key
+     * @param capacity Map index capacity, a power of 2 greater than 1
+     * @return Bucket index (a number between 0 and {@code capacity})
+     */
+    public static int getIndexPow2( final int key, final int capacity )
+    {
+        return ( key * INT_PHI ) >>> ( Integer.numberOfLeadingZeros( capacity ) + 1 );
+    }
+
+    public static int getIndexPow2( final long key, final int capacity )
+    {
+        return ( int ) ( ( key * LONG_PHI ) >>> ( Long.numberOfLeadingZeros( capacity ) + 1 ) );
+    }
+
+    public static int getIndexPow2( final float key, final int capacity )
+    {
+        return getIndexPow2( Float.floatToIntBits( key ), capacity );
+    }
+
+    public static int getIndexPow2( final double key, final int capacity )
+    {
+        return getIndexPow2( Double.doubleToLongBits( key ), capacity );
+    }
+
     /**
      * Get the next power of 2
      * @param x Value
@@ -95,6 +95,16 @@ public class VarLen {
         writeRawFixed64( Double.doubleToLongBits( v ), buf );
     }
 
+    /**
+     * Calculate the length of {@code writeUnsignedInt} output
+     * @param v Value
+     * @return Number of bytes {@code v} takes in the unsigned varint encoding
+     */
+    public static int unsignedIntLength( final int v )
+    {
+        return ( 38 - Integer.numberOfLeadingZeros( v | 1 ) ) / 7;
+    }
+
     ///////////////////////////////////////////////////////////////////
     //  Public reading methods
     ///////////////////////////////////////////////////////////////////
@@ -0,0 +1,209 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps;
+
+import info.javaperformance.compressedmaps.concurrent.ints.IIntIntConcurrentMap;
+import info.javaperformance.compressedmaps.normal.ints.IIntIntMap;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A simple benchmark comparing a loop of {@code get} calls with batched {@code getAll} lookups.
+ * The concurrent map is also tested with several threads reading it at the same time.
+ * It is not a unit test, run it manually: {@code GetAllBenchmark [size] [batchSize] [threads]}.
+ */
+public class GetAllBenchmark {
+    private static final int ITERATIONS = 10;
+    private static final float[] FILL_FACTORS = { 1, 4, 16 };
+
+    public static void main( final String[] args )
+    {
+        final int size = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 10 * 1000 * 1000;
+        final int batchSize = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 4096;
+        final int threads = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : Runtime.getRuntime().availableProcessors();
+
+        final Random r = new Random( 42 );
+        final int[] keys = new int[ size ];
+        for ( int i = 0; i < size; ++i )
+            keys[ i ] = r.nextInt();
+        //look the keys up in a different order, half of them are missing
+        final int[] lookups = new int[ size ];
+        for ( int i = 0; i < size; ++i )
+            lookups[ i ] = r.nextBoolean() ? keys[ r.nextInt( size ) ] : r.nextInt();
+
+        for ( final float fillFactor : FILL_FACTORS )
+        {
+            final IIntIntMap map = IntMapFactory.singleThreadedIntIntMap( size, fillFactor );
+            final IIntIntConcurrentMap concurrentMap = IntMapFactory.concurrentIntIntMap( size, fillFactor );
+            for ( final int key : keys )
+            {
+                map.put( key, key );
+                concurrentMap.put( key, key );
+            }
+            for ( int iter = 0; iter < ITERATIONS; ++iter )
+            {
+                System.out.println( "Fill factor " + fillFactor + ", iteration " + iter );
+                testSingleThreaded( map, lookups, batchSize );
+                testConcurrent( concurrentMap, lookups, batchSize );
+                testMultiThreaded( concurrentMap, lookups, batchSize, threads );
+            }
+        }
+    }
+
+    private static void testSingleThreaded( final IIntIntMap map, final int[] keys, final int batchSize )
+    {
+        long start = System.nanoTime();
+        long sum = 0;
+        for ( final int key : keys )
+            sum += map.get( key );
+        final long get = System.nanoTime() - start;
+
+        final int[] batch = new int[ batchSize ];
+        final int[] out = new int[ batchSize ];
+        start = System.nanoTime();
+        long batchSum = 0;
+        for ( int from = 0; from < keys.length; from += batchSize )
+        {
+            final int len = Math.min( batchSize, keys.length - from );
+            final int[] batchKeys = len == batchSize ? batch : new int[ len ];
+            System.arraycopy( keys, from, batchKeys, 0, len );
+            map.getAll( batchKeys, out );
+            for ( int i = 0; i < len; ++i )
+                batchSum += out[ i ];
+        }
+        final long getAll = System.nanoTime() - start;
+        report( "single threaded", keys.length, get, getAll, sum, batchSum );
+    }
+
+    private static void testConcurrent( final IIntIntConcurrentMap map, final int[] keys, final int batchSize )
+    {
+        long start = System.nanoTime();
+        final long sum = get( map, keys );
+        final long get = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final long batchSum = getAll( map, keys, batchSize );
+        final long getAll = System.nanoTime() - start;
+        report( "concurrent", keys.length, get, getAll, sum, batchSum );
+    }
+
+    /**
+     * Every thread looks up all the keys, first by {@code get} calls, then by {@code getAll} calls.
+     * Reported times are per lookup of a single thread.
+     */
+    private static void testMultiThreaded( final IIntIntConcurrentMap map, final int[] keys, final int batchSize, final int threads )
+    {
+        final long[] sums = new long[ threads ];
+        final long[] batchSums = new long[ threads ];
+        final long get = runThreads( threads, new ThreadTask() {
+            @Override
+            public void run( final int thread ) {
+                sums[ thread ] = get( map, keys );
+            }
+        } );
+        final long getAll = runThreads( threads, new ThreadTask() {
+            @Override
+            public void run( final int thread ) {
+                batchSums[ thread ] = getAll( map, keys, batchSize );
+            }
+        } );
+        long sum = 0, batchSum = 0;
+        for ( int i = 0; i < threads; ++i )
+        {
+            sum += sums[ i ];
+            batchSum += batchSums[ i ];
+        }
+        report( threads + " threads", keys.length, get, getAll, sum, batchSum );
+    }
+
+    private static long get( final IIntIntConcurrentMap map, final int[] keys )
+    {
+        long sum = 0;
+        for ( final int key : keys )
+            sum += map.get( key );
+        return sum;
+    }
+
+    private static long getAll( final IIntIntConcurrentMap map, final int[] keys, final int batchSize )
+    {
+        final int[] batch = new int[ batchSize ];
+        final int[] out = new int[ batchSize ];
+        long sum = 0;
+        for ( int from = 0; from < keys.length; from += batchSize )
+        {
+            final int len = Math.min( batchSize, keys.length - from );
+            final int[] batchKeys = len == batchSize ? batch : new int[ len ];
+            System.arraycopy( keys, from, batchKeys, 0, len );
+            map.getAll( batchKeys, out );
+            for ( int i = 0; i < len; ++i )
+                sum += out[ i ];
+        }
+        return sum;
+    }
+
+    private interface ThreadTask
+    {
+        public void run( final int thread );
+    }
+
+    /**
+     * Run a task in a given number of threads, which are started at the same time
+     * @return Time from the start till the end of the slowest thread, in nanoseconds
+     */
+    private static long runThreads( final int threads, final ThreadTask task )
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final Thread[] workers = new Thread[ threads ];
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int thread = i;
+            workers[ i ] = new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch ( InterruptedException e ) {
+                        throw new RuntimeException( e );
+                    }
+                    task.run( thread );
+                }
+            } );
+            workers[ i ].start();
+        }
+        final long startTime = System.nanoTime();
+        start.countDown();
+        try {
+            for ( final Thread worker : workers )
+                worker.join();
+        } catch ( InterruptedException e ) {
+            throw new RuntimeException( e );
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private static void report( final String name, final int size, final long get, final long getAll, final long sum, final long batchSum )
+    {
+        if ( sum != batchSum )
+            throw new IllegalStateException( name + ": getAll results differ from get: " + batchSum + " != " + sum );
+        System.out.println( String.format( "%-16s get = %6.1f ns/op, getAll = %6.1f ns/op",
+                name, ( double ) get / size, ( double ) getAll / size ) );
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps;
+
+import info.javaperformance.compressedmaps.normal.ints.IIntIntMap;
+import info.javaperformance.compressedmaps.normal.longs.ILongLongMap;
+import info.javaperformance.hashing.IndexMode;
+import info.javaperformance.malloc.SingleThreadedBlockAllocator;
+import info.javaperformance.serializers.DefaultIntSerializer;
+import info.javaperformance.serializers.DefaultLongSerializer;
+
+import java.util.Random;
+
+/**
+ * A simple benchmark comparing {@code get}/{@code put} latency of the prime and power of 2 index modes.
+ * It is not a unit test, run it manually: {@code IndexModeBenchmark [size] [fillFactor]}.
+ */
+public class IndexModeBenchmark {
+    private static final int ITERATIONS = 10;
+
+    public static void main( final String[] args )
+    {
+        final int size = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 10 * 1000 * 1000;
+        final float fillFactor = args.length > 1 ? Float.parseFloat( args[ 1 ] ) : 1;
+
+        final Random r = new Random( 42 );
+        final int[] intKeys = new int[ size ];
+        final long[] longKeys = new long[ size ];
+        for ( int i = 0; i < size; ++i )
+        {
+            intKeys[ i ] = r.nextInt();
+            longKeys[ i ] = r.nextLong();
+        }
+
+        for ( int iter = 0; iter < ITERATIONS; ++iter )
+        {
+            System.out.println( "Iteration " + iter );
+            for ( final IndexMode mode : IndexMode.values() )
+            {
+                testInt( intKeys, fillFactor, mode );
+                testLong( longKeys, fillFactor, mode );
+            }
+        }
+    }
+
+    private static void testInt( final int[] keys, final float fillFactor, final IndexMode mode )
+    {
+        final IIntIntMap map = IntMapFactory.singleThreadedIntIntMap( keys.length, fillFactor,
+                DefaultIntSerializer.INSTANCE, DefaultIntSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND, mode );
+        long start = System.nanoTime();
+        for ( final int key : keys )
+            map.put( key, key );
+        final long put = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long sum = 0;
+        for ( final int key : keys )
+            sum += map.get( key );
+        final long get = System.nanoTime() - start;
+        report( "int->int", mode, keys.length, put, get, sum );
+    }
+
+    private static void testLong( final long[] keys, final float fillFactor, final IndexMode mode )
+    {
+        final ILongLongMap map = LongMapFactory.singleThreadedLongLongMap( keys.length, fillFactor,
+                DefaultLongSerializer.INSTANCE, DefaultLongSerializer.INSTANCE, SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND, mode );
+        long start = System.nanoTime();
+        for ( final long key : keys )
+            map.put( key, key );
+        final long put = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long sum = 0;
+        for ( final long key : keys )
+            sum += map.get( key );
+        final long get = System.nanoTime() - start;
+        report( "long->long", mode, keys.length, put, get, sum );
+    }
+
+    private static void report( final String name, final IndexMode mode, final int size, final long put, final long get, final long sum )
+    {
+        System.out.println( String.format( "%-10s %-12s put = %6.1f ns/op, get = %6.1f ns/op (%d)",
+                name, mode, ( double ) put / size, ( double ) get / size, sum ) );
+    }
+}
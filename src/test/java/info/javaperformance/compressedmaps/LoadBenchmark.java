@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+package info.javaperformance.compressedmaps;
+
+import info.javaperformance.compressedmaps.normal.ints.IIntIntMap;
+
+import java.util.Random;
+
+/**
+ * A simple benchmark comparing a loop of {@code put} calls with a single {@code putAll} call,
+ * both into an empty map and into a map which already contains all the keys.
+ * The heap retained by each map is printed as well, so the table growth can be compared.
+ * It is not a unit test, run it manually: {@code LoadBenchmark [size]}.
+ */
+public class LoadBenchmark {
+    private static final int ITERATIONS = 10;
+    private static final float[] FILL_FACTORS = { 1, 4, 16 };
+
+    public static void main( final String[] args )
+    {
+        final int size = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 10 * 1000 * 1000;
+
+        final Random r = new Random( 42 );
+        final int[] keys = new int[ size ];
+        final int[] values = new int[ size ];
+        for ( int i = 0; i < size; ++i )
+        {
+            keys[ i ] = r.nextInt();
+            values[ i ] = r.nextInt( 1000 );
+        }
+
+        for ( final float fillFactor : FILL_FACTORS )
+        {
+            for ( int iter = 0; iter < ITERATIONS; ++iter )
+            {
+                System.out.println( "Fill factor " + fillFactor + ", iteration " + iter );
+                testPut( keys, values, fillFactor );
+                testPutAll( keys, values, fillFactor );
+            }
+        }
+    }
+
+    private static void testPut( final int[] keys, final int[] values, final float fillFactor )
+    {
+        final IIntIntMap map = IntMapFactory.singleThreadedIntIntMap( 1, fillFactor );
+        long start = System.nanoTime();
+        for ( int i = 0; i < keys.length; ++i )
+            map.put( keys[ i ], values[ i ] );
+        final long load = System.nanoTime() - start;
+        final long loadHeap = usedHeap();
+
+        start = System.nanoTime();
+        for ( int i = 0; i < keys.length; ++i )
+            map.put( keys[ i ], values[ i ] );
+        final long reload = System.nanoTime() - start;
+        report( "put", map, keys,  load, loadHeap, reload, usedHeap() );
+    }
+
+    private static void testPutAll( final int[] keys, final int[] values, final float fillFactor )
+    {
+        final IIntIntMap map = IntMapFactory.singleThreadedIntIntMap( 1, fillFactor );
+        long start = System.nanoTime();
+        map.putAll( keys, values, 0, keys.length );
+        final long load = System.nanoTime() - start;
+        final long loadHeap = usedHeap();
+
+        start = System.nanoTime();
+        map.putAll( keys, values, 0, keys.length );
+        final long reload = System.nanoTime() - start;
+        report( "putAll", map, keys,  load, loadHeap, reload, usedHeap() );
+    }
+
+    private static long usedHeap()
+    {
+        final Runtime rt = Runtime.getRuntime();
+        for ( int i = 0; i < 3; ++i )
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void report( final String name, final IIntIntMap map, final int[] keys,
+                                final long load, final long loadHeap, final long reload, final long reloadHeap )
+    {
+        long sum = 0;
+        for ( final int key : keys )
+            sum += map.get( key );
+        System.out.println( String.format( "%-8s load = %6.1f ns/op (%4d MB), reload = %6.1f ns/op (%4d MB), sum = %d",
+                name, ( double ) load / keys.length, loadHeap >> 20, ( double ) reload / keys.length, reloadHeap >> 20, sum ) );
+    }
+}
@@ -20,10 +20,25 @@
 package info.javaperformance.compressedmaps.concurrent.doubles;
 
 import info.javaperformance.compressedmaps.DoubleMapFactory;
+import info.javaperformance.functions.IDoubleIntFunction;
+import info.javaperformance.functions.IDoubleIntPredicate;
+import info.javaperformance.functions.IDoubleIntProcedure;
+import info.javaperformance.functions.IIntBinaryOperator;
+import info.javaperformance.hashing.IndexMode;
+import info.javaperformance.hashing.SeededHashStrategy;
+import info.javaperformance.serializers.DefaultDoubleSerializer;
+import info.javaperformance.serializers.DefaultIntSerializer;
 import junit.framework.TestCase;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DoubleIntConcurrentChainedMapTest extends TestCase
 {
@@ -288,4 +303,782 @@ public class DoubleIntConcurrentChainedMapTest extends TestCase
             m_endGate.countDown();
         }
     }
+
+    /*
+    Walk the map while another thread keeps adding new entries (and rehashing the map).
+    Entries added prior to the walk must be seen exactly once, no entry could be seen twice.
+     */
+    public void testForEach() throws InterruptedException {
+        for ( float ff : FF )
+            testForEachHelper( ff );
+    }
+
+    private void testForEachHelper( final float ff ) throws InterruptedException {
+        System.out.println( "Running testForEachHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( double n = 0; n < PRESENT; ++n )
+            map.put( n, ( int ) n );
+
+        final CountDownLatch end = new CountDownLatch( 1 );
+        new Thread( new Adder( PRESENT, PRESENT * 5, new CountDownLatch( 1 ), end, map ) ).start();
+
+        final Set<Double> seen = new HashSet<>( PRESENT * 5 );
+        map.forEach( new IDoubleIntProcedure() {
+            @Override
+            public void process( final double key, final int value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writer make some progress in the meantime
+                assertEquals( ( int ) key, value );
+            }
+        } );
+        end.await( 100, TimeUnit.SECONDS );
+
+        for ( double n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+    }
+
+    /*
+    Walk the map while one thread removes a part of the entries and another one keeps adding new entries
+    (and rehashing the map). Entries which are never removed must be seen exactly once.
+     */
+    public void testForEachWithRemovals() throws InterruptedException {
+        for ( float ff : FF )
+            testForEachWithRemovalsHelper( ff );
+    }
+
+    private void testForEachWithRemovalsHelper( final float ff ) throws InterruptedException {
+        System.out.println( "Running testForEachWithRemovalsHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 20;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( double n = 0; n < PRESENT * 2; ++n )
+            map.put( n, ( int ) n );
+
+        final CountDownLatch start = new CountDownLatch( 2 );
+        final CountDownLatch end = new CountDownLatch( 2 );
+        new Thread( new Remover( PRESENT, PRESENT * 2, start, end, map ) ).start();
+        new Thread( new Adder( PRESENT * 2, PRESENT * 8, start, end, map ) ).start();
+
+        final Set<Double> seen = new HashSet<>( PRESENT * 8 );
+        map.forEach( new IDoubleIntProcedure() {
+            @Override
+            public void process( final double key, final int value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writers make some progress in the meantime
+                assertEquals( ( int ) key, value );
+            }
+        } );
+        assertTrue( end.await( 100, TimeUnit.SECONDS ) );
+
+        for ( double n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+        assertEquals( PRESENT * 7, map.size() );
+    }
+
+    /*
+    Parallel version of testForEach: the map is walked by several pool threads while another thread keeps adding
+    new entries (and rehashing the map).
+     */
+    public void testParallelForEach() throws InterruptedException {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( float ff : FF )
+                testParallelForEachHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testParallelForEachHelper( final float ff, final ForkJoinPool pool ) throws InterruptedException {
+        System.out.println( "Running testParallelForEachHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( double n = 0; n < PRESENT; ++n )
+            map.put( n, ( int ) n );
+
+        final CountDownLatch end = new CountDownLatch( 1 );
+        new Thread( new Adder( PRESENT, PRESENT * 5, new CountDownLatch( 1 ), end, map ) ).start();
+
+        final Set<Double> seen = Collections.newSetFromMap( new ConcurrentHashMap<Double, Boolean>( PRESENT * 5 ) );
+        map.parallelForEach( new IDoubleIntProcedure() {
+            @Override
+            public void process( final double key, final int value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writer make some progress in the meantime
+                assertEquals( ( int ) key, value );
+            }
+        }, pool );
+        assertTrue( end.await( 100, TimeUnit.SECONDS ) );
+
+        for ( double n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+    }
+
+    /*
+    Keys mapped to NOT_PRESENT must be distinguishable from absent keys
+     */
+    public void testContainsKeyAndDefault() {
+        for ( float ff : FF )
+            testContainsKeyAndDefaultHelper( ff );
+    }
+
+    private void testContainsKeyAndDefaultHelper( final float ff ) {
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; i += 2 )
+            map.put( i, i % 4 == 0 ? NOT_PRESENT : ( int ) ( i ) );
+
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+            {
+                assertTrue( map.containsKey( i ) );
+                assertEquals( i % 4 == 0 ? NOT_PRESENT : ( int ) ( i ), map.get( i, ( int ) ( -1 ) ) );
+            }
+            else
+            {
+                assertFalse( map.containsKey( i ) );
+                assertEquals( ( int ) ( -1 ), map.get( i, ( int ) ( -1 ) ) );
+            }
+        }
+
+        for ( int i = 0; i < size; i += 4 )
+            map.remove( i );
+        for ( int i = 0; i < size; i += 2 )
+            assertEquals( i % 4 != 0, map.containsKey( i ) );
+    }
+
+    /*
+    Several threads update the same counters via addTo, merge and compute. No updates may be lost.
+     */
+    public void testUpdateOperations() throws InterruptedException {
+        for ( float ff : FF )
+            testUpdateOperationsHelper( 4, ff );
+    }
+
+    private void testUpdateOperationsHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testUpdateOperationsHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        final IIntBinaryOperator sum = new IIntBinaryOperator() {
+            @Override
+            public int apply( final int oldValue, final int value ) {
+                return oldValue + value;
+            }
+        };
+        final IDoubleIntFunction increment = new IDoubleIntFunction() {
+            @Override
+            public int apply( final double key, final int value ) {
+                return value + 1;
+            }
+        };
+
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int t = 0; t < threads; ++t )
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    for ( int i = 0; i < size; ++i )
+                    {
+                        map.addTo( i, ( int ) ( 1 ) );
+                        map.merge( i, ( int ) ( 1 ), sum );
+                        map.compute( i, increment );
+                    }
+                    end.countDown();
+                }
+            } ).start();
+        assertTrue( end.await( 100, TimeUnit.SECONDS ) );
+
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( int ) ( threads * 3 ), map.get( i ) );
+        for ( int i = 0; i < size * 2; ++i )
+            assertEquals( i < size ? ( int ) ( threads * 3 ) : NOT_PRESENT, map.putIfAbsent( i, ( int ) ( 1 ) ) );
+        assertEquals( size * 2, map.size() );
+    }
+
+    /*
+    Batch lookup must return the same values as get, including repeated and absent keys
+     */
+    public void testGetAll() {
+        for ( float ff : FF )
+            testGetAllHelper( ff );
+    }
+
+    private void testGetAllHelper( final float ff ) {
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; i += 2 )
+            map.put( i, ( int ) ( i ) );
+
+        final double[] keys = new double[ size + size / 10 ];
+        for ( int i = 0; i < size; ++i )
+            keys[ i ] = ( double ) ( size - 1 - i );
+        for ( int i = size; i < keys.length; ++i )
+            keys[ i ] = ( double ) ( ( i - size ) * 10 );
+        final int[] out = new int[ keys.length ];
+
+        map.getAll( keys, out );
+        for ( int i = 0; i < keys.length; ++i )
+            assertEquals( map.get( keys[ i ] ), out[ i ] );
+        assertEquals( ( int ) ( 0 ), out[ size ] );
+    }
+
+    /*
+    Clear while other threads are adding entries. The map must stay consistent.
+     */
+    public void testClear() throws InterruptedException {
+        for ( float ff : FF )
+            testClearHelper( 4, ff );
+    }
+
+    private void testClearHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testClearHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( j, ( int ) ( j ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        while ( !end.await( 1, TimeUnit.MILLISECONDS ) )
+            map.clear();
+
+        final long[] cnt = new long[ 1 ];
+        map.forEach( new IDoubleIntProcedure() {
+            @Override
+            public void process( final double key, final int value ) {
+                assertEquals( ( int ) ( ( int ) key ), value );
+                ++cnt[ 0 ];
+            }
+        });
+        assertEquals( cnt[ 0 ], map.size() );
+
+        map.clear();
+        assertEquals( 0, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertFalse( map.containsKey( i ) );
+        map.put( 1, ( int ) ( 1 ) );
+        assertEquals( ( int ) ( 1 ), map.get( 1 ) );
+        assertEquals( 1, map.size() );
+    }
+
+    /*
+    Every thread removes its own subset of even keys, all threads run concurrently
+     */
+    public void testRemoveIf() throws InterruptedException {
+        for ( float ff : FF )
+            testRemoveIfHelper( 4, ff );
+    }
+
+    private void testRemoveIfHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testRemoveIfHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; ++i )
+            map.put( i, ( int ) ( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    map.removeIf( new IDoubleIntPredicate() {
+                        @Override
+                        public boolean test( final double key, final int value ) {
+                            return ( int ) key % 2 == 0 && ( int ) key / 2 % threads == threadId;
+                        }
+                    } );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertFalse( map.containsKey( i ) );
+            else
+                assertEquals( ( int ) ( i ), map.get( i ) );
+        }
+        assertEquals( size / 2, map.retainIf( new IDoubleIntPredicate() {
+            @Override
+            public boolean test( final double key, final int value ) {
+                return false;
+            }
+        } ) );
+        assertEquals( 0, map.size() );
+    }
+
+    /*
+    Check sequential and parallel value aggregations
+     */
+    public void testAggregations()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FF )
+                testAggregationsHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testAggregationsHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        System.out.println( "Running testAggregationsHelper( ff = " + fillFactor + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        assertEquals( Integer.MAX_VALUE, getMap( INITIAL_CAPACITY, fillFactor ).minValue() );
+        assertEquals( Integer.MIN_VALUE, getMap( INITIAL_CAPACITY, fillFactor ).maxValue() );
+
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, fillFactor );
+        final int[] bounds = { ( int ) ( 100 ), ( int ) ( 500 ) };
+        final long[] expectedCounts = new long[ 3 ];
+        long expectedSum = 0;
+        for ( int i = 0; i < size; ++i )
+        {
+            final int v = i % 1000 - 10;
+            map.put( ( double ) ( i ), ( int ) ( v ) );
+            expectedSum += v;
+            ++expectedCounts[ v < 100 ? 0 : v < 500 ? 1 : 2 ];
+        }
+        final IDoubleIntPredicate oddKeys = new IDoubleIntPredicate() {
+            @Override
+            public boolean test( final double key, final int value ) {
+                return ( long ) key % 2 == 1;
+            }
+        };
+
+        assertEquals( expectedSum, map.sumValues() );
+        assertEquals( expectedSum, map.sumValues( pool ) );
+        assertEquals( ( int ) ( -10 ), map.minValue() );
+        assertEquals( ( int ) ( -10 ), map.minValue( pool ) );
+        assertEquals( ( int ) ( 989 ), map.maxValue() );
+        assertEquals( ( int ) ( 989 ), map.maxValue( pool ) );
+        assertEquals( size / 2, map.countIf( oddKeys ) );
+        assertEquals( size / 2, map.countIf( oddKeys, pool ) );
+
+        final long[] counts = new long[ 3 ];
+        map.histogram( bounds, counts );
+        assertTrue( Arrays.equals( expectedCounts, counts ) );
+        final long[] parallelCounts = new long[ 3 ];
+        map.histogram( bounds, parallelCounts, pool );
+        assertTrue( Arrays.equals( expectedCounts, parallelCounts ) );
+        try {
+            map.histogram( bounds, new long[ 2 ] );
+            fail( "Histogram with a wrong number of counters must fail" );
+        } catch ( IllegalArgumentException ex ) {
+        }
+    }
+
+    /*
+    Check sequential and parallel top-K queries
+     */
+    public void testTopK()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FF )
+                testTopKHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testTopKHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        System.out.println( "Running testTopKHelper( ff = " + fillFactor + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, fillFactor );
+        //values are a permutation of [0, size)
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), ( int ) ( ( long ) i * 7919 % size ) );
+
+        final int k = 100;
+        final double[] keys = new double[ k ];
+        final int[] values = new int[ k ];
+        assertEquals( k, map.topK( k, keys, values ) );
+        checkTopK( map, keys, values, size );
+        final double[] parallelKeys = new double[ k ];
+        final int[] parallelValues = new int[ k ];
+        assertEquals( k, map.topK( k, parallelKeys, parallelValues, pool ) );
+        checkTopK( map, parallelKeys, parallelValues, size );
+        assertEquals( 0, map.topK( 0, keys, values ) );
+
+        final IDoubleIntConcurrentMap small = getMap( INITIAL_CAPACITY, fillFactor );
+        small.put( ( double ) ( 1 ), ( int ) ( 5 ) );
+        small.put( ( double ) ( 2 ), ( int ) ( 7 ) );
+        assertEquals( 2, small.topK( k, keys, values ) );
+        assertEquals( ( int ) ( 7 ), values[ 0 ] );
+        assertEquals( ( int ) ( 5 ), values[ 1 ] );
+        try {
+            map.topK( k, new double[ k - 1 ], values );
+            fail( "Output arrays shorter than k must be rejected" );
+        } catch ( IllegalArgumentException ex ) {
+        }
+    }
+
+    private static void checkTopK( final IDoubleIntConcurrentMap map, final double[] keys, final int[] values, final int size )
+    {
+        for ( int i = 0; i < keys.length; ++i )
+        {
+            assertEquals( ( int ) ( size - 1 - i ), values[ i ] );
+            assertEquals( values[ i ], map.get( keys[ i ] ) );
+        }
+    }
+
+    /*
+    Check that the automatic table shrinking does not lose entries while other threads are removing them
+     */
+    public void testShrink() throws InterruptedException {
+        for ( float ff : FF )
+            testShrinkHelper( 4, ff );
+    }
+
+    private void testShrinkHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testShrinkHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), ( int ) ( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 100 != 0 )
+                            map.remove( ( double ) ( j ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        checkShrunk( map, size );
+        map.trimToSize();
+        checkShrunk( map, size );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), ( int ) ( i ) );
+        assertEquals( size, map.size() );
+    }
+
+    private void checkShrunk( final IDoubleIntConcurrentMap map, final int size )
+    {
+        assertEquals( size / 100, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 100 == 0 )
+                assertEquals( ( int ) ( i ), map.get( ( double ) ( i ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+        }
+    }
+
+    /*
+    Check a map with power of 2 tables under concurrent updates. Keys have zero low bits,
+    which must not affect the bucket distribution.
+     */
+    public void testPowerOfTwo() throws InterruptedException {
+        for ( float ff : FF )
+            testPowerOfTwoHelper( 4, ff );
+    }
+
+    private void testPowerOfTwoHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testPowerOfTwoHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = DoubleMapFactory.concurrentDoubleIntMap( INITIAL_CAPACITY, ff, DefaultDoubleSerializer.INSTANCE, DefaultIntSerializer.INSTANCE,
+                                        IndexMode.POWER_OF_TWO );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( ( double ) ( j * 64 ), ( int ) ( j ) );
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 2 == 1 )
+                            map.remove( ( double ) ( j * 64 ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( ( int ) ( i ), map.get( ( double ) ( i * 64 ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i * 64 ) ) );
+        }
+    }
+
+    /*
+    Check a map with a seeded hash strategy under concurrent updates.
+     */
+    public void testSeededHashStrategy() throws InterruptedException {
+        for ( float ff : FF )
+            testSeededHashStrategyHelper( 4, ff );
+    }
+
+    private void testSeededHashStrategyHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testSeededHashStrategyHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleIntConcurrentMap map = DoubleMapFactory.concurrentDoubleIntMap( INITIAL_CAPACITY, ff, DefaultDoubleSerializer.INSTANCE, DefaultIntSerializer.INSTANCE,
+                                        IndexMode.PRIME, new SeededHashStrategy( 42 ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( ( double ) ( j * 1024 ), ( int ) ( j ) );
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 2 == 1 )
+                            map.remove( ( double ) ( j * 1024 ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( ( int ) ( i ), map.get( ( double ) ( i * 1024 ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i * 1024 ) ) );
+        }
+    }
+
+    /*
+    Non-blocking lookups of the existing keys must always succeed while other threads are growing the map.
+     */
+    public void testNonBlockingReads() throws InterruptedException {
+        for ( float ff : FF )
+            testNonBlockingReadsHelper( 2, 2, ff );
+    }
+
+    private void testNonBlockingReadsHelper( final int writers, final int readers, final float ff ) throws InterruptedException {
+        System.out.println( "Running testNonBlockingReadsHelper( writers = " + writers + ", readers = " + readers + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 4;
+        final int initial = 1000;
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        map.setNonBlockingReads( true );
+        for ( int i = 0; i < initial; ++i )
+            map.put( ( double ) ( i ), ( int ) ( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch writersDone = new CountDownLatch( writers );
+        final CountDownLatch end = new CountDownLatch( writers + readers );
+        final AtomicInteger errors = new AtomicInteger( 0 );
+        for ( int i = 0; i < writers; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = initial + threadId; j < size; j += writers )
+                        map.put( ( double ) ( j ), ( int ) ( j ) );
+                    writersDone.countDown();
+                    end.countDown();
+                }
+            }).start();
+        }
+        for ( int i = 0; i < readers; ++i )
+        {
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    while ( writersDone.getCount() > 0 )
+                        for ( int j = 0; j < initial; ++j )
+                            if ( ( int ) ( j ) != map.get( ( double ) ( j ) ) )
+                                errors.incrementAndGet();
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( 0, errors.get() );
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( int ) ( i ), map.get( ( double ) ( i ) ) );
+    }
+
+    public void testUpdatesDuringRehash() throws InterruptedException {
+        for ( float ff : FF )
+            testUpdatesDuringRehashHelper( 4, ff );
+    }
+
+    private void testUpdatesDuringRehashHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testUpdatesDuringRehashHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 4;
+        final int lag = 64 * threads; //each thread updates or removes its own keys added a bit earlier
+        final IDoubleIntConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        final AtomicInteger errors = new AtomicInteger( 0 );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size + lag; j += threads )
+                    {
+                        if ( j < size )
+                            map.put( ( double ) ( j ), ( int ) ( j ) );
+                        final int prev = j - lag;
+                        if ( prev < 0 || prev >= size )
+                            continue;
+                        if ( prev % 3 == 0 )
+                        {
+                            if ( ( int ) ( prev ) != map.remove( ( double ) ( prev ) ) )
+                                errors.incrementAndGet();
+                        }
+                        else if ( prev % 3 == 1 )
+                        {
+                            if ( ( int ) ( prev ) != map.put( ( double ) ( prev ), ( int ) ( prev + 1 ) ) )
+                                errors.incrementAndGet();
+                        }
+                    }
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( 0, errors.get() );
+        assertEquals( size - ( size + 2 ) / 3, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 3 == 0 )
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+            else
+                assertEquals( ( int ) ( i % 3 == 1 ? i + 1 : i ), map.get( ( double ) ( i ) ) );
+        }
+    }
+
+    /**
+     * Update callbacks may read the map. Such reads must not break the chain being updated.
+     */
+    public void testComputeReadingMap()
+    {
+        final int size = 64;
+        final IDoubleIntConcurrentMap map = getMap( 100, 16 );
+        for ( int i = 0; i < size; ++i )
+        {
+            map.put( ( double ) ( i ), ( int ) ( i ) );
+            map.put( ( double ) ( size + i ), ( int ) ( 1 ) );
+        }
+        for ( int i = 0; i < size; ++i )
+        {
+            final int idx = i;
+            map.compute( ( double ) ( i ), new IDoubleIntFunction() {
+                @Override
+                public int apply( final double key, final int value ) {
+                    return ( int ) ( value + map.get( ( double ) ( size + idx ) ) );
+                }
+            } );
+        }
+        for ( int i = 0; i < size; ++i )
+        {
+            final int idx = i;
+            map.compute( ( double ) ( 2 * size + i ), new IDoubleIntFunction() {
+                @Override
+                public int apply( final double key, final int value ) {
+                    return ( int ) ( map.get( ( double ) ( idx ) ) * 2 );
+                }
+            } );
+        }
+
+        assertEquals( 3 * size, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            assertEquals( ( int ) ( i + 1 ), map.get( ( double ) ( i ) ) );
+            assertEquals( ( int ) ( 1 ), map.get( ( double ) ( size + i ) ) );
+            assertEquals( ( int ) ( ( i + 1 ) * 2 ), map.get( ( double ) ( 2 * size + i ) ) );
+        }
+    }
 }
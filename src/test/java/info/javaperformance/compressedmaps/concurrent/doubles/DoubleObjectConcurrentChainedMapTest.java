@@ -20,12 +20,23 @@
 package info.javaperformance.compressedmaps.concurrent.doubles;
 
 import info.javaperformance.compressedmaps.DoubleMapFactory;
+import info.javaperformance.functions.IDoubleObjectPredicate;
+import info.javaperformance.functions.IDoubleObjectProcedure;
+import info.javaperformance.hashing.IndexMode;
+import info.javaperformance.hashing.SeededHashStrategy;
+import info.javaperformance.serializers.DefaultDoubleSerializer;
 import info.javaperformance.serializers.GenericStringSerializer;
 import junit.framework.TestCase;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DoubleObjectConcurrentChainedMapTest extends TestCase
 {
@@ -290,4 +301,574 @@ public class DoubleObjectConcurrentChainedMapTest extends TestCase
             m_endGate.countDown();
         }
     }
+
+    /*
+    Walk the map while another thread keeps adding new entries (and rehashing the map).
+    Entries added prior to the walk must be seen exactly once, no entry could be seen twice.
+     */
+    public void testForEach() throws InterruptedException {
+        for ( float ff : FF )
+            testForEachHelper( ff );
+    }
+
+    private void testForEachHelper( final float ff ) throws InterruptedException {
+        System.out.println( "Running testForEachHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        for ( double n = 0; n < PRESENT; ++n )
+            map.put( n, String.valueOf( n ) );
+
+        final CountDownLatch end = new CountDownLatch( 1 );
+        new Thread( new Adder( PRESENT, PRESENT * 5, new CountDownLatch( 1 ), end, map ) ).start();
+
+        final Set<Double> seen = new HashSet<>( PRESENT * 5 );
+        map.forEach( new IDoubleObjectProcedure<String>() {
+            @Override
+            public void process( final double key, final String value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writer make some progress in the meantime
+                assertEquals( String.valueOf( key ), value );
+            }
+        } );
+        end.await( 100, TimeUnit.SECONDS );
+
+        for ( double n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+    }
+
+    /*
+    Walk the map while one thread removes a part of the entries and another one keeps adding new entries
+    (and rehashing the map). Entries which are never removed must be seen exactly once.
+     */
+    public void testForEachWithRemovals() throws InterruptedException {
+        for ( float ff : FF )
+            testForEachWithRemovalsHelper( ff );
+    }
+
+    private void testForEachWithRemovalsHelper( final float ff ) throws InterruptedException {
+        System.out.println( "Running testForEachWithRemovalsHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 20;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        for ( double n = 0; n < PRESENT * 2; ++n )
+            map.put( n, String.valueOf( n ) );
+
+        final CountDownLatch start = new CountDownLatch( 2 );
+        final CountDownLatch end = new CountDownLatch( 2 );
+        new Thread( new Remover( PRESENT, PRESENT * 2, start, end, map ) ).start();
+        new Thread( new Adder( PRESENT * 2, PRESENT * 8, start, end, map ) ).start();
+
+        final Set<Double> seen = new HashSet<>( PRESENT * 8 );
+        map.forEach( new IDoubleObjectProcedure<String>() {
+            @Override
+            public void process( final double key, final String value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writers make some progress in the meantime
+                assertEquals( String.valueOf( key ), value );
+            }
+        } );
+        assertTrue( end.await( 100, TimeUnit.SECONDS ) );
+
+        for ( double n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+        assertEquals( PRESENT * 7, map.size() );
+    }
+
+    /*
+    Parallel version of testForEach: the map is walked by several pool threads while another thread keeps adding
+    new entries (and rehashing the map).
+     */
+    public void testParallelForEach() throws InterruptedException {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( float ff : FF )
+                testParallelForEachHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testParallelForEachHelper( final float ff, final ForkJoinPool pool ) throws InterruptedException {
+        System.out.println( "Running testParallelForEachHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        for ( double n = 0; n < PRESENT; ++n )
+            map.put( n, String.valueOf( n ) );
+
+        final CountDownLatch end = new CountDownLatch( 1 );
+        new Thread( new Adder( PRESENT, PRESENT * 5, new CountDownLatch( 1 ), end, map ) ).start();
+
+        final Set<Double> seen = Collections.newSetFromMap( new ConcurrentHashMap<Double, Boolean>( PRESENT * 5 ) );
+        map.parallelForEach( new IDoubleObjectProcedure<String>() {
+            @Override
+            public void process( final double key, final String value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writer make some progress in the meantime
+                assertEquals( String.valueOf( key ), value );
+            }
+        }, pool );
+        assertTrue( end.await( 100, TimeUnit.SECONDS ) );
+
+        for ( double n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+    }
+
+    /*
+    Keys mapped to NOT_PRESENT must be distinguishable from absent keys
+     */
+    public void testContainsKeyAndDefault() {
+        for ( float ff : FF )
+            testContainsKeyAndDefaultHelper( ff );
+    }
+
+    private void testContainsKeyAndDefaultHelper( final float ff ) {
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; i += 2 )
+            map.put( i, i % 4 == 0 ? NOT_PRESENT : String.valueOf( i ) );
+
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+            {
+                assertTrue( map.containsKey( i ) );
+                assertEquals( i % 4 == 0 ? NOT_PRESENT : String.valueOf( i ), map.get( i, String.valueOf( -1 ) ) );
+            }
+            else
+            {
+                assertFalse( map.containsKey( i ) );
+                assertEquals( String.valueOf( -1 ), map.get( i, String.valueOf( -1 ) ) );
+            }
+        }
+
+        for ( int i = 0; i < size; i += 4 )
+            map.remove( i );
+        for ( int i = 0; i < size; i += 2 )
+            assertEquals( i % 4 != 0, map.containsKey( i ) );
+    }
+
+    /*
+    Batch lookup must return the same values as get, including repeated and absent keys
+     */
+    public void testGetAll() {
+        for ( float ff : FF )
+            testGetAllHelper( ff );
+    }
+
+    private void testGetAllHelper( final float ff ) {
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; i += 2 )
+            map.put( i, String.valueOf( i ) );
+
+        final double[] keys = new double[ size + size / 10 ];
+        for ( int i = 0; i < size; ++i )
+            keys[ i ] = ( double ) ( size - 1 - i );
+        for ( int i = size; i < keys.length; ++i )
+            keys[ i ] = ( double ) ( ( i - size ) * 10 );
+        final String[] out = new String[ keys.length ];
+
+        map.getAll( keys, out );
+        for ( int i = 0; i < keys.length; ++i )
+            assertEquals( map.get( keys[ i ] ), out[ i ] );
+        assertEquals( String.valueOf( 0 ), out[ size ] );
+    }
+
+    /*
+    Clear while other threads are adding entries. The map must stay consistent.
+     */
+    public void testClear() throws InterruptedException {
+        for ( float ff : FF )
+            testClearHelper( 4, ff );
+    }
+
+    private void testClearHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testClearHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( j, String.valueOf( j ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        while ( !end.await( 1, TimeUnit.MILLISECONDS ) )
+            map.clear();
+
+        final long[] cnt = new long[ 1 ];
+        map.forEach( new IDoubleObjectProcedure<String>() {
+            @Override
+            public void process( final double key, final String value ) {
+                assertEquals( String.valueOf( ( int ) key ), value );
+                ++cnt[ 0 ];
+            }
+        });
+        assertEquals( cnt[ 0 ], map.size() );
+
+        map.clear();
+        assertEquals( 0, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertFalse( map.containsKey( i ) );
+        map.put( 1, String.valueOf( 1 ) );
+        assertEquals( String.valueOf( 1 ), map.get( 1 ) );
+        assertEquals( 1, map.size() );
+    }
+
+    /*
+    Every thread removes its own subset of even keys, all threads run concurrently
+     */
+    public void testRemoveIf() throws InterruptedException {
+        for ( float ff : FF )
+            testRemoveIfHelper( 4, ff );
+    }
+
+    private void testRemoveIfHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testRemoveIfHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; ++i )
+            map.put( i, String.valueOf( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    map.removeIf( new IDoubleObjectPredicate<String>() {
+                        @Override
+                        public boolean test( final double key, final String value ) {
+                            return ( int ) key % 2 == 0 && ( int ) key / 2 % threads == threadId;
+                        }
+                    } );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertFalse( map.containsKey( i ) );
+            else
+                assertEquals( String.valueOf( i ), map.get( i ) );
+        }
+        assertEquals( size / 2, map.retainIf( new IDoubleObjectPredicate<String>() {
+            @Override
+            public boolean test( final double key, final String value ) {
+                return false;
+            }
+        } ) );
+        assertEquals( 0, map.size() );
+    }
+
+    /*
+    Check that the automatic table shrinking does not lose entries while other threads are removing them
+     */
+    public void testShrink() throws InterruptedException {
+        for ( float ff : FF )
+            testShrinkHelper( 4, ff );
+    }
+
+    private void testShrinkHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testShrinkHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), String.valueOf( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 100 != 0 )
+                            map.remove( ( double ) ( j ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        checkShrunk( map, size );
+        map.trimToSize();
+        checkShrunk( map, size );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), String.valueOf( i ) );
+        assertEquals( size, map.size() );
+    }
+
+    private void checkShrunk( final IDoubleObjectConcurrentMap<String> map, final int size )
+    {
+        assertEquals( size / 100, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 100 == 0 )
+                assertEquals( String.valueOf( i ), map.get( ( double ) ( i ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+        }
+    }
+
+    /*
+    Check a map with power of 2 tables under concurrent updates. Keys have zero low bits,
+    which must not affect the bucket distribution.
+     */
+    public void testPowerOfTwo() throws InterruptedException {
+        for ( float ff : FF )
+            testPowerOfTwoHelper( 4, ff );
+    }
+
+    private void testPowerOfTwoHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testPowerOfTwoHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = DoubleMapFactory.concurrentDoubleObjectMap( INITIAL_CAPACITY, ff, DefaultDoubleSerializer.INSTANCE, new GenericStringSerializer( StandardCharsets.UTF_8 ),
+                                        IndexMode.POWER_OF_TWO );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( ( double ) ( j * 64 ), String.valueOf( j ) );
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 2 == 1 )
+                            map.remove( ( double ) ( j * 64 ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( String.valueOf( i ), map.get( ( double ) ( i * 64 ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i * 64 ) ) );
+        }
+    }
+
+    /*
+    Check a map with a seeded hash strategy under concurrent updates.
+     */
+    public void testSeededHashStrategy() throws InterruptedException {
+        for ( float ff : FF )
+            testSeededHashStrategyHelper( 4, ff );
+    }
+
+    private void testSeededHashStrategyHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testSeededHashStrategyHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IDoubleObjectConcurrentMap<String> map = DoubleMapFactory.<String>concurrentDoubleObjectMap( INITIAL_CAPACITY, ff, DefaultDoubleSerializer.INSTANCE, new GenericStringSerializer( StandardCharsets.UTF_8 ),
+                                        IndexMode.PRIME, new SeededHashStrategy( 42 ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( ( double ) ( j * 1024 ), String.valueOf( j ) );
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 2 == 1 )
+                            map.remove( ( double ) ( j * 1024 ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( String.valueOf( i ), map.get( ( double ) ( i * 1024 ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i * 1024 ) ) );
+        }
+    }
+
+    /*
+    Non-blocking lookups of the existing keys must always succeed while other threads are growing the map.
+     */
+    public void testNonBlockingReads() throws InterruptedException {
+        for ( float ff : FF )
+            testNonBlockingReadsHelper( 2, 2, ff );
+    }
+
+    private void testNonBlockingReadsHelper( final int writers, final int readers, final float ff ) throws InterruptedException {
+        System.out.println( "Running testNonBlockingReadsHelper( writers = " + writers + ", readers = " + readers + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 4;
+        final int initial = 1000;
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+        map.setNonBlockingReads( true );
+        for ( int i = 0; i < initial; ++i )
+            map.put( ( double ) ( i ), String.valueOf( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch writersDone = new CountDownLatch( writers );
+        final CountDownLatch end = new CountDownLatch( writers + readers );
+        final AtomicInteger errors = new AtomicInteger( 0 );
+        for ( int i = 0; i < writers; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = initial + threadId; j < size; j += writers )
+                        map.put( ( double ) ( j ), String.valueOf( j ) );
+                    writersDone.countDown();
+                    end.countDown();
+                }
+            }).start();
+        }
+        for ( int i = 0; i < readers; ++i )
+        {
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    while ( writersDone.getCount() > 0 )
+                        for ( int j = 0; j < initial; ++j )
+                            if ( !String.valueOf( j ).equals( map.get( ( double ) ( j ) ) ) )
+                                errors.incrementAndGet();
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( 0, errors.get() );
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( String.valueOf( i ), map.get( ( double ) ( i ) ) );
+    }
+
+    public void testUpdatesDuringRehash() throws InterruptedException {
+        for ( float ff : FF )
+            testUpdatesDuringRehashHelper( 4, ff );
+    }
+
+    private void testUpdatesDuringRehashHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testUpdatesDuringRehashHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 4;
+        final int lag = 64 * threads; //each thread updates or removes its own keys added a bit earlier
+        final IDoubleObjectConcurrentMap<String> map = getMap( INITIAL_CAPACITY, ff );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        final AtomicInteger errors = new AtomicInteger( 0 );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size + lag; j += threads )
+                    {
+                        if ( j < size )
+                            map.put( ( double ) ( j ), String.valueOf( j ) );
+                        final int prev = j - lag;
+                        if ( prev < 0 || prev >= size )
+                            continue;
+                        if ( prev % 3 == 0 )
+                        {
+                            if ( !String.valueOf( prev ).equals( map.remove( ( double ) ( prev ) ) ) )
+                                errors.incrementAndGet();
+                        }
+                        else if ( prev % 3 == 1 )
+                        {
+                            if ( !String.valueOf( prev ).equals( map.put( ( double ) ( prev ), String.valueOf( prev + 1 ) ) ) )
+                                errors.incrementAndGet();
+                        }
+                    }
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( 0, errors.get() );
+        assertEquals( size - ( size + 2 ) / 3, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 3 == 0 )
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+            else
+                assertEquals( String.valueOf( i % 3 == 1 ? i + 1 : i ), map.get( ( double ) ( i ) ) );
+        }
+    }
 }
@@ -20,10 +20,25 @@
 package info.javaperformance.compressedmaps.concurrent.floats;
 
 import info.javaperformance.compressedmaps.FloatMapFactory;
+import info.javaperformance.functions.IDoubleBinaryOperator;
+import info.javaperformance.functions.IFloatDoubleFunction;
+import info.javaperformance.functions.IFloatDoublePredicate;
+import info.javaperformance.functions.IFloatDoubleProcedure;
+import info.javaperformance.hashing.IndexMode;
+import info.javaperformance.hashing.SeededHashStrategy;
+import info.javaperformance.serializers.DefaultDoubleSerializer;
+import info.javaperformance.serializers.DefaultFloatSerializer;
 import junit.framework.TestCase;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FloatDoubleConcurrentChainedMapTest extends TestCase
 {
@@ -288,4 +303,782 @@ public class FloatDoubleConcurrentChainedMapTest extends TestCase
             m_endGate.countDown();
         }
     }
+
+    /*
+    Walk the map while another thread keeps adding new entries (and rehashing the map).
+    Entries added prior to the walk must be seen exactly once, no entry could be seen twice.
+     */
+    public void testForEach() throws InterruptedException {
+        for ( float ff : FF )
+            testForEachHelper( ff );
+    }
+
+    private void testForEachHelper( final float ff ) throws InterruptedException {
+        System.out.println( "Running testForEachHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( float n = 0; n < PRESENT; ++n )
+            map.put( n, ( double ) n );
+
+        final CountDownLatch end = new CountDownLatch( 1 );
+        new Thread( new Adder( PRESENT, PRESENT * 5, new CountDownLatch( 1 ), end, map ) ).start();
+
+        final Set<Float> seen = new HashSet<>( PRESENT * 5 );
+        map.forEach( new IFloatDoubleProcedure() {
+            @Override
+            public void process( final float key, final double value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writer make some progress in the meantime
+                assertEquals( ( double ) key, value );
+            }
+        } );
+        end.await( 100, TimeUnit.SECONDS );
+
+        for ( float n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+    }
+
+    /*
+    Walk the map while one thread removes a part of the entries and another one keeps adding new entries
+    (and rehashing the map). Entries which are never removed must be seen exactly once.
+     */
+    public void testForEachWithRemovals() throws InterruptedException {
+        for ( float ff : FF )
+            testForEachWithRemovalsHelper( ff );
+    }
+
+    private void testForEachWithRemovalsHelper( final float ff ) throws InterruptedException {
+        System.out.println( "Running testForEachWithRemovalsHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 20;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( float n = 0; n < PRESENT * 2; ++n )
+            map.put( n, ( double ) n );
+
+        final CountDownLatch start = new CountDownLatch( 2 );
+        final CountDownLatch end = new CountDownLatch( 2 );
+        new Thread( new Remover( PRESENT, PRESENT * 2, start, end, map ) ).start();
+        new Thread( new Adder( PRESENT * 2, PRESENT * 8, start, end, map ) ).start();
+
+        final Set<Float> seen = new HashSet<>( PRESENT * 8 );
+        map.forEach( new IFloatDoubleProcedure() {
+            @Override
+            public void process( final float key, final double value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writers make some progress in the meantime
+                assertEquals( ( double ) key, value );
+            }
+        } );
+        assertTrue( end.await( 100, TimeUnit.SECONDS ) );
+
+        for ( float n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+        assertEquals( PRESENT * 7, map.size() );
+    }
+
+    /*
+    Parallel version of testForEach: the map is walked by several pool threads while another thread keeps adding
+    new entries (and rehashing the map).
+     */
+    public void testParallelForEach() throws InterruptedException {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( float ff : FF )
+                testParallelForEachHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testParallelForEachHelper( final float ff, final ForkJoinPool pool ) throws InterruptedException {
+        System.out.println( "Running testParallelForEachHelper( ff = " + ff + " )" );
+        final int PRESENT = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( float n = 0; n < PRESENT; ++n )
+            map.put( n, ( double ) n );
+
+        final CountDownLatch end = new CountDownLatch( 1 );
+        new Thread( new Adder( PRESENT, PRESENT * 5, new CountDownLatch( 1 ), end, map ) ).start();
+
+        final Set<Float> seen = Collections.newSetFromMap( new ConcurrentHashMap<Float, Boolean>( PRESENT * 5 ) );
+        map.parallelForEach( new IFloatDoubleProcedure() {
+            @Override
+            public void process( final float key, final double value ) {
+                assertTrue( seen.add( key ) );
+                if ( seen.size() % 1000 == 0 )
+                    Thread.yield(); //let the writer make some progress in the meantime
+                assertEquals( ( double ) key, value );
+            }
+        }, pool );
+        assertTrue( end.await( 100, TimeUnit.SECONDS ) );
+
+        for ( float n = 0; n < PRESENT; ++n )
+            assertTrue( seen.contains( n ) );
+    }
+
+    /*
+    Keys mapped to NOT_PRESENT must be distinguishable from absent keys
+     */
+    public void testContainsKeyAndDefault() {
+        for ( float ff : FF )
+            testContainsKeyAndDefaultHelper( ff );
+    }
+
+    private void testContainsKeyAndDefaultHelper( final float ff ) {
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; i += 2 )
+            map.put( i, i % 4 == 0 ? NOT_PRESENT : ( double ) ( i ) );
+
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+            {
+                assertTrue( map.containsKey( i ) );
+                assertEquals( i % 4 == 0 ? NOT_PRESENT : ( double ) ( i ), map.get( i, ( double ) ( -1 ) ) );
+            }
+            else
+            {
+                assertFalse( map.containsKey( i ) );
+                assertEquals( ( double ) ( -1 ), map.get( i, ( double ) ( -1 ) ) );
+            }
+        }
+
+        for ( int i = 0; i < size; i += 4 )
+            map.remove( i );
+        for ( int i = 0; i < size; i += 2 )
+            assertEquals( i % 4 != 0, map.containsKey( i ) );
+    }
+
+    /*
+    Several threads update the same counters via addTo, merge and compute. No updates may be lost.
+     */
+    public void testUpdateOperations() throws InterruptedException {
+        for ( float ff : FF )
+            testUpdateOperationsHelper( 4, ff );
+    }
+
+    private void testUpdateOperationsHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testUpdateOperationsHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        final IDoubleBinaryOperator sum = new IDoubleBinaryOperator() {
+            @Override
+            public double apply( final double oldValue, final double value ) {
+                return oldValue + value;
+            }
+        };
+        final IFloatDoubleFunction increment = new IFloatDoubleFunction() {
+            @Override
+            public double apply( final float key, final double value ) {
+                return value + 1;
+            }
+        };
+
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int t = 0; t < threads; ++t )
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    for ( int i = 0; i < size; ++i )
+                    {
+                        map.addTo( i, ( double ) ( 1 ) );
+                        map.merge( i, ( double ) ( 1 ), sum );
+                        map.compute( i, increment );
+                    }
+                    end.countDown();
+                }
+            } ).start();
+        assertTrue( end.await( 100, TimeUnit.SECONDS ) );
+
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( double ) ( threads * 3 ), map.get( i ) );
+        for ( int i = 0; i < size * 2; ++i )
+            assertEquals( i < size ? ( double ) ( threads * 3 ) : NOT_PRESENT, map.putIfAbsent( i, ( double ) ( 1 ) ) );
+        assertEquals( size * 2, map.size() );
+    }
+
+    /*
+    Batch lookup must return the same values as get, including repeated and absent keys
+     */
+    public void testGetAll() {
+        for ( float ff : FF )
+            testGetAllHelper( ff );
+    }
+
+    private void testGetAllHelper( final float ff ) {
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; i += 2 )
+            map.put( i, ( double ) ( i ) );
+
+        final float[] keys = new float[ size + size / 10 ];
+        for ( int i = 0; i < size; ++i )
+            keys[ i ] = ( float ) ( size - 1 - i );
+        for ( int i = size; i < keys.length; ++i )
+            keys[ i ] = ( float ) ( ( i - size ) * 10 );
+        final double[] out = new double[ keys.length ];
+
+        map.getAll( keys, out );
+        for ( int i = 0; i < keys.length; ++i )
+            assertEquals( map.get( keys[ i ] ), out[ i ] );
+        assertEquals( ( double ) ( 0 ), out[ size ] );
+    }
+
+    /*
+    Clear while other threads are adding entries. The map must stay consistent.
+     */
+    public void testClear() throws InterruptedException {
+        for ( float ff : FF )
+            testClearHelper( 4, ff );
+    }
+
+    private void testClearHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testClearHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( j, ( double ) ( j ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        while ( !end.await( 1, TimeUnit.MILLISECONDS ) )
+            map.clear();
+
+        final long[] cnt = new long[ 1 ];
+        map.forEach( new IFloatDoubleProcedure() {
+            @Override
+            public void process( final float key, final double value ) {
+                assertEquals( ( double ) ( ( int ) key ), value );
+                ++cnt[ 0 ];
+            }
+        });
+        assertEquals( cnt[ 0 ], map.size() );
+
+        map.clear();
+        assertEquals( 0, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertFalse( map.containsKey( i ) );
+        map.put( 1, ( double ) ( 1 ) );
+        assertEquals( ( double ) ( 1 ), map.get( 1 ) );
+        assertEquals( 1, map.size() );
+    }
+
+    /*
+    Every thread removes its own subset of even keys, all threads run concurrently
+     */
+    public void testRemoveIf() throws InterruptedException {
+        for ( float ff : FF )
+            testRemoveIfHelper( 4, ff );
+    }
+
+    private void testRemoveIfHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testRemoveIfHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; ++i )
+            map.put( i, ( double ) ( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    map.removeIf( new IFloatDoublePredicate() {
+                        @Override
+                        public boolean test( final float key, final double value ) {
+                            return ( int ) key % 2 == 0 && ( int ) key / 2 % threads == threadId;
+                        }
+                    } );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertFalse( map.containsKey( i ) );
+            else
+                assertEquals( ( double ) ( i ), map.get( i ) );
+        }
+        assertEquals( size / 2, map.retainIf( new IFloatDoublePredicate() {
+            @Override
+            public boolean test( final float key, final double value ) {
+                return false;
+            }
+        } ) );
+        assertEquals( 0, map.size() );
+    }
+
+    /*
+    Check sequential and parallel value aggregations
+     */
+    public void testAggregations()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FF )
+                testAggregationsHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testAggregationsHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        System.out.println( "Running testAggregationsHelper( ff = " + fillFactor + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        assertEquals( Double.POSITIVE_INFINITY, getMap( INITIAL_CAPACITY, fillFactor ).minValue(), 0 );
+        assertEquals( Double.NEGATIVE_INFINITY, getMap( INITIAL_CAPACITY, fillFactor ).maxValue(), 0 );
+
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, fillFactor );
+        final double[] bounds = { ( double ) ( 100 ), ( double ) ( 500 ) };
+        final long[] expectedCounts = new long[ 3 ];
+        double expectedSum = 0;
+        for ( int i = 0; i < size; ++i )
+        {
+            final int v = i % 1000 - 10;
+            map.put( ( float ) ( i ), ( double ) ( v ) );
+            expectedSum += v;
+            ++expectedCounts[ v < 100 ? 0 : v < 500 ? 1 : 2 ];
+        }
+        final IFloatDoublePredicate oddKeys = new IFloatDoublePredicate() {
+            @Override
+            public boolean test( final float key, final double value ) {
+                return ( long ) key % 2 == 1;
+            }
+        };
+
+        assertEquals( expectedSum, map.sumValues(), 0 );
+        assertEquals( expectedSum, map.sumValues( pool ), 0 );
+        assertEquals( ( double ) ( -10 ), map.minValue(), 0 );
+        assertEquals( ( double ) ( -10 ), map.minValue( pool ), 0 );
+        assertEquals( ( double ) ( 989 ), map.maxValue(), 0 );
+        assertEquals( ( double ) ( 989 ), map.maxValue( pool ), 0 );
+        assertEquals( size / 2, map.countIf( oddKeys ) );
+        assertEquals( size / 2, map.countIf( oddKeys, pool ) );
+
+        final long[] counts = new long[ 3 ];
+        map.histogram( bounds, counts );
+        assertTrue( Arrays.equals( expectedCounts, counts ) );
+        final long[] parallelCounts = new long[ 3 ];
+        map.histogram( bounds, parallelCounts, pool );
+        assertTrue( Arrays.equals( expectedCounts, parallelCounts ) );
+        try {
+            map.histogram( bounds, new long[ 2 ] );
+            fail( "Histogram with a wrong number of counters must fail" );
+        } catch ( IllegalArgumentException ex ) {
+        }
+    }
+
+    /*
+    Check sequential and parallel top-K queries
+     */
+    public void testTopK()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FF )
+                testTopKHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testTopKHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        System.out.println( "Running testTopKHelper( ff = " + fillFactor + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, fillFactor );
+        //values are a permutation of [0, size)
+        for ( int i = 0; i < size; ++i )
+            map.put( ( float ) ( i ), ( double ) ( ( long ) i * 7919 % size ) );
+
+        final int k = 100;
+        final float[] keys = new float[ k ];
+        final double[] values = new double[ k ];
+        assertEquals( k, map.topK( k, keys, values ) );
+        checkTopK( map, keys, values, size );
+        final float[] parallelKeys = new float[ k ];
+        final double[] parallelValues = new double[ k ];
+        assertEquals( k, map.topK( k, parallelKeys, parallelValues, pool ) );
+        checkTopK( map, parallelKeys, parallelValues, size );
+        assertEquals( 0, map.topK( 0, keys, values ) );
+
+        final IFloatDoubleConcurrentMap small = getMap( INITIAL_CAPACITY, fillFactor );
+        small.put( ( float ) ( 1 ), ( double ) ( 5 ) );
+        small.put( ( float ) ( 2 ), ( double ) ( 7 ) );
+        assertEquals( 2, small.topK( k, keys, values ) );
+        assertEquals( ( double ) ( 7 ), values[ 0 ], 0 );
+        assertEquals( ( double ) ( 5 ), values[ 1 ], 0 );
+        try {
+            map.topK( k, new float[ k - 1 ], values );
+            fail( "Output arrays shorter than k must be rejected" );
+        } catch ( IllegalArgumentException ex ) {
+        }
+    }
+
+    private static void checkTopK( final IFloatDoubleConcurrentMap map, final float[] keys, final double[] values, final int size )
+    {
+        for ( int i = 0; i < keys.length; ++i )
+        {
+            assertEquals( ( double ) ( size - 1 - i ), values[ i ], 0 );
+            assertEquals( values[ i ], map.get( keys[ i ] ), 0 );
+        }
+    }
+
+    /*
+    Check that the automatic table shrinking does not lose entries while other threads are removing them
+     */
+    public void testShrink() throws InterruptedException {
+        for ( float ff : FF )
+            testShrinkHelper( 4, ff );
+    }
+
+    private void testShrinkHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testShrinkHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( float ) ( i ), ( double ) ( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 100 != 0 )
+                            map.remove( ( float ) ( j ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        checkShrunk( map, size );
+        map.trimToSize();
+        checkShrunk( map, size );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( float ) ( i ), ( double ) ( i ) );
+        assertEquals( size, map.size() );
+    }
+
+    private void checkShrunk( final IFloatDoubleConcurrentMap map, final int size )
+    {
+        assertEquals( size / 100, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 100 == 0 )
+                assertEquals( ( double ) ( i ), map.get( ( float ) ( i ) ) );
+            else
+                assertFalse( map.containsKey( ( float ) ( i ) ) );
+        }
+    }
+
+    /*
+    Check a map with power of 2 tables under concurrent updates. Keys have zero low bits,
+    which must not affect the bucket distribution.
+     */
+    public void testPowerOfTwo() throws InterruptedException {
+        for ( float ff : FF )
+            testPowerOfTwoHelper( 4, ff );
+    }
+
+    private void testPowerOfTwoHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testPowerOfTwoHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = FloatMapFactory.concurrentFloatDoubleMap( INITIAL_CAPACITY, ff, DefaultFloatSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE,
+                                        IndexMode.POWER_OF_TWO );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( ( float ) ( j * 64 ), ( double ) ( j ) );
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 2 == 1 )
+                            map.remove( ( float ) ( j * 64 ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( ( double ) ( i ), map.get( ( float ) ( i * 64 ) ) );
+            else
+                assertFalse( map.containsKey( ( float ) ( i * 64 ) ) );
+        }
+    }
+
+    /*
+    Check a map with a seeded hash strategy under concurrent updates.
+     */
+    public void testSeededHashStrategy() throws InterruptedException {
+        for ( float ff : FF )
+            testSeededHashStrategyHelper( 4, ff );
+    }
+
+    private void testSeededHashStrategyHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testSeededHashStrategyHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 10;
+        final IFloatDoubleConcurrentMap map = FloatMapFactory.concurrentFloatDoubleMap( INITIAL_CAPACITY, ff, DefaultFloatSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE,
+                                        IndexMode.PRIME, new SeededHashStrategy( 42 ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size; j += threads )
+                        map.put( ( float ) ( j * 1024 ), ( double ) ( j ) );
+                    for ( int j = threadId; j < size; j += threads )
+                        if ( j % 2 == 1 )
+                            map.remove( ( float ) ( j * 1024 ) );
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( size / 2, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( ( double ) ( i ), map.get( ( float ) ( i * 1024 ) ) );
+            else
+                assertFalse( map.containsKey( ( float ) ( i * 1024 ) ) );
+        }
+    }
+
+    /*
+    Non-blocking lookups of the existing keys must always succeed while other threads are growing the map.
+     */
+    public void testNonBlockingReads() throws InterruptedException {
+        for ( float ff : FF )
+            testNonBlockingReadsHelper( 2, 2, ff );
+    }
+
+    private void testNonBlockingReadsHelper( final int writers, final int readers, final float ff ) throws InterruptedException {
+        System.out.println( "Running testNonBlockingReadsHelper( writers = " + writers + ", readers = " + readers + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 4;
+        final int initial = 1000;
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+        map.setNonBlockingReads( true );
+        for ( int i = 0; i < initial; ++i )
+            map.put( ( float ) ( i ), ( double ) ( i ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch writersDone = new CountDownLatch( writers );
+        final CountDownLatch end = new CountDownLatch( writers + readers );
+        final AtomicInteger errors = new AtomicInteger( 0 );
+        for ( int i = 0; i < writers; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = initial + threadId; j < size; j += writers )
+                        map.put( ( float ) ( j ), ( double ) ( j ) );
+                    writersDone.countDown();
+                    end.countDown();
+                }
+            }).start();
+        }
+        for ( int i = 0; i < readers; ++i )
+        {
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    while ( writersDone.getCount() > 0 )
+                        for ( int j = 0; j < initial; ++j )
+                            if ( ( double ) ( j ) != map.get( ( float ) ( j ) ) )
+                                errors.incrementAndGet();
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( 0, errors.get() );
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( double ) ( i ), map.get( ( float ) ( i ) ) );
+    }
+
+    public void testUpdatesDuringRehash() throws InterruptedException {
+        for ( float ff : FF )
+            testUpdatesDuringRehashHelper( 4, ff );
+    }
+
+    private void testUpdatesDuringRehashHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testUpdatesDuringRehashHelper( threads = " + threads + ", ff = " + ff + " )" );
+        final int size = PUT_MAP_SIZE / 4;
+        final int lag = 64 * threads; //each thread updates or removes its own keys added a bit earlier
+        final IFloatDoubleConcurrentMap map = getMap( INITIAL_CAPACITY, ff );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch end = new CountDownLatch( threads );
+        final AtomicInteger errors = new AtomicInteger( 0 );
+        for ( int i = 0; i < threads; ++i )
+        {
+            final int threadId = i;
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    for ( int j = threadId; j < size + lag; j += threads )
+                    {
+                        if ( j < size )
+                            map.put( ( float ) ( j ), ( double ) ( j ) );
+                        final int prev = j - lag;
+                        if ( prev < 0 || prev >= size )
+                            continue;
+                        if ( prev % 3 == 0 )
+                        {
+                            if ( ( double ) ( prev ) != map.remove( ( float ) ( prev ) ) )
+                                errors.incrementAndGet();
+                        }
+                        else if ( prev % 3 == 1 )
+                        {
+                            if ( ( double ) ( prev ) != map.put( ( float ) ( prev ), ( double ) ( prev + 1 ) ) )
+                                errors.incrementAndGet();
+                        }
+                    }
+                    end.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        end.await();
+
+        assertEquals( 0, errors.get() );
+        assertEquals( size - ( size + 2 ) / 3, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 3 == 0 )
+                assertFalse( map.containsKey( ( float ) ( i ) ) );
+            else
+                assertEquals( ( double ) ( i % 3 == 1 ? i + 1 : i ), map.get( ( float ) ( i ) ) );
+        }
+    }
+
+    /**
+     * Update callbacks may read the map. Such reads must not break the chain being updated.
+     */
+    public void testComputeReadingMap()
+    {
+        final int size = 64;
+        final IFloatDoubleConcurrentMap map = getMap( 100, 16 );
+        for ( int i = 0; i < size; ++i )
+        {
+            map.put( ( float ) ( i ), ( double ) ( i ) );
+            map.put( ( float ) ( size + i ), ( double ) ( 1 ) );
+        }
+        for ( int i = 0; i < size; ++i )
+        {
+            final int idx = i;
+            map.compute( ( float ) ( i ), new IFloatDoubleFunction() {
+                @Override
+                public double apply( final float key, final double value ) {
+                    return ( double ) ( value + map.get( ( float ) ( size + idx ) ) );
+                }
+            } );
+        }
+        for ( int i = 0; i < size; ++i )
+        {
+            final int idx = i;
+            map.compute( ( float ) ( 2 * size + i ), new IFloatDoubleFunction() {
+                @Override
+                public double apply( final float key, final double value ) {
+                    return ( double ) ( map.get( ( float ) ( idx ) ) * 2 );
+                }
+            } );
+        }
+
+        assertEquals( 3 * size, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            assertEquals( ( double ) ( i + 1 ), map.get( ( float ) ( i ) ) );
+            assertEquals( ( double ) ( 1 ), map.get( ( float ) ( size + i ) ) );
+            assertEquals( ( double ) ( ( i + 1 ) * 2 ), map.get( ( float ) ( 2 * size + i ) ) );
+        }
+    }
 }
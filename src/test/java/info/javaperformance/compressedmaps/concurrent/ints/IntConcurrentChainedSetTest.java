@@ -0,0 +1,172 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.concurrent.ints;
+
+import info.javaperformance.compressedmaps.IntMapFactory;
+import info.javaperformance.functions.IIntProcedure;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class IntConcurrentChainedSetTest extends TestCase
+{
+    private static final int PUT_MAP_SIZE = 1000 * 1000;
+    private static final int INITIAL_CAPACITY = 1;
+
+    private static final float[] FF = { 0.5f, 1, 5, 16 };
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+    protected IIntConcurrentSet getSet( final int size, final float ff )
+    {
+        return IntMapFactory.concurrentIntSet( size, ff );
+    }
+
+    /*
+    Multithreaded insertion of disjoint ranges followed by the multithreaded removal of every second key
+     */
+    public void testAddRemove() throws InterruptedException {
+        for ( int threads : THREADS )
+            for ( float ff : FF )
+                testAddRemoveHelper( threads, ff );
+    }
+
+    private void testAddRemoveHelper( final int threads, final float ff ) throws InterruptedException {
+        System.out.println( "Running testAddRemoveHelper( threads = " + threads +  ", ff = " + ff + " )" );
+        final IIntConcurrentSet set = getSet( INITIAL_CAPACITY, ff );
+        final int SECTION = PUT_MAP_SIZE / threads;
+        //insertion section
+        {
+            final CountDownLatch start = new CountDownLatch( threads );
+            final CountDownLatch end = new CountDownLatch( threads );
+            for ( int i = 0; i < threads; ++i ) {
+                final Thread t = new Thread( new Adder( i * SECTION, ( i + 1 ) * SECTION, start, end, set ) );
+                t.start();
+            }
+            //wait for the completion
+            end.await( 100, TimeUnit.SECONDS ); //more than enough, needed if one of threads dies
+
+            //now check the final state
+            assertEquals( SECTION * threads, set.size() );
+            for ( int n = 0; n < SECTION * threads; ++n )
+                assertTrue( set.contains( n ) );
+            assertFalse( set.contains( -1 ) );
+        }
+        //removal section
+        {
+            final CountDownLatch start = new CountDownLatch( threads );
+            final CountDownLatch end = new CountDownLatch( threads );
+            for ( int i = 0; i < threads; ++i ) {
+                final Thread t = new Thread( new Remover( i * SECTION, ( i + 1 ) * SECTION, start, end, set ) );
+                t.start();
+            }
+            //wait for the completion
+            end.await( 100, TimeUnit.SECONDS ); //more than enough, needed if one of threads dies
+
+            //now check the final state
+            assertEquals( SECTION * threads / 2, set.size() );
+            for ( int n = 0; n < SECTION * threads; ++n )
+                assertEquals( n % 2 == 1, set.contains( n ) );
+        }
+
+        final Set<Integer> visited = Collections.newSetFromMap( new ConcurrentHashMap<Integer, Boolean>() );
+        set.forEach( new IIntProcedure() {
+            @Override
+            public void process( final int key ) {
+                assertTrue( key % 2 == 1 );
+                assertTrue( visited.add( key ) );
+            }
+        });
+        assertEquals( SECTION * threads / 2, visited.size() );
+
+        set.clear();
+        assertEquals( 0, set.size() );
+        assertFalse( set.contains( 1 ) );
+    }
+
+    private static class Adder implements Runnable
+    {
+        private final int m_from;
+        private final int m_to;
+        private final CountDownLatch m_startGate;
+        private final CountDownLatch m_endGate;
+        private final IIntConcurrentSet m_set;
+
+        public Adder( int from, int to, CountDownLatch startGate, CountDownLatch endGate, IIntConcurrentSet set ) {
+            m_from = from;
+            m_to = to;
+            m_startGate = startGate;
+            m_endGate = endGate;
+            m_set = set;
+        }
+
+        @Override
+        public void run() {
+            try {
+                m_startGate.countDown();
+                m_startGate.await();
+                for ( int n = m_from; n < m_to; ++n ) {
+                    assertTrue( m_set.add( n ) );
+                    assertFalse( m_set.add( n ) );
+                    assertTrue( m_set.contains( n ) );
+                }
+            } catch ( Throwable e ) {
+                e.printStackTrace();
+            }
+            m_endGate.countDown();
+        }
+    }
+
+    private static class Remover implements Runnable
+    {
+        private final int m_from;
+        private final int m_to;
+        private final CountDownLatch m_startGate;
+        private final CountDownLatch m_endGate;
+        private final IIntConcurrentSet m_set;
+
+        public Remover( int from, int to, CountDownLatch startGate, CountDownLatch endGate, IIntConcurrentSet set ) {
+            m_from = from;
+            m_to = to;
+            m_startGate = startGate;
+            m_endGate = endGate;
+            m_set = set;
+        }
+
+        @Override
+        public void run() {
+            try {
+                m_startGate.countDown();
+                m_startGate.await();
+                for ( int n = m_from; n < m_to; n += 2 ) {
+                    assertTrue( m_set.remove( n ) );
+                    assertFalse( m_set.remove( n ) );
+                    assertFalse( m_set.contains( n ) );
+                }
+            } catch ( Throwable e ) {
+                e.printStackTrace();
+            }
+            m_endGate.countDown();
+        }
+    }
+}
@@ -20,10 +20,26 @@
 package info.javaperformance.compressedmaps.normal.doubles;
 
 import info.javaperformance.compressedmaps.DoubleMapFactory;
+import info.javaperformance.functions.IDoubleBinaryOperator;
+import info.javaperformance.functions.IDoubleDoubleFunction;
+import info.javaperformance.functions.IDoubleDoublePredicate;
+import info.javaperformance.functions.IDoubleDoubleProcedure;
+import info.javaperformance.hashing.FastHashStrategy;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
+import info.javaperformance.hashing.Murmur3HashStrategy;
+import info.javaperformance.hashing.SeededHashStrategy;
+import info.javaperformance.malloc.SingleThreadedBlockAllocator;
+import info.javaperformance.serializers.DefaultDoubleSerializer;
 import junit.framework.TestCase;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class DoubleDoubleChainedMapTest extends TestCase
@@ -235,4 +251,904 @@ public class DoubleDoubleChainedMapTest extends TestCase
             assertEquals( values[ i ], m.get( keys[ i ] ) );
     }
 
+    /**
+     * Visit all entries, each of them must be seen exactly once
+     */
+    public void testForEach()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testForEachHelper( ff );
+    }
+
+    private void testForEachHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( i, i );
+
+        final Set<Double> seen = new HashSet<>( SIZE );
+        map.forEach( new IDoubleDoubleProcedure() {
+            @Override
+            public void process( final double key, final double value ) {
+                assertTrue( seen.add( key ) );
+                assertEquals( ( double ) key, value );
+            }
+        } );
+        assertEquals( SIZE, seen.size() );
+    }
+
+    public void testParallelForEach()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FILL_FACTORS )
+                testParallelForEachHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testParallelForEachHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        final int size = SIZE * 10; //large enough to be split between several tasks
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < size; ++i )
+            map.put( i, i );
+
+        final Set<Double> seen = Collections.newSetFromMap( new ConcurrentHashMap<Double, Boolean>( size ) );
+        map.parallelForEach( new IDoubleDoubleProcedure() {
+            @Override
+            public void process( final double key, final double value ) {
+                assertTrue( seen.add( key ) );
+                assertEquals( ( double ) key, value );
+            }
+        }, pool );
+        assertEquals( size, seen.size() );
+    }
+
+    /**
+     * Keys mapped to NOT_PRESENT must be distinguishable from absent keys
+     */
+    public void testContainsKeyAndDefault()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testContainsKeyAndDefaultHelper( ff );
+    }
+
+    private void testContainsKeyAndDefaultHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; i += 2 )
+            map.put( i, i % 4 == 0 ? NOT_PRESENT : ( double ) ( i ) );
+
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 2 == 0 )
+            {
+                assertTrue( map.containsKey( i ) );
+                assertEquals( i % 4 == 0 ? NOT_PRESENT : ( double ) ( i ), map.get( i, ( double ) ( -1 ) ) );
+            }
+            else
+            {
+                assertFalse( map.containsKey( i ) );
+                assertEquals( ( double ) ( -1 ), map.get( i, ( double ) ( -1 ) ) );
+            }
+        }
+
+        for ( int i = 0; i < SIZE; i += 4 )
+            map.remove( i );
+        for ( int i = 0; i < SIZE; i += 2 )
+            assertEquals( i % 4 != 0, map.containsKey( i ) );
+    }
+
+    /**
+     * Counters updated via addTo, putIfAbsent, merge and compute
+     */
+    public void testUpdateOperations()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testUpdateOperationsHelper( ff );
+    }
+
+    private void testUpdateOperationsHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( ( double ) ( 1 ), map.addTo( i, ( double ) ( 1 ) ) );
+        for ( int i = 0; i < SIZE; i += 2 )
+            assertEquals( ( double ) ( 3 ), map.addTo( i, ( double ) ( 2 ) ) );
+        assertEquals( SIZE, map.size() );
+
+        for ( int i = 0; i < SIZE * 2; ++i )
+            assertEquals( i >= SIZE ? NOT_PRESENT : ( double ) ( i % 2 == 0 ? 3 : 1 ), map.putIfAbsent( i, ( double ) ( 5 ) ) );
+        assertEquals( SIZE * 2, map.size() );
+
+        final IDoubleBinaryOperator max = new IDoubleBinaryOperator() {
+            @Override
+            public double apply( final double oldValue, final double value ) {
+                return Math.max( oldValue, value );
+            }
+        };
+        for ( int i = 0; i < SIZE * 3; ++i )
+            assertEquals( i < SIZE ? ( double ) ( i % 2 == 0 ? 3 : 2 ) : ( double ) ( i < SIZE * 2 ? 5 : 2 ), map.merge( i, ( double ) ( 2 ), max ) );
+        assertEquals( SIZE * 3, map.size() );
+
+        final IDoubleDoubleFunction plusKey = new IDoubleDoubleFunction() {
+            @Override
+            public double apply( final double key, final double value ) {
+                return ( double ) ( value + key );
+            }
+        };
+        for ( int i = 0; i < SIZE * 4; ++i )
+            assertEquals( ( double ) ( i + ( i < SIZE ? ( i % 2 == 0 ? 3 : 2 ) : i < SIZE * 2 ? 5 : i < SIZE * 3 ? 2 : 0 ) ), map.compute( i, plusKey ) );
+        assertEquals( SIZE * 4, map.size() );
+        for ( int i = 0; i < SIZE * 4; ++i )
+            assertEquals( ( double ) ( i + ( i < SIZE ? ( i % 2 == 0 ? 3 : 2 ) : i < SIZE * 2 ? 5 : i < SIZE * 3 ? 2 : 0 ) ), map.get( i ) );
+    }
+
+    /**
+     * Batch update: existing keys are updated, repeated keys keep the last value, pairs outside of the range are ignored
+     */
+    public void testPutAll()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testPutAllHelper( ff );
+    }
+
+    private void testPutAllHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; i += 3 )
+            map.put( i, ( double ) ( -i ) );
+
+        final int evens = SIZE / 2, repeats = SIZE / 10;
+        final double[] keys = new double[ evens + repeats + 2 ];
+        final double[] values = new double[ keys.length ];
+        keys[ 0 ] = ( double ) ( -1 );
+        values[ 0 ] = ( double ) ( -1 );
+        for ( int i = 0; i < evens; ++i )
+        {
+            keys[ i + 1 ] = ( double ) ( 2 * i );
+            values[ i + 1 ] = i % 5 == 0 ? ( double ) ( -2 ) : ( double ) ( 2 * i + 1 );
+        }
+        for ( int i = 0; i < repeats; ++i )
+        {
+            keys[ evens + 1 + i ] = ( double ) ( 10 * i );
+            values[ evens + 1 + i ] = ( double ) ( 10 * i + 1 );
+        }
+        keys[ keys.length - 1 ] = ( double ) ( -1 );
+        values[ keys.length - 1 ] = ( double ) ( -1 );
+
+        map.putAll( keys, values, 1, keys.length - 1 );
+        map.putAll( keys, values, 1, 1 );
+
+        long size = 0;
+        for ( int i = -1; i < SIZE; ++i )
+        {
+            if ( i >= 0 && i % 2 == 0 )
+            {
+                assertEquals( ( double ) ( i + 1 ), map.get( i ) );
+                ++size;
+            }
+            else if ( i >= 0 && i % 3 == 0 )
+            {
+                assertEquals( ( double ) ( -i ), map.get( i ) );
+                ++size;
+            }
+            else
+                assertFalse( map.containsKey( i ) );
+        }
+        assertEquals( size, map.size() );
+    }
+
+    /**
+     * Batch lookup must return the same values as {@code get}, including repeated and absent keys
+     */
+    public void testGetAll()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testGetAllHelper( ff );
+    }
+
+    private void testGetAllHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; i += 2 )
+            map.put( i, ( double ) ( i ) );
+
+        final double[] keys = new double[ SIZE + SIZE / 10 ];
+        for ( int i = 0; i < SIZE; ++i )
+            keys[ i ] = ( double ) ( SIZE - 1 - i );
+        for ( int i = SIZE; i < keys.length; ++i )
+            keys[ i ] = ( double ) ( ( i - SIZE ) * 10 );
+        final double[] out = new double[ keys.length + 1 ];
+        out[ keys.length ] = ( double ) ( -1 );
+
+        map.getAll( keys, out );
+        for ( int i = 0; i < keys.length; ++i )
+            assertEquals( map.get( keys[ i ] ), out[ i ] );
+        assertEquals( ( double ) ( -1 ), out[ keys.length ] );
+        assertEquals( ( double ) ( 0 ), out[ SIZE ] );
+    }
+
+    /**
+     * A map built from arrays must keep the last value of every repeated key
+     */
+    public void testBuildFromArrays()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testBuildFromArraysHelper( ff );
+    }
+
+    private void testBuildFromArraysHelper( final float fillFactor )
+    {
+        final double[] keys = new double[ SIZE ];
+        final double[] values = new double[ SIZE ];
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            keys[ i ] = ( double ) ( i % ( SIZE / 2 ) * 3 );
+            values[ i ] = ( double ) ( i );
+        }
+        final IDoubleDoubleMap map = DoubleMapFactory.singleThreadedDoubleDoubleMap( keys, values, fillFactor );
+        assertEquals( SIZE / 2, map.size() );
+        for ( int i = 0; i < SIZE / 2; ++i )
+        {
+            assertEquals( ( double ) ( i + SIZE / 2 ), map.get( i * 3 ) );
+            assertFalse( map.containsKey( i * 3 + 1 ) );
+        }
+
+        assertEquals( 0, DoubleMapFactory.singleThreadedDoubleDoubleMap( new double[ 0 ], new double[ 0 ], fillFactor ).size() );
+    }
+
+    /**
+     * A cleared map must be empty and fully usable
+     */
+    public void testClear()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testClearHelper( ff );
+    }
+
+    private void testClearHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int round = 0; round < 3; ++round )
+        {
+            for ( int i = 0; i < SIZE; ++i )
+                map.put( i, ( double ) ( i + round ) );
+            assertEquals( SIZE, map.size() );
+            for ( int i = 0; i < SIZE; ++i )
+                assertEquals( ( double ) ( i + round ), map.get( i ) );
+
+            map.clear();
+            assertEquals( 0, map.size() );
+            for ( int i = 0; i < SIZE; ++i )
+                assertFalse( map.containsKey( i ) );
+        }
+    }
+
+    /**
+     * Remove and update entries via a cursor, including an early cursor close
+     */
+    public void testCursor()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testCursorHelper( ff );
+    }
+
+    private void testCursorHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( i, ( double ) ( i ) );
+
+        int visited = 0;
+        final IDoubleDoubleCursor cursor = map.cursor();
+        while ( cursor.advance() )
+        {
+            final int key = ( int ) cursor.key();
+            assertEquals( ( double ) ( key ), cursor.value() );
+            if ( key % 3 == 0 )
+                cursor.remove();
+            else if ( key % 3 == 1 )
+                cursor.setValue( ( double ) ( -key ) );
+            ++visited;
+        }
+        assertFalse( cursor.advance() );
+        assertEquals( SIZE, visited );
+        assertEquals( SIZE - ( SIZE + 2 ) / 3, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 3 == 0 )
+                assertFalse( map.containsKey( i ) );
+            else
+                assertEquals( i % 3 == 1 ? ( double ) ( -i ) : ( double ) ( i ), map.get( i ) );
+        }
+
+        //remove everything, but close the cursor in the middle of a chain
+        final IDoubleDoubleCursor cursor2 = map.cursor();
+        int removed = 0;
+        while ( cursor2.advance() && removed < 10 )
+        {
+            cursor2.remove();
+            ++removed;
+        }
+        cursor2.close();
+        assertFalse( cursor2.advance() );
+        assertEquals( SIZE - ( SIZE + 2 ) / 3 - 10, map.size() );
+
+        final IDoubleDoubleCursor cursor3 = map.cursor();
+        while ( cursor3.advance() )
+            cursor3.remove();
+        assertEquals( 0, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+            assertFalse( map.containsKey( i ) );
+    }
+
+    /**
+     * Remove a third of entries, then keep only a half of the remaining ones
+     */
+    public void testRemoveIf()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testRemoveIfHelper( ff );
+    }
+
+    private void testRemoveIfHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( i, ( double ) ( i ) );
+
+        assertEquals( ( SIZE + 2 ) / 3, map.removeIf( new IDoubleDoublePredicate() {
+            @Override
+            public boolean test( final double key, final double value ) {
+                assertEquals( ( double ) ( ( int ) key ), value );
+                return key % 3 == 0;
+            }
+        } ) );
+        final long remaining = SIZE - ( SIZE + 2 ) / 3;
+        assertEquals( remaining, map.size() );
+
+        final long[] kept = new long[ 1 ];
+        final long removed = map.retainIf( new IDoubleDoublePredicate() {
+            @Override
+            public boolean test( final double key, final double value ) {
+                if ( key % 2 == 0 )
+                    ++kept[ 0 ];
+                return key % 2 == 0;
+            }
+        } );
+        assertEquals( remaining, removed + kept[ 0 ] );
+        assertEquals( kept[ 0 ], map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 3 != 0 && i % 2 == 0 )
+                assertEquals( ( double ) ( i ), map.get( i ) );
+            else
+                assertFalse( map.containsKey( i ) );
+        }
+    }
+
+    /**
+     * Grow all values (some chains are moved), then shrink them back in parallel (chains are updated in place)
+     */
+    public void testReplaceAll()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FILL_FACTORS )
+                testReplaceAllHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testReplaceAllHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        final int size = SIZE * 2; //large enough to be split between several tasks
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), ( double ) ( i ) );
+
+        map.replaceAll( new IDoubleDoubleFunction() {
+            @Override
+            public double apply( final double key, final double value ) {
+                return ( double ) ( value * 3 + key );
+            }
+        } );
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( double ) ( i * 4 ), map.get( ( double ) ( i ) ) );
+
+        map.parallelReplaceAll( new IDoubleDoubleFunction() {
+            @Override
+            public double apply( final double key, final double value ) {
+                return ( double ) ( value / 4 );
+            }
+        }, pool );
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( double ) ( i ), map.get( ( double ) ( i ) ) );
+    }
+
+    /**
+     * Updates of long chains may leave short chains with their length written in front of the data.
+     * Check that replacing values keeps such chains readable. Small maps are used, because their buckets
+     * can store only very short chain lengths.
+     */
+    public void testReplaceAllUpdatedChains()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( int size = 1; size <= 64; ++size )
+                testReplaceAllUpdatedChainsHelper( size, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testReplaceAllUpdatedChainsHelper( final int size, final ForkJoinPool pool )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, 16 );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), ( double ) ( i ) );
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), ( double ) ( i + 1 ) );
+
+        map.replaceAll( new IDoubleDoubleFunction() {
+            @Override
+            public double apply( final double key, final double value ) {
+                return ( double ) ( value * 2 );
+            }
+        } );
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( double ) ( ( i + 1 ) * 2 ), map.get( ( double ) ( i ) ) );
+
+        map.parallelReplaceAll( new IDoubleDoubleFunction() {
+            @Override
+            public double apply( final double key, final double value ) {
+                return ( double ) ( value / 2 );
+            }
+        }, pool );
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( double ) ( i + 1 ), map.get( ( double ) ( i ) ) );
+    }
+
+    /**
+     * Check sequential and parallel value aggregations
+     */
+    public void testAggregations()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FILL_FACTORS )
+                testAggregationsHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testAggregationsHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        final int size = SIZE * 2;
+        assertEquals( Double.POSITIVE_INFINITY, makeMap( 100, fillFactor ).minValue(), 0 );
+        assertEquals( Double.NEGATIVE_INFINITY, makeMap( 100, fillFactor ).maxValue(), 0 );
+
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        final double[] bounds = { ( double ) ( 100 ), ( double ) ( 500 ) };
+        final long[] expectedCounts = new long[ 3 ];
+        double expectedSum = 0;
+        for ( int i = 0; i < size; ++i )
+        {
+            final int v = i % 1000 - 10;
+            map.put( ( double ) ( i ), ( double ) ( v ) );
+            expectedSum += v;
+            ++expectedCounts[ v < 100 ? 0 : v < 500 ? 1 : 2 ];
+        }
+        final IDoubleDoublePredicate oddKeys = new IDoubleDoublePredicate() {
+            @Override
+            public boolean test( final double key, final double value ) {
+                return ( long ) key % 2 == 1;
+            }
+        };
+
+        assertEquals( expectedSum, map.sumValues(), 0 );
+        assertEquals( expectedSum, map.sumValues( pool ), 0 );
+        assertEquals( ( double ) ( -10 ), map.minValue(), 0 );
+        assertEquals( ( double ) ( -10 ), map.minValue( pool ), 0 );
+        assertEquals( ( double ) ( 989 ), map.maxValue(), 0 );
+        assertEquals( ( double ) ( 989 ), map.maxValue( pool ), 0 );
+        assertEquals( size / 2, map.countIf( oddKeys ) );
+        assertEquals( size / 2, map.countIf( oddKeys, pool ) );
+
+        final long[] counts = new long[ 3 ];
+        map.histogram( bounds, counts );
+        assertTrue( Arrays.equals( expectedCounts, counts ) );
+        final long[] parallelCounts = new long[ 3 ];
+        map.histogram( bounds, parallelCounts, pool );
+        assertTrue( Arrays.equals( expectedCounts, parallelCounts ) );
+        try {
+            map.histogram( bounds, new long[ 2 ] );
+            fail( "Histogram with a wrong number of counters must fail" );
+        } catch ( IllegalArgumentException ex ) {
+        }
+    }
+
+    /**
+     * Check sequential and parallel top-K queries
+     */
+    public void testTopK()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FILL_FACTORS )
+                testTopKHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testTopKHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        final int size = SIZE * 2;
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        //values are a permutation of [0, size)
+        for ( int i = 0; i < size; ++i )
+            map.put( ( double ) ( i ), ( double ) ( ( long ) i * 7919 % size ) );
+
+        final int k = 100;
+        final double[] keys = new double[ k ];
+        final double[] values = new double[ k ];
+        assertEquals( k, map.topK( k, keys, values ) );
+        checkTopK( map, keys, values, size );
+        final double[] parallelKeys = new double[ k ];
+        final double[] parallelValues = new double[ k ];
+        assertEquals( k, map.topK( k, parallelKeys, parallelValues, pool ) );
+        checkTopK( map, parallelKeys, parallelValues, size );
+        assertEquals( 0, map.topK( 0, keys, values ) );
+
+        final IDoubleDoubleMap small = makeMap( 100, fillFactor );
+        small.put( ( double ) ( 1 ), ( double ) ( 5 ) );
+        small.put( ( double ) ( 2 ), ( double ) ( 7 ) );
+        assertEquals( 2, small.topK( k, keys, values ) );
+        assertEquals( ( double ) ( 7 ), values[ 0 ], 0 );
+        assertEquals( ( double ) ( 5 ), values[ 1 ], 0 );
+        try {
+            map.topK( k, new double[ k - 1 ], values );
+            fail( "Output arrays shorter than k must be rejected" );
+        } catch ( IllegalArgumentException ex ) {
+        }
+    }
+
+    private static void checkTopK( final IDoubleDoubleMap map, final double[] keys, final double[] values, final int size )
+    {
+        for ( int i = 0; i < keys.length; ++i )
+        {
+            assertEquals( ( double ) ( size - 1 - i ), values[ i ], 0 );
+            assertEquals( values[ i ], map.get( keys[ i ] ), 0 );
+        }
+    }
+
+    /**
+     * Check that a frozen copy contains the same entries and does not depend on the original map
+     */
+    public void testFreeze()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testFreezeHelper( ff );
+    }
+
+    private void testFreezeHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = -SIZE / 2; i < SIZE / 2; i += 3 )
+            map.put( ( double ) ( i ), ( double ) ( i * 7 ) );
+        final FrozenDoubleDoubleMap frozen = map.freeze();
+        assertEquals( map.size(), frozen.size() );
+        for ( int i = -SIZE / 2; i < SIZE / 2; ++i )
+        {
+            if ( ( i + SIZE / 2 ) % 3 == 0 )
+            {
+                assertTrue( frozen.containsKey( ( double ) ( i ) ) );
+                assertEquals( ( double ) ( i * 7 ), frozen.get( ( double ) ( i ) ) );
+            }
+            else
+            {
+                assertFalse( frozen.containsKey( ( double ) ( i ) ) );
+                assertEquals( ( double ) ( -1 ), frozen.get( ( double ) ( i ), ( double ) ( -1 ) ) );
+            }
+        }
+
+        final long[] visited = new long[ 1 ];
+        frozen.forEach( new IDoubleDoubleProcedure() {
+            @Override
+            public void process( final double key, final double value ) {
+                assertEquals( ( double ) ( ( int ) key * 7 ), value );
+                ++visited[ 0 ];
+            }
+        });
+        assertEquals( frozen.size(), visited[ 0 ] );
+
+        //the frozen copy must not see the later updates
+        final long size = frozen.size();
+        map.clear();
+        map.put( ( double ) ( 2 ), ( double ) ( 2 ) );
+        assertEquals( size, frozen.size() );
+        assertEquals( ( double ) ( -SIZE / 2 * 7 ), frozen.get( ( double ) ( -SIZE / 2 ) ) );
+        assertFalse( frozen.containsKey( ( double ) ( 2 ) ) );
+    }
+
+    /**
+     * Check that the compaction releases the blocks left behind by removals and keeps all entries intact
+     */
+    public void testCompact()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testCompactHelper( ff );
+    }
+
+    private void testCompactHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( SIZE, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i ), ( double ) ( i ) );
+        for ( int i = 0; i < SIZE; ++i )
+            if ( i % 10 != 0 )
+                map.remove( ( double ) ( i ) );
+        assertEquals( 0, map.compact( 0 ) );
+        assertTrue( "ff = " + fillFactor, map.compact() > 0 );
+        map.compact( 1 );
+        checkCompacted( map, SIZE );
+
+        //automatic compaction under an update heavy load
+        map.setAutoCompaction( 0.5f );
+        for ( int j = 1; j < 10; ++j )
+            for ( int i = 0; i < SIZE; i += 10 )
+                map.put( ( double ) ( i ), ( double ) ( i + j ) );
+        for ( int i = 0; i < SIZE; i += 10 )
+            map.put( ( double ) ( i ), ( double ) ( i ) );
+        checkCompacted( map, SIZE );
+    }
+
+    private void checkCompacted( final IDoubleDoubleMap map, final int size )
+    {
+        assertEquals( size / 10, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 10 == 0 )
+                assertEquals( ( double ) ( i ), map.get( ( double ) ( i ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+        }
+    }
+
+    /**
+     * Check that the table shrinking (automatic and explicit) keeps all entries and the map is able to grow again
+     */
+    public void testShrink()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testShrinkHelper( ff );
+    }
+
+    private void testShrinkHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i ), ( double ) ( i ) );
+        for ( int i = 0; i < SIZE; ++i )
+            if ( i % 100 != 0 )
+                map.remove( ( double ) ( i ) );
+        checkShrunk( map, SIZE );
+        map.trimToSize();
+        checkShrunk( map, SIZE );
+
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i ), ( double ) ( i ) );
+        assertEquals( SIZE, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( ( double ) ( i ), map.get( ( double ) ( i ) ) );
+    }
+
+    private void checkShrunk( final IDoubleDoubleMap map, final int size )
+    {
+        assertEquals( size / 100, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 100 == 0 )
+                assertEquals( ( double ) ( i ), map.get( ( double ) ( i ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+        }
+    }
+
+    /**
+     * Check a map with power of 2 tables: growth from a tiny table, removals with shrinking and freezing.
+     * Keys have zero low bits, which must not affect the bucket distribution.
+     */
+    public void testPowerOfTwo()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testPowerOfTwoHelper( ff );
+    }
+
+    private void testPowerOfTwoHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = DoubleMapFactory.singleThreadedDoubleDoubleMap( 1, fillFactor, DefaultDoubleSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE,
+                                        SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND, IndexMode.POWER_OF_TWO );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i * 64 ), ( double ) ( i ) );
+        assertEquals( SIZE, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( ( double ) ( i ), map.get( ( double ) ( i * 64 ) ) );
+
+        final FrozenDoubleDoubleMap frozen = map.freeze();
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( ( double ) ( i ), frozen.get( ( double ) ( i * 64 ) ) );
+        assertFalse( frozen.containsKey( ( double ) ( 1 ) ) );
+
+        for ( int i = 1; i < SIZE; i += 2 )
+            map.remove( ( double ) ( i * 64 ) );
+        assertEquals( SIZE / 2, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( ( double ) ( i ), map.get( ( double ) ( i * 64 ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i * 64 ) ) );
+        }
+    }
+
+    /**
+     * Check all hash strategy presets in both index modes. Keys share their low bits.
+     */
+    public void testHashStrategies()
+    {
+        final IHashStrategy[] strategies = { FastHashStrategy.INSTANCE, Murmur3HashStrategy.INSTANCE,
+                                             SeededHashStrategy.randomSeed() };
+        for ( final IHashStrategy strategy : strategies )
+            for ( final IndexMode mode : IndexMode.values() )
+                for ( final float ff : FILL_FACTORS )
+                    testHashStrategyHelper( ff, mode, strategy );
+    }
+
+    private void testHashStrategyHelper( final float fillFactor, final IndexMode mode, final IHashStrategy strategy )
+    {
+        final IDoubleDoubleMap map = DoubleMapFactory.singleThreadedDoubleDoubleMap( 1, fillFactor, DefaultDoubleSerializer.INSTANCE, DefaultDoubleSerializer.INSTANCE,
+                                        SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND, mode, strategy );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i * 1024 ), ( double ) ( i ) );
+        assertEquals( SIZE, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( ( double ) ( i ), map.get( ( double ) ( i * 1024 ) ) );
+        assertFalse( map.containsKey( ( double ) ( 1 ) ) );
+
+        final FrozenDoubleDoubleMap frozen = map.freeze();
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( ( double ) ( i ), frozen.get( ( double ) ( i * 1024 ) ) );
+
+        for ( int i = 1; i < SIZE; i += 2 )
+            map.remove( ( double ) ( i * 1024 ) );
+        assertEquals( SIZE / 2, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( ( double ) ( i ), map.get( ( double ) ( i * 1024 ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i * 1024 ) ) );
+        }
+    }
+
+    /**
+     * Check the incremental rehashing: lookups, updates and removals must see all entries
+     * while the old table is being migrated.
+     */
+    public void testIncrementalRehash()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testIncrementalRehashHelper( ff );
+    }
+
+    private void testIncrementalRehashHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 1, fillFactor );
+        map.setIncrementalRehash( 1 );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertEquals( ( double ) 0, map.put( ( double ) ( i ), ( double ) ( i ) ) );
+            assertEquals( ( double ) ( i ), map.put( ( double ) ( i ), ( double ) ( i ) ) );
+            assertEquals( ( double ) ( i - i / 4 ), map.get( ( double ) ( i - i / 4 ) ) );
+            if ( i % 3 == 0 )
+                assertEquals( ( double ) ( i / 3 ), map.remove( ( double ) ( i / 3 ) ) );
+            assertEquals( i - i / 3, map.size() );
+        }
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i <= ( SIZE - 1 ) / 3 )
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+            else
+                assertEquals( ( double ) ( i ), map.get( ( double ) ( i ) ) );
+        }
+
+        final long[] cnt = new long[ 1 ];
+        map.forEach( new IDoubleDoubleProcedure() {
+            @Override
+            public void process( final double key, final double value ) {
+                cnt[ 0 ]++;
+            }
+        });
+        assertEquals( map.size(), cnt[ 0 ] );
+    }
+
+    /**
+     * Batch lookups must see all entries while the old table is being migrated
+     */
+    public void testGetAllIncrementalRehash()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testGetAllIncrementalRehashHelper( ff );
+    }
+
+    private void testGetAllIncrementalRehashHelper( final float fillFactor )
+    {
+        final IDoubleDoubleMap map = makeMap( 1, fillFactor );
+        map.setIncrementalRehash( 1 );
+        final double[] keys = new double[ 64 ];
+        final double[] out = new double[ keys.length ];
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            map.put( ( double ) ( i ), ( double ) ( i ) );
+            //keys up to i + 1 are looked up, i + 1 is not in the map yet
+            for ( int j = 0; j < keys.length; ++j )
+                keys[ j ] = ( double ) ( j * 37 % ( i + 2 ) );
+            map.getAll( keys, out );
+            for ( int j = 0; j < keys.length; ++j )
+                assertEquals( map.get( keys[ j ] ), out[ j ] );
+        }
+    }
+
+    /**
+     * Update callbacks may read the map. Such reads must not break the chain being updated.
+     */
+    public void testComputeReadingMap()
+    {
+        final int size = 64;
+        final IDoubleDoubleMap map = makeMap( 100, 16 );
+        for ( int i = 0; i < size; ++i )
+        {
+            map.put( ( double ) ( i ), ( double ) ( i ) );
+            map.put( ( double ) ( size + i ), ( double ) ( 1 ) );
+        }
+        for ( int i = 0; i < size; ++i )
+        {
+            final int idx = i;
+            map.compute( ( double ) ( i ), new IDoubleDoubleFunction() {
+                @Override
+                public double apply( final double key, final double value ) {
+                    return ( double ) ( value + map.get( ( double ) ( size + idx ) ) );
+                }
+            } );
+        }
+        for ( int i = 0; i < size; ++i )
+        {
+            final int idx = i;
+            map.compute( ( double ) ( 2 * size + i ), new IDoubleDoubleFunction() {
+                @Override
+                public double apply( final double key, final double value ) {
+                    return ( double ) ( map.get( ( double ) ( idx ) ) * 2 );
+                }
+            } );
+        }
+
+        assertEquals( 3 * size, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            assertEquals( ( double ) ( i + 1 ), map.get( ( double ) ( i ) ) );
+            assertEquals( ( double ) ( 1 ), map.get( ( double ) ( size + i ) ) );
+            assertEquals( ( double ) ( ( i + 1 ) * 2 ), map.get( ( double ) ( 2 * size + i ) ) );
+        }
+    }
 }
@@ -20,12 +20,25 @@
 package info.javaperformance.compressedmaps.normal.doubles;
 
 import info.javaperformance.compressedmaps.DoubleMapFactory;
+import info.javaperformance.functions.IDoubleObjectPredicate;
+import info.javaperformance.functions.IDoubleObjectProcedure;
+import info.javaperformance.hashing.FastHashStrategy;
+import info.javaperformance.hashing.IHashStrategy;
+import info.javaperformance.hashing.IndexMode;
+import info.javaperformance.hashing.Murmur3HashStrategy;
+import info.javaperformance.hashing.SeededHashStrategy;
+import info.javaperformance.malloc.SingleThreadedBlockAllocator;
+import info.javaperformance.serializers.DefaultDoubleSerializer;
 import info.javaperformance.serializers.GenericStringSerializer;
 import java.nio.charset.StandardCharsets;
 import junit.framework.TestCase;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class DoubleObjectChainedMapTest extends TestCase
@@ -237,4 +250,615 @@ public class DoubleObjectChainedMapTest extends TestCase
             assertEquals( String.valueOf( values[ i ] ), m.get( keys[ i ] ) );
     }
 
+    /**
+     * Visit all entries, each of them must be seen exactly once
+     */
+    public void testForEach()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testForEachHelper( ff );
+    }
+
+    private void testForEachHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( i, String.valueOf( i ) );
+
+        final Set<Double> seen = new HashSet<>( SIZE );
+        map.forEach( new IDoubleObjectProcedure<String>() {
+            @Override
+            public void process( final double key, final String value ) {
+                assertTrue( seen.add( key ) );
+                assertEquals( String.valueOf( ( int ) key ), value );
+            }
+        } );
+        assertEquals( SIZE, seen.size() );
+    }
+
+    public void testParallelForEach()
+    {
+        final ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( final float ff : FILL_FACTORS )
+                testParallelForEachHelper( ff, pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testParallelForEachHelper( final float fillFactor, final ForkJoinPool pool )
+    {
+        final int size = SIZE * 10; //large enough to be split between several tasks
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < size; ++i )
+            map.put( i, String.valueOf( i ) );
+
+        final Set<Double> seen = Collections.newSetFromMap( new ConcurrentHashMap<Double, Boolean>( size ) );
+        map.parallelForEach( new IDoubleObjectProcedure<String>() {
+            @Override
+            public void process( final double key, final String value ) {
+                assertTrue( seen.add( key ) );
+                assertEquals( String.valueOf( ( int ) key ), value );
+            }
+        }, pool );
+        assertEquals( size, seen.size() );
+    }
+
+    /**
+     * Keys mapped to NOT_PRESENT must be distinguishable from absent keys
+     */
+    public void testContainsKeyAndDefault()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testContainsKeyAndDefaultHelper( ff );
+    }
+
+    private void testContainsKeyAndDefaultHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; i += 2 )
+            map.put( i, i % 4 == 0 ? NOT_PRESENT : String.valueOf( i ) );
+
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 2 == 0 )
+            {
+                assertTrue( map.containsKey( i ) );
+                assertEquals( i % 4 == 0 ? NOT_PRESENT : String.valueOf( i ), map.get( i, String.valueOf( -1 ) ) );
+            }
+            else
+            {
+                assertFalse( map.containsKey( i ) );
+                assertEquals( String.valueOf( -1 ), map.get( i, String.valueOf( -1 ) ) );
+            }
+        }
+
+        for ( int i = 0; i < SIZE; i += 4 )
+            map.remove( i );
+        for ( int i = 0; i < SIZE; i += 2 )
+            assertEquals( i % 4 != 0, map.containsKey( i ) );
+    }
+
+    /**
+     * Batch update: existing keys are updated, repeated keys keep the last value, pairs outside of the range are ignored
+     */
+    public void testPutAll()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testPutAllHelper( ff );
+    }
+
+    private void testPutAllHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; i += 3 )
+            map.put( i, String.valueOf( -i ) );
+
+        final int evens = SIZE / 2, repeats = SIZE / 10;
+        final double[] keys = new double[ evens + repeats + 2 ];
+        final String[] values = new String[ keys.length ];
+        keys[ 0 ] = ( double ) ( -1 );
+        values[ 0 ] = String.valueOf( -1 );
+        for ( int i = 0; i < evens; ++i )
+        {
+            keys[ i + 1 ] = ( double ) ( 2 * i );
+            values[ i + 1 ] = i % 5 == 0 ? String.valueOf( -2 ) : String.valueOf( 2 * i + 1 );
+        }
+        for ( int i = 0; i < repeats; ++i )
+        {
+            keys[ evens + 1 + i ] = ( double ) ( 10 * i );
+            values[ evens + 1 + i ] = String.valueOf( 10 * i + 1 );
+        }
+        keys[ keys.length - 1 ] = ( double ) ( -1 );
+        values[ keys.length - 1 ] = String.valueOf( -1 );
+
+        map.putAll( keys, values, 1, keys.length - 1 );
+        map.putAll( keys, values, 1, 1 );
+
+        long size = 0;
+        for ( int i = -1; i < SIZE; ++i )
+        {
+            if ( i >= 0 && i % 2 == 0 )
+            {
+                assertEquals( String.valueOf( i + 1 ), map.get( i ) );
+                ++size;
+            }
+            else if ( i >= 0 && i % 3 == 0 )
+            {
+                assertEquals( String.valueOf( -i ), map.get( i ) );
+                ++size;
+            }
+            else
+                assertFalse( map.containsKey( i ) );
+        }
+        assertEquals( size, map.size() );
+    }
+
+    /**
+     * Batch lookup must return the same values as {@code get}, including repeated and absent keys
+     */
+    public void testGetAll()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testGetAllHelper( ff );
+    }
+
+    private void testGetAllHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; i += 2 )
+            map.put( i, String.valueOf( i ) );
+
+        final double[] keys = new double[ SIZE + SIZE / 10 ];
+        for ( int i = 0; i < SIZE; ++i )
+            keys[ i ] = ( double ) ( SIZE - 1 - i );
+        for ( int i = SIZE; i < keys.length; ++i )
+            keys[ i ] = ( double ) ( ( i - SIZE ) * 10 );
+        final String[] out = new String[ keys.length + 1 ];
+        out[ keys.length ] = String.valueOf( -1 );
+
+        map.getAll( keys, out );
+        for ( int i = 0; i < keys.length; ++i )
+            assertEquals( map.get( keys[ i ] ), out[ i ] );
+        assertEquals( String.valueOf( -1 ), out[ keys.length ] );
+        assertEquals( String.valueOf( 0 ), out[ SIZE ] );
+    }
+
+    /**
+     * A map built from arrays must keep the last value of every repeated key
+     */
+    public void testBuildFromArrays()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testBuildFromArraysHelper( ff );
+    }
+
+    private void testBuildFromArraysHelper( final float fillFactor )
+    {
+        final double[] keys = new double[ SIZE ];
+        final String[] values = new String[ SIZE ];
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            keys[ i ] = ( double ) ( i % ( SIZE / 2 ) * 3 );
+            values[ i ] = String.valueOf( i );
+        }
+        final IDoubleObjectMap<String> map = DoubleMapFactory.singleThreadedDoubleObjectMap( keys, values, fillFactor , new GenericStringSerializer( StandardCharsets.UTF_8 ) );
+        assertEquals( SIZE / 2, map.size() );
+        for ( int i = 0; i < SIZE / 2; ++i )
+        {
+            assertEquals( String.valueOf( i + SIZE / 2 ), map.get( i * 3 ) );
+            assertFalse( map.containsKey( i * 3 + 1 ) );
+        }
+
+        assertEquals( 0, DoubleMapFactory.singleThreadedDoubleObjectMap( new double[ 0 ], new String[ 0 ], fillFactor , new GenericStringSerializer( StandardCharsets.UTF_8 ) ).size() );
+    }
+
+    /**
+     * A cleared map must be empty and fully usable
+     */
+    public void testClear()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testClearHelper( ff );
+    }
+
+    private void testClearHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int round = 0; round < 3; ++round )
+        {
+            for ( int i = 0; i < SIZE; ++i )
+                map.put( i, String.valueOf( i + round ) );
+            assertEquals( SIZE, map.size() );
+            for ( int i = 0; i < SIZE; ++i )
+                assertEquals( String.valueOf( i + round ), map.get( i ) );
+
+            map.clear();
+            assertEquals( 0, map.size() );
+            for ( int i = 0; i < SIZE; ++i )
+                assertFalse( map.containsKey( i ) );
+        }
+    }
+
+    /**
+     * Remove and update entries via a cursor, including an early cursor close
+     */
+    public void testCursor()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testCursorHelper( ff );
+    }
+
+    private void testCursorHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( i, String.valueOf( i ) );
+
+        int visited = 0;
+        final IDoubleObjectCursor<String> cursor = map.cursor();
+        while ( cursor.advance() )
+        {
+            final int key = ( int ) cursor.key();
+            assertEquals( String.valueOf( key ), cursor.value() );
+            if ( key % 3 == 0 )
+                cursor.remove();
+            else if ( key % 3 == 1 )
+                cursor.setValue( String.valueOf( -key ) );
+            ++visited;
+        }
+        assertFalse( cursor.advance() );
+        assertEquals( SIZE, visited );
+        assertEquals( SIZE - ( SIZE + 2 ) / 3, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 3 == 0 )
+                assertFalse( map.containsKey( i ) );
+            else
+                assertEquals( i % 3 == 1 ? String.valueOf( -i ) : String.valueOf( i ), map.get( i ) );
+        }
+
+        //remove everything, but close the cursor in the middle of a chain
+        final IDoubleObjectCursor<String> cursor2 = map.cursor();
+        int removed = 0;
+        while ( cursor2.advance() && removed < 10 )
+        {
+            cursor2.remove();
+            ++removed;
+        }
+        cursor2.close();
+        assertFalse( cursor2.advance() );
+        assertEquals( SIZE - ( SIZE + 2 ) / 3 - 10, map.size() );
+
+        final IDoubleObjectCursor<String> cursor3 = map.cursor();
+        while ( cursor3.advance() )
+            cursor3.remove();
+        assertEquals( 0, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+            assertFalse( map.containsKey( i ) );
+    }
+
+    /**
+     * Remove a third of entries, then keep only a half of the remaining ones
+     */
+    public void testRemoveIf()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testRemoveIfHelper( ff );
+    }
+
+    private void testRemoveIfHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( i, String.valueOf( i ) );
+
+        assertEquals( ( SIZE + 2 ) / 3, map.removeIf( new IDoubleObjectPredicate<String>() {
+            @Override
+            public boolean test( final double key, final String value ) {
+                assertEquals( String.valueOf( ( int ) key ), value );
+                return key % 3 == 0;
+            }
+        } ) );
+        final long remaining = SIZE - ( SIZE + 2 ) / 3;
+        assertEquals( remaining, map.size() );
+
+        final long[] kept = new long[ 1 ];
+        final long removed = map.retainIf( new IDoubleObjectPredicate<String>() {
+            @Override
+            public boolean test( final double key, final String value ) {
+                if ( key % 2 == 0 )
+                    ++kept[ 0 ];
+                return key % 2 == 0;
+            }
+        } );
+        assertEquals( remaining, removed + kept[ 0 ] );
+        assertEquals( kept[ 0 ], map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 3 != 0 && i % 2 == 0 )
+                assertEquals( String.valueOf( i ), map.get( i ) );
+            else
+                assertFalse( map.containsKey( i ) );
+        }
+    }
+
+    /**
+     * Check that a frozen copy contains the same entries and does not depend on the original map
+     */
+    public void testFreeze()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testFreezeHelper( ff );
+    }
+
+    private void testFreezeHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = -SIZE / 2; i < SIZE / 2; i += 3 )
+            map.put( ( double ) ( i ), String.valueOf( i * 7 ) );
+        final FrozenDoubleObjectMap<String> frozen = map.freeze();
+        assertEquals( map.size(), frozen.size() );
+        for ( int i = -SIZE / 2; i < SIZE / 2; ++i )
+        {
+            if ( ( i + SIZE / 2 ) % 3 == 0 )
+            {
+                assertTrue( frozen.containsKey( ( double ) ( i ) ) );
+                assertEquals( String.valueOf( i * 7 ), frozen.get( ( double ) ( i ) ) );
+            }
+            else
+            {
+                assertFalse( frozen.containsKey( ( double ) ( i ) ) );
+                assertEquals( String.valueOf( -1 ), frozen.get( ( double ) ( i ), String.valueOf( -1 ) ) );
+            }
+        }
+
+        final long[] visited = new long[ 1 ];
+        frozen.forEach( new IDoubleObjectProcedure<String>() {
+            @Override
+            public void process( final double key, final String value ) {
+                assertEquals( String.valueOf( ( int ) key * 7 ), value );
+                ++visited[ 0 ];
+            }
+        });
+        assertEquals( frozen.size(), visited[ 0 ] );
+
+        //the frozen copy must not see the later updates
+        final long size = frozen.size();
+        map.clear();
+        map.put( ( double ) ( 2 ), String.valueOf( 2 ) );
+        assertEquals( size, frozen.size() );
+        assertEquals( String.valueOf( -SIZE / 2 * 7 ), frozen.get( ( double ) ( -SIZE / 2 ) ) );
+        assertFalse( frozen.containsKey( ( double ) ( 2 ) ) );
+    }
+
+    /**
+     * Check that the compaction releases the blocks left behind by removals and keeps all entries intact
+     */
+    public void testCompact()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testCompactHelper( ff );
+    }
+
+    private void testCompactHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( SIZE, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i ), String.valueOf( i ) );
+        for ( int i = 0; i < SIZE; ++i )
+            if ( i % 10 != 0 )
+                map.remove( ( double ) ( i ) );
+        assertEquals( 0, map.compact( 0 ) );
+        assertTrue( "ff = " + fillFactor, map.compact() > 0 );
+        map.compact( 1 );
+        checkCompacted( map, SIZE );
+
+        //automatic compaction under an update heavy load
+        map.setAutoCompaction( 0.5f );
+        for ( int j = 1; j < 10; ++j )
+            for ( int i = 0; i < SIZE; i += 10 )
+                map.put( ( double ) ( i ), String.valueOf( i + j ) );
+        for ( int i = 0; i < SIZE; i += 10 )
+            map.put( ( double ) ( i ), String.valueOf( i ) );
+        checkCompacted( map, SIZE );
+    }
+
+    private void checkCompacted( final IDoubleObjectMap<String> map, final int size )
+    {
+        assertEquals( size / 10, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 10 == 0 )
+                assertEquals( String.valueOf( i ), map.get( ( double ) ( i ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+        }
+    }
+
+    /**
+     * Check that the table shrinking (automatic and explicit) keeps all entries and the map is able to grow again
+     */
+    public void testShrink()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testShrinkHelper( ff );
+    }
+
+    private void testShrinkHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i ), String.valueOf( i ) );
+        for ( int i = 0; i < SIZE; ++i )
+            if ( i % 100 != 0 )
+                map.remove( ( double ) ( i ) );
+        checkShrunk( map, SIZE );
+        map.trimToSize();
+        checkShrunk( map, SIZE );
+
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i ), String.valueOf( i ) );
+        assertEquals( SIZE, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( String.valueOf( i ), map.get( ( double ) ( i ) ) );
+    }
+
+    private void checkShrunk( final IDoubleObjectMap<String> map, final int size )
+    {
+        assertEquals( size / 100, map.size() );
+        for ( int i = 0; i < size; ++i )
+        {
+            if ( i % 100 == 0 )
+                assertEquals( String.valueOf( i ), map.get( ( double ) ( i ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+        }
+    }
+
+    /**
+     * Check a map with power of 2 tables: growth from a tiny table, removals with shrinking and freezing.
+     * Keys have zero low bits, which must not affect the bucket distribution.
+     */
+    public void testPowerOfTwo()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testPowerOfTwoHelper( ff );
+    }
+
+    private void testPowerOfTwoHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = DoubleMapFactory.singleThreadedDoubleObjectMap( 1, fillFactor, DefaultDoubleSerializer.INSTANCE, new GenericStringSerializer( StandardCharsets.UTF_8 ),
+                                        SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND, IndexMode.POWER_OF_TWO );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i * 64 ), String.valueOf( i ) );
+        assertEquals( SIZE, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( String.valueOf( i ), map.get( ( double ) ( i * 64 ) ) );
+
+        final FrozenDoubleObjectMap<String> frozen = map.freeze();
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( String.valueOf( i ), frozen.get( ( double ) ( i * 64 ) ) );
+        assertFalse( frozen.containsKey( ( double ) ( 1 ) ) );
+
+        for ( int i = 1; i < SIZE; i += 2 )
+            map.remove( ( double ) ( i * 64 ) );
+        assertEquals( SIZE / 2, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( String.valueOf( i ), map.get( ( double ) ( i * 64 ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i * 64 ) ) );
+        }
+    }
+
+    /**
+     * Check all hash strategy presets in both index modes. Keys share their low bits.
+     */
+    public void testHashStrategies()
+    {
+        final IHashStrategy[] strategies = { FastHashStrategy.INSTANCE, Murmur3HashStrategy.INSTANCE,
+                                             SeededHashStrategy.randomSeed() };
+        for ( final IHashStrategy strategy : strategies )
+            for ( final IndexMode mode : IndexMode.values() )
+                for ( final float ff : FILL_FACTORS )
+                    testHashStrategyHelper( ff, mode, strategy );
+    }
+
+    private void testHashStrategyHelper( final float fillFactor, final IndexMode mode, final IHashStrategy strategy )
+    {
+        final IDoubleObjectMap<String> map = DoubleMapFactory.<String>singleThreadedDoubleObjectMap( 1, fillFactor, DefaultDoubleSerializer.INSTANCE, new GenericStringSerializer( StandardCharsets.UTF_8 ),
+                                        SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND, mode, strategy );
+        for ( int i = 0; i < SIZE; ++i )
+            map.put( ( double ) ( i * 1024 ), String.valueOf( i ) );
+        assertEquals( SIZE, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( String.valueOf( i ), map.get( ( double ) ( i * 1024 ) ) );
+        assertFalse( map.containsKey( ( double ) ( 1 ) ) );
+
+        final FrozenDoubleObjectMap<String> frozen = map.freeze();
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( String.valueOf( i ), frozen.get( ( double ) ( i * 1024 ) ) );
+
+        for ( int i = 1; i < SIZE; i += 2 )
+            map.remove( ( double ) ( i * 1024 ) );
+        assertEquals( SIZE / 2, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i % 2 == 0 )
+                assertEquals( String.valueOf( i ), map.get( ( double ) ( i * 1024 ) ) );
+            else
+                assertFalse( map.containsKey( ( double ) ( i * 1024 ) ) );
+        }
+    }
+
+    /**
+     * Check the incremental rehashing: lookups, updates and removals must see all entries
+     * while the old table is being migrated.
+     */
+    public void testIncrementalRehash()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testIncrementalRehashHelper( ff );
+    }
+
+    private void testIncrementalRehashHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 1, fillFactor );
+        map.setIncrementalRehash( 1 );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertEquals( null, map.put( ( double ) ( i ), String.valueOf( i ) ) );
+            assertEquals( String.valueOf( i ), map.put( ( double ) ( i ), String.valueOf( i ) ) );
+            assertEquals( String.valueOf( i - i / 4 ), map.get( ( double ) ( i - i / 4 ) ) );
+            if ( i % 3 == 0 )
+                assertEquals( String.valueOf( i / 3 ), map.remove( ( double ) ( i / 3 ) ) );
+            assertEquals( i - i / 3, map.size() );
+        }
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            if ( i <= ( SIZE - 1 ) / 3 )
+                assertFalse( map.containsKey( ( double ) ( i ) ) );
+            else
+                assertEquals( String.valueOf( i ), map.get( ( double ) ( i ) ) );
+        }
+
+        final long[] cnt = new long[ 1 ];
+        map.forEach( new IDoubleObjectProcedure<String>() {
+            @Override
+            public void process( final double key, final String value ) {
+                cnt[ 0 ]++;
+            }
+        });
+        assertEquals( map.size(), cnt[ 0 ] );
+    }
+
+    /**
+     * Batch lookups must see all entries while the old table is being migrated
+     */
+    public void testGetAllIncrementalRehash()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testGetAllIncrementalRehashHelper( ff );
+    }
+
+    private void testGetAllIncrementalRehashHelper( final float fillFactor )
+    {
+        final IDoubleObjectMap<String> map = makeMap( 1, fillFactor );
+        map.setIncrementalRehash( 1 );
+        final double[] keys = new double[ 64 ];
+        final String[] out = new String[ keys.length ];
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            map.put( ( double ) ( i ), String.valueOf( i ) );
+            //keys up to i + 1 are looked up, i + 1 is not in the map yet
+            for ( int j = 0; j < keys.length; ++j )
+                keys[ j ] = ( double ) ( j * 37 % ( i + 2 ) );
+            map.getAll( keys, out );
+            for ( int j = 0; j < keys.length; ++j )
+                assertEquals( map.get( keys[ j ] ), out[ j ] );
+        }
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.ints;
+
+import info.javaperformance.compressedmaps.IntMapFactory;
+import info.javaperformance.functions.IIntProcedure;
+import junit.framework.TestCase;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class IntChainedSetTest extends TestCase
+{
+    //fill factors to be tested
+    private final static float[] FILL_FACTORS = { 0.25f, 0.5f, 0.75f, 0.9f, 0.99f, 1f, 2f, 3f, 5f, 16f };
+    private final int SIZE = 100000;
+
+    protected IIntSet makeSet( final long size, final float fillFactor )
+    {
+        return IntMapFactory.singleThreadedIntSet( size, fillFactor );
+    }
+
+    /**
+     * Add keys 0-SIZE to the set, add them again, then remove them
+     */
+    public void testAddRemove()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testAddRemoveHelper( ff );
+    }
+
+    private void testAddRemoveHelper( final float fillFactor )
+    {
+        final IIntSet set = makeSet( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertTrue( set.add( i ) );
+            assertEquals( i + 1, set.size() );
+            assertTrue( set.contains( i ) );
+        }
+        for ( int i = 0; i < SIZE; ++i )
+            assertFalse( set.add( i ) );
+        assertEquals( SIZE, set.size() );
+        for ( int i = -SIZE; i < 0; ++i )
+            assertFalse( set.contains( i ) );
+
+        for ( int i = 0; i < SIZE; i += 2 )
+            assertTrue( set.remove( i ) );
+        assertEquals( SIZE / 2, set.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertEquals( i % 2 == 1, set.contains( i ) );
+            assertEquals( i % 2 == 1, set.remove( i ) );
+        }
+        assertEquals( 0, set.size() );
+    }
+
+    /**
+     * Random keys (including negative ones) are checked against {@code HashSet}
+     */
+    public void testRandom()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testRandomHelper( ff );
+    }
+
+    private void testRandomHelper( final float fillFactor )
+    {
+        final Random r = new Random( 42 );
+        final Set<Integer> control = new HashSet<>();
+        final IIntSet set = makeSet( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            final int key = r.nextInt();
+            assertEquals( control.add( key ), set.add( key ) );
+            if ( i % 3 == 0 )
+            {
+                final int toRemove = r.nextInt();
+                assertEquals( control.remove( toRemove ), set.remove( toRemove ) );
+            }
+        }
+        assertEquals( control.size(), set.size() );
+        for ( final Integer key : control )
+            assertTrue( set.contains( key ) );
+
+        final Set<Integer> visited = new HashSet<>();
+        set.forEach( new IIntProcedure() {
+            @Override
+            public void process( final int key ) {
+                assertTrue( visited.add( key ) );
+            }
+        });
+        assertEquals( control, visited );
+
+        set.clear();
+        assertEquals( 0, set.size() );
+        for ( final Integer key : control )
+            assertFalse( set.contains( key ) );
+    }
+}
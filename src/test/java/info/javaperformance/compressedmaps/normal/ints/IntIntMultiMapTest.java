@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.ints;
+
+import info.javaperformance.compressedmaps.IntMapFactory;
+import info.javaperformance.functions.IIntProcedure;
+import junit.framework.TestCase;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class IntIntMultiMapTest extends TestCase
+{
+    //fill factors to be tested
+    private final static float[] FILL_FACTORS = { 0.25f, 0.5f, 0.75f, 0.9f, 0.99f, 1f, 2f, 3f, 5f, 16f };
+    private final int SIZE = 100000;
+
+    protected IIntIntMultiMap makeMap( final long size, final float fillFactor )
+    {
+        return IntMapFactory.singleThreadedIntIntMultiMap( size, fillFactor );
+    }
+
+    /**
+     * Append increasing values to a few keys, so that the lists are extended and relocated
+     */
+    public void testAppend()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testAppendHelper( ff );
+    }
+
+    private void testAppendHelper( final float fillFactor )
+    {
+        final IIntIntMultiMap map = makeMap( 10, fillFactor );
+        final int keys = 10;
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertTrue( map.add( i % keys, i ) );
+            assertFalse( map.add( i % keys, i ) );
+        }
+        assertEquals( SIZE, map.size() );
+        assertEquals( keys, map.keyCount() );
+        for ( int k = 0; k < keys; ++k )
+        {
+            assertEquals( SIZE / keys, map.valueCount( k ) );
+            final List<Integer> values = getValues( map, k );
+            for ( int i = 0; i < values.size(); ++i )
+                assertEquals( k + i * keys, ( int ) values.get( i ) );
+            assertTrue( map.contains( k, k + keys ) );
+            assertFalse( map.contains( k, k + 1 ) );
+        }
+    }
+
+    /**
+     * Random keys and values (including negative ones) are checked against {@code TreeSet}s
+     */
+    public void testRandom()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testRandomHelper( ff );
+    }
+
+    private void testRandomHelper( final float fillFactor )
+    {
+        final Random r = new Random( 42 );
+        final Map<Integer, TreeSet<Integer>> control = new HashMap<>();
+        final IIntIntMultiMap map = makeMap( 100, fillFactor );
+        int pairs = 0;
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            final int key = r.nextInt( 5000 ) - 2500;
+            final int value = r.nextInt();
+            TreeSet<Integer> values = control.get( key );
+            if ( values == null )
+                control.put( key, values = new TreeSet<>() );
+            final boolean added = values.add( value );
+            assertEquals( added, map.add( key, value ) );
+            if ( added )
+                ++pairs;
+            if ( i % 1000 == 0 )
+            {
+                final int toRemove = r.nextInt( 5000 ) - 2500;
+                final TreeSet<Integer> removed = control.remove( toRemove );
+                assertEquals( removed == null ? 0 : removed.size(), map.remove( toRemove ) );
+                if ( removed != null )
+                    pairs -= removed.size();
+            }
+        }
+        assertEquals( pairs, map.size() );
+        assertEquals( control.size(), map.keyCount() );
+        for ( final Map.Entry<Integer, TreeSet<Integer>> e : control.entrySet() )
+        {
+            assertTrue( map.containsKey( e.getKey() ) );
+            assertEquals( new ArrayList<>( e.getValue() ), getValues( map, e.getKey() ) );
+            for ( final int v : e.getValue() )
+                assertTrue( map.contains( e.getKey(), v ) );
+            assertFalse( map.contains( e.getKey(), e.getValue().first() - 1 ) );
+        }
+
+        map.clear();
+        assertEquals( 0, map.size() );
+        assertEquals( 0, map.keyCount() );
+        assertFalse( map.containsKey( 1 ) );
+        assertEquals( 0, map.valueCount( 1 ) );
+    }
+
+    private static List<Integer> getValues( final IIntIntMultiMap map, final int key )
+    {
+        final List<Integer> res = new ArrayList<>();
+        map.forEachValue( key, new IIntProcedure() {
+            @Override
+            public void process( final int value ) {
+                res.add( value );
+            }
+        });
+        return res;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.compressedmaps.normal.objects;
+
+import info.javaperformance.compressedmaps.ObjectMapFactory;
+import info.javaperformance.functions.IObjectIntProcedure;
+import info.javaperformance.hashing.ByteArrayHashStrategy;
+import info.javaperformance.hashing.IObjectHashStrategy;
+import info.javaperformance.serializers.ByteArraySerializer;
+import info.javaperformance.serializers.DefaultIntSerializer;
+import info.javaperformance.serializers.GenericStringSerializer;
+import info.javaperformance.malloc.SingleThreadedBlockAllocator;
+import junit.framework.TestCase;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ObjectIntChainedMapTest extends TestCase
+{
+    //fill factors to be tested
+    private final static float[] FILL_FACTORS = { 0.25f, 0.5f, 0.75f, 0.9f, 0.99f, 1f, 2f, 3f, 5f, 16f };
+    private final int SIZE = 100000;
+    private static final int NOT_PRESENT = 0;
+
+    protected IObjectIntMap<String> makeMap( final long size, final float fillFactor )
+    {
+        return ObjectMapFactory.singleThreadedObjectIntMap( size, fillFactor, new GenericStringSerializer( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Put, update and remove string keys
+     */
+    public void testPutRemove()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testPutRemoveHelper( ff );
+    }
+
+    private void testPutRemoveHelper( final float fillFactor )
+    {
+        final IObjectIntMap<String> map = makeMap( 100, fillFactor );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertEquals( NOT_PRESENT, map.put( "key" + i, ( int ) ( i ) ) );
+            assertEquals( i + 1, map.size() );
+            assertEquals( ( int ) ( i ), map.get( "key" + i ) );
+        }
+        for ( int i = 0; i < SIZE; ++i )
+            assertEquals( ( int ) ( i ), map.put( "key" + i, ( int ) ( i + 1 ) ) );
+        assertEquals( SIZE, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertEquals( ( int ) ( i + 1 ), map.get( "key" + i ) );
+            assertTrue( map.containsKey( "key" + i ) );
+            assertFalse( map.containsKey( "absent" + i ) );
+            assertEquals( ( int ) ( -1 ), map.get( "absent" + i, ( int ) ( -1 ) ) );
+        }
+
+        for ( int i = 0; i < SIZE; i += 2 )
+            assertEquals( ( int ) ( i + 1 ), map.remove( "key" + i ) );
+        assertEquals( SIZE / 2, map.size() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertEquals( i % 2 == 1, map.containsKey( "key" + i ) );
+            assertEquals( i % 2 == 1 ? ( int ) ( i + 1 ) : NOT_PRESENT, map.remove( "key" + i ) );
+        }
+        assertEquals( 0, map.size() );
+    }
+
+    /**
+     * All keys have the same hash code, so all of them are stored in one chain and compared by equality
+     */
+    public void testHashCollisions()
+    {
+        final IObjectHashStrategy<String> strategy = new IObjectHashStrategy<String>() {
+            @Override
+            public int hashCode( final String key ) {
+                return 42;
+            }
+
+            @Override
+            public boolean equals( final String a, final String b ) {
+                return a.equals( b );
+            }
+        };
+        final IObjectIntMap<String> map = ObjectMapFactory.singleThreadedObjectIntMap( 100, 1,
+                new GenericStringSerializer( StandardCharsets.UTF_8 ), strategy, DefaultIntSerializer.INSTANCE,
+                SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+        final int size = 1000;
+        for ( int i = 0; i < size; ++i )
+            assertEquals( NOT_PRESENT, map.put( "key" + i, ( int ) ( i ) ) );
+        assertEquals( size, map.size() );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( ( int ) ( i ), map.get( "key" + i ) );
+        for ( int i = 0; i < size; i += 3 )
+            assertEquals( ( int ) ( i ), map.remove( "key" + i ) );
+        for ( int i = 0; i < size; ++i )
+            assertEquals( i % 3 == 0 ? NOT_PRESENT : ( int ) ( i ), map.get( "key" + i ) );
+    }
+
+    /**
+     * Random {@code byte[]} keys are checked against {@code HashMap}
+     */
+    public void testByteArrayKeys()
+    {
+        for ( final float ff : FILL_FACTORS )
+            testByteArrayKeysHelper( ff );
+    }
+
+    private void testByteArrayKeysHelper( final float fillFactor )
+    {
+        final Random r = new Random( 42 );
+        final IObjectIntMap<byte[]> map = ObjectMapFactory.singleThreadedObjectIntMap( 100, fillFactor,
+                ByteArraySerializer.INSTANCE, ByteArrayHashStrategy.INSTANCE, DefaultIntSerializer.INSTANCE,
+                SingleThreadedBlockAllocator.DEFAULT_RECYCLE_BOUND );
+        final Map<String, Integer> control = new HashMap<>();
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            final byte[] key = new byte[ r.nextInt( 8 ) ];
+            r.nextBytes( key );
+            final int value = ( int ) ( r.nextInt() );
+            final Integer prev = control.put( new String( key, StandardCharsets.ISO_8859_1 ), value );
+            assertEquals( prev == null ? NOT_PRESENT : prev, map.put( key, value ) );
+        }
+        assertEquals( control.size(), map.size() );
+
+        final Map<String, Integer> visited = new HashMap<>();
+        map.forEach( new IObjectIntProcedure<byte[]>() {
+            @Override
+            public void process( final byte[] key, final int value ) {
+                assertNull( visited.put( new String( key, StandardCharsets.ISO_8859_1 ), value ) );
+            }
+        });
+        assertEquals( control, visited );
+
+        map.clear();
+        assertEquals( 0, map.size() );
+        assertFalse( map.containsKey( new byte[ 0 ] ) );
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * (C) Copyright 2015 Mikhail Vorontsov ( http://java-performance.info/ ) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *      Mikhail Vorontsov
+ */
+
+package info.javaperformance.serializers;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class ByteArraySerializerTest extends TestCase {
+    public void testReadWriteSkip()
+    {
+        final ByteArraySerializer s = ByteArraySerializer.INSTANCE;
+        final ByteArray bar = new ByteArray(  ).reset( new byte[ 1000 ] );
+        final byte[] data = { 1, 2, 3, -128, 127 };
+        bar.position( 0 );
+        s.write( data, bar );
+        s.write( null, bar );
+        s.write( new byte[ 0 ], bar );
+        s.write( data, bar );
+        assertTrue( bar.position() <= 3 * s.getMaxLength( data ) );
+
+        bar.position( 0 );
+        assertTrue( Arrays.equals( data, s.read( bar ) ) );
+        assertNull( s.read( bar ) );
+        assertEquals( 0, s.read( bar ).length );
+        assertTrue( Arrays.equals( data, s.read( bar ) ) );
+
+        bar.position( 0 );
+        s.skip( bar );
+        s.skip( bar );
+        s.skip( bar );
+        assertTrue( Arrays.equals( data, s.read( bar ) ) );
+    }
+}